@@ -44,11 +44,16 @@ import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGeneId;
 
 import java.util.EnumMap;
+import java.util.Map;
 
 public final class CloneAccumulator {
     final EnumMap<GeneType, TObjectFloatHashMap<VDJCGeneId>> geneScores = new EnumMap<>(GeneType.class);
     private ClonalSequence sequence;
+    private final QualityAggregationType qualityAggregationType;
     private final QualityAggregator aggregator;
+    // Sums of qualities of merged parts weighted by their core counts (only for Average aggregation, see merge(...))
+    private long[] mergedQualitySums;
+    private long mergedCoreCount = 0;
     private long coreCount = 0, mappedCount = 0, initialCoreCount = -1;
     private volatile int cloneIndex = -1;
     final Range[] nRegions;
@@ -56,6 +61,7 @@ public final class CloneAccumulator {
     public CloneAccumulator(ClonalSequence sequence, Range[] nRegions, QualityAggregationType qualityAggregationType) {
         this.sequence = sequence;
         this.nRegions = nRegions;
+        this.qualityAggregationType = qualityAggregationType;
         this.aggregator = qualityAggregationType.create(sequence.getConcatenated().size());
         //this.quality = sequence.getConcatenated().getQuality().asArray();
     }
@@ -65,7 +71,7 @@ public final class CloneAccumulator {
     }
 
     public void rebuildClonalSequence() {
-        SequenceQuality newQuality = aggregator.getQuality();
+        SequenceQuality newQuality = getAggregatedQuality();
         final NSequenceWithQuality[] updated = new NSequenceWithQuality[sequence.size()];
         int pointer = 0;
         for (int i = 0; i < updated.length; i++) {
@@ -159,6 +165,58 @@ public final class CloneAccumulator {
         }
     }
 
+    /**
+     * Adds data accumulated for the same clonal sequence from another part of alignments (see {@link
+     * CloneAccumulatorsIO})
+     *
+     * @param quality    aggregated quality of the clonal sequence
+     * @param geneScores sums of gene scores
+     */
+    synchronized void merge(SequenceQuality quality, EnumMap<GeneType, TObjectFloatHashMap<VDJCGeneId>> geneScores,
+                            long coreCount, long mappedCount) {
+        for (Map.Entry<GeneType, TObjectFloatHashMap<VDJCGeneId>> entry : geneScores.entrySet()) {
+            TObjectFloatHashMap<VDJCGeneId> scores = this.geneScores.get(entry.getKey());
+            if (scores == null)
+                this.geneScores.put(entry.getKey(), scores = new TObjectFloatHashMap<>());
+            TObjectFloatIterator<VDJCGeneId> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                iterator.advance();
+                scores.adjustOrPutValue(iterator.key(), iterator.value(), iterator.value());
+            }
+        }
+        if (coreCount > 0) {
+            if (qualityAggregationType == QualityAggregationType.Average) {
+                // Average quality is weighted by the number of core reads, so that weights of parts are the same as
+                // if they were accumulated together
+                if (mergedQualitySums == null)
+                    mergedQualitySums = new long[quality.size()];
+                for (int i = 0; i < mergedQualitySums.length; i++)
+                    mergedQualitySums[i] += coreCount * quality.value(i);
+                mergedCoreCount += coreCount;
+            } else
+                // Max, Min and MiniMax don't depend on how many times the same quality is aggregated
+                aggregator.aggregate(quality);
+        }
+        this.coreCount += coreCount;
+        this.mappedCount += mappedCount;
+    }
+
+    /**
+     * Returns quality aggregated from all core reads
+     */
+    SequenceQuality getAggregatedQuality() {
+        if (mergedCoreCount == 0)
+            return aggregator.getQuality();
+        // Combining average of merged parts with average of reads accumulated directly
+        long directCount = coreCount - mergedCoreCount;
+        SequenceQuality direct = directCount == 0 ? null : aggregator.getQuality();
+        byte[] result = new byte[mergedQualitySums.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (byte) Math.round(
+                    (mergedQualitySums[i] + (direct == null ? 0 : directCount * direct.value(i))) / (double) coreCount);
+        return new SequenceQuality(result);
+    }
+
     public void mergeCounts(CloneAccumulator acc) {
         coreCount += acc.coreCount;
         mappedCount += acc.mappedCount;
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.assembler;
+
+import com.milaboratory.mixcr.basictypes.IOUtil;
+import com.milaboratory.mixcr.util.MiXCRVersionInfo;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibraryRegistry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IO for mergeable intermediate results of clone assembly (.clna files).
+ *
+ * File contains the state of all clone accumulators (clonal sequence, V/J/C signature, counts, sums of gene scores
+ * and aggregated quality) of a {@link CloneAssembler} after initial assembly and mapping of low quality reads, but
+ * before pre-clustering. Such files produced for several parts of the same alignments can be combined by {@link
+ * #merge(List, CloneAssemblerListener)}, then pre-clustering, clustering and building of clones are performed once
+ * for the whole data set.
+ */
+public final class CloneAccumulatorsIO {
+    static final String MAGIC_V1 = "MiXCR.CLNA.V01";
+    static final String MAGIC = MAGIC_V1;
+    static final int MAGIC_LENGTH = 14;
+    static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+    private CloneAccumulatorsIO() {
+    }
+
+    /**
+     * Writes accumulators of the assembler.
+     *
+     * @param assembler    assembler after initial assembly and mapping (see {@link
+     *                     CloneAssemblerRunner#runInitialAssemblyOnly()})
+     * @param readCounters named read-level counters to be summed up during merge (e.g. report values)
+     * @param binQualities round aggregated qualities to Illumina-like bins (lossy)
+     */
+    public static void write(CloneAssembler assembler, Map<String, Long> readCounters, OutputStream outputStream,
+                             boolean binQualities) {
+        PrimitivO output = new PrimitivO(outputStream);
+
+        // Writing magic bytes
+        output.write(MAGIC_BYTES);
+
+        // Writing version information
+        output.writeUTF(
+                MiXCRVersionInfo.get().getVersionString(
+                        MiXCRVersionInfo.OutputType.ToFile));
+
+        output.writeObject(assembler.parameters);
+
+        List<VDJCGene> genes = assembler.getUsedGenes();
+        IOUtil.writeGeneReferences(output, genes, null);
+
+        // Counters are stored with their names, so that set of counters may change without changing file format
+        output.writeInt(readCounters.size());
+        for (Map.Entry<String, Long> counter : readCounters.entrySet()) {
+            output.writeUTF(counter.getKey());
+            output.writeLong(counter.getValue());
+        }
+
+        output.writeInt(assembler.getNumberOfAccumulators());
+        assembler.writeAccumulators(output, genes, binQualities);
+
+        output.close();
+    }
+
+    public static void write(CloneAssembler assembler, Map<String, Long> readCounters, File file,
+                             boolean fastCompression, boolean binQualities) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(IOUtil.createOS(file, fastCompression), 32768)) {
+            write(assembler, readCounters, os, binQualities);
+        }
+    }
+
+    /**
+     * Creates assembler containing accumulators from all inputs. Accumulators with the same clonal sequence and
+     * V/J/C signature are merged.
+     *
+     * @param readers  inputs, must be produced with the same assembler parameters
+     * @param listener listener to be set to the resulting assembler (may be null)
+     * @throws IllegalArgumentException if inputs were produced with different assembler parameters
+     */
+    public static CloneAssembler merge(List<CloneAccumulatorsReader> readers, CloneAssemblerListener listener) {
+        if (readers.isEmpty())
+            throw new IllegalArgumentException("No inputs.");
+
+        CloneAssemblerParameters parameters = readers.get(0).getParameters();
+        LinkedHashSet<VDJCGene> genes = new LinkedHashSet<>();
+        for (CloneAccumulatorsReader reader : readers) {
+            if (!parameters.equals(reader.getParameters()))
+                throw new IllegalArgumentException("Inputs were assembled with different parameters.");
+            genes.addAll(reader.getUsedGenes());
+        }
+
+        CloneAssembler assembler = new CloneAssembler(parameters, false, genes);
+        assembler.setListener(listener);
+        for (CloneAccumulatorsReader reader : readers)
+            reader.readInto(assembler);
+        return assembler;
+    }
+
+    public static final class CloneAccumulatorsReader implements AutoCloseable {
+        final PrimitivI input;
+        final String versionInfo;
+        final CloneAssemblerParameters parameters;
+        final List<VDJCGene> genes;
+        final Map<String, Long> readCounters;
+        final int numberOfAccumulators;
+        boolean read = false;
+
+        public CloneAccumulatorsReader(String fileName) throws IOException {
+            this(new File(fileName), VDJCLibraryRegistry.getDefault());
+        }
+
+        public CloneAccumulatorsReader(File file, VDJCLibraryRegistry libraryRegistry) throws IOException {
+            this(IOUtil.createIS(file), libraryRegistry);
+        }
+
+        public CloneAccumulatorsReader(InputStream inputStream, VDJCLibraryRegistry libraryRegistry) {
+            this.input = new PrimitivI(inputStream);
+
+            byte[] magicBytes = new byte[MAGIC_LENGTH];
+            input.readFully(magicBytes);
+
+            String magicString = new String(magicBytes);
+
+            if (!magicString.equals(MAGIC))
+                throw new RuntimeException("Unsupported file format; .clna file of version " + magicString +
+                        " while you are running MiXCR " + MAGIC);
+
+            this.versionInfo = input.readUTF();
+            this.parameters = input.readObject(CloneAssemblerParameters.class);
+            this.genes = IOUtil.readGeneReferences(input, libraryRegistry, null);
+
+            int numberOfCounters = input.readInt();
+            this.readCounters = new LinkedHashMap<>();
+            for (int i = 0; i < numberOfCounters; i++) {
+                String name = input.readUTF();
+                readCounters.put(name, input.readLong());
+            }
+
+            this.numberOfAccumulators = input.readInt();
+        }
+
+        public String getVersionInfo() {
+            return versionInfo;
+        }
+
+        public CloneAssemblerParameters getParameters() {
+            return parameters;
+        }
+
+        public List<VDJCGene> getUsedGenes() {
+            return genes;
+        }
+
+        public Map<String, Long> getReadCounters() {
+            return readCounters;
+        }
+
+        public int getNumberOfAccumulators() {
+            return numberOfAccumulators;
+        }
+
+        /**
+         * Merges accumulators from this file into the assembler.
+         */
+        public void readInto(CloneAssembler assembler) {
+            if (read)
+                throw new IllegalStateException("Already read.");
+            read = true;
+            assembler.readAccumulators(input, genes, numberOfAccumulators);
+        }
+
+        @Override
+        public void close() {
+            input.close();
+        }
+    }
+}
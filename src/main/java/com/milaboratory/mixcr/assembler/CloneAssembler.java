@@ -42,6 +42,8 @@ import com.milaboratory.core.tree.MutationGuide;
 import com.milaboratory.core.tree.NeighborhoodIterator;
 import com.milaboratory.core.tree.SequenceTreeMap;
 import com.milaboratory.mixcr.basictypes.*;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
 import io.repseq.core.*;
 import com.milaboratory.util.CanReportProgress;
 import com.milaboratory.util.Factory;
@@ -307,6 +309,150 @@ public final class CloneAssembler implements CanReportProgress, AutoCloseable {
         return new AssembledReadsPort(globalLogger.createEventsPort(), deferredAlignmentsLogger == null ? null : deferredAlignmentsLogger.createEventsPort(), idMapping, preClustered);
     }
 
+    /* Mergeable intermediate (see CloneAccumulatorsIO) */
+
+    List<VDJCGene> getUsedGenes() {
+        return new ArrayList<>(usedGenes.values());
+    }
+
+    /**
+     * Returns number of clonal sequence + V/J/C signature pairs accumulated so far
+     */
+    int getNumberOfAccumulators() {
+        int count = 0;
+        for (CloneAccumulatorContainer container : clones.values())
+            count += container.accumulators.size();
+        return count;
+    }
+
+    /**
+     * Serializes state of all accumulators collected during initial assembly and mapping. Genes are referenced by
+     * their indices in the genes list.
+     */
+    void writeAccumulators(PrimitivO output, List<VDJCGene> genes, boolean binQualities) {
+        if (preClusteringDone)
+            throw new IllegalStateException("Accumulators are already clustered.");
+
+        HashMap<VDJCGeneId, Integer> geneIndices = new HashMap<>();
+        for (int i = 0; i < genes.size(); i++)
+            geneIndices.put(genes.get(i).getId(), i);
+
+        for (CloneAccumulatorContainer container : clones.values())
+            for (Map.Entry<VJCSignature, CloneAccumulator> entry : container.accumulators.entrySet()) {
+                CloneAccumulator acc = entry.getValue();
+
+                // Clonal sequence with aggregated quality
+                ClonalSequence sequence = acc.getSequence();
+                SequenceQuality quality = acc.getAggregatedQuality();
+                NSequenceWithQuality[] parts = new NSequenceWithQuality[sequence.size()];
+                int pointer = 0;
+                for (int i = 0; i < parts.length; i++) {
+                    NucleotideSequence s = sequence.get(i).getSequence();
+                    parts[i] = new NSequenceWithQuality(s, quality.getRange(pointer, pointer + s.size()));
+                    pointer += s.size();
+                }
+                NSequenceWithQualityCodec.writeArray(output, parts, binQualities);
+
+                // V/J/C signature
+                VJCSignature signature = entry.getKey();
+                writeSignatureGene(output, signature.vGene, geneIndices);
+                writeSignatureGene(output, signature.jGene, geneIndices);
+                writeSignatureGene(output, signature.cGene, geneIndices);
+
+                // N regions
+                output.writeVarInt(acc.nRegions.length);
+                for (Range range : acc.nRegions) {
+                    output.writeVarInt(range.getFrom());
+                    output.writeVarInt(range.getTo());
+                }
+
+                // Gene scores
+                output.writeVarInt(acc.geneScores.size());
+                for (Map.Entry<GeneType, TObjectFloatHashMap<VDJCGeneId>> scores : acc.geneScores.entrySet()) {
+                    output.writeObject(scores.getKey());
+                    output.writeVarInt(scores.getValue().size());
+                    TObjectFloatIterator<VDJCGeneId> it = scores.getValue().iterator();
+                    while (it.hasNext()) {
+                        it.advance();
+                        output.writeVarInt(geneIndex(it.key(), geneIndices));
+                        output.writeFloat(it.value());
+                    }
+                }
+
+                output.writeLong(acc.getCoreCount());
+                output.writeLong(acc.getMappedCount());
+            }
+    }
+
+    /**
+     * Reads accumulators written by {@link #writeAccumulators(PrimitivO, List, boolean)} and merges them with the
+     * accumulators of this assembler (accumulators with the same clonal sequence and V/J/C signature are summed up).
+     */
+    void readAccumulators(PrimitivI input, List<VDJCGene> genes, int count) {
+        for (int n = 0; n < count; n++) {
+            ClonalSequence sequence = new ClonalSequence(NSequenceWithQualityCodec.readArray(input));
+
+            VJCSignature signature = new VJCSignature(
+                    readSignatureGene(input, genes),
+                    readSignatureGene(input, genes),
+                    readSignatureGene(input, genes));
+
+            Range[] nRegions = new Range[input.readVarInt()];
+            for (int i = 0; i < nRegions.length; i++)
+                nRegions[i] = new Range(input.readVarInt(), input.readVarInt());
+
+            EnumMap<GeneType, TObjectFloatHashMap<VDJCGeneId>> geneScores = new EnumMap<>(GeneType.class);
+            int geneTypes = input.readVarInt();
+            for (int i = 0; i < geneTypes; i++) {
+                GeneType geneType = input.readObject(GeneType.class);
+                int size = input.readVarInt();
+                TObjectFloatHashMap<VDJCGeneId> scores = new TObjectFloatHashMap<>();
+                for (int j = 0; j < size; j++) {
+                    VDJCGeneId id = genes.get(input.readVarInt()).getId();
+                    scores.put(id, input.readFloat());
+                }
+                geneScores.put(geneType, scores);
+            }
+
+            long coreCount = input.readLong();
+            long mappedCount = input.readLong();
+
+            CloneAccumulatorContainer container = clones.get(sequence);
+            if (container == null) {
+                CloneAccumulatorContainer temp = new CloneAccumulatorContainer();
+                container = clones.putIfAbsent(sequence, temp);
+                if (container == null)
+                    container = temp;
+            }
+            container.merge(signature, sequence, nRegions, geneScores, coreCount, mappedCount);
+        }
+    }
+
+    private static void writeSignatureGene(PrimitivO output, VDJCGeneId id, HashMap<VDJCGeneId, Integer> geneIndices) {
+        if (id == null)
+            output.writeVarInt(0);
+        else if (id == DO_NOT_CHECK)
+            output.writeVarInt(1);
+        else
+            output.writeVarInt(geneIndex(id, geneIndices) + 2);
+    }
+
+    private static VDJCGeneId readSignatureGene(PrimitivI input, List<VDJCGene> genes) {
+        int value = input.readVarInt();
+        if (value == 0)
+            return null;
+        if (value == 1)
+            return DO_NOT_CHECK;
+        return genes.get(value - 2).getId();
+    }
+
+    private static int geneIndex(VDJCGeneId id, HashMap<VDJCGeneId, Integer> geneIndices) {
+        Integer index = geneIndices.get(id);
+        if (index == null)
+            throw new IllegalArgumentException("Gene is not in the list of used genes: " + id);
+        return index;
+    }
+
     private int numberOfBadPoints(ClonalSequence clonalSequence) {
         int badPoints = 0;
         for (NSequenceWithQuality p : clonalSequence) {
@@ -554,6 +700,19 @@ public final class CloneAssembler implements CanReportProgress, AutoCloseable {
             return acc;
         }
 
+        synchronized void merge(VJCSignature vjcSignature, ClonalSequence sequence, Range[] nRegions,
+                                EnumMap<GeneType, TObjectFloatHashMap<VDJCGeneId>> geneScores,
+                                long coreCount, long mappedCount) {
+            CloneAccumulator acc = accumulators.get(vjcSignature);
+            if (acc == null) {
+                acc = new CloneAccumulator(sequence, nRegions, parameters.getQualityAggregationType());
+                accumulators.put(vjcSignature, acc);
+                acc.setCloneIndex(cloneIndexGenerator.incrementAndGet());
+                onNewCloneCreated(acc);
+            }
+            acc.merge(sequence.getConcatenated().getQuality(), geneScores, coreCount, mappedCount);
+        }
+
         /**
          * Preforms pre-clustering and returns final list of clonotypes.
          */
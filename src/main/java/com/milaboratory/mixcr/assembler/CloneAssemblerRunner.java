@@ -33,6 +33,7 @@ import cc.redberry.pipe.OutputPortCloseable;
 import cc.redberry.pipe.blocks.FilteringPort;
 import com.milaboratory.mixcr.basictypes.CloneSet;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.util.PipelineMetrics;
 import com.milaboratory.util.CanReportProgress;
 import com.milaboratory.util.CanReportProgressAndStage;
 
@@ -68,15 +69,35 @@ public class CloneAssemblerRunner implements CanReportProgressAndStage {
     }
 
     public void run() {
+        runInitialAssembly();
+        runFinalization();
+    }
+
+    /**
+     * Runs only initial assembly and mapping of low quality reads (see {@link #runInitialAssembly()}), and marks
+     * the runner as finished.
+     */
+    public void runInitialAssemblyOnly() {
+        runInitialAssembly();
+        isFinished = true;
+    }
+
+    /**
+     * Runs initial assembly and mapping of low quality reads. State of the assembler after this step can be saved
+     * with {@link CloneAccumulatorsIO} and merged with results for other parts of alignments.
+     */
+    private void runInitialAssembly() {
         //run initial assembler
-        try (OutputPortCloseable<VDJCAlignments> alignmentsPort = alignmentsProvider.create()) {
+        try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Assembling initial clonotypes");
+             OutputPortCloseable<VDJCAlignments> alignmentsPort = alignmentsProvider.create()) {
             synchronized (this) {
-                stage = "Assembling initial clonotypes";
+                stage = metrics.getName();
                 if (alignmentsPort instanceof CanReportProgress)
                     innerProgress = (CanReportProgress) alignmentsPort;
             }
             try {
-                CUtils.processAllInParallel(CUtils.buffered(alignmentsPort, 128), assembler.getInitialAssembler(), threads);
+                CUtils.processAllInParallel(metrics.buffered("alignments",
+                        metrics.countRecords(alignmentsPort), 128), assembler.getInitialAssembler(), threads);
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
@@ -87,15 +108,16 @@ public class CloneAssemblerRunner implements CanReportProgressAndStage {
                 stage = "Preparing for mapping of low quality reads";
                 innerProgress = null;
             }
-            try (OutputPortCloseable<VDJCAlignments> alignmentsPort = alignmentsProvider.create()) {
+            try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Mapping low quality reads");
+                 OutputPortCloseable<VDJCAlignments> alignmentsPort = alignmentsProvider.create()) {
                 synchronized (this) {
-                    stage = "Mapping low quality reads";
+                    stage = metrics.getName();
                     if (alignmentsPort instanceof CanReportProgress)
                         innerProgress = (CanReportProgress) alignmentsPort;
                 }
                 try {
-                    CUtils.processAllInParallel(CUtils.buffered(
-                            new FilteringPort<>(alignmentsPort,
+                    CUtils.processAllInParallel(metrics.buffered("deferred alignments",
+                            new FilteringPort<>(metrics.countRecords(alignmentsPort),
                                     assembler.getDeferredAlignmentsFilter()), 128),
                             assembler.getDeferredAlignmentsMapper(), threads);
                 } catch (InterruptedException e) {
@@ -104,21 +126,34 @@ public class CloneAssemblerRunner implements CanReportProgressAndStage {
             }
             assembler.endMapping();
         }
-        assembler.preClustering();
+    }
+
+    /**
+     * Runs pre-clustering, clustering and building of clones.
+     */
+    public void runFinalization() {
+        try (PipelineMetrics.Stage ignored = PipelineMetrics.begin("Pre-clustering")) {
+            assembler.preClustering();
+        }
         //run clustering
         if (assembler.parameters.isClusteringEnabled()) {
-            synchronized (this) {
-                stage = "Clustering";
-                innerProgress = assembler;
+            try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Clustering")) {
+                synchronized (this) {
+                    stage = metrics.getName();
+                    innerProgress = assembler;
+                }
+                assembler.runClustering();
             }
-            assembler.runClustering();
         }
         //build clones
-        synchronized (this) {
-            stage = "Building clones";
-            innerProgress = assembler;
+        try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Building clones")) {
+            synchronized (this) {
+                stage = metrics.getName();
+                innerProgress = assembler;
+            }
+            assembler.buildClones();
+            metrics.addRecords(assembler.getNumberOfAccumulators());
         }
-        assembler.buildClones();
         isFinished = true;
     }
 
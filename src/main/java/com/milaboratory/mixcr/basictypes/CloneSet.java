@@ -61,6 +61,20 @@ public final class CloneSet implements Iterable<Clone> {
         this.assemblingFeatures = assemblingFeatures;
     }
 
+    /**
+     * Creates clone set with explicitly specified total count (used for partially loaded clone sets)
+     */
+    CloneSet(List<Clone> clones, Collection<VDJCGene> usedGenes, EnumMap<GeneType, GeneFeature> alignedFeatures,
+             GeneFeature[] assemblingFeatures, long totalCount) {
+        this.clones = Collections.unmodifiableList(new ArrayList<>(clones));
+        for (Clone clone : clones)
+            clone.setParentCloneSet(this);
+        this.alignedFeatures = alignedFeatures.clone();
+        this.usedGenes = Collections.unmodifiableList(new ArrayList<>(usedGenes));
+        this.totalCount = totalCount;
+        this.assemblingFeatures = assemblingFeatures;
+    }
+
     public CloneSet(List<Clone> clones) {
         this.clones = Collections.unmodifiableList(new ArrayList<>(clones));
         long totalCount = 0;
@@ -28,21 +28,23 @@
  */
 package com.milaboratory.mixcr.basictypes;
 
+import cc.redberry.pipe.OutputPortCloseable;
 import com.milaboratory.mixcr.util.MiXCRVersionInfo;
+import com.milaboratory.mixcr.util.PipelineMetrics;
 import com.milaboratory.primitivio.PrimitivI;
 import com.milaboratory.primitivio.PrimitivO;
+import com.milaboratory.util.CanReportProgress;
 import com.milaboratory.util.CanReportProgressAndStage;
 import io.repseq.core.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.EnumMap;
-import java.util.List;
+import java.util.*;
 
 public final class CloneSetIO {
     static final String MAGIC_V5 = "MiXCR.CLNS.V05";
-    static final String MAGIC = MAGIC_V5;
+    static final String MAGIC_V6 = "MiXCR.CLNS.V06";
+    static final String MAGIC = MAGIC_V6;
     static final int MAGIC_LENGTH = 14;
     static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
 
@@ -51,20 +53,35 @@ public final class CloneSetIO {
         final PrimitivO output;
         final CloneSet cloneSet;
         final int size;
+        final File file;
         volatile int current;
+        boolean binQualities = false;
+        PipelineMetrics.Stage metrics;
 
         public CloneSetWriter(CloneSet cloneSet, String fileName) throws IOException {
             this(cloneSet, new File(fileName));
         }
 
         public CloneSetWriter(CloneSet cloneSet, File file) throws IOException {
-            this(cloneSet, IOUtil.createOS(file));
+            this(cloneSet, IOUtil.createOS(file), file);
+        }
+
+        /**
+         * @param fastCompression compress file with fast block codec regardless of extension
+         */
+        public CloneSetWriter(CloneSet cloneSet, File file, boolean fastCompression) throws IOException {
+            this(cloneSet, IOUtil.createOS(file, fastCompression), file);
         }
 
         public CloneSetWriter(CloneSet cloneSet, OutputStream outputStream) {
+            this(cloneSet, outputStream, null);
+        }
+
+        private CloneSetWriter(CloneSet cloneSet, OutputStream outputStream, File file) {
             this.output = new PrimitivO(outputStream);
             this.cloneSet = cloneSet;
             this.size = cloneSet.size();
+            this.file = file;
         }
 
         @Override
@@ -82,9 +99,21 @@ public final class CloneSetIO {
             return current == size;
         }
 
+        /**
+         * Enables lossy binning of clonal sequence qualities (see {@link NSequenceWithQualityCodec})
+         */
+        public void setBinQualities(boolean binQualities) {
+            this.binQualities = binQualities;
+        }
+
         public void write() {
-            // Registering custom serializer
+            // Stage is closed in close(), to account size of the flushed file
+            metrics = PipelineMetrics.begin(stage);
+
+            // Registering custom serializers
             output.getSerializersManager().registerCustomSerializer(GeneFeature.class, new GeneFeatureSerializer(true));
+            output.getSerializersManager().registerCustomSerializer(Clone.class,
+                    new IO.CloneSerializer(true, binQualities));
 
             // Writing magic bytes
             output.write(MAGIC_BYTES);
@@ -101,16 +130,26 @@ public final class CloneSetIO {
             IOUtil.writeGeneReferences(output, cloneSet.getUsedGenes(), new GT2GFAdapter(cloneSet.alignedFeatures));
 
             output.writeInt(cloneSet.getClones().size());
+            // Total count and ordering flag allow to stream clones without reading the whole file
+            // (see CloneSetReader)
+            output.writeLong(cloneSet.getTotalCount());
+            output.writeBoolean(isSortedByCount(cloneSet.getClones()));
 
             for (Clone clone : cloneSet) {
                 output.writeObject(clone);
                 ++current;
             }
+            metrics.addRecords(size);
         }
 
         @Override
         public void close() {
             output.close();
+            if (metrics != null) {
+                if (file != null)
+                    metrics.addBytesWritten(file.length());
+                metrics.close();
+            }
         }
     }
 
@@ -141,14 +180,16 @@ public final class CloneSetIO {
     }
 
     public static CloneSet read(File file) throws IOException {
-        try (InputStream inputStream = IOUtil.createIS(file)) {
-            return read(inputStream);
-        }
+        return read(file, VDJCLibraryRegistry.getDefault());
     }
 
     public static CloneSet read(File file, VDJCLibraryRegistry libraryRegistry) throws IOException {
-        try (InputStream inputStream = IOUtil.createIS(file)) {
-            return read(inputStream, libraryRegistry);
+        try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Reading clones");
+             InputStream inputStream = IOUtil.createIS(file)) {
+            CloneSet cloneSet = read(inputStream, libraryRegistry);
+            metrics.addRecords(cloneSet.size());
+            metrics.addBytesRead(file.length());
+            return cloneSet;
         }
     }
 
@@ -157,41 +198,202 @@ public final class CloneSetIO {
     }
 
     public static CloneSet read(InputStream inputStream, VDJCLibraryRegistry libraryRegistry) {
-        PrimitivI input = new PrimitivI(inputStream);
+        CloneSetReader reader = new CloneSetReader(inputStream, libraryRegistry);
+        List<Clone> clones = new ArrayList<>(reader.getNumberOfClones());
+        Clone clone;
+        while ((clone = reader.readClone()) != null)
+            clones.add(clone);
 
-        // Registering custom serializer
-        input.getSerializersManager().registerCustomSerializer(GeneFeature.class, new GeneFeatureSerializer(true));
+        CloneSet cloneSet = new CloneSet(clones, reader.genes, reader.alignedFeatures, reader.assemblingFeatures);
+        cloneSet.versionInfo = reader.versionInfo;
 
-        byte[] magicBytes = new byte[MAGIC_LENGTH];
-        input.readFully(magicBytes);
+        return cloneSet;
+    }
 
-        String magicString = new String(magicBytes);
+    static boolean isSortedByCount(List<Clone> clones) {
+        for (int i = 1; i < clones.size(); i++)
+            if (clones.get(i - 1).count < clones.get(i).count)
+                return false;
+        return true;
+    }
 
-        //SerializersManager serializersManager = input.getSerializersManager();
+    /**
+     * Streaming reader of .clns files. Clones are decoded one by one, so only the requested part of the clone set is
+     * read from the file. Fractions of the clones returned by this reader are calculated against the total count of
+     * the whole clone set (stored in the file header).
+     *
+     * If clones in the file are ordered by count (which is always the case for clone sets produced by assemble
+     * action), reader stops decoding as soon as the first clone below the thresholds (see {@link
+     * #setThresholds(long, double)}) is encountered.
+     */
+    public static final class CloneSetReader implements OutputPortCloseable<Clone>, CanReportProgress {
+        final PrimitivI input;
+        final String versionInfo;
+        final GeneFeature[] assemblingFeatures;
+        final EnumMap<GeneType, GeneFeature> alignedFeatures;
+        final List<VDJCGene> genes;
+        final int numberOfClones;
+        final long totalCount;
+        final boolean sortedByCount;
+        /**
+         * Clones already decoded from the file (used for old file versions without total count in the header)
+         */
+        final Iterator<Clone> preloaded;
+        /**
+         * Header-only clone set used as parent for streamed clones (to calculate fractions)
+         */
+        final CloneSet header;
+        long minCount = 0;
+        double minFraction = 0;
+        volatile int current = 0;
+        volatile boolean closed = false;
+
+        public CloneSetReader(String fileName) throws IOException {
+            this(new File(fileName), VDJCLibraryRegistry.getDefault());
+        }
 
-        switch (magicString) {
-            case MAGIC:
-                break;
-            default:
-                throw new RuntimeException("Unsupported file format; .clns file of version " + magicString +
-                        " while you are running MiXCR " + MAGIC);
+        public CloneSetReader(File file, VDJCLibraryRegistry libraryRegistry) throws IOException {
+            this(IOUtil.createIS(file), libraryRegistry);
         }
 
-        String versionInfo = input.readUTF();
+        public CloneSetReader(InputStream inputStream, VDJCLibraryRegistry libraryRegistry) {
+            this.input = new PrimitivI(inputStream);
 
-        GeneFeature[] assemblingFeatures = input.readObject(GeneFeature[].class);
-        EnumMap<GeneType, GeneFeature> alignedFeatures = IO.readGF2GTMap(input);
-        List<VDJCGene> genes = IOUtil.readGeneReferences(input, libraryRegistry, new GT2GFAdapter(alignedFeatures));
+            // Registering custom serializer
+            input.getSerializersManager().registerCustomSerializer(GeneFeature.class, new GeneFeatureSerializer(true));
+
+            byte[] magicBytes = new byte[MAGIC_LENGTH];
+            input.readFully(magicBytes);
+
+            String magicString = new String(magicBytes);
+
+            switch (magicString) {
+                case MAGIC_V5:
+                    // clones are read by default serializer
+                    break;
+                case MAGIC:
+                    input.getSerializersManager().registerCustomSerializer(Clone.class,
+                            new IO.CloneSerializer(true, false));
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported file format; .clns file of version " + magicString +
+                            " while you are running MiXCR " + MAGIC);
+            }
 
-        int count = input.readInt();
-        List<Clone> clones = new ArrayList<>(count);
-        for (int i = 0; i < count; i++)
-            clones.add(input.readObject(Clone.class));
+            this.versionInfo = input.readUTF();
+
+            this.assemblingFeatures = input.readObject(GeneFeature[].class);
+            this.alignedFeatures = IO.readGF2GTMap(input);
+            this.genes = IOUtil.readGeneReferences(input, libraryRegistry, new GT2GFAdapter(alignedFeatures));
+
+            this.numberOfClones = input.readInt();
+
+            if (magicString.equals(MAGIC_V5)) {
+                // No total count in the header, so all clones are read upfront
+                List<Clone> clones = new ArrayList<>(numberOfClones);
+                long totalCount = 0;
+                for (int i = 0; i < numberOfClones; i++) {
+                    Clone clone = input.readObject(Clone.class);
+                    totalCount += clone.count;
+                    clones.add(clone);
+                }
+                this.totalCount = totalCount;
+                this.sortedByCount = isSortedByCount(clones);
+                this.preloaded = clones.iterator();
+            } else {
+                this.totalCount = input.readLong();
+                this.sortedByCount = input.readBoolean();
+                this.preloaded = null;
+            }
 
-        CloneSet cloneSet = new CloneSet(clones, genes, alignedFeatures, assemblingFeatures);
-        cloneSet.versionInfo = versionInfo;
+            this.header = new CloneSet(Collections.<Clone>emptyList(), genes, alignedFeatures, assemblingFeatures,
+                    totalCount);
+            this.header.versionInfo = versionInfo;
+        }
 
-        return cloneSet;
+        /**
+         * Sets minimal count and minimal fraction of clones returned by {@link #take()}.
+         *
+         * @param minCount    minimal clone count
+         * @param minFraction minimal clone fraction (relative to the total count of the clone set)
+         */
+        public void setThresholds(long minCount, double minFraction) {
+            this.minCount = minCount;
+            this.minFraction = minFraction;
+        }
+
+        public String getVersionInfo() {
+            return versionInfo;
+        }
+
+        public GeneFeature[] getAssemblingFeatures() {
+            return assemblingFeatures;
+        }
+
+        public GeneFeature getAlignedGeneFeature(GeneType geneType) {
+            return alignedFeatures.get(geneType);
+        }
+
+        public List<VDJCGene> getUsedGenes() {
+            return genes;
+        }
+
+        public int getNumberOfClones() {
+            return numberOfClones;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public boolean isSortedByCount() {
+            return sortedByCount;
+        }
+
+        Clone readClone() {
+            if (closed || current == numberOfClones)
+                return null;
+            Clone clone = preloaded == null ? input.readObject(Clone.class) : preloaded.next();
+            ++current;
+            return clone;
+        }
+
+        @Override
+        public synchronized Clone take() {
+            Clone clone;
+            while ((clone = readClone()) != null) {
+                if (clone.count < minCount || clone.getFraction(totalCount) < minFraction) {
+                    if (sortedByCount) {
+                        // All subsequent clones are below the thresholds
+                        close();
+                        return null;
+                    }
+                    continue;
+                }
+                clone.setParentCloneSet(header);
+                return clone;
+            }
+            close();
+            return null;
+        }
+
+        @Override
+        public double getProgress() {
+            return numberOfClones == 0 ? 1.0 : (1.0 * current) / numberOfClones;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            input.close();
+        }
     }
 
     private static class GT2GFAdapter implements HasFeatureToAlign {
@@ -28,7 +28,72 @@
  */
 package com.milaboratory.mixcr.basictypes;
 
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import com.milaboratory.primitivio.Serializer;
+import com.milaboratory.primitivio.SerializersManager;
+import io.repseq.core.GeneType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Serializers for objects stored in files of previous format versions
+ */
 public final class CompatibilityIO {
     private CompatibilityIO() {
     }
+
+    /**
+     * Registers serializers for .vdjca files of version 9 (alignments without references to original reads)
+     */
+    public static void registerV9Serializers(SerializersManager manager) {
+        manager.registerCustomSerializer(VDJCAlignments.class, new VDJCAlignmentsSerializerV9());
+    }
+
+    static final class VDJCAlignmentsSerializerV9 implements Serializer<VDJCAlignments> {
+        @Override
+        public void write(PrimitivO output, VDJCAlignments object) {
+            output.writeObject(object.targets);
+            output.writeObject(object.targetDescriptions);
+            output.writeObject(object.originalSequences);
+            output.writeObject(object.originalDescriptions);
+            output.writeByte(object.hits.size());
+            for (Map.Entry<GeneType, VDJCHit[]> entry : object.hits.entrySet()) {
+                output.writeObject(entry.getKey());
+                output.writeObject(entry.getValue());
+            }
+            output.writeLong(object.readId);
+        }
+
+        @Override
+        public VDJCAlignments read(PrimitivI input) {
+            NSequenceWithQuality[] targets = input.readObject(NSequenceWithQuality[].class);
+            String[] targetDescriptions = input.readObject(String[].class);
+            NSequenceWithQuality[] originalSequences = input.readObject(NSequenceWithQuality[].class);
+            String[] originalDescriptions = input.readObject(String[].class);
+            int size = input.readByte();
+            EnumMap<GeneType, VDJCHit[]> hits = new EnumMap<>(GeneType.class);
+            for (int i = 0; i < size; i++) {
+                GeneType key = input.readObject(GeneType.class);
+                hits.put(key, input.readObject(VDJCHit[].class));
+            }
+            VDJCAlignments vdjcAlignments = new VDJCAlignments(input.readLong(), hits, targets);
+            vdjcAlignments.setTargetDescriptions(targetDescriptions);
+            vdjcAlignments.setOriginalSequences(originalSequences);
+            vdjcAlignments.setOriginalDescriptions(originalDescriptions);
+            return vdjcAlignments;
+        }
+
+        @Override
+        public boolean isReference() {
+            return true;
+        }
+
+        @Override
+        public boolean handlesReference() {
+            return false;
+        }
+    }
 }
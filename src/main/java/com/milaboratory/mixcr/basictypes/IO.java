@@ -38,7 +38,9 @@ import com.milaboratory.primitivio.PrimitivO;
 import com.milaboratory.primitivio.Serializer;
 import io.repseq.core.VDJCGene;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
 class IO {
@@ -83,6 +85,7 @@ class IO {
             output.writeObject(object.targetDescriptions);
             output.writeObject(object.originalSequences);
             output.writeObject(object.originalDescriptions);
+            output.writeObject(object.originalReadReferences);
             output.writeByte(object.hits.size());
             for (Map.Entry<GeneType, VDJCHit[]> entry : object.hits.entrySet()) {
                 output.writeObject(entry.getKey());
@@ -97,6 +100,7 @@ class IO {
             String[] targetDescriptions = input.readObject(String[].class);
             NSequenceWithQuality[] originalSequences = input.readObject(NSequenceWithQuality[].class);
             String[] originalDescriptions = input.readObject(String[].class);
+            OriginalReadReference[] originalReadReferences = input.readObject(OriginalReadReference[].class);
             int size = input.readByte();
             EnumMap<GeneType, VDJCHit[]> hits = new EnumMap<>(GeneType.class);
             for (int i = 0; i < size; i++) {
@@ -107,6 +111,7 @@ class IO {
             vdjcAlignments.setTargetDescriptions(targetDescriptions);
             vdjcAlignments.setOriginalSequences(originalSequences);
             vdjcAlignments.setOriginalDescriptions(originalDescriptions);
+            vdjcAlignments.setOriginalReadReferences(originalReadReferences);
             return vdjcAlignments;
         }
 
@@ -121,10 +126,58 @@ class IO {
         }
     }
 
+    public static class OriginalReadReferenceSerializer implements Serializer<OriginalReadReference> {
+        @Override
+        public void write(PrimitivO output, OriginalReadReference object) {
+            output.writeVarInt(object.fileId);
+            output.writeLong(object.offset);
+            output.writeVarInt(object.length);
+        }
+
+        @Override
+        public OriginalReadReference read(PrimitivI input) {
+            int fileId = input.readVarInt();
+            long offset = input.readLong();
+            int length = input.readVarInt();
+            return new OriginalReadReference(fileId, offset, length);
+        }
+
+        @Override
+        public boolean isReference() {
+            return false;
+        }
+
+        @Override
+        public boolean handlesReference() {
+            return false;
+        }
+    }
+
     public static class CloneSerializer implements Serializer<Clone> {
+        /**
+         * Write targets with {@link NSequenceWithQualityCodec} (.clns files starting from version 6)
+         */
+        final boolean packedTargets;
+        /**
+         * Apply lossy quality binning to targets (only if packedTargets is set)
+         */
+        final boolean binQualities;
+
+        public CloneSerializer() {
+            this(false, false);
+        }
+
+        public CloneSerializer(boolean packedTargets, boolean binQualities) {
+            this.packedTargets = packedTargets;
+            this.binQualities = binQualities;
+        }
+
         @Override
         public void write(PrimitivO output, Clone object) {
-            output.writeObject(object.targets);
+            if (packedTargets)
+                NSequenceWithQualityCodec.writeArray(output, object.targets, binQualities);
+            else
+                output.writeObject(object.targets);
             output.writeByte(object.hits.size());
             for (Map.Entry<GeneType, VDJCHit[]> entry : object.hits.entrySet()) {
                 output.writeObject(entry.getKey());
@@ -137,7 +190,9 @@ class IO {
 
         @Override
         public Clone read(PrimitivI input) {
-            NSequenceWithQuality[] targets = input.readObject(NSequenceWithQuality[].class);
+            NSequenceWithQuality[] targets = packedTargets
+                    ? NSequenceWithQualityCodec.readArray(input)
+                    : input.readObject(NSequenceWithQuality[].class);
             int size = input.readByte();
             EnumMap<GeneType, VDJCHit[]> hits = new EnumMap<>(GeneType.class);
             for (int i = 0; i < size; i++) {
@@ -179,4 +234,25 @@ class IO {
         }
         return map;
     }
+
+    public static void writeOriginalReadsSources(PrimitivO output, List<OriginalReadsSource> sources) {
+        output.writeInt(sources.size());
+        for (OriginalReadsSource source : sources) {
+            output.writeUTF(source.path);
+            output.writeLong(source.size);
+            output.writeLong(source.fingerprint);
+        }
+    }
+
+    public static List<OriginalReadsSource> readOriginalReadsSources(PrimitivI input) {
+        int count = input.readInt();
+        List<OriginalReadsSource> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String path = input.readUTF();
+            long size = input.readLong();
+            long fingerprint = input.readLong();
+            sources.add(new OriginalReadsSource(path, size, fingerprint));
+        }
+        return sources;
+    }
 }
@@ -30,6 +30,8 @@ package com.milaboratory.mixcr.basictypes;
 
 import com.milaboratory.core.io.CompressionType;
 import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.mixcr.util.LZ4BlockInputStream;
+import com.milaboratory.mixcr.util.LZ4BlockOutputStream;
 import com.milaboratory.primitivio.PrimitivI;
 import com.milaboratory.primitivio.PrimitivO;
 import io.repseq.core.GeneFeature;
@@ -96,12 +98,36 @@ public class IOUtil {
         return genes;
     }
 
+    /**
+     * Extension of files compressed with fast block codec (see {@link LZ4BlockOutputStream})
+     */
+    public static final String FAST_COMPRESSION_EXTENSION = ".mlz";
+
+    /**
+     * Returns true if file was written with fast block codec (detected by magic bytes, not by extension)
+     */
+    public static boolean isFastCompressed(File file) throws IOException {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file), LZ4BlockOutputStream.MAGIC.length)) {
+            return LZ4BlockInputStream.hasMagic(is);
+        }
+    }
+
     public static InputStream createIS(String file) throws IOException {
-        return createIS(CompressionType.detectCompressionType(file), new FileInputStream(file));
+        return createIS(new File(file));
     }
 
+    /**
+     * Opens file for reading; files written with fast block codec are detected by magic bytes, other compression
+     * types by extension
+     */
     public static InputStream createIS(File file) throws IOException {
-        return createIS(CompressionType.detectCompressionType(file), new FileInputStream(file));
+        InputStream is = new BufferedInputStream(new FileInputStream(file), 65536);
+        if (LZ4BlockInputStream.hasMagic(is))
+            return new LZ4BlockInputStream(is);
+        CompressionType ct = CompressionType.detectCompressionType(file);
+        if (ct == CompressionType.None)
+            return is;
+        else return ct.createInputStream(is, 65536);
     }
 
     public static InputStream createIS(CompressionType ct, InputStream is) throws IOException {
@@ -111,10 +137,21 @@ public class IOUtil {
     }
 
     public static OutputStream createOS(String file) throws IOException {
-        return createOS(CompressionType.detectCompressionType(file), new FileOutputStream(file));
+        return createOS(new File(file), false);
     }
 
     public static OutputStream createOS(File file) throws IOException {
+        return createOS(file, false);
+    }
+
+    /**
+     * Opens file for writing; compression type is detected by extension
+     *
+     * @param fastCompression use fast block codec regardless of extension
+     */
+    public static OutputStream createOS(File file, boolean fastCompression) throws IOException {
+        if (fastCompression || file.getName().endsWith(FAST_COMPRESSION_EXTENSION))
+            return new LZ4BlockOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
         return createOS(CompressionType.detectCompressionType(file), new FileOutputStream(file));
     }
 
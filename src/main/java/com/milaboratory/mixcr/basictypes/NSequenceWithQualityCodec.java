@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.core.sequence.*;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+
+/**
+ * Compact encoding of target sequences used in .vdjca (starting from version 10) and .clns (starting from version 6)
+ * files. Nucleotides are packed by four in a byte, wildcards are written as a separate list of exceptions. Qualities
+ * are written as a single value if they are uniform, as is otherwise, or, if lossy binning is requested, as indices
+ * of Illumina-like quality bins packed by two in a byte.
+ */
+public final class NSequenceWithQualityCodec {
+    static final int RAW_QUALITY = 0, UNIFORM_QUALITY = 1, BINNED_QUALITY = 2;
+    /**
+     * Lower bounds of quality bins
+     */
+    static final byte[] BIN_BOUNDS = {0, 2, 10, 20, 25, 30, 35, 40};
+    /**
+     * Values qualities are replaced with
+     */
+    static final byte[] BIN_VALUES = {0, 6, 15, 22, 27, 33, 37, 40};
+
+    private NSequenceWithQualityCodec() {
+    }
+
+    /**
+     * Returns index of the quality bin
+     */
+    static int bin(byte quality) {
+        int bin = BIN_BOUNDS.length - 1;
+        while (quality < BIN_BOUNDS[bin])
+            --bin;
+        return bin;
+    }
+
+    /**
+     * Returns quality value after binning
+     */
+    public static byte binQuality(byte quality) {
+        return BIN_VALUES[bin(quality)];
+    }
+
+    public static void writeArray(PrimitivO output, NSequenceWithQuality[] sequences, boolean binQualities) {
+        if (sequences == null) {
+            output.writeVarInt(0);
+            return;
+        }
+        output.writeVarInt(sequences.length + 1);
+        for (NSequenceWithQuality sequence : sequences)
+            write(output, sequence, binQualities);
+    }
+
+    public static NSequenceWithQuality[] readArray(PrimitivI input) {
+        int length = input.readVarInt() - 1;
+        if (length < 0)
+            return null;
+        NSequenceWithQuality[] sequences = new NSequenceWithQuality[length];
+        for (int i = 0; i < length; i++)
+            sequences[i] = read(input);
+        return sequences;
+    }
+
+    public static void write(PrimitivO output, NSequenceWithQuality sequence, boolean binQualities) {
+        NucleotideSequence seq = sequence.getSequence();
+        int size = seq.size();
+        output.writeVarInt(size);
+
+        // Nucleotides
+        byte[] packed = new byte[(size + 3) >> 2];
+        int wildcards = 0;
+        for (int i = 0; i < size; i++) {
+            byte code = seq.codeAt(i);
+            if (NucleotideSequence.ALPHABET.isWildcard(code))
+                ++wildcards;
+            else
+                packed[i >> 2] |= code << ((i & 3) << 1);
+        }
+        output.write(packed);
+        output.writeVarInt(wildcards);
+        for (int i = 0, previous = 0; wildcards > 0 && i < size; i++) {
+            byte code = seq.codeAt(i);
+            if (NucleotideSequence.ALPHABET.isWildcard(code)) {
+                output.writeVarInt(i - previous);
+                output.writeByte(code);
+                previous = i;
+                --wildcards;
+            }
+        }
+
+        // Qualities
+        SequenceQuality quality = sequence.getQuality();
+        if (size == 0)
+            return;
+        boolean uniform = true;
+        byte first = binQualities ? binQuality(quality.value(0)) : quality.value(0);
+        for (int i = 1; i < size && uniform; i++)
+            uniform = (binQualities ? binQuality(quality.value(i)) : quality.value(i)) == first;
+        if (uniform) {
+            output.writeByte((byte) UNIFORM_QUALITY);
+            output.writeByte(first);
+        } else if (binQualities) {
+            output.writeByte((byte) BINNED_QUALITY);
+            byte[] bins = new byte[(size + 1) >> 1];
+            for (int i = 0; i < size; i++)
+                bins[i >> 1] |= bin(quality.value(i)) << ((i & 1) << 2);
+            output.write(bins);
+        } else {
+            output.writeByte((byte) RAW_QUALITY);
+            byte[] values = new byte[size];
+            for (int i = 0; i < size; i++)
+                values[i] = quality.value(i);
+            output.write(values);
+        }
+    }
+
+    public static NSequenceWithQuality read(PrimitivI input) {
+        int size = input.readVarInt();
+
+        // Nucleotides
+        byte[] packed = new byte[(size + 3) >> 2];
+        input.readFully(packed);
+        byte[] codes = new byte[size];
+        for (int i = 0; i < size; i++)
+            codes[i] = (byte) ((packed[i >> 2] >> ((i & 3) << 1)) & 3);
+        for (int i = input.readVarInt(), position = 0; i > 0; --i) {
+            position += input.readVarInt();
+            codes[position] = input.readByte();
+        }
+        SequenceBuilder<NucleotideSequence> sequence = NucleotideSequence.ALPHABET.createBuilder().ensureCapacity(size);
+        for (byte code : codes)
+            sequence.append(code);
+
+        // Qualities
+        SequenceQualityBuilder quality = new SequenceQualityBuilder().ensureCapacity(size);
+        if (size != 0)
+            switch (input.readByte()) {
+                case UNIFORM_QUALITY:
+                    byte value = input.readByte();
+                    for (int i = 0; i < size; i++)
+                        quality.append(value);
+                    break;
+                case BINNED_QUALITY:
+                    byte[] bins = new byte[(size + 1) >> 1];
+                    input.readFully(bins);
+                    for (int i = 0; i < size; i++)
+                        quality.append(BIN_VALUES[(bins[i >> 1] >> ((i & 1) << 2)) & 0xF]);
+                    break;
+                case RAW_QUALITY:
+                    byte[] values = new byte[size];
+                    input.readFully(values);
+                    for (byte v : values)
+                        quality.append(v);
+                    break;
+                default:
+                    throw new RuntimeException("Wrong format.");
+            }
+
+        return new NSequenceWithQuality(sequence.createAndDestroy(), quality.createAndDestroy());
+    }
+}
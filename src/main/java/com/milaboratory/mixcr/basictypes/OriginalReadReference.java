@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.primitivio.annotations.Serializable;
+
+/**
+ * Position of the original read record in one of the source files listed in the header of .vdjca file (see {@link
+ * OriginalReadsSource}). Used instead of a copy of the original read, the read is fetched from the source file only
+ * when it is exported.
+ */
+@Serializable(by = IO.OriginalReadReferenceSerializer.class)
+public final class OriginalReadReference {
+    final int fileId;
+    final long offset;
+    final int length;
+
+    public OriginalReadReference(int fileId, long offset, int length) {
+        this.fileId = fileId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns index of the source file in the list of sources stored in the header
+     */
+    public int getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Returns offset of the first byte of the record
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns length of the record in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OriginalReadReference that = (OriginalReadReference) o;
+
+        if (fileId != that.fileId) return false;
+        if (offset != that.offset) return false;
+        return length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fileId;
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        result = 31 * result + length;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return fileId + ":" + offset + "+" + length;
+    }
+}
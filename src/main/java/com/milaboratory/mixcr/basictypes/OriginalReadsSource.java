@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Source file of original reads referenced by {@link OriginalReadReference}s. Besides path, size and a fingerprint of
+ * the file are stored, so that modification or replacement of the file is detected before reads are fetched from it.
+ */
+public final class OriginalReadsSource {
+    /**
+     * Number of bytes from the beginning and from the end of the file used to calculate fingerprint
+     */
+    static final int FINGERPRINT_SAMPLE = 1 << 20;
+    final String path;
+    final long size;
+    final long fingerprint;
+
+    public OriginalReadsSource(String path, long size, long fingerprint) {
+        this.path = path;
+        this.size = size;
+        this.fingerprint = fingerprint;
+    }
+
+    public static OriginalReadsSource create(File file) throws IOException {
+        return new OriginalReadsSource(file.getAbsolutePath(), file.length(), fingerprint(file));
+    }
+
+    /**
+     * Calculates fingerprint of file from its size and content of its first and last megabytes
+     */
+    public static long fingerprint(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            long size = raf.length();
+            digest.update(ByteBuffer.allocate(8).putLong(0, size));
+            byte[] buffer = new byte[(int) Math.min(FINGERPRINT_SAMPLE, size)];
+            raf.readFully(buffer);
+            digest.update(buffer);
+            raf.seek(size - buffer.length);
+            raf.readFully(buffer);
+            digest.update(buffer);
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks that the source file exists and was not changed since the references were created
+     *
+     * @throws IllegalArgumentException if file is absent or its content differs
+     */
+    public void check() throws IOException {
+        File file = new File(path);
+        if (!file.isFile())
+            throw new IllegalArgumentException("Source file of original reads not found: " + path);
+        if (file.length() != size || fingerprint(file) != fingerprint)
+            throw new IllegalArgumentException("Source file of original reads was modified: " + path);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OriginalReadsSource that = (OriginalReadsSource) o;
+
+        if (size != that.size) return false;
+        if (fingerprint != that.fingerprint) return false;
+        return path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        result = 31 * result + (int) (fingerprint ^ (fingerprint >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
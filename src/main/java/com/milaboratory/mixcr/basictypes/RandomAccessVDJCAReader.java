@@ -102,8 +102,11 @@ public class RandomAccessVDJCAReader implements AutoCloseable {
 
     public synchronized VDJCAlignments get(int ind) {
         try {
-            if (ind != currentIndex)
+            if (ind != currentIndex) {
                 raf.seek(index[ind]);
+                // read ids are encoded relative to the index of the record
+                innerReader.counter = ind;
+            }
             VDJCAlignments alignment = innerReader.take();
             currentIndex = ind + 1;
             alignment.setAlignmentsIndex(ind);
@@ -40,6 +40,7 @@ public final class VDJCAlignments extends VDJCObject {
     volatile String[] targetDescriptions;
     volatile NSequenceWithQuality[] originalSequences;
     volatile String[] originalDescriptions;
+    volatile OriginalReadReference[] originalReadReferences;
     final long readId;
     private volatile long alignmentsIndex = -1;
 
@@ -48,7 +49,9 @@ public final class VDJCAlignments extends VDJCObject {
         this.readId = readId;
         this.alignmentsIndex = alignmentsIndex;
         this.targetDescriptions = alignments.targetDescriptions;
+        this.originalSequences = alignments.originalSequences;
         this.originalDescriptions = alignments.originalDescriptions;
+        this.originalReadReferences = alignments.originalReadReferences;
     }
 
     public VDJCAlignments(long readId, EnumMap<GeneType, VDJCHit[]> hits, NSequenceWithQuality target) {
@@ -106,6 +109,17 @@ public final class VDJCAlignments extends VDJCObject {
         return originalSequences;
     }
 
+    /**
+     * Sets positions of original reads in source files (alternative to storing copies of original reads)
+     */
+    public void setOriginalReadReferences(OriginalReadReference[] originalReadReferences) {
+        this.originalReadReferences = originalReadReferences;
+    }
+
+    public OriginalReadReference[] getOriginalReadReferences() {
+        return originalReadReferences;
+    }
+
     /**
      * Returns {@code true} if at least one V and one J hit among first {@code top} hits have same chain and false
      * otherwise (first {@code top} V hits have different chain from those have first {@code top} J hits).
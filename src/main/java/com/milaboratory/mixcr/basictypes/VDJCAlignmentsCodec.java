@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.core.Range;
+import com.milaboratory.core.alignment.Alignment;
+import com.milaboratory.core.mutations.Mutations;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import com.milaboratory.primitivio.Serializer;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.milaboratory.core.mutations.Mutation.*;
+
+/**
+ * Compact serializer of alignments used in .vdjca files starting from version 10. Relies on the gene table written in
+ * the file header:
+ *
+ * <ul> <li>read id is written as a varint delta from the index of the record in file (so that records can still be
+ * read in random order)</li> <li>gene types of hits are written as a bitmask</li> <li>genes are written as indices in
+ * the gene table, aligned feature is omitted if it is the feature to align from parameters</li> <li>sequence1 of
+ * alignments is not written (it is the aligned feature of the gene), length of sequence2 range is derived from
+ * mutations, mutations are written as position deltas and mutation codes</li> <li>scores with at most two binary
+ * digits after the point (this includes all scores of linear and affine scorings with integer parameters) are written
+ * as varints, score of hit is omitted if it is the sum of scores of its alignments</li> <li>targets are written with
+ * {@link NSequenceWithQualityCodec}</li> </ul>
+ *
+ * Codec is stateful (see {@link #setCurrentIndex(long)}), so new instance is registered for each file.
+ */
+public final class VDJCAlignmentsCodec implements Serializer<VDJCAlignments> {
+    /**
+     * Mutation code is stored as (position << POSITION_SHIFT) | (type, from and to letters)
+     */
+    static final int POSITION_SHIFT = Integer.numberOfTrailingZeros(createDeletion(1, 0) ^ createDeletion(0, 0));
+    static final int LETTERS_MASK = (1 << POSITION_SHIFT) - 1;
+    static final int SCORE_QUANTUM = 4;
+    static final int NULL_ALIGNMENT = 0, COMPACT_ALIGNMENT = 1, GENERIC_ALIGNMENT = 2;
+    static final int DEFAULT_FEATURE = 1, SUM_SCORE = 2, GENE_NOT_IN_TABLE = 4;
+    static final GeneType[] GENE_TYPES = GeneType.values();
+
+    final IdentityHashMap<VDJCGene, Integer> geneIndices = new IdentityHashMap<>();
+    final VDJCGene[] genes;
+    final HasFeatureToAlign featuresToAlign;
+    /**
+     * Sequences of features to align by gene
+     */
+    final IdentityHashMap<VDJCGene, NucleotideSequence> sequences = new IdentityHashMap<>();
+    /**
+     * Apply lossy quality binning to targets
+     */
+    final boolean binQualities;
+    long currentIndex = 0;
+
+    public VDJCAlignmentsCodec(List<VDJCGene> genes, HasFeatureToAlign featuresToAlign) {
+        this(genes, featuresToAlign, false);
+    }
+
+    public VDJCAlignmentsCodec(List<VDJCGene> genes, HasFeatureToAlign featuresToAlign, boolean binQualities) {
+        this.binQualities = binQualities;
+        assert GENE_TYPES.length <= 8;
+        this.genes = genes.toArray(new VDJCGene[genes.size()]);
+        this.featuresToAlign = featuresToAlign;
+        for (int i = 0; i < this.genes.length; i++) {
+            VDJCGene gene = this.genes[i];
+            geneIndices.put(gene, i);
+            GeneFeature feature = featuresToAlign.getFeatureToAlign(gene.getGeneType());
+            if (feature != null)
+                sequences.put(gene, gene.getFeature(feature));
+        }
+    }
+
+    /**
+     * Sets index of the next record in file (read ids are encoded relative to it)
+     */
+    public void setCurrentIndex(long currentIndex) {
+        this.currentIndex = currentIndex;
+    }
+
+    @Override
+    public void write(PrimitivO output, VDJCAlignments object) {
+        NSequenceWithQualityCodec.writeArray(output, object.targets, binQualities);
+        output.writeObject(object.targetDescriptions);
+        output.writeObject(object.originalSequences);
+        output.writeObject(object.originalDescriptions);
+        output.writeObject(object.originalReadReferences);
+        int mask = 0;
+        for (GeneType gt : object.hits.keySet())
+            mask |= 1 << gt.ordinal();
+        output.writeByte((byte) mask);
+        // EnumMap is iterated in the order of ordinals
+        for (VDJCHit[] hits : object.hits.values()) {
+            output.writeVarInt(hits.length);
+            for (VDJCHit hit : hits)
+                writeHit(output, hit);
+        }
+        writeVarLong(output, zigZag(object.readId - currentIndex));
+    }
+
+    @Override
+    public VDJCAlignments read(PrimitivI input) {
+        NSequenceWithQuality[] targets = NSequenceWithQualityCodec.readArray(input);
+        String[] targetDescriptions = input.readObject(String[].class);
+        NSequenceWithQuality[] originalSequences = input.readObject(NSequenceWithQuality[].class);
+        String[] originalDescriptions = input.readObject(String[].class);
+        OriginalReadReference[] originalReadReferences = input.readObject(OriginalReadReference[].class);
+        int mask = input.readByte();
+        EnumMap<GeneType, VDJCHit[]> hits = new EnumMap<>(GeneType.class);
+        for (GeneType gt : GENE_TYPES)
+            if ((mask & (1 << gt.ordinal())) != 0) {
+                VDJCHit[] gtHits = new VDJCHit[input.readVarInt()];
+                for (int i = 0; i < gtHits.length; i++)
+                    gtHits[i] = readHit(input);
+                hits.put(gt, gtHits);
+            }
+        long readId = currentIndex + unZigZag(readVarLong(input));
+        VDJCAlignments vdjcAlignments = new VDJCAlignments(readId, hits, targets);
+        vdjcAlignments.setTargetDescriptions(targetDescriptions);
+        vdjcAlignments.setOriginalSequences(originalSequences);
+        vdjcAlignments.setOriginalDescriptions(originalDescriptions);
+        vdjcAlignments.setOriginalReadReferences(originalReadReferences);
+        return vdjcAlignments;
+    }
+
+    void writeHit(PrimitivO output, VDJCHit hit) {
+        VDJCGene gene = hit.getGene();
+        Integer geneIndex = geneIndices.get(gene);
+        boolean defaultFeature = hit.getAlignedFeature().equals(featuresToAlign.getFeatureToAlign(gene.getGeneType()));
+        float sum = 0.0f;
+        for (int i = 0; i < hit.numberOfTargets(); i++)
+            if (hit.getAlignment(i) != null)
+                sum += hit.getAlignment(i).getScore();
+        boolean sumScore = sum == hit.getScore();
+
+        output.writeByte((byte) ((defaultFeature ? DEFAULT_FEATURE : 0) | (sumScore ? SUM_SCORE : 0)
+                | (geneIndex == null ? GENE_NOT_IN_TABLE : 0)));
+        if (geneIndex == null)
+            output.writeObject(gene);
+        else
+            output.writeVarInt(geneIndex);
+        if (!defaultFeature)
+            output.writeObject(hit.getAlignedFeature());
+
+        NucleotideSequence sequence1 = sequence1(gene, hit.getAlignedFeature(), defaultFeature);
+        output.writeVarInt(hit.numberOfTargets());
+        for (int i = 0; i < hit.numberOfTargets(); i++)
+            writeAlignment(output, hit.getAlignment(i), sequence1);
+        if (!sumScore)
+            output.writeFloat(hit.getScore());
+    }
+
+    VDJCHit readHit(PrimitivI input) {
+        int flags = input.readByte();
+        VDJCGene gene = (flags & GENE_NOT_IN_TABLE) != 0
+                ? input.readObject(VDJCGene.class)
+                : genes[input.readVarInt()];
+        boolean defaultFeature = (flags & DEFAULT_FEATURE) != 0;
+        GeneFeature alignedFeature = defaultFeature
+                ? featuresToAlign.getFeatureToAlign(gene.getGeneType())
+                : input.readObject(GeneFeature.class);
+
+        NucleotideSequence sequence1 = sequence1(gene, alignedFeature, defaultFeature);
+        Alignment<NucleotideSequence>[] alignments = new Alignment[input.readVarInt()];
+        for (int i = 0; i < alignments.length; i++)
+            alignments[i] = readAlignment(input, sequence1);
+        if ((flags & SUM_SCORE) != 0)
+            return new VDJCHit(gene, alignments, alignedFeature);
+        return new VDJCHit(gene, alignments, alignedFeature, input.readFloat());
+    }
+
+    private NucleotideSequence sequence1(VDJCGene gene, GeneFeature alignedFeature, boolean defaultFeature) {
+        NucleotideSequence sequence = defaultFeature ? sequences.get(gene) : null;
+        return sequence == null ? gene.getFeature(alignedFeature) : sequence;
+    }
+
+    static void writeAlignment(PrimitivO output, Alignment<NucleotideSequence> alignment,
+                               NucleotideSequence sequence1) {
+        if (alignment == null) {
+            output.writeVarInt(NULL_ALIGNMENT);
+            return;
+        }
+
+        Mutations<NucleotideSequence> mutations = alignment.getAbsoluteMutations();
+        Range range1 = alignment.getSequence1Range(), range2 = alignment.getSequence2Range();
+        if (range1.isReverse() || range2.isReverse()
+                || range2.length() != range1.length() + lengthDelta(mutations)
+                || (sequence1 != alignment.getSequence1() && !alignment.getSequence1().equals(sequence1))) {
+            output.writeVarInt(GENERIC_ALIGNMENT);
+            output.writeObject(alignment);
+            return;
+        }
+
+        output.writeVarInt(COMPACT_ALIGNMENT);
+        output.writeVarInt(range1.getFrom());
+        output.writeVarInt(range1.length());
+        output.writeVarInt(range2.getFrom());
+        output.writeVarInt(mutations.size());
+        int previous = range1.getFrom();
+        for (int i = 0; i < mutations.size(); i++) {
+            int code = mutations.getMutation(i), position = code >>> POSITION_SHIFT;
+            output.writeVarInt(zigZag(position - previous));
+            output.writeVarInt(code & LETTERS_MASK);
+            previous = position;
+        }
+        writeScore(output, alignment.getScore());
+    }
+
+    static Alignment<NucleotideSequence> readAlignment(PrimitivI input, NucleotideSequence sequence1) {
+        switch (input.readVarInt()) {
+            case NULL_ALIGNMENT:
+                return null;
+            case GENERIC_ALIGNMENT:
+                return input.readObject(Alignment.class);
+        }
+
+        int from1 = input.readVarInt(), length1 = input.readVarInt(), from2 = input.readVarInt();
+        int[] codes = new int[input.readVarInt()];
+        int position = from1;
+        for (int i = 0; i < codes.length; i++) {
+            position += unZigZag(input.readVarInt());
+            codes[i] = (position << POSITION_SHIFT) | input.readVarInt();
+        }
+        Mutations<NucleotideSequence> mutations = new Mutations<>(NucleotideSequence.ALPHABET, codes);
+        float score = readScore(input);
+        return new Alignment<>(sequence1, mutations, new Range(from1, from1 + length1),
+                new Range(from2, from2 + length1 + lengthDelta(mutations)), score);
+    }
+
+    /**
+     * Returns difference between lengths of mutated and original sequences
+     */
+    static int lengthDelta(Mutations<NucleotideSequence> mutations) {
+        int delta = 0;
+        for (int i = 0; i < mutations.size(); i++)
+            switch (mutations.getMutation(i) & MUTATION_TYPE_MASK) {
+                case RAW_MUTATION_TYPE_INSERTION:
+                    ++delta;
+                    break;
+                case RAW_MUTATION_TYPE_DELETION:
+                    --delta;
+                    break;
+            }
+        return delta;
+    }
+
+    static void writeScore(PrimitivO output, float score) {
+        float scaled = score * SCORE_QUANTUM;
+        int quantized = (int) scaled;
+        if (quantized == scaled && Math.abs(quantized) < (1 << 28)
+                && (quantized != 0 || Float.floatToRawIntBits(score) == 0))
+            output.writeVarInt(zigZag(quantized) << 1);
+        else {
+            output.writeVarInt(1);
+            output.writeFloat(score);
+        }
+    }
+
+    static float readScore(PrimitivI input) {
+        int value = input.readVarInt();
+        if ((value & 1) == 0)
+            return 1.0f * unZigZag(value >>> 1) / SCORE_QUANTUM;
+        return input.readFloat();
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(PrimitivO output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((byte) value);
+    }
+
+    static long readVarLong(PrimitivI input) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    @Override
+    public boolean isReference() {
+        return true;
+    }
+
+    @Override
+    public boolean handlesReference() {
+        return false;
+    }
+}
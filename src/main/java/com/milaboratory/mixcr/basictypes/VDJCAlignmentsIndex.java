@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.core.io.CompressionType;
+import io.repseq.core.VDJCLibraryRegistry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sparse index of uncompressed .vdjca file: byte offsets and read ids of every {@code step}-th alignment. Allows to
+ * open readers positioned at arbitrary parts of the file (see {@link #openReader(int, VDJCLibraryRegistry)}), e.g.
+ * to process parts of the file concurrently.
+ *
+ * Index can be saved next to the indexed file (see {@link #getIndexFile(File)}); saved index is used only if size
+ * and modification time of the indexed file are the same as at the time of indexing.
+ */
+public final class VDJCAlignmentsIndex {
+    static final String MAGIC = "MiXCR.VIDX.V01";
+    static final int MAGIC_LENGTH = 14;
+    public static final int DEFAULT_STEP = 1024;
+    public static final String INDEX_EXTENSION = ".idx";
+
+    final File file;
+    final long fileLength, lastModified;
+    final int step;
+    /**
+     * Offsets and read ids of alignments with indices 0, step, 2 * step, ...
+     */
+    final long[] offsets, readIds;
+    final long numberOfAlignments, numberOfReads;
+
+    VDJCAlignmentsIndex(File file, long fileLength, long lastModified, int step,
+                        long[] offsets, long[] readIds, long numberOfAlignments, long numberOfReads) {
+        this.file = file;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.step = step;
+        this.offsets = offsets;
+        this.readIds = readIds;
+        this.numberOfAlignments = numberOfAlignments;
+        this.numberOfReads = numberOfReads;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns number of index entries
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns read id of the first alignment of the i-th entry
+     */
+    public long getReadId(int entry) {
+        return readIds[entry];
+    }
+
+    public long getNumberOfAlignments() {
+        return numberOfAlignments;
+    }
+
+    /**
+     * Returns number of reads processed to produce the indexed file (see {@link VDJCAlignmentsReader#getNumberOfReads()})
+     */
+    public long getNumberOfReads() {
+        return numberOfReads;
+    }
+
+    /**
+     * Returns the last entry which first alignment has read id less than the given one, or 0 if there is no such
+     * entry. All alignments with read ids greater or equal to the given one are located after this entry (alignments
+     * in the file are expected to be sorted by read id).
+     */
+    public int floorEntry(long readId) {
+        // Searching for the first entry with read id greater or equal to the given one
+        int from = 0, to = readIds.length;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (readIds[mid] < readId)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return Math.max(from - 1, 0);
+    }
+
+    /**
+     * Opens reader positioned at the first alignment of the entry.
+     */
+    public VDJCAlignmentsReader openReader(int entry, VDJCLibraryRegistry registry) throws IOException {
+        SeekableFileInputStream stream = new SeekableFileInputStream(file);
+        VDJCAlignmentsReader reader = new VDJCAlignmentsReader(stream, registry, fileLength);
+        try {
+            reader.init();
+            stream.seek(offsets[entry]);
+            // read ids are encoded relative to the index of the record
+            reader.counter = (long) entry * step;
+        } catch (RuntimeException | IOException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * Returns whether file can be indexed (i.e. it is not compressed)
+     */
+    public static boolean isIndexable(File file) throws IOException {
+        return CompressionType.detectCompressionType(file) == CompressionType.None && !IOUtil.isFastCompressed(file);
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Loads saved index of the file, or builds a new one (and saves it if requested).
+     *
+     * @param file     uncompressed .vdjca file
+     * @param registry library registry
+     * @param save     save newly built index next to the file (errors during saving are ignored)
+     */
+    public static VDJCAlignmentsIndex get(File file, VDJCLibraryRegistry registry, boolean save) throws IOException {
+        File indexFile = getIndexFile(file);
+        if (indexFile.exists()) {
+            VDJCAlignmentsIndex index = load(file, indexFile);
+            if (index != null)
+                return index;
+        }
+        VDJCAlignmentsIndex index = build(file, registry, DEFAULT_STEP);
+        if (save)
+            try {
+                index.save(indexFile);
+            } catch (IOException e) {
+                indexFile.delete();
+            }
+        return index;
+    }
+
+    /**
+     * Builds index by reading the whole file.
+     */
+    public static VDJCAlignmentsIndex build(File file, VDJCLibraryRegistry registry, int step) throws IOException {
+        if (!isIndexable(file))
+            throw new IllegalArgumentException("Can't index compressed file: " + file);
+        long length = file.length(), lastModified = file.lastModified();
+        long[] offsets = new long[16], readIds = new long[16];
+        int size = 0;
+        long count = 0;
+        try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(file, registry)) {
+            reader.init();
+            while (true) {
+                long offset = reader.indexingStream.getBytesRead();
+                VDJCAlignments alignments = reader.take();
+                if (alignments == null)
+                    break;
+                if (count % step == 0) {
+                    if (size == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, size * 2);
+                        readIds = Arrays.copyOf(readIds, size * 2);
+                    }
+                    offsets[size] = offset;
+                    readIds[size] = alignments.getReadId();
+                    ++size;
+                }
+                ++count;
+            }
+            return new VDJCAlignmentsIndex(file, length, lastModified, step,
+                    Arrays.copyOf(offsets, size), Arrays.copyOf(readIds, size), count, reader.getNumberOfReads());
+        }
+    }
+
+    public void save(File indexFile) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            output.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            output.writeLong(fileLength);
+            output.writeLong(lastModified);
+            output.writeInt(step);
+            output.writeLong(numberOfAlignments);
+            output.writeLong(numberOfReads);
+            output.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                output.writeLong(offsets[i]);
+                output.writeLong(readIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Loads saved index, returns null if index is outdated or corrupted
+     */
+    static VDJCAlignmentsIndex load(File file, File indexFile) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            byte[] magic = new byte[MAGIC_LENGTH];
+            input.readFully(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)))
+                return null;
+            long fileLength = input.readLong(), lastModified = input.readLong();
+            if (fileLength != file.length() || lastModified != file.lastModified())
+                return null;
+            int step = input.readInt();
+            long numberOfAlignments = input.readLong(), numberOfReads = input.readLong();
+            int size = input.readInt();
+            long[] offsets = new long[size], readIds = new long[size];
+            for (int i = 0; i < size; i++) {
+                offsets[i] = input.readLong();
+                readIds[i] = input.readLong();
+            }
+            return new VDJCAlignmentsIndex(file, fileLength, lastModified, step, offsets, readIds,
+                    numberOfAlignments, numberOfReads);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Buffered file input stream which can be repositioned
+     */
+    static final class SeekableFileInputStream extends InputStream {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+
+        SeekableFileInputStream(File file) throws IOException {
+            this.channel = new FileInputStream(file).getChannel();
+            buffer.flip();
+        }
+
+        void seek(long position) throws IOException {
+            channel.position(position);
+            buffer.clear();
+            buffer.flip();
+        }
+
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            return read > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining() && !fill())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import cc.redberry.pipe.OutputPortCloseable;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
+import com.milaboratory.util.CanReportProgress;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCGeneId;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Concatenates several .vdjca files. Inputs are decoded in parallel (up to the given number of files at a time, in
+ * order of inputs), while records are returned in the order of inputs with read ids shifted by the total number of
+ * reads in preceding files, so read ids stay unique. Headers are reconciled: used genes are the union of genes of all
+ * inputs, sources of original reads are concatenated (and references to them are shifted accordingly).
+ */
+public final class VDJCAlignmentsMerger implements OutputPortCloseable<VDJCAlignments>, CanReportProgress {
+    static final int CHUNK_SIZE = 1024;
+    static final int QUEUE_CAPACITY = 16;
+    static final List<VDJCAlignments> END = Collections.emptyList();
+
+    final List<VDJCAlignmentsReader> readers;
+    final List<BlockingQueue<List<VDJCAlignments>>> queues;
+    final ExecutorService decoders;
+    final VDJCAlignerParameters parameters;
+    final boolean parametersConsistent;
+    final List<VDJCGene> usedGenes;
+    final List<OriginalReadsSource> originalReadsSources;
+    /**
+     * Index of the first source of each input in the merged list of sources
+     */
+    final int[] sourcesOffsets;
+    volatile Throwable error;
+    int currentInput = 0;
+    Iterator<VDJCAlignments> currentChunk = Collections.emptyIterator();
+    long readIdOffset = 0, nextReadId = 0, alignmentsIndex = 0;
+    volatile boolean finished = false;
+
+    public VDJCAlignmentsMerger(List<VDJCAlignmentsReader> readers, int threads) {
+        if (readers.isEmpty())
+            throw new IllegalArgumentException("No input files.");
+        this.readers = readers;
+
+        // Header reconciliation
+        this.parameters = readers.get(0).getParameters();
+        boolean parametersConsistent = true;
+        Map<VDJCGeneId, VDJCGene> genes = new LinkedHashMap<>();
+        List<OriginalReadsSource> sources = new ArrayList<>();
+        this.sourcesOffsets = new int[readers.size()];
+        for (int i = 0; i < readers.size(); i++) {
+            VDJCAlignmentsReader reader = readers.get(i);
+            parametersConsistent &= parameters.equals(reader.getParameters());
+            for (VDJCGene gene : reader.getUsedGenes())
+                if (!genes.containsKey(gene.getId()))
+                    genes.put(gene.getId(), gene);
+            sourcesOffsets[i] = sources.size();
+            sources.addAll(reader.getOriginalReadsSources());
+        }
+        this.parametersConsistent = parametersConsistent;
+        this.usedGenes = new ArrayList<>(genes.values());
+        this.originalReadsSources = sources;
+
+        // Decoders are started in order of inputs, so the input currently returned by take() is always being
+        // decoded (or already decoded) and bounded queues of subsequent inputs can not block it
+        this.queues = new ArrayList<>(readers.size());
+        for (int i = 0; i < readers.size(); i++)
+            queues.add(new ArrayBlockingQueue<List<VDJCAlignments>>(QUEUE_CAPACITY));
+        this.decoders = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, readers.size())),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "vdjca-decoder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        for (int i = 0; i < readers.size(); i++) {
+            final VDJCAlignmentsReader reader = readers.get(i);
+            final BlockingQueue<List<VDJCAlignments>> queue = queues.get(i);
+            decoders.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<VDJCAlignments> chunk = new ArrayList<>(CHUNK_SIZE);
+                        VDJCAlignments alignments;
+                        while ((alignments = reader.take()) != null) {
+                            chunk.add(alignments);
+                            if (chunk.size() == CHUNK_SIZE) {
+                                queue.put(chunk);
+                                chunk = new ArrayList<>(CHUNK_SIZE);
+                            }
+                        }
+                        if (!chunk.isEmpty())
+                            queue.put(chunk);
+                        queue.put(END);
+                    } catch (InterruptedException e) {
+                        // merger was closed
+                    } catch (Throwable e) {
+                        error = e;
+                        // consumer checks error after each chunk, so remaining chunks can be dropped
+                        queue.clear();
+                        queue.offer(END);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns parameters of the first input
+     */
+    public VDJCAlignerParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Returns true if all inputs were aligned with the same parameters
+     */
+    public boolean isParametersConsistent() {
+        return parametersConsistent;
+    }
+
+    /**
+     * Returns union of genes used in all inputs
+     */
+    public List<VDJCGene> getUsedGenes() {
+        return usedGenes;
+    }
+
+    /**
+     * Returns concatenated sources of original reads of all inputs
+     */
+    public List<OriginalReadsSource> getOriginalReadsSources() {
+        return originalReadsSources;
+    }
+
+    /**
+     * Returns total number of reads processed to produce all inputs (available after all records are taken)
+     */
+    public long getNumberOfReads() {
+        return readIdOffset;
+    }
+
+    @Override
+    public synchronized VDJCAlignments take() {
+        while (!currentChunk.hasNext()) {
+            if (currentInput == readers.size())
+                return null;
+            List<VDJCAlignments> chunk;
+            try {
+                chunk = queues.get(currentInput).take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (error != null)
+                throw new RuntimeException(error);
+            if (chunk == END) {
+                // Input is fully read, so its footer with number of reads is available
+                long numberOfReads = readers.get(currentInput).getNumberOfReads();
+                readIdOffset += numberOfReads < 0 ? nextReadId : Math.max(numberOfReads, nextReadId);
+                nextReadId = 0;
+                if (++currentInput == readers.size())
+                    finished = true;
+            } else
+                currentChunk = chunk.iterator();
+        }
+
+        VDJCAlignments alignments = currentChunk.next();
+        nextReadId = Math.max(nextReadId, alignments.getReadId() + 1);
+        VDJCAlignments result = new VDJCAlignments(readIdOffset + alignments.getReadId(), alignmentsIndex++,
+                alignments);
+        OriginalReadReference[] references = alignments.getOriginalReadReferences();
+        int sourcesOffset = sourcesOffsets[currentInput];
+        if (references != null && sourcesOffset != 0) {
+            OriginalReadReference[] shifted = new OriginalReadReference[references.length];
+            for (int i = 0; i < references.length; i++)
+                shifted[i] = new OriginalReadReference(references[i].getFileId() + sourcesOffset,
+                        references[i].getOffset(), references[i].getLength());
+            result.setOriginalReadReferences(shifted);
+        }
+        return result;
+    }
+
+    @Override
+    public double getProgress() {
+        double progress = 0;
+        for (VDJCAlignmentsReader reader : readers)
+            progress += reader.isFinished() ? 1.0 : reader.getProgress();
+        return progress / readers.size();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        decoders.shutdownNow();
+        try {
+            decoders.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        for (VDJCAlignmentsReader reader : readers)
+            reader.close();
+    }
+}
@@ -30,6 +30,7 @@ package com.milaboratory.mixcr.basictypes;
 
 import cc.redberry.pipe.OutputPortCloseable;
 import com.milaboratory.core.io.CompressionType;
+import com.milaboratory.mixcr.util.LZ4BlockInputStream;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
 import com.milaboratory.primitivio.PrimitivI;
 import com.milaboratory.primitivio.SerializersManager;
@@ -42,6 +43,7 @@ import io.repseq.core.VDJCGene;
 import io.repseq.core.VDJCLibraryRegistry;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -51,7 +53,9 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
     private static final int DEFAULT_BUFFER_SIZE = 1048576; // 1 MB
     VDJCAlignerParameters parameters;
     List<VDJCGene> usedGenes;
+    List<OriginalReadsSource> originalReadsSources;
     final PrimitivI input;
+    VDJCAlignmentsCodec codec;
     final VDJCLibraryRegistry vdjcRegistry;
     String versionInfo;
     String magic;
@@ -78,7 +82,11 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
     public VDJCAlignmentsReader(File file, VDJCLibraryRegistry vdjcRegistry) throws IOException {
         CompressionType ct = CompressionType.detectCompressionType(file);
         this.countingInputStream = new CountingInputStream(new FileInputStream(file));
-        if (ct == CompressionType.None)
+        if (IOUtil.isFastCompressed(file)) {
+            this.input = new PrimitivI(new LZ4BlockInputStream(
+                    new BufferedInputStream(countingInputStream, DEFAULT_BUFFER_SIZE)));
+            indexingStream = null;
+        } else if (ct == CompressionType.None)
             this.input = new PrimitivI(indexingStream = new CountingInputStream(
                     new BufferedInputStream(countingInputStream, DEFAULT_BUFFER_SIZE)));
         else {
@@ -134,6 +142,9 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
 
         SerializersManager serializersManager = input.getSerializersManager();
         switch (magicString) {
+            case MAGIC_V9:
+                CompatibilityIO.registerV9Serializers(serializersManager);
+                break;
             case MAGIC:
                 break;
             default:
@@ -146,6 +157,10 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
 
         this.usedGenes = IOUtil.readGeneReferences(input, vdjcRegistry, parameters);
 
+        this.originalReadsSources = magicString.equals(MAGIC_V9)
+                ? Collections.<OriginalReadsSource>emptyList()
+                : IO.readOriginalReadsSources(input);
+
         // Registering links to features to align
         for (GeneType gt : GeneType.VDJC_REFERENCE) {
             GeneFeature featureParams = parameters.getFeatureToAlign(gt);
@@ -155,6 +170,11 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
             if (featureDeserialized != null)
                 input.putKnownReference(featureParams);
         }
+
+        if (magicString.equals(MAGIC)) {
+            codec = new VDJCAlignmentsCodec(usedGenes, parameters);
+            serializersManager.registerCustomSerializer(VDJCAlignments.class, codec);
+        }
     }
 
     public synchronized VDJCAlignerParameters getParameters() {
@@ -167,6 +187,15 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
         return usedGenes;
     }
 
+    /**
+     * Returns source files of original reads referenced from alignments (see {@link
+     * VDJCAlignments#getOriginalReadReferences()})
+     */
+    public synchronized List<OriginalReadsSource> getOriginalReadsSources() {
+        init();
+        return originalReadsSources;
+    }
+
     /**
      * Returns information about version of MiXCR which produced this file.
      *
@@ -222,6 +251,17 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
         }
     }
 
+    /**
+     * Reads alignments record at the current position of underlying input, that was written with the given index (used
+     * for random access, as read ids are stored relative to the record index).
+     *
+     * @param index index of the record in the file
+     */
+    public synchronized VDJCAlignments take(long index) {
+        counter = index;
+        return take();
+    }
+
     @Override
     public synchronized VDJCAlignments take() {
         if (closed)
@@ -232,6 +272,9 @@ public final class VDJCAlignmentsReader implements OutputPortCloseable<VDJCAlign
         if (index != null)
             index.add(indexingStream.getBytesRead());
 
+        if (codec != null)
+            codec.setCurrentIndex(counter);
+
         VDJCAlignments alignments = input.readObject(VDJCAlignments.class);
 
         if (alignments == null) {
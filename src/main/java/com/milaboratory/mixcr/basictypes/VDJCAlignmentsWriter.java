@@ -40,6 +40,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 
 public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
@@ -50,11 +51,16 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
     static final String MAGIC_V7 = "MiXCR.VDJC.V07";
     static final String MAGIC_V8 = "MiXCR.VDJC.V08";
     static final String MAGIC_V9 = "MiXCR.VDJC.V09";
-    static final String MAGIC = MAGIC_V9;
+    static final String MAGIC_V10 = "MiXCR.VDJC.V10";
+    static final String MAGIC = MAGIC_V10;
     static final int MAGIC_LENGTH = 14;
     static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
     final PrimitivO output;
+    VDJCAlignmentsCodec codec;
+    long numberOfWrittenAlignments = 0;
     long numberOfProcessedReads = -1;
+    List<OriginalReadsSource> originalReadsSources = Collections.emptyList();
+    boolean binQualities = false;
     boolean header = false, closed = false;
 
     public VDJCAlignmentsWriter(String fileName) throws IOException {
@@ -65,6 +71,13 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
         this(IOUtil.createOS(file));
     }
 
+    /**
+     * @param fastCompression compress file with fast block codec regardless of extension
+     */
+    public VDJCAlignmentsWriter(File file, boolean fastCompression) throws IOException {
+        this(IOUtil.createOS(file, fastCompression));
+    }
+
     public VDJCAlignmentsWriter(OutputStream output) {
         this.output = new PrimitivO(output);
     }
@@ -74,6 +87,25 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
         this.numberOfProcessedReads = numberOfProcessedReads;
     }
 
+    /**
+     * Sets source files of original reads referenced from alignments, should be called before header is written
+     */
+    public void setOriginalReadsSources(List<OriginalReadsSource> originalReadsSources) {
+        if (header)
+            throw new IllegalStateException();
+        this.originalReadsSources = originalReadsSources;
+    }
+
+    /**
+     * Enables lossy binning of target qualities (see {@link NSequenceWithQualityCodec}), should be called before
+     * header is written
+     */
+    public void setBinQualities(boolean binQualities) {
+        if (header)
+            throw new IllegalStateException();
+        this.binQualities = binQualities;
+    }
+
     public void header(VDJCAligner aligner) {
         header(aligner.getParameters(), aligner.getUsedGenes());
     }
@@ -100,6 +132,8 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
 
         IOUtil.writeGeneReferences(output, genes, parameters);
 
+        IO.writeOriginalReadsSources(output, originalReadsSources);
+
         // Registering links to features to align
         for (GeneType gt : GeneType.VDJC_REFERENCE) {
             GeneFeature feature = parameters.getFeatureToAlign(gt);
@@ -108,6 +142,10 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
                 output.putKnownReference(feature);
         }
 
+        // Alignments are serialized using gene table from the header
+        codec = new VDJCAlignmentsCodec(genes, parameters, binQualities);
+        output.getSerializersManager().registerCustomSerializer(VDJCAlignments.class, codec);
+
         header = true;
     }
 
@@ -119,6 +157,7 @@ public final class VDJCAlignmentsWriter implements VDJCAlignmentsWriterI {
         if (alignment == null)
             throw new NullPointerException();
 
+        codec.setCurrentIndex(numberOfWrittenAlignments++);
         output.writeObject(alignment);
     }
 
@@ -30,6 +30,7 @@ package com.milaboratory.mixcr.cli;
 
 import cc.redberry.pipe.CUtils;
 import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.Processor;
 import cc.redberry.pipe.blocks.ParallelProcessor;
 import cc.redberry.pipe.util.Chunk;
 import cc.redberry.pipe.util.CountLimitingOutputPort;
@@ -45,6 +46,7 @@ import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParametersWithOutput;
 import com.milaboratory.cli.ProcessException;
 import com.milaboratory.core.PairedEndReadsLayout;
+import com.milaboratory.core.io.sequence.PairedRead;
 import com.milaboratory.core.io.sequence.SequenceRead;
 import com.milaboratory.core.io.sequence.SequenceReaderCloseable;
 import com.milaboratory.core.io.sequence.SequenceWriter;
@@ -56,19 +58,33 @@ import com.milaboratory.core.io.sequence.fastq.SingleFastqReader;
 import com.milaboratory.core.io.sequence.fastq.SingleFastqWriter;
 import com.milaboratory.core.sequence.NSequenceWithQuality;
 import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.mixcr.basictypes.IOUtil;
+import com.milaboratory.mixcr.basictypes.OriginalReadReference;
+import com.milaboratory.mixcr.basictypes.OriginalReadsSource;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsMerger;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
 import com.milaboratory.mixcr.basictypes.VDJCHit;
+import com.milaboratory.mixcr.util.MappedSequenceReader;
+import com.milaboratory.mixcr.util.ParallelGzipInputStream;
+import com.milaboratory.mixcr.util.PipelineMetrics;
+import com.milaboratory.mixcr.vdjaligners.AdaptiveMerger;
+import com.milaboratory.mixcr.vdjaligners.ReadLatencyProfiler;
 import com.milaboratory.mixcr.vdjaligners.VDJCAligner;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerWithCache;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerWithMerge;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignmentResult;
 import com.milaboratory.mixcr.vdjaligners.VDJCParametersPresets;
 import com.milaboratory.util.CanReportProgress;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static cc.redberry.pipe.CUtils.chunked;
 import static cc.redberry.pipe.CUtils.unchunked;
@@ -82,6 +98,9 @@ public class ActionAlign implements Action {
         // Saving initial timestamp
         long beginTimestamp = System.currentTimeMillis();
 
+        if (actionParameters.metrics != null)
+            PipelineMetrics.enable();
+
         // Getting aligner parameters
         VDJCAlignerParameters alignerParameters = actionParameters.getAlignerParameters();
 
@@ -168,77 +187,71 @@ public class ActionAlign implements Action {
                     "(turn warnings by adding -w option).");
 
         AlignerReport report = new AlignerReport();
-        aligner.setEventsListener(report);
 
-        ChainUsageStats chainsStatistics = new ChainUsageStats();
+        if (actionParameters.getAdaptiveMerging()) {
+            AdaptiveMerger adaptiveMerger = ((VDJCAlignerWithMerge) aligner).setAdaptiveMerging(
+                    actionParameters.adaptiveMergingSample, actionParameters.adaptiveMergingMinRate);
+            collectAdaptiveMergingSample(adaptiveMerger, actionParameters.getShards().get(0));
+            report.setAdaptiveMerger(adaptiveMerger);
+        }
 
-        try (SequenceReaderCloseable<? extends SequenceRead> reader = actionParameters.createReader();
-
-             VDJCAlignmentsWriter writer = actionParameters.getOutputName().equals(".") ? null : new VDJCAlignmentsWriter(actionParameters.getOutputName());
-
-             SequenceWriter notAlignedWriter = actionParameters.failedReadsR1 == null
-                     ? null
-                     : (actionParameters.isInputPaired()
-                     ? new PairedFastqWriter(actionParameters.failedReadsR1, actionParameters.failedReadsR2)
-                     : new SingleFastqWriter(actionParameters.failedReadsR1));
-        ) {
-            if (writer != null) writer.header(aligner);
-            OutputPort<? extends SequenceRead> sReads = reader;
-            CanReportProgress progress = (CanReportProgress) reader;
-            if (actionParameters.limit != 0) {
-                sReads = new CountLimitingOutputPort<>(sReads, actionParameters.limit);
-                progress = SmartProgressReporter.extractProgress((CountLimitingOutputPort<?>) sReads);
-            }
+        if (actionParameters.getDeduplicate()) {
+            VDJCAlignerWithCache alignerWithCache = new VDJCAlignerWithCache(aligner, actionParameters.dedupCacheSize);
+            report.setAlignerWithCache(alignerWithCache);
+            aligner = alignerWithCache;
+        }
 
-            final boolean writeAllResults = actionParameters.getWriteAllResults();
-            EnumMap<GeneType, VDJCHit[]> emptyHits = new EnumMap<>(GeneType.class);
-            for (GeneType gt : GeneType.values())
-                if (alignerParameters.getGeneAlignerParameters(gt) != null)
-                    emptyHits.put(gt, new VDJCHit[0]);
-            final PairedEndReadsLayout readsLayout = alignerParameters.getReadsLayout();
+        aligner.setEventsListener(report);
 
-            SmartProgressReporter.startProgressReport("Alignment", progress);
-            OutputPort<Chunk<? extends SequenceRead>> mainInputReads = CUtils.buffered((OutputPort) chunked(sReads, 64), 16);
-            OutputPort<VDJCAlignmentResult> alignments = unchunked(new ParallelProcessor(mainInputReads, chunked(aligner), actionParameters.threads));
-            for (VDJCAlignmentResult result : CUtils.it(
-                    new OrderedOutputPort<>(alignments,
-                            new Indexer<VDJCAlignmentResult>() {
-                                @Override
-                                public long getIndex(VDJCAlignmentResult o) {
-                                    return o.read.getId();
-                                }
-                            }))) {
-                VDJCAlignments alignment = result.alignment;
-                SequenceRead read = result.read;
-                if (alignment == null) {
-                    if (writeAllResults)
-                        // Creating empty alignment object if alignment for current read failed
-                        alignment = new VDJCAlignments(read.getId(), emptyHits,
-                                readsLayout.createTargets(read)[0].targets);
-                    else {
-                        if (notAlignedWriter != null)
-                            notAlignedWriter.write(result.read);
-                        continue;
-                    }
-                }
+        ReadLatencyProfiler latencyProfiler = null;
+        if (actionParameters.getProfileLatency()) {
+            latencyProfiler = new ReadLatencyProfiler(actionParameters.slowReadsR1 == null
+                    ? 0 : actionParameters.slowReadsCount);
+            aligner.setLatencyProfiler(latencyProfiler);
+            report.setLatencyProfiler(latencyProfiler);
+        }
 
-                chainsStatistics.put(alignment);
+        ChainUsageStats chainsStatistics = new ChainUsageStats();
 
-                if (alignment.isChimera())
-                    report.onChimera();
+        List<String[]> shards = actionParameters.getShards();
+        try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Alignment")) {
+            try (SequenceWriter notAlignedWriter = actionParameters.failedReadsR1 == null
+                    ? null
+                    : (actionParameters.isInputPaired()
+                    ? new PairedFastqWriter(actionParameters.failedReadsR1, actionParameters.failedReadsR2)
+                    : new SingleFastqWriter(actionParameters.failedReadsR1))) {
+                if (shards.size() == 1)
+                    try (SequenceReaderCloseable<? extends SequenceRead> reader =
+                                 actionParameters.createReader(shards.get(0));
+
+                         VDJCAlignmentsWriter writer = actionParameters.getOutputName().equals(".") ? null : new VDJCAlignmentsWriter(
+                                 new File(actionParameters.getOutputName()), actionParameters.getFastCompression())
+                    ) {
+                        if (writer != null)
+                            writer.setBinQualities(actionParameters.getBinQualities());
+                        align(reader, writer, shards.get(0), aligner, notAlignedWriter, actionParameters.threads, true,
+                                report, chainsStatistics, latencyProfiler, 0, metrics);
+                    }
+                else
+                    alignShards(shards, aligner, notAlignedWriter, report, chainsStatistics, latencyProfiler, metrics);
+            }
 
-                if (writer != null) {
-                    if (actionParameters.getSaveReadDescription() || actionParameters.getSaveOriginalReads())
-                        alignment.setOriginalDescriptions(extractDescriptions(read));
-                    if (actionParameters.getSaveOriginalReads())
-                        alignment.setOriginalSequences(extractSequences(read));
+            metrics.addRecords(report.getTotal());
+            for (String[] shard : shards)
+                for (String file : shard)
+                    metrics.addBytesRead(new File(file).length());
+            if (!actionParameters.getOutputName().equals("."))
+                metrics.addBytesWritten(new File(actionParameters.getOutputName()).length());
+        }
 
-                    writer.write(alignment);
-                }
+        // Writing the slowest reads
+        if (actionParameters.slowReadsR1 != null)
+            try (SequenceWriter slowReadsWriter = actionParameters.isInputPaired()
+                    ? new PairedFastqWriter(actionParameters.slowReadsR1, actionParameters.slowReadsR2)
+                    : new SingleFastqWriter(actionParameters.slowReadsR1)) {
+                for (ReadLatencyProfiler.SlowRead slowRead : latencyProfiler.getSlowestReads())
+                    slowReadsWriter.write(slowRead.getAnnotatedRead());
             }
-            if (writer != null)
-                writer.setNumberOfProcessedReads(reader.getNumberOfReads());
-        }
 
         long time = System.currentTimeMillis() - beginTimestamp;
 
@@ -249,6 +262,288 @@ public class ActionAlign implements Action {
         if (actionParameters.report != null)
             Util.writeReport(actionParameters.getInputForReport(), actionParameters.getOutputName(),
                     helper.getCommandLineArguments(), actionParameters.report, time, report, chainsStatistics);
+
+        if (actionParameters.metrics != null)
+            Util.writeMetrics(actionParameters.metrics, command(), helper.getCommandLineArguments());
+    }
+
+    /**
+     * Collects sample for adaptive merging by a sequential pass over the first reads of the input before alignment, so
+     * the decision doesn't depend on the number of threads
+     */
+    private void collectAdaptiveMergingSample(AdaptiveMerger adaptiveMerger, String[] input) throws IOException {
+        try (SequenceReaderCloseable<? extends SequenceRead> reader = actionParameters.createReader(input)) {
+            SequenceRead read;
+            long count = 0;
+            while ((actionParameters.limit == 0 || count++ < actionParameters.limit)
+                    && (read = reader.take()) != null)
+                if (!adaptiveMerger.sample((PairedRead) read))
+                    break;
+        }
+        adaptiveMerger.decide();
+    }
+
+    /**
+     * Aligns reads of a single input (one file or a pair of files) and writes results to writer (if not null)
+     */
+    @SuppressWarnings("unchecked")
+    private void align(SequenceReaderCloseable<? extends SequenceRead> reader, VDJCAlignmentsWriter writer,
+                       String[] input, VDJCAligner aligner, SequenceWriter notAlignedWriter, int threads,
+                       boolean reportProgress, AlignerReport report, ChainUsageStats chainsStatistics,
+                       final ReadLatencyProfiler latencyProfiler, final int source, PipelineMetrics.Stage metrics)
+            throws Exception {
+        VDJCAlignerParameters alignerParameters = aligner.getParameters();
+        MappedSequenceReader<?> referencesSource = null;
+        if (actionParameters.getSaveReadReferences()) {
+            referencesSource = (MappedSequenceReader<?>) reader;
+            referencesSource.enableReferences();
+            if (writer != null)
+                writer.setOriginalReadsSources(actionParameters.getOriginalReadsSources(input));
+        }
+        // memory-mapped reader materializes descriptions only if they are required, so its reads are seeded with
+        // positions of records instead (same seeds whether descriptions are materialized or not)
+        final MappedSequenceReader<?> positionsSource = alignerParameters.isFixSeed()
+                && reader instanceof MappedSequenceReader ? (MappedSequenceReader<?>) reader : null;
+        if (positionsSource != null)
+            positionsSource.enablePositionHashes();
+        if (writer != null)
+            writer.header(aligner);
+        OutputPort<? extends SequenceRead> sReads = reader;
+        CanReportProgress progress = (CanReportProgress) reader;
+        if (actionParameters.limit != 0) {
+            sReads = new CountLimitingOutputPort<>(sReads, actionParameters.limit);
+            progress = SmartProgressReporter.extractProgress((CountLimitingOutputPort<?>) sReads);
+        }
+
+        final boolean writeAllResults = actionParameters.getWriteAllResults();
+        EnumMap<GeneType, VDJCHit[]> emptyHits = new EnumMap<>(GeneType.class);
+        for (GeneType gt : GeneType.values())
+            if (alignerParameters.getGeneAlignerParameters(gt) != null)
+                emptyHits.put(gt, new VDJCHit[0]);
+        final PairedEndReadsLayout readsLayout = alignerParameters.getReadsLayout();
+
+        if (reportProgress)
+            SmartProgressReporter.startProgressReport("Alignment", progress);
+        OutputPort<Chunk<? extends SequenceRead>> mainInputReads = metrics.buffered("read chunks", (OutputPort) chunked(sReads, 64), 16);
+        Processor alignerProcessor = chunked(aligner);
+        if (positionsSource != null) {
+            final VDJCAligner seededAligner = aligner;
+            alignerProcessor = chunked(new Processor<SequenceRead, VDJCAlignmentResult>() {
+                @Override
+                public VDJCAlignmentResult process(SequenceRead input) {
+                    return seededAligner.process(input,
+                            VDJCAligner.seed(input, positionsSource.pollPositionHash(input.getId())));
+                }
+            });
+        }
+        if (latencyProfiler != null) {
+            // Slow reads are tagged with the shard they come from
+            final Processor inner = alignerProcessor;
+            alignerProcessor = new Processor() {
+                @Override
+                public Object process(Object input) {
+                    latencyProfiler.setSource(source);
+                    return inner.process(input);
+                }
+            };
+        }
+        OutputPort<VDJCAlignmentResult> alignments = unchunked(new ParallelProcessor(mainInputReads, alignerProcessor, threads));
+        for (VDJCAlignmentResult result : CUtils.it(
+                new OrderedOutputPort<>(alignments,
+                        new Indexer<VDJCAlignmentResult>() {
+                            @Override
+                            public long getIndex(VDJCAlignmentResult o) {
+                                return o.read.getId();
+                            }
+                        }))) {
+            VDJCAlignments alignment = result.alignment;
+            SequenceRead read = result.read;
+            OriginalReadReference[] references = referencesSource == null
+                    ? null
+                    : referencesSource.pollReferences(read.getId());
+            if (alignment == null) {
+                if (writeAllResults)
+                    // Creating empty alignment object if alignment for current read failed
+                    alignment = new VDJCAlignments(read.getId(), emptyHits,
+                            readsLayout.createTargets(read)[0].targets);
+                else {
+                    if (notAlignedWriter != null)
+                        notAlignedWriter.write(result.read);
+                    continue;
+                }
+            }
+
+            chainsStatistics.put(alignment);
+
+            if (alignment.isChimera())
+                report.onChimera();
+
+            if (writer != null) {
+                if (actionParameters.getSaveReadDescription() || actionParameters.getSaveOriginalReads())
+                    alignment.setOriginalDescriptions(extractDescriptions(read));
+                if (actionParameters.getSaveOriginalReads())
+                    alignment.setOriginalSequences(extractSequences(read));
+                alignment.setOriginalReadReferences(references);
+
+                writer.write(alignment);
+            }
+        }
+        if (writer != null)
+            writer.setNumberOfProcessedReads(reader.getNumberOfReads());
+    }
+
+    /**
+     * Aligns several inputs concurrently, each to a separate temporary file, and then merges them into the output
+     * file. Not aligned reads of each input are also written to temporary files and then copied to the output in the
+     * order of inputs. Read ids in the output (and in descriptions of the slowest reads) are the same as if inputs were
+     * concatenated.
+     */
+    private void alignShards(final List<String[]> shards, final VDJCAligner aligner,
+                             SequenceWriter notAlignedWriter, final AlignerReport report,
+                             final ChainUsageStats chainsStatistics, final ReadLatencyProfiler latencyProfiler,
+                             final PipelineMetrics.Stage metrics)
+            throws Exception {
+        final int concurrentShards = Math.min(shards.size(), actionParameters.threads);
+        final int threadsPerShard = Math.max(1, actionParameters.threads / concurrentShards);
+        final boolean output = !actionParameters.getOutputName().equals(".");
+        File outputFile = new File(actionParameters.getOutputName()).getAbsoluteFile();
+
+        final List<SequenceReaderCloseable<? extends SequenceRead>> readers = new ArrayList<>();
+        final List<VDJCAlignmentsWriter> writers = new ArrayList<>();
+        final List<SequenceWriter> notAlignedWriters = new ArrayList<>();
+        final List<File> parts = new ArrayList<>();
+        final List<File[]> notAlignedParts = new ArrayList<>();
+        final long[] readIdOffsets = new long[shards.size()];
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(concurrentShards);
+            try {
+                for (int i = 0; i < shards.size(); i++) {
+                    readers.add(actionParameters.createReader(shards.get(i)));
+                    if (output) {
+                        File part = File.createTempFile(outputFile.getName() + ".shard" + i + ".", ".vdjca",
+                                outputFile.getParentFile());
+                        part.deleteOnExit();
+                        parts.add(part);
+                        // parts are read only once, so fast compression is used to save disk space
+                        writers.add(new VDJCAlignmentsWriter(part, true));
+                    } else
+                        writers.add(null);
+                    if (notAlignedWriter != null) {
+                        File[] files = new File[actionParameters.isInputPaired() ? 2 : 1];
+                        File directory = new File(actionParameters.failedReadsR1).getAbsoluteFile().getParentFile();
+                        for (int j = 0; j < files.length; j++) {
+                            files[j] = File.createTempFile("notAligned.shard" + i + ".R" + (j + 1) + ".", ".fastq",
+                                    directory);
+                            files[j].deleteOnExit();
+                        }
+                        notAlignedParts.add(files);
+                        notAlignedWriters.add(files.length == 2
+                                ? new PairedFastqWriter(files[0].getPath(), files[1].getPath())
+                                : new SingleFastqWriter(files[0].getPath()));
+                    } else
+                        notAlignedWriters.add(null);
+                }
+
+                SmartProgressReporter.startProgressReport("Alignment", new CanReportProgress() {
+                    @Override
+                    public double getProgress() {
+                        double progress = 0;
+                        for (SequenceReaderCloseable<? extends SequenceRead> reader : readers)
+                            progress += ((CanReportProgress) reader).getProgress();
+                        return progress / readers.size();
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        for (SequenceReaderCloseable<? extends SequenceRead> reader : readers)
+                            if (!((CanReportProgress) reader).isFinished())
+                                return false;
+                        return true;
+                    }
+                });
+
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < shards.size(); i++) {
+                    final int shard = i;
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            try (VDJCAlignmentsWriter writer = writers.get(shard);
+                                 SequenceWriter shardNotAlignedWriter = notAlignedWriters.get(shard)) {
+                                align(readers.get(shard), writer, shards.get(shard), aligner, shardNotAlignedWriter,
+                                        threadsPerShard, false, report, chainsStatistics, latencyProfiler, shard, metrics);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures)
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception)
+                            throw (Exception) e.getCause();
+                        throw e;
+                    }
+
+                // Read ids of each shard are shifted by the total number of reads in preceding shards
+                for (int i = 1; i < shards.size(); i++)
+                    readIdOffsets[i] = readIdOffsets[i - 1] + readers.get(i - 1).getNumberOfReads();
+            } finally {
+                executor.shutdownNow();
+                for (SequenceReaderCloseable<? extends SequenceRead> reader : readers)
+                    reader.close();
+                for (VDJCAlignmentsWriter writer : writers)
+                    if (writer != null)
+                        writer.close();
+                for (SequenceWriter writer : notAlignedWriters)
+                    if (writer != null)
+                        writer.close();
+            }
+
+            if (latencyProfiler != null)
+                latencyProfiler.setReadIdOffsets(readIdOffsets);
+
+            // Not aligned reads are written in the same order as for concatenated inputs
+            for (File[] files : notAlignedParts) {
+                SequenceReaderCloseable<? extends SequenceRead> reader;
+                if (files.length == 2)
+                    reader = new PairedFastqReader(files[0].getPath(), files[1].getPath(), true);
+                else
+                    reader = new SingleFastqReader(files[0].getPath(), true);
+                try {
+                    for (SequenceRead read : CUtils.it(reader))
+                        notAlignedWriter.write(read);
+                } finally {
+                    reader.close();
+                }
+            }
+
+            if (!output)
+                return;
+
+            List<VDJCAlignmentsReader> partReaders = new ArrayList<>();
+            for (File part : parts)
+                partReaders.add(new VDJCAlignmentsReader(part));
+            try (VDJCAlignmentsMerger merger = new VDJCAlignmentsMerger(partReaders, actionParameters.threads);
+                 VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(outputFile,
+                         actionParameters.getFastCompression())) {
+                SmartProgressReporter.startProgressReport("Merging shards", merger);
+                writer.setBinQualities(actionParameters.getBinQualities());
+                writer.setOriginalReadsSources(merger.getOriginalReadsSources());
+                writer.header(merger.getParameters(), merger.getUsedGenes());
+                VDJCAlignments alignments;
+                while ((alignments = merger.take()) != null)
+                    writer.write(alignments);
+                writer.setNumberOfProcessedReads(merger.getNumberOfReads());
+            }
+        } finally {
+            for (File part : parts)
+                part.delete();
+            for (File[] files : notAlignedParts)
+                for (File file : files)
+                    file.delete();
+        }
     }
 
     public static String[] extractDescriptions(SequenceRead r) {
@@ -280,6 +575,15 @@ public class ActionAlign implements Action {
         @Parameter(description = "input_file1 [input_file2] output_file.vdjca", variableArity = true)
         public List<String> parameters = new ArrayList<>();
 
+        @Parameter(description = "Additional input (R1 file) aligned concurrently with the main input and merged " +
+                "into the same output file (may be specified several times).",
+                names = {"--shard-R1"})
+        public List<String> shardsR1 = new ArrayList<>();
+
+        @Parameter(description = "Additional input (R2 file), one for each --shard-R1.",
+                names = {"--shard-R2"})
+        public List<String> shardsR2 = new ArrayList<>();
+
         @DynamicParameter(names = "-O", description = "Overrides default parameter values.")
         public Map<String, String> overrides = new HashMap<>();
 
@@ -303,6 +607,11 @@ public class ActionAlign implements Action {
                 names = {"-r", "--report"})
         public String report;
 
+        @Parameter(description = "Write stage-level performance metrics (wall and CPU time, records per second, " +
+                "bytes read and written, GC time, heap usage, depths of internal buffers) to JSON file.",
+                names = {"--metrics"})
+        public String metrics;
+
         @Parameter(description = "Species (organism), as specified in library file or taxon id. " +
                 "Possible values: hs, HomoSapiens, musmusculus, mmu, hsa, 9606, 10090 etc..",
                 names = {"-s", "--species"})
@@ -325,6 +634,63 @@ public class ActionAlign implements Action {
                 names = {"-d", "--noMerge"})
         public Boolean noMerge;
 
+        @Parameter(description = "Learn overlap statistics on the first reads and then skip merging of paired reads " +
+                "if almost no reads overlap.",
+                names = {"--adaptive-merging"})
+        public Boolean adaptiveMerging;
+
+        @Parameter(description = "Number of first reads used by adaptive merging to collect statistics.",
+                names = {"--adaptive-merging-sample"}, validateWith = PositiveInteger.class)
+        public int adaptiveMergingSample = 10000;
+
+        @Parameter(description = "Adaptive merging skips merging if the fraction of overlapped reads in the sample " +
+                "is lower than this value.",
+                names = {"--adaptive-merging-min-rate"})
+        public double adaptiveMergingMinRate = 0.001;
+
+        @Parameter(description = "Reuse alignment results for identical reads (same sequences and qualities).",
+                names = {"--dedup"})
+        public Boolean deduplicate;
+
+        @Parameter(description = "Maximal number of distinct reads which alignment results are kept for --dedup.",
+                names = {"--dedup-cache-size"}, validateWith = PositiveInteger.class)
+        public int dedupCacheSize = 100000;
+
+        @Parameter(description = "Collect histograms of per-read alignment latencies (separately for each aligner " +
+                "path: single / merged / paired reads, strict / partial alignment, V-then-J / J-then-V order) and " +
+                "add them to the report.",
+                names = {"--profile-latency"})
+        public Boolean profileLatency;
+
+        @Parameter(description = "Write the slowest reads (R1) with read ids and latencies in descriptions " +
+                "(implies --profile-latency).",
+                names = {"--slow-reads-R1"})
+        public String slowReadsR1 = null;
+
+        @Parameter(description = "Write the slowest reads (R2).",
+                names = {"--slow-reads-R2"})
+        public String slowReadsR2 = null;
+
+        @Parameter(description = "Number of the slowest reads to write with --slow-reads-R1,2.",
+                names = {"--slow-reads-count"}, validateWith = PositiveInteger.class)
+        public int slowReadsCount = 100;
+
+        @Parameter(description = "Read uncompressed .fastq / .fasta input files via memory mapping. Results may " +
+                "slightly differ from the default reader, as wildcards are replaced by other random basic letters " +
+                "and aligner is seeded with positions of reads instead of their descriptions.",
+                names = {"--mmap"})
+        public Boolean memoryMapped;
+
+        @Parameter(description = "Round qualities of aligned sequences to 8 Illumina-like bins to reduce size of " +
+                ".vdjca file (lossy).",
+                names = {"--bin-qualities"})
+        public Boolean binQualities;
+
+        @Parameter(description = "Compress output file with fast LZ4-like codec (also used for output files with " +
+                IOUtil.FAST_COMPRESSION_EXTENSION + " extension). Faster than gzip, but gives larger files.",
+                names = {"--fast-compression"})
+        public Boolean fastCompression;
+
         @Parameter(description = "Copy read(s) description line from .fastq or .fasta to .vdjca file (can then be " +
                 "exported with -descrR1 and -descrR2 options in exportAlignments action).",
                 names = {"-a", "--save-description"})
@@ -338,6 +704,12 @@ public class ActionAlign implements Action {
                 names = {"-g", "--save-reads"})
         public Boolean saveOriginalReads;
 
+        @Parameter(description = "Save positions of original reads in input files instead of their copies (input " +
+                "files should be uncompressed .fastq / .fasta and should not be moved or modified to export reads " +
+                "with exportReads and exportReadsForClones).",
+                names = {"--save-reads-refs"})
+        public Boolean saveReadReferences;
+
         @Parameter(description = "Write not aligned reads (R1).",
                 names = {"--not-aligned-R1"})
         public String failedReadsR1 = null;
@@ -364,12 +736,12 @@ public class ActionAlign implements Action {
 
         public String getInputForReport() {
             StringBuilder builder = new StringBuilder();
-            for (int i = 0; ; ++i) {
-                builder.append(parameters.get(i));
-                if (i == parameters.size() - 2)
-                    break;
-                builder.append(',');
-            }
+            for (String[] shard : getShards())
+                for (String file : shard) {
+                    if (builder.length() != 0)
+                        builder.append(',');
+                    builder.append(file);
+                }
             return builder.toString();
         }
 
@@ -377,6 +749,30 @@ public class ActionAlign implements Action {
             return noMerge != null && noMerge;
         }
 
+        public boolean getDeduplicate() {
+            return deduplicate != null && deduplicate;
+        }
+
+        public boolean getProfileLatency() {
+            return (profileLatency != null && profileLatency) || slowReadsR1 != null;
+        }
+
+        public boolean getAdaptiveMerging() {
+            return adaptiveMerging != null && adaptiveMerging;
+        }
+
+        public boolean getMemoryMapped() {
+            return memoryMapped != null && memoryMapped;
+        }
+
+        public boolean getFastCompression() {
+            return fastCompression != null && fastCompression;
+        }
+
+        public boolean getBinQualities() {
+            return binQualities != null && binQualities;
+        }
+
         public Boolean getSaveReadDescription() {
             return saveReadDescription != null && saveReadDescription;
         }
@@ -385,6 +781,38 @@ public class ActionAlign implements Action {
             return saveOriginalReads != null && saveOriginalReads;
         }
 
+        public boolean getSaveReadReferences() {
+            return saveReadReferences != null && saveReadReferences;
+        }
+
+        /**
+         * @param input files of a single shard (see {@link #getShards()})
+         */
+        public List<OriginalReadsSource> getOriginalReadsSources(String[] input) throws IOException {
+            List<OriginalReadsSource> sources = new ArrayList<>();
+            for (String file : input)
+                sources.add(OriginalReadsSource.create(new File(file)));
+            return sources;
+        }
+
+        /**
+         * Returns input shards, each is an array of one (single-end) or two (paired-end) files: main input followed by
+         * inputs specified with --shard-R1,2
+         */
+        public List<String[]> getShards() {
+            List<String[]> shards = new ArrayList<>();
+            if (isInputPaired()) {
+                shards.add(new String[]{parameters.get(0), parameters.get(1)});
+                for (int i = 0; i < shardsR1.size(); i++)
+                    shards.add(new String[]{shardsR1.get(i), shardsR2.get(i)});
+            } else {
+                shards.add(new String[]{parameters.get(0)});
+                for (String r1 : shardsR1)
+                    shards.add(new String[]{r1});
+            }
+            return shards;
+        }
+
         public boolean printNonFunctionalWarnings() {
             return nonFunctionalWarnings != null && nonFunctionalWarnings;
         }
@@ -409,21 +837,54 @@ public class ActionAlign implements Action {
             return parameters.get(parameters.size() - 1);
         }
 
-        public SequenceReaderCloseable<? extends SequenceRead> createReader() throws IOException {
-            if (isInputPaired())
-                return new PairedFastqReader(parameters.get(0), parameters.get(1), true);
-            else {
-                String[] s = parameters.get(0).split("\\.");
+        /**
+         * @param input files of a single shard (see {@link #getShards()})
+         */
+        public SequenceReaderCloseable<? extends SequenceRead> createReader(String[] input) throws IOException {
+            // positions of records are known only to memory-mapped reader
+            if (getSaveReadReferences() || (getMemoryMapped() && !isGzipped(input[0]))) {
+                // descriptions are materialized only if they are required
+                boolean descriptions = getSaveReadDescription() || getSaveOriginalReads()
+                        || failedReadsR1 != null || slowReadsR1 != null;
+                if (isInputPaired() && !isGzipped(input[1]))
+                    return MappedSequenceReader.paired(new File(input[0]), new File(input[1]),
+                            descriptions);
+                else if (!isInputPaired())
+                    return MappedSequenceReader.single(new File(input[0]), descriptions);
+            }
+            if (isInputPaired()) {
+                if (isGzipped(input[0]) && isGzipped(input[1])) {
+                    ParallelGzipInputStream r1 = openGzipped(input[0]),
+                            r2 = openGzipped(input[1]);
+                    return new BackgroundDecompressionReader<>(new PairedFastqReader(r1, r2, true), r1, r2);
+                }
+                return new PairedFastqReader(input[0], input[1], true);
+            } else {
+                String[] s = input[0].split("\\.");
                 if (s[s.length - 1].equals("fasta"))
                     return new FastaSequenceReaderWrapper(
-                            new FastaReader<>(parameters.get(0), NucleotideSequence.ALPHABET),
+                            new FastaReader<>(input[0], NucleotideSequence.ALPHABET),
                             true
                     );
-                else
-                    return new SingleFastqReader(parameters.get(0), true);
+                else if (isGzipped(input[0])) {
+                    ParallelGzipInputStream r = openGzipped(input[0]);
+                    return new BackgroundDecompressionReader<>(new SingleFastqReader(r, true), r);
+                } else
+                    return new SingleFastqReader(input[0], true);
             }
         }
 
+        private static boolean isGzipped(String fileName) {
+            return fileName.endsWith(".gz");
+        }
+
+        /**
+         * Input is decompressed in background, so that the thread feeding aligners only parses reads
+         */
+        private ParallelGzipInputStream openGzipped(String fileName) throws IOException {
+            return new ParallelGzipInputStream(new File(fileName), Math.min(threads, 4));
+        }
+
         @Override
         protected List<String> getOutputFiles() {
             return Arrays.asList(getOutputName());
@@ -435,11 +896,85 @@ public class ActionAlign implements Action {
                 throw new ParameterException("Too many input files.");
             if (parameters.size() < 2)
                 throw new ParameterException("No output file.");
+            if (shardsR2.size() != (isInputPaired() ? shardsR1.size() : 0))
+                throw new ParameterException(isInputPaired()
+                        ? "Number of --shard-R1 and --shard-R2 files should be the same."
+                        : "--shard-R2 can't be used with single-end input.");
             if (failedReadsR2 != null && failedReadsR1 == null)
                 throw new ParameterException("Wrong input for --not-aligned-R1,2");
             if (failedReadsR1 != null && (failedReadsR2 != null) != isInputPaired())
                 throw new ParameterException("Option --not-aligned-R2 is not set.");
+            if (slowReadsR2 != null && slowReadsR1 == null)
+                throw new ParameterException("Wrong input for --slow-reads-R1,2");
+            if (slowReadsR1 != null && (slowReadsR2 != null) != isInputPaired())
+                throw new ParameterException("Option --slow-reads-R2 is not set.");
+            if (getSaveReadReferences()) {
+                if (getSaveOriginalReads())
+                    throw new ParameterException("--save-reads-refs can't be used together with -g / --save-reads.");
+                for (String[] shard : getShards())
+                    for (String file : shard)
+                        if (isGzipped(file))
+                            throw new ParameterException("--save-reads-refs requires uncompressed input files.");
+            }
+            if (getShards().size() > 1 && limit != 0)
+                throw new ParameterException("-n / --limit can't be used with several input shards.");
+            if (getAdaptiveMerging() && (!isInputPaired() || getNoMerge()))
+                throw new ParameterException("--adaptive-merging requires paired-end input and can't be used with " +
+                        "-d / --noMerge.");
+            if (adaptiveMergingMinRate < 0 || adaptiveMergingMinRate > 1)
+                throw new ParameterException("--adaptive-merging-min-rate should be in [0, 1].");
             super.validate();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reader of decompressed input, reports progress based on the number of compressed bytes read
+     */
+    private static final class BackgroundDecompressionReader<R extends SequenceRead>
+            implements SequenceReaderCloseable<R>, CanReportProgress {
+        final SequenceReaderCloseable<R> reader;
+        final ParallelGzipInputStream[] streams;
+
+        BackgroundDecompressionReader(SequenceReaderCloseable<R> reader, ParallelGzipInputStream... streams) {
+            this.reader = reader;
+            this.streams = streams;
+        }
+
+        @Override
+        public R take() {
+            return reader.take();
+        }
+
+        @Override
+        public long getNumberOfReads() {
+            return reader.getNumberOfReads();
+        }
+
+        @Override
+        public double getProgress() {
+            double progress = 0;
+            for (ParallelGzipInputStream stream : streams)
+                progress += stream.getProgress();
+            return progress / streams.length;
+        }
+
+        @Override
+        public boolean isFinished() {
+            for (ParallelGzipInputStream stream : streams)
+                if (!stream.isFinished())
+                    return false;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+            for (ParallelGzipInputStream stream : streams)
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+        }
+    }
+}
@@ -1,20 +1,26 @@
 package com.milaboratory.mixcr.cli;
 
-import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.InputPort;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
 import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParameters;
 import com.milaboratory.cli.ActionParametersWithOutput;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsIndex;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriterI;
-import com.milaboratory.mixcr.util.VDJCAlignmentsDifferenceReader;
+import com.milaboratory.mixcr.util.ParallelVDJCAlignmentsDiff;
+import com.milaboratory.mixcr.util.VDJCAlignmentsDifferenceReader.Diff;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.GeneFeature;
 import io.repseq.core.GeneType;
+import io.repseq.core.VDJCLibraryRegistry;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -33,74 +39,109 @@ public final class ActionAlignmentsDiff implements Action {
     public void go(ActionHelper actionHelper) throws Exception {
         try (VDJCAlignmentsReader reader1 = new VDJCAlignmentsReader(parameters.get1());
              VDJCAlignmentsReader reader2 = new VDJCAlignmentsReader(parameters.get2());
-             VDJCAlignmentsWriterI only1 = parameters.onlyFirst == null ?
+             final VDJCAlignmentsWriterI only1 = parameters.onlyFirst == null ?
                      VDJCAlignmentsWriterI.DummyWriter.INSTANCE : new VDJCAlignmentsWriter(parameters.onlyFirst);
-             VDJCAlignmentsWriterI only2 = parameters.onlySecond == null ?
+             final VDJCAlignmentsWriterI only2 = parameters.onlySecond == null ?
                      VDJCAlignmentsWriterI.DummyWriter.INSTANCE : new VDJCAlignmentsWriter(parameters.onlySecond);
-             VDJCAlignmentsWriterI diff1 = parameters.diff1 == null ?
+             final VDJCAlignmentsWriterI diff1 = parameters.diff1 == null ?
                      VDJCAlignmentsWriterI.DummyWriter.INSTANCE : new VDJCAlignmentsWriter(parameters.diff1);
-             VDJCAlignmentsWriterI diff2 = parameters.diff1 == null ?
+             final VDJCAlignmentsWriterI diff2 = parameters.diff2 == null ?
                      VDJCAlignmentsWriterI.DummyWriter.INSTANCE : new VDJCAlignmentsWriter(parameters.diff2);
              PrintStream report = parameters.report().equals(".") ? System.out : new PrintStream(new FileOutputStream(parameters.report()))
         ) {
-            if (reader1.getNumberOfReads() > reader2.getNumberOfReads())
-                SmartProgressReporter.startProgressReport("Analyzing diff", reader1);
-            else
-                SmartProgressReporter.startProgressReport("Analyzing diff", reader2);
-
-            long same = 0, onlyIn1 = 0, onlyIn2 = 0, diffFeature = 0, justDiff = 0;
-            long[] diffHits = new long[GeneType.NUMBER_OF_TYPES];
-
+            // Readers are used only to get file headers; alignments are read by ParallelVDJCAlignmentsDiff
             only1.header(reader1.getParameters(), reader1.getUsedGenes());
             diff1.header(reader1.getParameters(), reader1.getUsedGenes());
             only2.header(reader2.getParameters(), reader2.getUsedGenes());
             diff2.header(reader2.getParameters(), reader2.getUsedGenes());
 
-            VDJCAlignmentsDifferenceReader diffReader = new VDJCAlignmentsDifferenceReader(reader1, reader2,
-                    parameters.getFeature(), parameters.hitsCompareLevel);
-            for (VDJCAlignmentsDifferenceReader.Diff diff : CUtils.it(diffReader)) {
-                switch (diff.status) {
-                    case AlignmentsAreSame:
-                        ++same;
-                        break;
-                    case AlignmentPresentOnlyInFirst:
-                        ++onlyIn1;
-                        only1.write(diff.first);
-                        break;
-                    case AlignmentPresentOnlyInSecond:
-                        ++onlyIn2;
-                        only2.write(diff.second);
-                        break;
-                    case AlignmentsAreDifferent:
-                        ++justDiff;
-
-                        diff1.write(diff.first);
-                        diff2.write(diff.second);
-
-                        if (diff.reason.diffGeneFeature)
-                            ++diffFeature;
-                        for (Map.Entry<GeneType, Boolean> e : diff.reason.diffHits.entrySet())
-                            if (e.getValue())
-                                ++diffHits[e.getKey().ordinal()];
+            ParallelVDJCAlignmentsDiff diffRunner = new ParallelVDJCAlignmentsDiff(
+                    new File(parameters.get1()), new File(parameters.get2()),
+                    parameters.getFeature(), parameters.hitsCompareLevel, VDJCLibraryRegistry.getDefault());
+            diffRunner.setThreads(parameters.threads);
+            diffRunner.setSaveIndex(parameters.getSaveIndex());
+            SmartProgressReporter.startProgressReport("Analyzing diff", diffRunner);
+
+            final boolean writeRecords = parameters.onlyFirst != null || parameters.onlySecond != null
+                    || parameters.diff1 != null || parameters.diff2 != null;
+            final List<Diff> sample = new ArrayList<>();
+            InputPort<Diff> differences = !writeRecords && parameters.sample == 0 ? null : new InputPort<Diff>() {
+                @Override
+                public void put(Diff diff) {
+                    if (diff == null)
+                        return;
+                    if (sample.size() < parameters.sample)
+                        sample.add(diff);
+                    switch (diff.status) {
+                        case AlignmentPresentOnlyInFirst:
+                            only1.write(diff.first);
+                            break;
+                        case AlignmentPresentOnlyInSecond:
+                            only2.write(diff.second);
+                            break;
+                        case AlignmentsAreDifferent:
+                            diff1.write(diff.first);
+                            diff2.write(diff.second);
+                    }
                 }
-            }
+            };
 
-            only1.setNumberOfProcessedReads(onlyIn1);
-            only2.setNumberOfProcessedReads(onlyIn2);
-            diff1.setNumberOfProcessedReads(justDiff);
-            diff2.setNumberOfProcessedReads(justDiff);
+            ParallelVDJCAlignmentsDiff.Summary summary = diffRunner.run(differences,
+                    writeRecords ? Long.MAX_VALUE : parameters.sample);
+
+            only1.setNumberOfProcessedReads(summary.onlyInFirst);
+            only2.setNumberOfProcessedReads(summary.onlyInSecond);
+            diff1.setNumberOfProcessedReads(summary.different);
+            diff2.setNumberOfProcessedReads(summary.different);
 
             report.println("First  file: " + parameters.get1());
             report.println("Second file: " + parameters.get2());
-            report.println("Completely same reads: " + same);
-            report.println("Aligned reads present only in the FIRST  file: " + onlyIn1 + " (" + Util.PERCENT_FORMAT.format(100. * onlyIn1 / reader1.getNumberOfReads()) + ")%");
-            report.println("Aligned reads present only in the SECOND file: " + onlyIn2 + " (" + Util.PERCENT_FORMAT.format(100. * onlyIn2 / reader2.getNumberOfReads()) + ")%");
-            report.println("Total number of different reads: " + justDiff);
-            report.println("Reads with not same " + parameters.geneFeatureToMatch + ": " + diffFeature);
+            report.println("Completely same reads: " + summary.same);
+            report.println("Aligned reads present only in the FIRST  file: " + summary.onlyInFirst + " (" + Util.PERCENT_FORMAT.format(100. * summary.onlyInFirst / summary.numberOfReads1) + ")%");
+            report.println("Aligned reads present only in the SECOND file: " + summary.onlyInSecond + " (" + Util.PERCENT_FORMAT.format(100. * summary.onlyInSecond / summary.numberOfReads2) + ")%");
+            report.println("Total number of different reads: " + summary.different);
+            report.println("Reads with not same " + parameters.geneFeatureToMatch + ": " + summary.differentFeature);
 
             for (GeneType geneType : GeneType.VDJC_REFERENCE)
-                report.println("Reads with not same " + geneType.name() + " hits: " + diffHits[geneType.ordinal()]);
+                report.println("Reads with not same " + geneType.name() + " hits: " + summary.differentHits[geneType.ordinal()]);
+
+            if (!sample.isEmpty()) {
+                report.println("First " + sample.size() + " different records:");
+                for (Diff diff : sample)
+                    report.println(format(diff));
+            }
+        }
+    }
+
+    private String format(Diff diff) {
+        StringBuilder sb = new StringBuilder();
+        switch (diff.status) {
+            case AlignmentPresentOnlyInFirst:
+                return sb.append("Read ").append(diff.first.getReadId()).append(": only in the FIRST file").toString();
+            case AlignmentPresentOnlyInSecond:
+                return sb.append("Read ").append(diff.second.getReadId()).append(": only in the SECOND file").toString();
         }
+        sb.append("Read ").append(diff.first.getReadId()).append(": different");
+        GeneFeature feature = parameters.getFeature();
+        if (diff.reason.diffGeneFeature)
+            sb.append("; ").append(parameters.geneFeatureToMatch).append(": ")
+                    .append(featureString(diff.first, feature)).append(" / ")
+                    .append(featureString(diff.second, feature));
+        for (Map.Entry<GeneType, Boolean> e : diff.reason.diffHits.entrySet())
+            if (e.getValue())
+                sb.append("; ").append(e.getKey().name()).append(": ")
+                        .append(bestHit(diff.first, e.getKey())).append(" / ")
+                        .append(bestHit(diff.second, e.getKey()));
+        return sb.toString();
+    }
+
+    private static String featureString(VDJCAlignments alignments, GeneFeature feature) {
+        return feature == null || alignments.getFeature(feature) == null ?
+                "-" : alignments.getFeature(feature).getSequence().toString();
+    }
+
+    private static String bestHit(VDJCAlignments alignments, GeneType geneType) {
+        return alignments.getBestHit(geneType) == null ? "-" : alignments.getBestHit(geneType).getGene().getName();
     }
 
     @Override
@@ -135,6 +176,23 @@ public final class ActionAlignmentsDiff implements Action {
         @Parameter(names = {"-l", "--top-hits-level"}, description = "Number of top hits to search for a match")
         public int hitsCompareLevel = 1;
 
+        @Parameter(names = {"-t", "--threads"}, description = "Number of read id ranges compared concurrently " +
+                "(only for uncompressed files)", validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = {"-s", "--sample"}, description = "Print up to specified number of the first different " +
+                "records to the report")
+        public int sample = 0;
+
+        @Parameter(names = {"--save-index"}, description = "Save indices of input files used to split files into " +
+                "ranges (" + VDJCAlignmentsIndex.INDEX_EXTENSION + " files next to inputs), so that subsequent " +
+                "comparisons of the same files don't have to build them again")
+        public Boolean saveIndex;
+
+        public boolean getSaveIndex() {
+            return saveIndex != null && saveIndex;
+        }
+
         GeneFeature getFeature() {
             return GeneFeature.parse(geneFeatureToMatch);
         }
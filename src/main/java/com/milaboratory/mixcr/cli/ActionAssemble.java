@@ -41,7 +41,9 @@ import com.milaboratory.mixcr.assembler.*;
 import com.milaboratory.mixcr.basictypes.Clone;
 import com.milaboratory.mixcr.basictypes.CloneSet;
 import com.milaboratory.mixcr.basictypes.CloneSetIO;
+import com.milaboratory.mixcr.basictypes.IOUtil;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.util.PipelineMetrics;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
 import com.milaboratory.primitivio.PipeWriter;
 import com.milaboratory.util.SmartProgressReporter;
@@ -64,6 +66,9 @@ public class ActionAssemble implements Action {
         // Saving initial timestamp
         long beginTimestamp = System.currentTimeMillis();
 
+        if (actionParameters.metrics != null)
+            PipelineMetrics.enable();
+
         // Extracting V/D/J/C gene list from input vdjca file
         final List<VDJCGene> genes;
         final VDJCAlignerParameters alignerParameters;
@@ -112,6 +117,22 @@ public class ActionAssemble implements Action {
                     alignmentsProvider,
                     assembler, actionParameters.threads);
             SmartProgressReporter.startProgressReport(assemblerRunner);
+
+            if (actionParameters.getMergeable()) {
+                // Writing intermediate results to be merged by assembleMerge
+                assemblerRunner.runInitialAssemblyOnly();
+                report.setTotalReads(alignmentsProvider.getTotalNumberOfReads());
+                try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Writing clone accumulators")) {
+                    File output = new File(actionParameters.getOutputFileName());
+                    CloneAccumulatorsIO.write(assembler, report.getReadCounters(), output,
+                            actionParameters.getFastCompression(), actionParameters.getBinQualities());
+                    metrics.addBytesWritten(output.length());
+                }
+                if (actionParameters.metrics != null)
+                    Util.writeMetrics(actionParameters.metrics, command(), helper.getCommandLineArguments());
+                return;
+            }
+
             assemblerRunner.run();
 
             // Getting results
@@ -122,7 +143,9 @@ public class ActionAssemble implements Action {
                 chainsStatistics.put(clone);
 
             // Writing results
-            try (CloneSetIO.CloneSetWriter writer = new CloneSetIO.CloneSetWriter(cloneSet, actionParameters.getOutputFileName())) {
+            try (CloneSetIO.CloneSetWriter writer = new CloneSetIO.CloneSetWriter(cloneSet,
+                    new File(actionParameters.getOutputFileName()), actionParameters.getFastCompression())) {
+                writer.setBinQualities(actionParameters.getBinQualities());
                 SmartProgressReporter.startProgressReport(writer);
                 writer.write();
             }
@@ -152,6 +175,9 @@ public class ActionAssemble implements Action {
             if (actionParameters.readsToClonesMapping != null)
                 AlignmentsToClonesMappingContainer.writeMapping(assembler.getAssembledReadsPort(), cloneSet.size(),
                         actionParameters.readsToClonesMapping);
+
+            if (actionParameters.metrics != null)
+                Util.writeMetrics(actionParameters.metrics, command(), helper.getCommandLineArguments());
         }
     }
 
@@ -182,6 +208,11 @@ public class ActionAssemble implements Action {
                 names = {"-r", "--report"})
         public String report;
 
+        @Parameter(description = "Write stage-level performance metrics (wall and CPU time, records per second, " +
+                "bytes read and written, GC time, heap usage, depths of internal buffers) to JSON file.",
+                names = {"--metrics"})
+        public String metrics;
+
         @Parameter(description = ".",
                 names = {"-e", "--events"}, hidden = true)
         public String events;
@@ -190,9 +221,36 @@ public class ActionAssemble implements Action {
                 names = {"-i", "--index"})
         public String readsToClonesMapping;
 
+        @Parameter(description = "Round qualities of clonal sequences to 8 Illumina-like bins to reduce size of " +
+                ".clns file (lossy).",
+                names = {"--bin-qualities"})
+        public Boolean binQualities;
+
+        @Parameter(description = "Compress output file with fast LZ4-like codec (also used for output files with " +
+                IOUtil.FAST_COMPRESSION_EXTENSION + " extension). Faster than gzip, but gives larger files.",
+                names = {"--fast-compression"})
+        public Boolean fastCompression;
+
+        @Parameter(description = "Write mergeable intermediate results (clone accumulators) instead of clones. " +
+                "Results for several parts of alignments can be combined with assembleMerge.",
+                names = {"--mergeable"})
+        public Boolean mergeable;
+
         @DynamicParameter(names = "-O", description = "Overrides default parameter values.")
         private Map<String, String> overrides = new HashMap<>();
 
+        public boolean getMergeable() {
+            return mergeable != null && mergeable;
+        }
+
+        public boolean getFastCompression() {
+            return fastCompression != null && fastCompression;
+        }
+
+        public boolean getBinQualities() {
+            return binQualities != null && binQualities;
+        }
+
         public String getInputFileName() {
             return parameters.get(0);
         }
@@ -221,6 +279,8 @@ public class ActionAssemble implements Action {
             if (readsToClonesMapping != null)
                 if (new File(readsToClonesMapping).exists() && !isForceOverwrite())
                     throw new ParameterException("File " + readsToClonesMapping + " already exists. Use -f option to overwrite it.");
+            if (getMergeable() && (readsToClonesMapping != null || events != null))
+                throw new ParameterException("Reads to clones mapping is not supported with --mergeable.");
             super.validate();
         }
     }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.cli;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
+import com.milaboratory.cli.Action;
+import com.milaboratory.cli.ActionHelper;
+import com.milaboratory.cli.ActionParametersWithOutput;
+import com.milaboratory.mixcr.assembler.CloneAccumulatorsIO;
+import com.milaboratory.mixcr.assembler.CloneAccumulatorsIO.CloneAccumulatorsReader;
+import com.milaboratory.mixcr.assembler.CloneAssembler;
+import com.milaboratory.mixcr.assembler.CloneAssemblerRunner;
+import com.milaboratory.mixcr.basictypes.Clone;
+import com.milaboratory.mixcr.basictypes.CloneSet;
+import com.milaboratory.mixcr.basictypes.CloneSetIO;
+import com.milaboratory.mixcr.basictypes.IOUtil;
+import com.milaboratory.util.SmartProgressReporter;
+import io.repseq.core.VDJCLibraryRegistry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ActionAssembleMerge implements Action {
+    private final AssembleMergeParameters actionParameters = new AssembleMergeParameters();
+
+    @Override
+    public void go(ActionHelper helper) throws Exception {
+        // Saving initial timestamp
+        long beginTimestamp = System.currentTimeMillis();
+
+        VDJCLibraryRegistry registry = VDJCLibraryRegistry.getDefault();
+        List<CloneAccumulatorsReader> readers = new ArrayList<>();
+        try {
+            for (String file : actionParameters.getInputFileNames())
+                readers.add(new CloneAccumulatorsReader(new File(file), registry));
+
+            // Creating event listener to collect run statistics
+            CloneAssemblerReport report = new CloneAssemblerReport();
+            for (CloneAccumulatorsReader reader : readers)
+                report.addReadCounters(reader.getReadCounters());
+
+            // Combining intermediate results
+            try (CloneAssembler assembler = CloneAccumulatorsIO.merge(readers, report)) {
+                // Running pre-clustering, clustering and building of clones
+                CloneAssemblerRunner assemblerRunner = new CloneAssemblerRunner(null, assembler,
+                        actionParameters.threads);
+                SmartProgressReporter.startProgressReport(assemblerRunner);
+                assemblerRunner.runFinalization();
+
+                // Getting results
+                final CloneSet cloneSet = assemblerRunner.getCloneSet();
+
+                ChainUsageStats chainsStatistics = new ChainUsageStats();
+                for (Clone clone : cloneSet)
+                    chainsStatistics.put(clone);
+
+                // Writing results
+                try (CloneSetIO.CloneSetWriter writer = new CloneSetIO.CloneSetWriter(cloneSet,
+                        new File(actionParameters.getOutputFileName()), actionParameters.getFastCompression())) {
+                    writer.setBinQualities(actionParameters.getBinQualities());
+                    SmartProgressReporter.startProgressReport(writer);
+                    writer.write();
+                }
+
+                // Writing report
+                long time = System.currentTimeMillis() - beginTimestamp;
+
+                assert cloneSet.getClones().size() == report.getCloneCount();
+
+                // Writing report to stout
+                System.out.println("============= Report ==============");
+                Util.writeReportToStdout(time, report, chainsStatistics);
+
+                if (actionParameters.report != null)
+                    Util.writeReport(actionParameters.getInputForReport(),
+                            actionParameters.getOutputFileName(), helper.getCommandLineArguments(),
+                            actionParameters.report, time, report, chainsStatistics);
+            }
+        } finally {
+            for (CloneAccumulatorsReader reader : readers)
+                reader.close();
+        }
+    }
+
+    @Override
+    public String command() {
+        return "assembleMerge";
+    }
+
+    @Override
+    public AssembleMergeParameters params() {
+        return actionParameters;
+    }
+
+    @Parameters(commandDescription = "Merge intermediate results produced by assemble --mergeable for several " +
+            "parts of alignments and assemble clones.")
+    public static final class AssembleMergeParameters extends ActionParametersWithOutput {
+        @Parameter(description = "input_file1.clna [input_file2.clna ....] output_file.clns")
+        public List<String> parameters;
+
+        @Parameter(description = "Processing threads",
+                names = {"-t", "--threads"}, validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(description = "Report file.",
+                names = {"-r", "--report"})
+        public String report;
+
+        @Parameter(description = "Round qualities of clonal sequences to 8 Illumina-like bins to reduce size of " +
+                ".clns file (lossy).",
+                names = {"--bin-qualities"})
+        public Boolean binQualities;
+
+        @Parameter(description = "Compress output file with fast LZ4-like codec (also used for output files with " +
+                IOUtil.FAST_COMPRESSION_EXTENSION + " extension). Faster than gzip, but gives larger files.",
+                names = {"--fast-compression"})
+        public Boolean fastCompression;
+
+        public boolean getFastCompression() {
+            return fastCompression != null && fastCompression;
+        }
+
+        public boolean getBinQualities() {
+            return binQualities != null && binQualities;
+        }
+
+        public List<String> getInputFileNames() {
+            return parameters.subList(0, parameters.size() - 1);
+        }
+
+        public String getInputForReport() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; ; ++i) {
+                builder.append(parameters.get(i));
+                if (i == parameters.size() - 2)
+                    break;
+                builder.append(',');
+            }
+            return builder.toString();
+        }
+
+        public String getOutputFileName() {
+            return parameters.get(parameters.size() - 1);
+        }
+
+        @Override
+        protected List<String> getOutputFiles() {
+            return Collections.singletonList(getOutputFileName());
+        }
+
+        @Override
+        public void validate() {
+            if (parameters == null || parameters.size() < 2)
+                throw new ParameterException("Wrong number of parameters.");
+            super.validate();
+        }
+    }
+}
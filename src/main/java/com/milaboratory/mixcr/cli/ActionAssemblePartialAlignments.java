@@ -4,6 +4,7 @@ import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
 import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParameters;
@@ -41,14 +42,15 @@ public final class ActionAssemblePartialAlignments implements Action {
 
         long start = System.currentTimeMillis();
         try (PartialAlignmentsAssembler assembler = new PartialAlignmentsAssembler(assemblerParameters, parameters.getOutputFileName(),
-                parameters.getWritePartial(), parameters.getOverlappedOnly())) {
+                parameters.getWritePartial(), parameters.getOverlappedOnly(), parameters.threads)) {
+            assembler.setOffHeapIndex(parameters.getOffHeapIndex());
             try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getInputFileName())) {
                 SmartProgressReporter.startProgressReport("Building index", reader);
                 assembler.buildLeftPartsIndex(reader);
             }
             try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getInputFileName())) {
                 SmartProgressReporter.startProgressReport("Searching for overlaps", reader);
-                assembler.searchOverlaps(reader);
+                assembler.searchOverlaps(reader, parameters.rounds);
             }
 
             if (parameters.report != null)
@@ -94,6 +96,22 @@ public final class ActionAssemblePartialAlignments implements Action {
                 names = {"-p", "--write-partial"})
         public Boolean writePartial;
 
+        @Parameter(description = "Processing threads",
+                names = {"-t", "--threads"}, validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(description = "Keep index of left parts in memory-mapped temporary files instead of heap " +
+                "(for inputs with huge number of partial alignments); with --rounds fragments kept between rounds are also " +
+                "stored in a temporary file.",
+                names = {"--off-heap-index"})
+        public Boolean offHeapIndex;
+
+        @Parameter(description = "Number of overlapping rounds; fragments left without CDR3 after each round are kept " +
+                "in memory (in a temporary file with --off-heap-index) and overlapped again (the same as re-running with --write-partial on the output). Stops " +
+                "earlier if a round gives no new overlaps; 0 - run until no new overlaps are found.",
+                names = {"--rounds"})
+        public int rounds = 1;
+
         public String getInputFileName() {
             return parameters.get(0);
         }
@@ -106,6 +124,10 @@ public final class ActionAssemblePartialAlignments implements Action {
             return overlappedOnly != null && overlappedOnly;
         }
 
+        public boolean getOffHeapIndex() {
+            return offHeapIndex != null && offHeapIndex;
+        }
+
         public Boolean getWritePartial() {
             return writePartial != null && writePartial;
         }
@@ -119,6 +141,8 @@ public final class ActionAssemblePartialAlignments implements Action {
         public void validate() {
             if (parameters.size() != 2)
                 throw new ParameterException("Wrong number of parameters.");
+            if (rounds < 0)
+                throw new ParameterException("Number of rounds should be non-negative.");
             super.validate();
         }
 
@@ -28,97 +28,133 @@
  */
 package com.milaboratory.mixcr.cli;
 
+import cc.redberry.pipe.InputPort;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
 import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParameters;
 import com.milaboratory.cli.ActionParametersWithOutput;
-import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.mixcr.basictypes.Clone;
-import com.milaboratory.mixcr.basictypes.CloneSet;
 import com.milaboratory.mixcr.basictypes.CloneSetIO;
-import com.milaboratory.mixcr.basictypes.IOUtil;
-import io.repseq.core.GeneType;
-import io.repseq.core.VDJCGeneId;
+import com.milaboratory.mixcr.util.CloneSetsJoin;
+import com.milaboratory.mixcr.util.CloneSetsJoin.Overlap;
+import com.milaboratory.mixcr.util.CloneSetsJoin.SharedClonotype;
 
 import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.PrintStream;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ActionClonesDiff implements Action {
     private final DiffParameters params = new DiffParameters();
 
     @Override
     public void go(ActionHelper helper) throws Exception {
-        try (InputStream is1 = IOUtil.createIS(params.get1());
-             InputStream is2 = IOUtil.createIS(params.get2());
-             PrintStream report = params.report().equals(".") ? System.out : new PrintStream(new FileOutputStream(params.report()))) {
-
-            CloneSet cs1 = CloneSetIO.read(is1);
-            CloneSet cs2 = CloneSetIO.read(is2);
-
-            HashMap<CKey, CRec> recs = new HashMap<>();
-
-            populate(recs, cs1, 0);
-            populate(recs, cs2, 1);
-
-            int newClones1 = 0, newClones2 = 0;
-            long newClones1Reads = 0, newClones2Reads = 0;
+        List<String> inputs = params.getInputFileNames();
+        List<CloneSetIO.CloneSetReader> readers = new ArrayList<>();
+        try (PrintStream report = params.report().equals(".") ? System.out : new PrintStream(new FileOutputStream(params.report()));
+             PrintStream sharedOutput = params.shared == null ? null : new PrintStream(new FileOutputStream(params.shared))) {
+            long totalClones = 0;
+            for (String input : inputs) {
+                CloneSetIO.CloneSetReader reader = new CloneSetIO.CloneSetReader(input);
+                readers.add(reader);
+                totalClones += reader.getNumberOfClones();
+            }
 
-            for (CRec cRec : recs.values()) {
-                if (cRec.clones[0] == null) {
-                    newClones2++;
-                    newClones2Reads += cRec.clones[1].getCount();
+            Overlap overlap;
+            try (CloneSetsJoin join = new CloneSetsJoin(inputs.size(), totalClones, params.maxInMemory,
+                    params.threads, params.useV(), params.useJ(), params.useC())) {
+                // Streaming clones from input files
+                for (int i = 0; i < readers.size(); i++) {
+                    Clone clone;
+                    while ((clone = readers.get(i).take()) != null)
+                        join.add(i, clone);
                 }
 
-                if (cRec.clones[1] == null) {
-                    newClones1++;
-                    newClones1Reads += cRec.clones[0].getCount();
+                try {
+                    overlap = join.run(params.minSamples,
+                            sharedOutput == null ? null : new SharedClonesWriter(sharedOutput, inputs.size()));
+                } catch (CloneSetsJoin.DuplicateKeyException e) {
+                    String error = "";
+                    if (e.differentGene != null) {
+                        char letter = Character.toLowerCase(e.differentGene.getLetter());
+                        error = "Error: clones with the same key present in one of the clonesets. Seems that clones were assembled " +
+                                "using -OseparateBy" + Character.toUpperCase(letter) + "=true option, please add -" + letter + " option to this command.";
+                    }
+                    throw new ParameterException(error);
                 }
             }
 
-            report.println("Unique clones in cloneset 1: " + newClones1 + " (" + Util.PERCENT_FORMAT.format(100.0 * newClones1 / cs1.size()) + "%)");
-            report.println("Reads in unique clones in cloneset 1: " + newClones1Reads + " (" + Util.PERCENT_FORMAT.format(100.0 * newClones1Reads / cs1.getTotalCount()) + "%)");
+            for (int i = 0; i < inputs.size(); i++) {
+                report.println("Unique clones in cloneset " + (i + 1) + ": " + overlap.uniqueClones[i] + " (" + Util.PERCENT_FORMAT.format(100.0 * overlap.uniqueClones[i] / overlap.clones[i]) + "%)");
+                report.println("Reads in unique clones in cloneset " + (i + 1) + ": " + overlap.uniqueReads[i] + " (" + Util.PERCENT_FORMAT.format(100.0 * overlap.uniqueReads[i] / overlap.reads[i]) + "%)");
+            }
 
-            report.println("Unique clones in cloneset 2: " + newClones2 + " (" + Util.PERCENT_FORMAT.format(100.0 * newClones2 / cs2.size()) + "%)");
-            report.println("Reads in unique clones in cloneset 2: " + newClones2Reads + " (" + Util.PERCENT_FORMAT.format(100.0 * newClones2Reads / cs2.getTotalCount()) + "%)");
+            if (inputs.size() > 2) {
+                report.println("Shared clones (row cloneset clones present in column cloneset):");
+                printMatrix(report, overlap.sharedClones, null);
+                report.println("Shared reads, % (row cloneset reads in clones present in column cloneset):");
+                printMatrix(report, overlap.sharedReads, overlap.reads);
+            }
+        } finally {
+            for (CloneSetIO.CloneSetReader reader : readers)
+                reader.close();
         }
     }
 
-    private void populate(Map<CKey, CRec> recs, CloneSet cs, int i) {
-        for (Clone clone : cs) {
-            CKey key = getKey(clone);
-            CRec cRec = recs.get(key);
-            if (cRec == null)
-                recs.put(key, cRec = new CRec());
-
-            if (cRec.clones[i] != null) {
-                String error = "";
-                char letter = 'X';
-                if (!Objects.equals(
-                        getBestGene(cRec.clones[i], GeneType.Variable),
-                        getBestGene(clone, GeneType.Variable)))
-                    letter = 'v';
-                if (!Objects.equals(
-                        getBestGene(cRec.clones[i], GeneType.Joining),
-                        getBestGene(clone, GeneType.Joining)))
-                    letter = 'j';
-                if (!Objects.equals(
-                        getBestGene(cRec.clones[i], GeneType.Constant),
-                        getBestGene(clone, GeneType.Constant)))
-                    letter = 'c';
+    private static void printMatrix(PrintStream report, long[][] matrix, long[] totals) {
+        StringBuilder line = new StringBuilder();
+        for (int j = 0; j < matrix.length; j++)
+            line.append('\t').append(j + 1);
+        report.println(line);
+        for (int i = 0; i < matrix.length; i++) {
+            line.setLength(0);
+            line.append(i + 1);
+            for (int j = 0; j < matrix.length; j++) {
+                line.append('\t');
+                if (totals == null)
+                    line.append(matrix[i][j]);
+                else
+                    line.append(Util.PERCENT_FORMAT.format(100.0 * matrix[i][j] / totals[i]));
+            }
+            report.println(line);
+        }
+    }
 
-                if (letter != 'X')
-                    error = "Error: clones with the same key present in one of the clonesets. Seems that clones were assembled " +
-                            "using -OseparateBy" + Character.toUpperCase(letter) + "=true option, please add -" + letter + " option to this command.";
+    private static final class SharedClonesWriter implements InputPort<SharedClonotype> {
+        final PrintStream output;
+
+        SharedClonesWriter(PrintStream output, int numberOfSamples) {
+            this.output = output;
+            StringBuilder header = new StringBuilder("Clonal sequence(s)\tBest V gene\tBest J gene\tBest C gene");
+            for (int i = 1; i <= numberOfSamples; i++)
+                header.append("\tClone count ").append(i);
+            for (int i = 1; i <= numberOfSamples; i++)
+                header.append("\tClone ID ").append(i);
+            output.println(header);
+        }
 
-                throw new ParameterException(error);
+        @Override
+        public void put(SharedClonotype clonotype) {
+            if (clonotype == null)
+                return;
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < clonotype.clonalSequence.length; i++) {
+                if (i != 0)
+                    line.append(',');
+                line.append(clonotype.clonalSequence[i]);
             }
-
-            cRec.clones[i] = clone;
+            line.append('\t').append(clonotype.v == null ? "" : clonotype.v)
+                    .append('\t').append(clonotype.j == null ? "" : clonotype.j)
+                    .append('\t').append(clonotype.c == null ? "" : clonotype.c);
+            for (long count : clonotype.counts)
+                line.append('\t').append(count);
+            for (int id : clonotype.cloneIds)
+                line.append('\t').append(id == -1 ? "" : Integer.toString(id));
+            output.println(line);
         }
     }
 
@@ -132,67 +168,9 @@ public class ActionClonesDiff implements Action {
         return params;
     }
 
-    private VDJCGeneId getBestGene(Clone clone, GeneType geneType) {
-        return clone.getBestHit(geneType) == null ? null : clone.getBestHit(geneType).getGene().getId();
-    }
-
-    private CKey getKey(Clone clone) {
-        final NucleotideSequence[] clonalSequence = new NucleotideSequence[clone.numberOfTargets()];
-        for (int i = 0; i < clonalSequence.length; i++)
-            clonalSequence[i] = clone.getTarget(i).getSequence();
-
-        final VDJCGeneId v = params.useV() ? getBestGene(clone, GeneType.Variable) : null;
-
-        final VDJCGeneId j = params.useJ() ? getBestGene(clone, GeneType.Joining) : null;
-
-        final VDJCGeneId c = params.useC() ? getBestGene(clone, GeneType.Constant) : null;
-
-        return new CKey(clonalSequence, v, j, c);
-    }
-
-    private static final class CRec {
-        final Clone[] clones = new Clone[2];
-    }
-
-    private static final class CKey {
-        final NucleotideSequence[] clonalSequence;
-        final VDJCGeneId v, j, c;
-
-        public CKey(NucleotideSequence[] clonalSequence, VDJCGeneId v, VDJCGeneId j, VDJCGeneId c) {
-            this.clonalSequence = clonalSequence;
-            this.v = v;
-            this.j = j;
-            this.c = c;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof CKey)) return false;
-
-            CKey cKey = (CKey) o;
-
-            // Probably incorrect - comparing Object[] arrays with Arrays.equals
-            if (!Arrays.equals(clonalSequence, cKey.clonalSequence)) return false;
-            if (v != null ? !v.equals(cKey.v) : cKey.v != null) return false;
-            if (j != null ? !j.equals(cKey.j) : cKey.j != null) return false;
-            return c != null ? c.equals(cKey.c) : cKey.c == null;
-
-        }
-
-        @Override
-        public int hashCode() {
-            int result = Arrays.hashCode(clonalSequence);
-            result = 31 * result + (v != null ? v.hashCode() : 0);
-            result = 31 * result + (j != null ? j.hashCode() : 0);
-            result = 31 * result + (c != null ? c.hashCode() : 0);
-            return result;
-        }
-    }
-
-    @Parameters(commandDescription = "Calculates the difference between two .clns files")
+    @Parameters(commandDescription = "Calculates the difference (overlap) between two or more .clns files")
     public static class DiffParameters extends ActionParametersWithOutput {
-        @Parameter(description = "input1.clns input2.clns [report]")
+        @Parameter(description = "input1.clns input2.clns [input3.clns ...] [report]")
         public List<String> parameters = new ArrayList<>();
 
         @Parameter(names = {"-v"}, description = "Use V gene in clone comparison (include it as a clone key along " +
@@ -207,6 +185,23 @@ public class ActionClonesDiff implements Action {
                 "with a clone sequence).")
         public Boolean c;
 
+        @Parameter(names = {"-s", "--shared"}, description = "Output tab-delimited table of clonotypes present in " +
+                "several clonesets (see --min-samples).")
+        public String shared;
+
+        @Parameter(names = {"--min-samples"}, description = "Minimal number of clonesets a clonotype should be " +
+                "present in to be written to the table of shared clonotypes.", validateWith = PositiveInteger.class)
+        public int minSamples = 2;
+
+        @Parameter(names = {"-t", "--threads"}, description = "Processing threads",
+                validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = {"--max-in-memory"}, description = "Maximal number of clones kept in memory at once " +
+                "(shared by all threads); larger inputs are partitioned through temporary files.", validateWith = PositiveInteger.class,
+                hidden = true)
+        public int maxInMemory = 2_000_000;
+
         public boolean useV() {
             return v != null && v;
         }
@@ -219,48 +214,39 @@ public class ActionClonesDiff implements Action {
             return c != null && c;
         }
 
-        //@Parameter(names = {"-o1", "--only-in-first"}, description = "output for alignments contained only " +
-        //        "in the first .vdjca file")
-        //public String onlyFirst;
-        //@Parameter(names = {"-o2", "--only-in-second"}, description = "output for alignments contained only " +
-        //        "in the second .vdjca file")
-        //public String onlySecond;
-        //@Parameter(names = {"-d1", "--diff-from-first"}, description = "output for alignments from the first file " +
-        //        "that are different from those alignments in the second file")
-        //public String diff1;
-        //@Parameter(names = {"-d2", "--diff-from-second"}, description = "output for alignments from the second file " +
-        //        "that are different from those alignments in the first file")
-        //public String diff2;
-        //@Parameter(names = {"-g", "--gene-feature"}, description = "Gene feature to compare")
-        //public String geneFeatureToMatch = "CDR3";
-        //@Parameter(names = {"-l", "--top-hits-level"}, description = "Number of top hits to search for match")
-        //public int hitsCompareLevel = 1;
-
+        /**
+         * Last positional parameter is a report file if it is not a .clns file
+         */
+        boolean hasReport() {
+            return parameters.size() > 2 && !isCloneSetFile(parameters.get(parameters.size() - 1));
+        }
 
-        String get1() {
-            return parameters.get(0);
+        static boolean isCloneSetFile(String fileName) {
+            return fileName.endsWith(".clns") || fileName.contains(".clns.");
         }
 
-        String get2() {
-            return parameters.get(1);
+        List<String> getInputFileNames() {
+            return hasReport() ? parameters.subList(0, parameters.size() - 1) : parameters;
         }
 
         String report() {
-            return parameters.size() == 2 ? "." : parameters.get(2);
+            return hasReport() ? parameters.get(parameters.size() - 1) : ".";
         }
 
         @Override
-        @SuppressWarnings("unckecked")
         protected List<String> getOutputFiles() {
-            return parameters.size() == 2 ?
-                    Collections.EMPTY_LIST :
-                    Collections.singletonList(parameters.get(parameters.size() - 1));
+            List<String> files = new ArrayList<>();
+            if (hasReport())
+                files.add(report());
+            if (shared != null)
+                files.add(shared);
+            return files;
         }
 
         @Override
         public void validate() {
             super.validate();
-            if (parameters.size() < 2 || parameters.size() > 3)
+            if (getInputFileNames().size() < 2)
                 throw new IllegalArgumentException("Wrong number of parameters.");
         }
     }
@@ -32,6 +32,9 @@ import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParametersParser;
 import com.milaboratory.mixcr.basictypes.VDJCObject;
+import com.milaboratory.mixcr.util.PipelineMetrics;
+
+import java.io.File;
 
 public abstract class ActionExport<T extends VDJCObject> implements Action, ActionParametersParser {
     public final ActionExportParameters<T> parameters;
@@ -48,7 +51,16 @@ public abstract class ActionExport<T extends VDJCObject> implements Action, Acti
             helper.getDefaultPrintStream().print(ActionExportParameters.listOfFields(clazz));
             return;
         }
-        go0();
+        if (parameters.metrics != null)
+            PipelineMetrics.enable();
+        try (PipelineMetrics.Stage metrics = PipelineMetrics.begin("Export")) {
+            metrics.addBytesRead(new File(parameters.getInputFile()).length());
+            go0();
+            if (!parameters.printToStdout())
+                metrics.addBytesWritten(new File(parameters.getOutputFile()).length());
+        }
+        if (parameters.metrics != null)
+            Util.writeMetrics(parameters.metrics, command(), helper.getCommandLineArguments());
     }
 
     @Override
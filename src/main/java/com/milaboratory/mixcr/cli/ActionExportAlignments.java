@@ -30,39 +30,68 @@ package com.milaboratory.mixcr.cli;
 
 import cc.redberry.pipe.OutputPort;
 import cc.redberry.pipe.blocks.FilteringPort;
+import cc.redberry.pipe.util.CountLimitingOutputPort;
+import cc.redberry.primitives.Filter;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
-import com.milaboratory.mixcr.export.InfoWriter;
+import com.milaboratory.mixcr.cli.afiltering.AFilter;
+import com.milaboratory.mixcr.export.ExportWriter;
+import com.milaboratory.mixcr.util.ParallelFilteringPort;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.VDJCLibraryRegistry;
 
-import java.util.List;
+import static cc.redberry.primitives.FilterUtil.and;
+
 
 public class ActionExportAlignments extends ActionExport<VDJCAlignments> {
     public ActionExportAlignments() {
-        super(new ActionExportParameters<VDJCAlignments>(), VDJCAlignments.class);
+        super(new AlignmentsExportParameters(), VDJCAlignments.class);
     }
 
     @Override
     public void go0() throws Exception {
         try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getInputFile(), VDJCLibraryRegistry.getDefault());
-             InfoWriter<VDJCAlignments> writer = new InfoWriter<>(parameters.getOutputFile())) {
+             ExportWriter<VDJCAlignments> writer = parameters.createWriter()) {
             SmartProgressReporter.startProgressReport("Exporting alignments", reader, System.err);
-            writer.attachInfoProviders((List) parameters.exporters);
             writer.ensureHeader();
-            VDJCAlignments alignments;
-            long count = 0;
-            long limit = parameters.getLimit();
-            OutputPort<VDJCAlignments> alignmentsPort = new FilteringPort<>(reader, parameters.getFilter());
-            while ((alignments = alignmentsPort.take()) != null && count < limit) {
-                writer.put(alignments);
-                ++count;
-            }
+            if (parameters.threads > 1) {
+                // filter expression is evaluated in parallel too
+                try (ParallelFilteringPort<VDJCAlignments> filtered =
+                             new ParallelFilteringPort<>(reader, parameters.getFilter(), parameters.threads)) {
+                    writer.putAll(limit(filtered), parameters.threads);
+                }
+            } else
+                writer.putAll(limit(new FilteringPort<>(reader, parameters.getFilter())), 1);
         }
     }
 
+    private OutputPort<VDJCAlignments> limit(OutputPort<VDJCAlignments> port) {
+        if (parameters.getLimit() == Long.MAX_VALUE)
+            return port;
+        return new CountLimitingOutputPort<>(port, parameters.getLimit());
+    }
+
     @Override
     public String command() {
         return "exportAlignments";
     }
+
+    @Parameters(commandDescription = "Export alignments to tab-delimited text file")
+    public static class AlignmentsExportParameters extends ActionExportParameters<VDJCAlignments> {
+        @Parameter(description = "Custom filter expression, e.g. \"chains('TRB') && length(CDR3) >= 30\" " +
+                "(see documentation for the list of available functions)",
+                names = {"-f", "--filter"})
+        public String filter = null;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Filter<VDJCAlignments> getFilter() {
+            Filter<VDJCAlignments> superFilter = super.getFilter();
+            if (filter == null)
+                return superFilter;
+            return and(superFilter, AFilter.build(filter));
+        }
+    }
 }
@@ -273,7 +273,8 @@ public class ActionExportAlignmentsPretty implements Action {
                 names = {"-r", "--read-contains"})
         public String readContains = null;
 
-        @Parameter(description = "Custom filter",
+        @Parameter(description = "Custom filter expression, e.g. \"chains('TRB') && length(CDR3) >= 30\" " +
+                "(see documentation for the list of available functions)",
                 names = {"-f", "--filter"})
         public String filter = null;
 
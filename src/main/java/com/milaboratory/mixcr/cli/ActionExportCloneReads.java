@@ -19,6 +19,7 @@ import com.milaboratory.mixcr.assembler.AlignmentsToClonesMappingContainer;
 import com.milaboratory.mixcr.assembler.ReadToCloneMapping;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.util.OriginalReadsFetcher;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.io.IOException;
@@ -45,7 +46,7 @@ public final class ActionExportCloneReads implements Action {
     @Override
     public void go(ActionHelper helper) throws Exception {
         if (!originalReadsPresent()) {
-            final String msg = "Error: original reads was not saved in the .vdjca file: re-run align with '-g' option.";
+            final String msg = "Error: original reads was not saved in the .vdjca file: re-run align with '-g' or '--save-reads-refs' option.";
             throw new IllegalArgumentException(msg);
         }
 
@@ -61,7 +62,7 @@ public final class ActionExportCloneReads implements Action {
     private boolean originalReadsPresent() throws IOException {
         try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getAlignmentsFile())) {
             VDJCAlignments test = reader.take();
-            return test == null || test.getOriginalSequences() != null;
+            return test == null || test.getOriginalSequences() != null || test.getOriginalReadReferences() != null;
         }
     }
 
@@ -71,7 +72,8 @@ public final class ActionExportCloneReads implements Action {
         for (int cloneId : cloneIds)
             writers.put(cloneId, null);
 
-        try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getAlignmentsFile())) {
+        try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getAlignmentsFile());
+             OriginalReadsFetcher fetcher = new OriginalReadsFetcher(reader.getOriginalReadsSources())) {
             Iterator<ReadToCloneMapping> mappingIterator = CUtils.it(index.createPortByClones()).iterator();
             Iterator<VDJCAlignments> vdjcaIterator = new CUtils.OPIterator<>(reader);
 
@@ -87,11 +89,12 @@ public final class ActionExportCloneReads implements Action {
 
                 assert vdjca.getAlignmentsIndex() == mapping.getAlignmentsId();
 
+                SequenceRead read = createRead(vdjca, fetcher);
                 SequenceWriter writer = writers.get(mapping.getCloneIndex());
                 if (writer == null)
-                    writers.put(mapping.getCloneIndex(), writer = createWriter(vdjca.getOriginalSequences().length == 2,
+                    writers.put(mapping.getCloneIndex(), writer = createWriter(read.numberOfReads() == 2,
                             createFileName(parameters.getOutputFileName(), mapping.getCloneIndex())));
-                writer.write(createRead(vdjca.getOriginalSequences(), vdjca.getOriginalDescriptions()));
+                writer.write(read);
             }
 
             for (SequenceWriter writer : writers.valueCollection())
@@ -103,7 +106,8 @@ public final class ActionExportCloneReads implements Action {
 
     public void writeSingle(AlignmentsToClonesMappingContainer index, int cloneId)
             throws Exception {
-        try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getAlignmentsFile())) {
+        try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getAlignmentsFile());
+             OriginalReadsFetcher fetcher = new OriginalReadsFetcher(reader.getOriginalReadsSources())) {
             Iterator<ReadToCloneMapping> mappingIterator = CUtils.it(index.createPortForClone(cloneId)).iterator();
             Iterator<VDJCAlignments> vdjcaIterator = new CUtils.OPIterator<>(reader);
 
@@ -119,10 +123,11 @@ public final class ActionExportCloneReads implements Action {
                 if (vdjca.getAlignmentsIndex() != mapping.getAlignmentsId())
                     continue;
 
+                SequenceRead read = createRead(vdjca, fetcher);
                 if (writer == null)
-                    writer = createWriter(vdjca.getOriginalSequences().length == 2,
+                    writer = createWriter(read.numberOfReads() == 2,
                             createFileName(parameters.getOutputFileName(), cloneId));
-                writer.write(createRead(vdjca.getOriginalSequences(), vdjca.getOriginalDescriptions()));
+                writer.write(read);
             }
             if (writer != null)
                 writer.close();
@@ -136,6 +141,12 @@ public final class ActionExportCloneReads implements Action {
         return fileName;
     }
 
+    private static SequenceRead createRead(VDJCAlignments vdjca, OriginalReadsFetcher fetcher) {
+        if (vdjca.getOriginalSequences() == null && vdjca.getOriginalReadReferences() != null)
+            return fetcher.fetch(vdjca);
+        return createRead(vdjca.getOriginalSequences(), vdjca.getOriginalDescriptions());
+    }
+
     private static SequenceRead createRead(NSequenceWithQuality[] nseqs, String[] descr) {
         if (nseqs.length == 1)
             return new SingleReadImpl(-1, nseqs[0], descr[0]);
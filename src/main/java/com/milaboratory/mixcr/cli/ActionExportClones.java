@@ -28,6 +28,9 @@
  */
 package com.milaboratory.mixcr.cli;
 
+import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.blocks.FilteringPort;
+import cc.redberry.pipe.util.CountLimitingOutputPort;
 import cc.redberry.primitives.Filter;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -36,15 +39,14 @@ import com.milaboratory.core.sequence.NSequenceWithQuality;
 import com.milaboratory.mixcr.basictypes.Clone;
 import com.milaboratory.mixcr.basictypes.CloneSet;
 import com.milaboratory.mixcr.basictypes.CloneSetIO;
-import com.milaboratory.mixcr.basictypes.IOUtil;
-import com.milaboratory.mixcr.export.InfoWriter;
+import com.milaboratory.mixcr.export.ExportWriter;
 import com.milaboratory.util.CanReportProgressAndStage;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.GeneFeature;
 import io.repseq.core.VDJCLibraryRegistry;
 
-import java.io.InputStream;
-import java.util.List;
+import java.io.File;
+import java.util.Iterator;
 
 public class ActionExportClones extends ActionExport<Clone> {
     public ActionExportClones() {
@@ -54,23 +56,47 @@ public class ActionExportClones extends ActionExport<Clone> {
     @Override
     public void go0() throws Exception {
         CloneExportParameters parameters = (CloneExportParameters) this.parameters;
-        try (InputStream inputStream = IOUtil.createIS(parameters.getInputFile());
-             InfoWriter<Clone> writer = new InfoWriter<>(parameters.getOutputFile())) {
-            CloneSet set = CloneSetIO.read(inputStream, VDJCLibraryRegistry.getDefault());
+        if (parameters.isStreamingPossible())
+            exportStreaming(parameters);
+        else
+            exportInMemory(parameters);
+    }
+
+    /**
+     * Clones are decoded one by one, export stops as soon as limit or threshold is reached. Used when no filters
+     * requiring recalculation of fractions were specified.
+     */
+    private void exportStreaming(CloneExportParameters parameters) throws Exception {
+        try (CloneSetIO.CloneSetReader reader = new CloneSetIO.CloneSetReader(new File(parameters.getInputFile()),
+                VDJCLibraryRegistry.getDefault());
+             ExportWriter<Clone> writer = parameters.createWriter()) {
+            reader.setThresholds(parameters.minCount, parameters.minFraction);
+
+            writer.ensureHeader();
+
+            SmartProgressReporter.startProgressReport("Exporting clones", reader, System.err);
+            OutputPort<Clone> clones = new FilteringPort<>(reader, parameters.getFilter());
+            if (parameters.getLimit() != Long.MAX_VALUE)
+                clones = new CountLimitingOutputPort<>(clones, parameters.getLimit());
+            writer.putAll(clones, parameters.threads);
+        }
+    }
 
+    private void exportInMemory(CloneExportParameters parameters) throws Exception {
+        CloneSet set = CloneSetIO.read(new File(parameters.getInputFile()), VDJCLibraryRegistry.getDefault());
+        try (ExportWriter<Clone> writer = parameters.createWriter()) {
             set = CloneSet.transform(set, parameters.getFilter());
 
-            writer.attachInfoProviders((List) parameters.exporters);
             writer.ensureHeader();
             long limit = parameters.getLimit();
-            for (int i = 0; i < set.size(); i++) {
+            for (int i = 0; i < set.size() && i < limit; i++) {
                 if (set.get(i).getFraction() < parameters.minFraction ||
                         set.get(i).getCount() < parameters.minCount) {
                     limit = i;
                     break;
                 }
             }
-            ExportClones exportClones = new ExportClones(set, writer, limit);
+            ExportClones exportClones = new ExportClones(set, writer, limit, parameters.threads);
             SmartProgressReporter.startProgressReport(exportClones, System.err);
             exportClones.run();
         }
@@ -109,16 +135,18 @@ public class ActionExportClones extends ActionExport<Clone> {
     public static final class ExportClones implements CanReportProgressAndStage {
         final static String stage = "Exporting clones";
         final CloneSet clones;
-        final InfoWriter<Clone> writer;
+        final ExportWriter<Clone> writer;
         final long size;
         volatile long current = 0;
         final long limit;
+        final int threads;
 
-        private ExportClones(CloneSet clones, InfoWriter<Clone> writer, long limit) {
+        private ExportClones(CloneSet clones, ExportWriter<Clone> writer, long limit, int threads) {
             this.clones = clones;
             this.writer = writer;
             this.size = clones.size();
             this.limit = limit;
+            this.threads = threads;
         }
 
         @Override
@@ -137,12 +165,17 @@ public class ActionExportClones extends ActionExport<Clone> {
         }
 
         void run() {
-            for (Clone clone : clones.getClones()) {
-                if (current == limit)
-                    break;
-                writer.put(clone);
-                ++current;
-            }
+            writer.putAll(new OutputPort<Clone>() {
+                final Iterator<Clone> iterator = clones.getClones().iterator();
+
+                @Override
+                public synchronized Clone take() {
+                    if (current == limit || !iterator.hasNext())
+                        return null;
+                    ++current;
+                    return iterator.next();
+                }
+            }, threads);
         }
     }
 
@@ -172,6 +205,14 @@ public class ActionExportClones extends ActionExport<Clone> {
             return filterStops != null && filterStops;
         }
 
+        /**
+         * Returns true if clones can be exported directly from the file, i.e. no filters affecting clone fractions
+         * were specified
+         */
+        public boolean isStreamingPossible() {
+            return !getFilterOutOfFrames() && !getFilterStops() && isAllChains();
+        }
+
         @Override
         public Filter<Clone> getFilter() {
             final Filter<Clone> superFilter = super.getFilter();
@@ -11,9 +11,7 @@ import com.milaboratory.mixcr.basictypes.Clone;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 import com.milaboratory.mixcr.basictypes.VDJCHit;
 import com.milaboratory.mixcr.basictypes.VDJCObject;
-import com.milaboratory.mixcr.export.FieldExtractor;
-import com.milaboratory.mixcr.export.FieldExtractors;
-import com.milaboratory.mixcr.export.OutputMode;
+import com.milaboratory.mixcr.export.*;
 import io.repseq.core.Chains;
 import io.repseq.core.GeneType;
 
@@ -65,6 +63,20 @@ public class ActionExportParameters<T extends VDJCObject> extends ActionParamete
             names = {"-n", "--limit"}, validateWith = PositiveInteger.class)
     private Long limit = null;
 
+    @Parameter(description = "Number of threads used to render exported rows (order of rows is preserved)",
+            names = {"--threads"}, validateWith = PositiveInteger.class)
+    public int threads = 1;
+
+    @Parameter(description = "Write typed column-chunked binary table instead of tab-delimited text (column " +
+            "headers are the same as with --no-spaces option)",
+            names = {"--columnar"})
+    public Boolean columnar = false;
+
+    @Parameter(description = "Write stage-level performance metrics (wall and CPU time, records per second, " +
+        "bytes read and written, GC time, heap usage, depths of internal buffers) to JSON file.",
+        names = {"--metrics"})
+    public String metrics;
+
     public ArrayList<FieldExtractor> exporters;
 
     public long getLimit() {
@@ -88,6 +100,15 @@ public class ActionExportParameters<T extends VDJCObject> extends ActionParamete
         return files.get(0);
     }
 
+    @SuppressWarnings("unchecked")
+    public ExportWriter<T> createWriter() throws IOException {
+        ExportWriter<T> writer = columnar
+                ? new ColumnarWriter<T>(getOutputFile())
+                : new InfoWriter<T>(getOutputFile());
+        writer.attachInfoProviders((List) exporters);
+        return writer;
+    }
+
     public Chains getChains() {
         if (chains_legacy != null) {
             if (!chains.equals("ALL"))
@@ -98,6 +119,13 @@ public class ActionExportParameters<T extends VDJCObject> extends ActionParamete
         return Util.parseLoci(chains);
     }
 
+    /**
+     * Returns true if no chain filtering was requested
+     */
+    public boolean isAllChains() {
+        return chains_legacy == null && chains.trim().equalsIgnoreCase("ALL");
+    }
+
     @SuppressWarnings("unchecked")
     public Filter<T> getFilter() {
         List<Filter<T>> filters = new ArrayList<>();
@@ -145,7 +173,9 @@ public class ActionExportParameters<T extends VDJCObject> extends ActionParamete
                 add(args[args.length - 2]);
                 add(args[args.length - 1]);
             }};
-            OutputMode outputMode = parameters.noSpaces ? OutputMode.ScriptingFriendly : OutputMode.HumanFriendly;
+            OutputMode outputMode = parameters.noSpaces || parameters.columnar
+                    ? OutputMode.ScriptingFriendly
+                    : OutputMode.HumanFriendly;
             parameters.exporters = new ArrayList<>();
             //if preset was explicitly specified
             if (parameters.preset != DEFAULT_PRESET)
@@ -44,6 +44,7 @@ import com.milaboratory.core.io.sequence.fastq.SingleFastqWriter;
 import com.milaboratory.core.sequence.NSequenceWithQuality;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.util.OriginalReadsFetcher;
 import com.milaboratory.util.SmartProgressReporter;
 
 import java.io.IOException;
@@ -56,6 +57,7 @@ public class ActionExportReads implements Action {
     @SuppressWarnings("unchecked")
     public void go(ActionHelper helper) throws Exception {
         try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(parameters.getInputFile());
+             OriginalReadsFetcher fetcher = new OriginalReadsFetcher(reader.getOriginalReadsSources());
              SequenceWriter writer = createWriter()) {
             SmartProgressReporter.startProgressReport("Extracting reads", reader,
                     System.err);
@@ -66,10 +68,18 @@ public class ActionExportReads implements Action {
 
                 // Extracting original read sequences
                 NSequenceWithQuality[] sequecnes = alignments.getOriginalSequences();
+                String[] descriptions = alignments.getOriginalDescriptions();
+
+                // Fetching original reads from source files
+                if (sequecnes == null && alignments.getOriginalReadReferences() != null) {
+                    SequenceRead original = fetcher.fetch(alignments);
+                    sequecnes = ActionAlign.extractSequences(original);
+                    descriptions = ActionAlign.extractDescriptions(original);
+                }
 
                 // Checks
                 if (sequecnes == null || sequecnes.length == 0) {
-                    System.err.println("VDJCA file doesn't contain original reads (perform align action with -g / --save-reads option).");
+                    System.err.println("VDJCA file doesn't contain original reads (perform align action with -g / --save-reads or --save-reads-refs option).");
                     return;
                 }
 
@@ -84,7 +94,6 @@ public class ActionExportReads implements Action {
                 }
 
                 // Extracting original read descriptions
-                String[] descriptions = alignments.getOriginalDescriptions();
                 if (descriptions == null || descriptions.length != sequecnes.length) {
                     descriptions = sequecnes.length == 1 ?
                             new String[]{"R" + id} :
@@ -1,6 +1,7 @@
 package com.milaboratory.mixcr.cli;
 
 import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
 import cc.redberry.primitives.Filter;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -15,6 +16,8 @@ import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
 import com.milaboratory.mixcr.basictypes.VDJCHit;
+import com.milaboratory.mixcr.cli.afiltering.AFilter;
+import com.milaboratory.mixcr.util.ParallelFilteringPort;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.Chains;
 import io.repseq.core.GeneFeature;
@@ -24,6 +27,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Dmitry Bolotin
@@ -34,21 +38,31 @@ public final class ActionFilterAlignments implements Action {
 
     @Override
     public void go(ActionHelper helper) throws Exception {
-        try (VDJCAlignmentsReader reader = parameters.getInput();
+        try (final VDJCAlignmentsReader reader = parameters.getInput();
              VDJCAlignmentsWriter writer = parameters.getOutput()) {
+            writer.setOriginalReadsSources(reader.getOriginalReadsSources());
             writer.header(reader.getParameters(), reader.getUsedGenes());
             SmartProgressReporter.startProgressReport("Filtering", reader);
-            int total = 0, passed = 0;
-            final AlignmentsFilter filter = parameters.getFilter();
-            for (VDJCAlignments al : CUtils.it(CUtils.buffered(reader, 2048))) {
-                ++total;
-                if (filter.accept(al)) {
+            final AtomicLong total = new AtomicLong();
+            long passed = 0;
+            OutputPort<VDJCAlignments> counting = new OutputPort<VDJCAlignments>() {
+                @Override
+                public VDJCAlignments take() {
+                    VDJCAlignments al = reader.take();
+                    if (al != null)
+                        total.incrementAndGet();
+                    return al;
+                }
+            };
+            try (ParallelFilteringPort<VDJCAlignments> filtered =
+                         new ParallelFilteringPort<>(counting, parameters.getFilter(), parameters.threads)) {
+                for (VDJCAlignments al : CUtils.it(filtered)) {
                     writer.write(al);
                     ++passed;
                 }
             }
             writer.setNumberOfProcessedReads(reader.getNumberOfReads());
-            System.out.printf("Written %s alignments (%s alignments considered in total)\n", passed, total);
+            System.out.printf("Written %s alignments (%s alignments considered in total)\n", passed, total.get());
         }
     }
 
@@ -66,11 +80,18 @@ public final class ActionFilterAlignments implements Action {
         final GeneFeature containsFeature;
         final NucleotideSequence cdr3Equals;
         final Chains chains;
+        final AFilter expression;
 
         public AlignmentsFilter(GeneFeature containsFeature, NucleotideSequence cdr3Equals, Chains chains) {
+            this(containsFeature, cdr3Equals, chains, null);
+        }
+
+        public AlignmentsFilter(GeneFeature containsFeature, NucleotideSequence cdr3Equals, Chains chains,
+                                AFilter expression) {
             this.containsFeature = containsFeature;
             this.cdr3Equals = cdr3Equals;
             this.chains = chains;
+            this.expression = expression;
         }
 
         @Override
@@ -99,6 +120,9 @@ public final class ActionFilterAlignments implements Action {
                 if (cdr3Equals != null && !cdr3.getSequence().equals(cdr3Equals))
                     return false;
             }
+
+            if (expression != null && !expression.accept(object))
+                return false;
             return true;
         }
     }
@@ -121,6 +145,15 @@ public final class ActionFilterAlignments implements Action {
                 names = {"-e", "--cdr3-equals"})
         public String cdr3Equals = null;
 
+        @Parameter(description = "Custom filter expression, e.g. \"chains('TRB') && length(CDR3) >= 30\" " +
+                "(see documentation for the list of available functions)",
+                names = {"-f", "--filter"})
+        public String filter = null;
+
+        @Parameter(description = "Processing threads",
+                names = {"-t", "--threads"}, validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
         @Parameter(description = "Maximal number of reads to process",
                 names = {"-n", "--limit"}, validateWith = PositiveInteger.class)
         public long limit = 0;
@@ -155,7 +188,8 @@ public final class ActionFilterAlignments implements Action {
         }
 
         public AlignmentsFilter getFilter() {
-            return new AlignmentsFilter(getContainFeature(), getCdr3Equals(), getChains());
+            return new AlignmentsFilter(getContainFeature(), getCdr3Equals(), getChains(),
+                    filter == null ? null : AFilter.build(filter));
         }
     }
 }
@@ -28,38 +28,56 @@
  */
 package com.milaboratory.mixcr.cli;
 
-import cc.redberry.pipe.CUtils;
-import cc.redberry.pipe.OutputPort;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
 import com.milaboratory.cli.Action;
 import com.milaboratory.cli.ActionHelper;
 import com.milaboratory.cli.ActionParameters;
+import com.milaboratory.cli.ProcessException;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsMerger;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
 import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
-import com.milaboratory.util.CanReportProgress;
 import com.milaboratory.util.SmartProgressReporter;
 import io.repseq.core.VDJCLibraryRegistry;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 public class ActionMergeAlignments implements Action {
     final MergeParameters parameters = new MergeParameters();
 
     @Override
     public void go(ActionHelper helper) throws Exception {
-        try (MultiReader reader = new MultiReader(parameters.getInputFileNames());
-             VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(parameters.getOutputFileName())) {
-            reader.initNextReader();
-            SmartProgressReporter.startProgressReport("Merging", reader);
-            writer.header(reader.currentInnerReader.getParameters(), reader.currentInnerReader.getUsedGenes());
-            for (VDJCAlignments record : CUtils.it(reader))
-                writer.write(record);
-            writer.setNumberOfProcessedReads(reader.readIdOffset.get());
+        VDJCLibraryRegistry registry = VDJCLibraryRegistry.getDefault();
+        List<VDJCAlignmentsReader> readers = new ArrayList<>();
+        try {
+            for (String file : parameters.getInputFileNames())
+                readers.add(new VDJCAlignmentsReader(file, registry));
+        } catch (Exception e) {
+            for (VDJCAlignmentsReader reader : readers)
+                reader.close();
+            throw e;
+        }
+
+        try (VDJCAlignmentsMerger merger = new VDJCAlignmentsMerger(readers, parameters.threads)) {
+            if (!merger.isParametersConsistent()) {
+                if (!parameters.force)
+                    throw new ProcessException("Input files were aligned with different parameters. Use --force " +
+                            "to merge them anyway (parameters of the first file will be written to the output).");
+                System.out.println("WARNING: input files were aligned with different parameters; " +
+                        "parameters of the first file are written to the output.");
+            }
+            try (VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(parameters.getOutputFileName())) {
+                SmartProgressReporter.startProgressReport("Merging", merger);
+                writer.setOriginalReadsSources(merger.getOriginalReadsSources());
+                writer.header(merger.getParameters(), merger.getUsedGenes());
+                VDJCAlignments record;
+                while ((record = merger.take()) != null)
+                    writer.write(record);
+                writer.setNumberOfProcessedReads(merger.getNumberOfReads());
+            }
         }
     }
 
@@ -78,6 +96,15 @@ public class ActionMergeAlignments implements Action {
         @Parameter(description = "[input_file1.vdjca[.gz] [input_file2.vdjca[.gz] ....]] output_file.vdjca[.gz]")
         public List<String> parameters;
 
+        @Parameter(description = "Number of input files decoded concurrently",
+                names = {"-t", "--threads"}, validateWith = PositiveInteger.class)
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(description = "Merge files aligned with different parameters (parameters of the first file are " +
+                "written to the output).",
+                names = {"--force"})
+        public boolean force = false;
+
         public List<String> getInputFileNames() {
             return parameters.subList(0, parameters.size() - 1);
         }
@@ -86,76 +113,4 @@ public class ActionMergeAlignments implements Action {
             return parameters.get(parameters.size() - 1);
         }
     }
-
-    // Not thread-safe !
-    private static final class MultiReader implements
-            OutputPort<VDJCAlignments>, CanReportProgress, AutoCloseable {
-        final VDJCLibraryRegistry registry = VDJCLibraryRegistry.getDefault();
-        final List<String> files;
-        final AtomicInteger fileId = new AtomicInteger(0);
-        final AtomicLong recordId = new AtomicLong(), readIdOffset = new AtomicLong();
-        volatile double progress = 0.0;
-        VDJCAlignmentsReader currentInnerReader;
-
-        public MultiReader(List<String> files) {
-            this.files = files;
-        }
-
-        private void updateProgress() {
-            double p = 1.0 * (fileId.get() - 1) / files.size();
-            if (currentInnerReader != null)
-                p += currentInnerReader.getProgress() / files.size();
-            this.progress = p;
-        }
-
-        @Override
-        public double getProgress() {
-            return progress;
-        }
-
-        @Override
-        public boolean isFinished() {
-            return fileId.get() > files.size();
-        }
-
-        public boolean initNextReader() {
-            try {
-                if (currentInnerReader == null) {
-                    int idToCreate = fileId.getAndIncrement();
-                    if (idToCreate >= files.size())
-                        return false;
-                    currentInnerReader = new VDJCAlignmentsReader(files.get(idToCreate), registry);
-                }
-                return true;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
-        @Override
-        public VDJCAlignments take() {
-            VDJCAlignments record;
-            if (currentInnerReader == null || (record = currentInnerReader.take()) == null) {
-                if (currentInnerReader != null) {
-                    readIdOffset.addAndGet(currentInnerReader.getNumberOfReads());
-                    currentInnerReader.close();
-                    currentInnerReader = null;
-                }
-                if (!initNextReader())
-                    return null;
-                return take();
-            } else {
-                updateProgress();
-                return new VDJCAlignments(readIdOffset.get() + record.getReadId(),
-                        recordId.incrementAndGet(),
-                        record);
-            }
-        }
-
-        @Override
-        public void close() throws Exception {
-            if (currentInnerReader != null)
-                currentInnerReader.close();
-        }
-    }
 }
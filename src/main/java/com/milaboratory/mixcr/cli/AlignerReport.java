@@ -30,6 +30,9 @@ package com.milaboratory.mixcr.cli;
 
 import com.milaboratory.core.io.sequence.SequenceRead;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.vdjaligners.AdaptiveMerger;
+import com.milaboratory.mixcr.vdjaligners.ReadLatencyProfiler;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerWithCache;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignerEventListener;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignmentFailCause;
 
@@ -42,6 +45,9 @@ public final class AlignerReport implements VDJCAlignerEventListener, ReportWrit
     private final AtomicLong chimeras = new AtomicLong(0);
     private final AtomicLong alignedOverlap = new AtomicLong(0);
     private final AtomicLong nonAlignedOverlap = new AtomicLong(0);
+    private volatile AdaptiveMerger adaptiveMerger = null;
+    private volatile VDJCAlignerWithCache<?> alignerWithCache = null;
+    private volatile ReadLatencyProfiler latencyProfiler = null;
 
     public AlignerReport() {
     }
@@ -92,6 +98,18 @@ public final class AlignerReport implements VDJCAlignerEventListener, ReportWrit
             alignedOverlap.incrementAndGet();
     }
 
+    public void setAdaptiveMerger(AdaptiveMerger adaptiveMerger) {
+        this.adaptiveMerger = adaptiveMerger;
+    }
+
+    public void setAlignerWithCache(VDJCAlignerWithCache<?> alignerWithCache) {
+        this.alignerWithCache = alignerWithCache;
+    }
+
+    public void setLatencyProfiler(ReadLatencyProfiler latencyProfiler) {
+        this.latencyProfiler = latencyProfiler;
+    }
+
     public void onChimera() {
         chimeras.incrementAndGet();
     }
@@ -113,6 +131,15 @@ public final class AlignerReport implements VDJCAlignerEventListener, ReportWrit
         helper.writePercentAndAbsoluteField("Overlapped", alignedOverlap.get() + nonAlignedOverlap.get(), total);
         helper.writePercentAndAbsoluteField("Overlapped and aligned", alignedOverlap.get(), total);
         helper.writePercentAndAbsoluteField("Overlapped and not aligned", nonAlignedOverlap.get(), total);
+
+        if (adaptiveMerger != null)
+            adaptiveMerger.writeReport(helper);
+
+        if (alignerWithCache != null)
+            alignerWithCache.writeReport(helper);
+
+        if (latencyProfiler != null)
+            latencyProfiler.writeReport(helper);
     }
 
     public long getTotal() {
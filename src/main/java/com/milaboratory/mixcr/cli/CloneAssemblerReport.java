@@ -32,6 +32,8 @@ import com.milaboratory.mixcr.assembler.CloneAccumulator;
 import com.milaboratory.mixcr.assembler.CloneAssemblerListener;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -173,6 +175,65 @@ public final class CloneAssemblerReport implements CloneAssemblerListener, Repor
         this.totalReads = totalReads;
     }
 
+    /**
+     * Returns read-level counters of initial assembly and mapping by their names, stored in mergeable intermediate
+     * results (see {@link com.milaboratory.mixcr.assembler.CloneAccumulatorsIO})
+     */
+    public Map<String, Long> getReadCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("totalReads", totalReads);
+        counters.put("failedToExtractTarget", failedToExtractTarget.get());
+        counters.put("droppedAsLowQuality", droppedAsLowQuality.get());
+        counters.put("deferred", deferred.get());
+        counters.put("coreAlignments", coreAlignments.get());
+        counters.put("alignmentsInClones", alignmentsInClones.get());
+        counters.put("deferredAlignmentsDropped", deferredAlignmentsDropped.get());
+        counters.put("deferredAlignmentsMapped", deferredAlignmentsMapped.get());
+        return counters;
+    }
+
+    /**
+     * Adds read-level counters returned by {@link #getReadCounters()} of a report for a part of alignments. Counters
+     * absent in the map are treated as zeros.
+     *
+     * @throws IllegalArgumentException if the map contains unknown counter
+     */
+    public void addReadCounters(Map<String, Long> counters) {
+        if (totalReads == -1)
+            totalReads = 0;
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            long value = counter.getValue();
+            switch (counter.getKey()) {
+                case "totalReads":
+                    totalReads += value;
+                    break;
+                case "failedToExtractTarget":
+                    failedToExtractTarget.addAndGet(value);
+                    break;
+                case "droppedAsLowQuality":
+                    droppedAsLowQuality.addAndGet(value);
+                    break;
+                case "deferred":
+                    deferred.addAndGet(value);
+                    break;
+                case "coreAlignments":
+                    coreAlignments.addAndGet(value);
+                    break;
+                case "alignmentsInClones":
+                    alignmentsInClones.addAndGet(value);
+                    break;
+                case "deferredAlignmentsDropped":
+                    deferredAlignmentsDropped.addAndGet(value);
+                    break;
+                case "deferredAlignmentsMapped":
+                    deferredAlignmentsMapped.addAndGet(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown read counter: " + counter.getKey());
+            }
+        }
+    }
+
     @Override
     public void writeReport(ReportHelper helper) {
         if (totalReads == -1)
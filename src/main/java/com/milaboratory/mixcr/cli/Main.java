@@ -81,6 +81,7 @@ public class Main {
                 new ActionExportClonesPretty(),
                 new ActionAlignmentsStat(),
                 new ActionMergeAlignments(),
+                new ActionAssembleMerge(),
                 new ActionInfo(),
                 new ActionExportCloneReads(),
                 new VersionInfoAction(),
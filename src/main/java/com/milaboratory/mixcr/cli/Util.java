@@ -29,6 +29,7 @@
 package com.milaboratory.mixcr.cli;
 
 import com.milaboratory.mixcr.util.MiXCRVersionInfo;
+import com.milaboratory.mixcr.util.PipelineMetrics;
 import com.milaboratory.util.TimeUtils;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import io.repseq.core.Chains;
@@ -116,6 +117,17 @@ public final class Util {
     }
 
 
+    /**
+     * Writes metrics collected by {@link PipelineMetrics} to JSON file
+     */
+    public static void writeMetrics(String metricsFileName, String action, String commandLineArguments) {
+        try {
+            PipelineMetrics.write(new File(metricsFileName), action, commandLineArguments);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
     public static String printTwoColumns(List<String> left, List<String> right, int leftWidth, int rightWidth, int sep) {
         return printTwoColumns(left, right, leftWidth, rightWidth, sep, "");
     }
@@ -30,83 +30,41 @@ package com.milaboratory.mixcr.cli.afiltering;
 
 import cc.redberry.primitives.Filter;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
-import io.repseq.core.GeneFeature;
-import io.repseq.core.GeneType;
-
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.Map;
 
 /**
+ * Alignments filter defined by a user expression, e.g. {@code chains("TRB") && length(CDR3) >= 30 &&
+ * score(V) > 100}. Expression is compiled once (see {@link AFilterCompiler} for the syntax) and evaluated without
+ * any shared mutable state, so a single instance may be used from several threads at once.
+ *
  * Created by dbolotin on 05/09/14.
  */
-public class AFilter implements Filter<VDJCAlignments> {
-    final ScriptEngine engine;
-    final Invocable invocable;
+public final class AFilter implements Filter<VDJCAlignments> {
+    final String code;
+    final AFilterCompiler.BoolNode expression;
 
-    public AFilter(ScriptEngine engine, Invocable invocable) {
-        this.engine = engine;
-        this.invocable = invocable;
+    AFilter(String code, AFilterCompiler.BoolNode expression) {
+        this.code = code;
+        this.expression = expression;
     }
 
     @Override
     public boolean accept(VDJCAlignments alignments) {
-        engine.put("a", alignments);
-        try {
-            Object value = invocable.invokeFunction("evaluate_filter");
-            return (Boolean) value;
-        } catch (ScriptException | NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
+        return expression.bool(alignments);
     }
 
-    public static AFilter build(String filterCode) {
-        try {
-            ScriptEngineManager manager = new ScriptEngineManager();
-            ScriptEngine engine = manager.getEngineByName("JavaScript");
-            Reader reader = null;
-            String script = null;
-            try {
-                reader = new BufferedReader(new InputStreamReader(
-                        AFilter.class.getClassLoader().getResourceAsStream("js/filter_init.js")));
-
-                char[] buffer = new char[1024];
-                int size;
-                StringBuilder sb = new StringBuilder();
-                while ((size = reader.read(buffer)) >= 0)
-                    sb.append(buffer, 0, size);
-                script = sb.toString();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            } finally {
-                try {
-                    if (reader != null)
-                        reader.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            int filterBegin = filterCode.lastIndexOf(';') + 1;
-            script = script.replace("/*CODE*/", filterCode.substring(0, filterBegin));
-            script = script.replace("/*FILTER*/", filterCode.substring(filterBegin));
-            engine.eval(script);
-
-            for (Map.Entry<GeneFeature, String> entry : GeneFeature.getNameByFeature().entrySet())
-                engine.put(entry.getValue(), entry.getKey());
-
-            for (GeneType geneType : GeneType.values())
-                engine.put(new String(new char[]{geneType.getLetter()}), geneType);
+    @Override
+    public String toString() {
+        return code;
+    }
 
-            Invocable inv = (Invocable) engine;
-            return new AFilter(engine, inv);
-        } catch (ScriptException e) {
-            throw new IllegalArgumentException(e);
-        }
+    /**
+     * Compiles filter expression.
+     *
+     * @param filterCode filter expression
+     * @return compiled filter
+     * @throws IllegalArgumentException if expression is malformed
+     */
+    public static AFilter build(String filterCode) {
+        return new AFilter(filterCode, AFilterCompiler.compile(filterCode));
     }
 }
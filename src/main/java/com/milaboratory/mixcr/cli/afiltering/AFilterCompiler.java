@@ -0,0 +1,793 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.cli.afiltering;
+
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCHit;
+import com.milaboratory.mixcr.cli.Util;
+import io.repseq.core.Chains;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.GeneType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.milaboratory.core.sequence.TranslationParameters.FromCenter;
+
+/**
+ * Compiles filter expressions into trees of immutable nodes evaluated directly against {@link VDJCAlignments}.
+ *
+ * <p>Grammar (from lowest to highest precedence):</p>
+ * <pre>
+ *     expression := and ( '||' and )*
+ *     and        := not ( '&amp;&amp;' not )*
+ *     not        := '!' not | comparison
+ *     comparison := sum ( ( '==' | '!=' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=' ) sum )?
+ *     sum        := product ( ( '+' | '-' ) product )*
+ *     product    := primary ( ( '*' | '/' ) primary )*
+ *     primary    := number | string | 'true' | 'false' | identifier | function '(' arguments ')'
+ *                 | '(' expression ')' | '-' primary
+ * </pre>
+ *
+ * <p>Identifiers are gene feature names (e.g. {@code CDR3}, {@code VRegion}) and gene types ({@code V}, {@code D},
+ * {@code J}, {@code C}). Strings are enclosed in single or double quotes. Available functions are listed in
+ * {@link #call(String, List, int)}.</p>
+ */
+final class AFilterCompiler {
+    private static final Map<String, GeneFeature> FEATURES_BY_NAME = new HashMap<>();
+
+    static {
+        for (Map.Entry<GeneFeature, String> entry : GeneFeature.getNameByFeature().entrySet())
+            FEATURES_BY_NAME.put(entry.getValue(), entry.getKey());
+    }
+
+    final String code;
+    final List<Token> tokens;
+    int position = 0;
+
+    private AFilterCompiler(String code) {
+        this.code = code;
+        this.tokens = tokenize(code);
+    }
+
+    /**
+     * Compiles filter expression to a boolean-valued node.
+     *
+     * @param code filter expression
+     * @return root node of compiled expression
+     * @throws IllegalArgumentException if expression is malformed or is not boolean-valued
+     */
+    static BoolNode compile(String code) {
+        AFilterCompiler compiler = new AFilterCompiler(code);
+        Node node = compiler.expression();
+        Token last = compiler.peek();
+        if (last.kind != TokenKind.End)
+            throw compiler.error("unexpected '" + last.text + "'", last.position);
+        return compiler.expectBool(node, "filter expression", 0);
+    }
+
+    /**
+     * Parses {@code expression} rule at the current position (see grammar in the class description); other parser
+     * methods are named after the rules they parse.
+     */
+    Node expression() {
+        Node left = and();
+        while (acceptOp("||")) {
+            final BoolNode l = expectBool(left, "'||'", position),
+                    r = expectBool(and(), "'||'", position);
+            left = new BoolNode() {
+                @Override
+                boolean bool(VDJCAlignments a) {
+                    return l.bool(a) || r.bool(a);
+                }
+            };
+        }
+        return left;
+    }
+
+    Node and() {
+        Node left = not();
+        while (acceptOp("&&")) {
+            final BoolNode l = expectBool(left, "'&&'", position),
+                    r = expectBool(not(), "'&&'", position);
+            left = new BoolNode() {
+                @Override
+                boolean bool(VDJCAlignments a) {
+                    return l.bool(a) && r.bool(a);
+                }
+            };
+        }
+        return left;
+    }
+
+    Node not() {
+        if (acceptOp("!")) {
+            final BoolNode arg = expectBool(not(), "'!'", position);
+            return new BoolNode() {
+                @Override
+                boolean bool(VDJCAlignments a) {
+                    return !arg.bool(a);
+                }
+            };
+        }
+        return comparison();
+    }
+
+    Node comparison() {
+        Node left = sum();
+        Token op = peek();
+        if (op.kind != TokenKind.Op)
+            return left;
+        switch (op.text) {
+            case "==":
+            case "!=":
+                ++position;
+                return equality(left, sum(), op.text.equals("!="), op.position);
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                ++position;
+                return numericComparison(op.text, expectNum(left, op.text, op.position),
+                        expectNum(sum(), op.text, op.position));
+            default:
+                return left;
+        }
+    }
+
+    Node equality(Node left, Node right, final boolean negate, int at) {
+        if (left.type != right.type)
+            throw error("can't compare " + left.type + " with " + right.type, at);
+        switch (left.type) {
+            case Num: {
+                final NumNode l = (NumNode) left, r = (NumNode) right;
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return (l.num(a) == r.num(a)) != negate;
+                    }
+                };
+            }
+            case Str: {
+                final StrNode l = (StrNode) left, r = (StrNode) right;
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return l.str(a).equals(r.str(a)) != negate;
+                    }
+                };
+            }
+            case Bool: {
+                final BoolNode l = (BoolNode) left, r = (BoolNode) right;
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return (l.bool(a) == r.bool(a)) != negate;
+                    }
+                };
+            }
+            default:
+                throw error(left.type + " values can't be compared", at);
+        }
+    }
+
+    static BoolNode numericComparison(String op, final NumNode l, final NumNode r) {
+        switch (op) {
+            case "<":
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return l.num(a) < r.num(a);
+                    }
+                };
+            case "<=":
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return l.num(a) <= r.num(a);
+                    }
+                };
+            case ">":
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return l.num(a) > r.num(a);
+                    }
+                };
+            case ">=":
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return l.num(a) >= r.num(a);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(op);
+        }
+    }
+
+    Node sum() {
+        Node left = product();
+        while (true) {
+            Token op = peek();
+            if (op.kind != TokenKind.Op || !(op.text.equals("+") || op.text.equals("-")))
+                return left;
+            ++position;
+            left = arithmetic(op.text.charAt(0), expectNum(left, op.text, op.position),
+                    expectNum(product(), op.text, op.position));
+        }
+    }
+
+    Node product() {
+        Node left = primary();
+        while (true) {
+            Token op = peek();
+            if (op.kind != TokenKind.Op || !(op.text.equals("*") || op.text.equals("/")))
+                return left;
+            ++position;
+            left = arithmetic(op.text.charAt(0), expectNum(left, op.text, op.position),
+                    expectNum(primary(), op.text, op.position));
+        }
+    }
+
+    static NumNode arithmetic(char op, final NumNode l, final NumNode r) {
+        switch (op) {
+            case '+':
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return l.num(a) + r.num(a);
+                    }
+                };
+            case '-':
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return l.num(a) - r.num(a);
+                    }
+                };
+            case '*':
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return l.num(a) * r.num(a);
+                    }
+                };
+            case '/':
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return l.num(a) / r.num(a);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(String.valueOf(op));
+        }
+    }
+
+    Node primary() {
+        Token token = next();
+        switch (token.kind) {
+            case Num:
+                try {
+                    return new NumConst(Double.parseDouble(token.text));
+                } catch (NumberFormatException e) {
+                    throw error("malformed number '" + token.text + "'", token.position);
+                }
+            case Str:
+                return new StrConst(token.text);
+            case Ident:
+                if (acceptOp("(")) {
+                    List<Node> args = new ArrayList<>();
+                    if (!acceptOp(")")) {
+                        do {
+                            args.add(expression());
+                        } while (acceptOp(","));
+                        expectOp(")");
+                    }
+                    return call(token.text, args, token.position);
+                }
+                return identifier(token);
+            case Op:
+                if (token.text.equals("(")) {
+                    Node node = expression();
+                    expectOp(")");
+                    return node;
+                }
+                if (token.text.equals("-")) {
+                    final NumNode arg = expectNum(primary(), "'-'", token.position);
+                    return new NumNode() {
+                        @Override
+                        double num(VDJCAlignments a) {
+                            return -arg.num(a);
+                        }
+                    };
+                }
+                throw error("unexpected '" + token.text + "'", token.position);
+            default:
+                throw error("unexpected end of expression", token.position);
+        }
+    }
+
+    Node identifier(Token token) {
+        switch (token.text) {
+            case "true":
+                return new BoolConst(true);
+            case "false":
+                return new BoolConst(false);
+        }
+        if (token.text.length() == 1)
+            for (GeneType gt : GeneType.values())
+                if (gt.getLetter() == token.text.charAt(0))
+                    return new GeneTypeConst(gt);
+        GeneFeature feature = FEATURES_BY_NAME.get(token.text);
+        if (feature != null)
+            return new FeatureConst(feature);
+        throw error("unknown identifier '" + token.text + "'", token.position);
+    }
+
+    /**
+     * Creates node for a function call. Supported functions:
+     *
+     * <ul>
+     * <li>{@code numberOfTargets()} - number of targets (reads) in alignment</li>
+     * <li>{@code readId()} - id of the read</li>
+     * <li>{@code targetMeanQuality(i)} - mean quality of i-th target</li>
+     * <li>{@code contains(F)} - true if gene feature F is covered by alignment</li>
+     * <li>{@code length(F)} - length of gene feature F, 0 if not covered</li>
+     * <li>{@code minQuality(F)} - minimal quality of gene feature F, 0 if not covered</li>
+     * <li>{@code nFeature(F)} - nucleotide sequence of gene feature F, empty string if not covered</li>
+     * <li>{@code aaFeature(F)} - amino acid sequence of gene feature F, empty string if not covered</li>
+     * <li>{@code score(G)} - score of the best hit of gene type G, 0 if there are no hits</li>
+     * <li>{@code hit(G)} - full name of the best hit of gene type G (e.g. TRBV12-3*00), empty string if there are
+     * no hits</li>
+     * <li>{@code gene(G)} - gene name of the best hit of gene type G (e.g. TRBV12-3), empty string if there are no
+     * hits</li>
+     * <li>{@code hasHit(G, "name")} - true if any hit of gene type G has specified full or gene name</li>
+     * <li>{@code chains("TRA,TRB")} - true if any of the best V, D, J or C hits belongs to one of specified
+     * chains</li>
+     * <li>{@code targetAlignedTop(i[, G])} - true if best hit of gene type G (any gene type if omitted) is aligned
+     * to i-th target</li>
+     * <li>{@code targetAlignedAny(i[, G])} - true if any hit of gene type G (any gene type if omitted) is aligned to
+     * i-th target</li>
+     * </ul>
+     */
+    Node call(String name, List<Node> args, int at) {
+        switch (name) {
+            case "numberOfTargets":
+                arity(name, args, 0, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return a.numberOfTargets();
+                    }
+                };
+            case "readId":
+                arity(name, args, 0, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return a.getReadId();
+                    }
+                };
+            case "targetMeanQuality": {
+                arity(name, args, 1, at);
+                final NumNode target = expectNum(args.get(0), name, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        return a.getTarget((int) target.num(a)).getQuality().meanValue();
+                    }
+                };
+            }
+            case "contains": {
+                arity(name, args, 1, at);
+                final GeneFeature feature = expectFeature(args.get(0), name, at);
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        return a.getFeature(feature) != null;
+                    }
+                };
+            }
+            case "length": {
+                arity(name, args, 1, at);
+                final GeneFeature feature = expectFeature(args.get(0), name, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        NSequenceWithQuality seq = a.getFeature(feature);
+                        return seq == null ? 0 : seq.size();
+                    }
+                };
+            }
+            case "minQuality": {
+                arity(name, args, 1, at);
+                final GeneFeature feature = expectFeature(args.get(0), name, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        NSequenceWithQuality seq = a.getFeature(feature);
+                        return seq == null ? 0 : seq.getQuality().minValue();
+                    }
+                };
+            }
+            case "nFeature": {
+                arity(name, args, 1, at);
+                final GeneFeature feature = expectFeature(args.get(0), name, at);
+                return new StrNode() {
+                    @Override
+                    String str(VDJCAlignments a) {
+                        NSequenceWithQuality seq = a.getFeature(feature);
+                        return seq == null ? "" : seq.getSequence().toString();
+                    }
+                };
+            }
+            case "aaFeature": {
+                arity(name, args, 1, at);
+                final GeneFeature feature = expectFeature(args.get(0), name, at);
+                return new StrNode() {
+                    @Override
+                    String str(VDJCAlignments a) {
+                        NSequenceWithQuality seq = a.getFeature(feature);
+                        return seq == null ? "" : AminoAcidSequence.translate(seq.getSequence(), FromCenter).toString();
+                    }
+                };
+            }
+            case "score": {
+                arity(name, args, 1, at);
+                final GeneType geneType = expectGeneType(args.get(0), name, at);
+                return new NumNode() {
+                    @Override
+                    double num(VDJCAlignments a) {
+                        VDJCHit hit = a.getBestHit(geneType);
+                        return hit == null ? 0 : hit.getScore();
+                    }
+                };
+            }
+            case "hit": {
+                arity(name, args, 1, at);
+                final GeneType geneType = expectGeneType(args.get(0), name, at);
+                return new StrNode() {
+                    @Override
+                    String str(VDJCAlignments a) {
+                        VDJCHit hit = a.getBestHit(geneType);
+                        return hit == null ? "" : hit.getGene().getName();
+                    }
+                };
+            }
+            case "gene": {
+                arity(name, args, 1, at);
+                final GeneType geneType = expectGeneType(args.get(0), name, at);
+                return new StrNode() {
+                    @Override
+                    String str(VDJCAlignments a) {
+                        VDJCHit hit = a.getBestHit(geneType);
+                        return hit == null ? "" : hit.getGene().getGeneName();
+                    }
+                };
+            }
+            case "hasHit": {
+                arity(name, args, 2, at);
+                final GeneType geneType = expectGeneType(args.get(0), name, at);
+                final String geneName = expectStrConst(args.get(1), name, at);
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        VDJCHit[] hits = a.getHits(geneType);
+                        if (hits == null)
+                            return false;
+                        for (VDJCHit hit : hits)
+                            if (hit.getGene().getName().equals(geneName)
+                                    || hit.getGene().getGeneName().equals(geneName))
+                                return true;
+                        return false;
+                    }
+                };
+            }
+            case "chains": {
+                arity(name, args, 1, at);
+                final Chains chains = Util.parseLoci(expectStrConst(args.get(0), name, at));
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        for (GeneType gt : GeneType.VDJC_REFERENCE) {
+                            VDJCHit hit = a.getBestHit(gt);
+                            if (hit != null && chains.intersects(hit.getGene().getChains()))
+                                return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+            case "targetAlignedTop":
+            case "targetAlignedAny": {
+                if (args.size() != 1 && args.size() != 2)
+                    throw error(name + " expects 1 or 2 arguments", at);
+                final NumNode target = expectNum(args.get(0), name, at);
+                final GeneType[] geneTypes = args.size() == 1
+                        ? GeneType.VDJC_REFERENCE
+                        : new GeneType[]{expectGeneType(args.get(1), name, at)};
+                final boolean topOnly = name.equals("targetAlignedTop");
+                return new BoolNode() {
+                    @Override
+                    boolean bool(VDJCAlignments a) {
+                        int targetIndex = (int) target.num(a);
+                        for (GeneType gt : geneTypes) {
+                            VDJCHit[] hits = a.getHits(gt);
+                            if (hits == null)
+                                continue;
+                            int n = topOnly ? Math.min(1, hits.length) : hits.length;
+                            for (int i = 0; i < n; ++i)
+                                if (hits[i].getAlignment(targetIndex) != null)
+                                    return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+            default:
+                throw error("unknown function '" + name + "'", at);
+        }
+    }
+
+    void arity(String name, List<Node> args, int expected, int at) {
+        if (args.size() != expected)
+            throw error(name + " expects " + expected + " argument" + (expected == 1 ? "" : "s"), at);
+    }
+
+    /**
+     * Checks type of the node; nodes of each type are instances of the corresponding class (see {@link Type}), so
+     * after this check node may be cast to it.
+     */
+    Node expect(Node node, Type type, String context, int at) {
+        if (node.type != type)
+            throw error(context + " expects " + type + " but got " + node.type, at);
+        return node;
+    }
+
+    BoolNode expectBool(Node node, String context, int at) {
+        return (BoolNode) expect(node, Type.Bool, context, at);
+    }
+
+    NumNode expectNum(Node node, String context, int at) {
+        return (NumNode) expect(node, Type.Num, context, at);
+    }
+
+    GeneFeature expectFeature(Node node, String context, int at) {
+        return ((FeatureConst) expect(node, Type.Feature, context, at)).value;
+    }
+
+    GeneType expectGeneType(Node node, String context, int at) {
+        return ((GeneTypeConst) expect(node, Type.GeneType, context, at)).value;
+    }
+
+    String expectStrConst(Node node, String context, int at) {
+        expect(node, Type.Str, context, at);
+        if (!(node instanceof StrConst))
+            throw error(context + " expects constant argument", at);
+        return ((StrConst) node).value;
+    }
+
+    IllegalArgumentException error(String message, int at) {
+        return new IllegalArgumentException("Error in filter at position " + at + ": " + message + "\n" + code);
+    }
+
+    /**
+     * Returns token at the current position without advancing it
+     */
+    Token peek() {
+        return tokens.get(position);
+    }
+
+    Token next() {
+        Token token = tokens.get(position);
+        if (token.kind != TokenKind.End)
+            ++position;
+        return token;
+    }
+
+    boolean acceptOp(String op) {
+        Token token = peek();
+        if (token.kind == TokenKind.Op && token.text.equals(op)) {
+            ++position;
+            return true;
+        }
+        return false;
+    }
+
+    void expectOp(String op) {
+        if (!acceptOp(op))
+            throw error("'" + op + "' expected", peek().position);
+    }
+
+    List<Token> tokenize(String code) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < code.length()) {
+            char c = code.charAt(i);
+            if (Character.isWhitespace(c)) {
+                ++i;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < code.length()
+                    && Character.isDigit(code.charAt(i + 1)))) {
+                int begin = i;
+                while (i < code.length() && (Character.isDigit(code.charAt(i)) || code.charAt(i) == '.'))
+                    ++i;
+                tokens.add(new Token(TokenKind.Num, code.substring(begin, i), begin));
+            } else if (Character.isLetter(c) || c == '_') {
+                int begin = i;
+                while (i < code.length() && (Character.isLetterOrDigit(code.charAt(i)) || code.charAt(i) == '_'))
+                    ++i;
+                tokens.add(new Token(TokenKind.Ident, code.substring(begin, i), begin));
+            } else if (c == '"' || c == '\'') {
+                int end = code.indexOf(c, i + 1);
+                if (end < 0)
+                    throw error("unterminated string", i);
+                tokens.add(new Token(TokenKind.Str, code.substring(i + 1, end), i));
+                i = end + 1;
+            } else {
+                String two = i + 1 < code.length() ? code.substring(i, i + 2) : "";
+                switch (two) {
+                    case "==":
+                    case "!=":
+                    case "<=":
+                    case ">=":
+                    case "&&":
+                    case "||":
+                        tokens.add(new Token(TokenKind.Op, two, i));
+                        i += 2;
+                        continue;
+                }
+                if ("()!<>+-*/,".indexOf(c) < 0)
+                    throw error("unexpected character '" + c + "'", i);
+                tokens.add(new Token(TokenKind.Op, String.valueOf(c), i));
+                ++i;
+            }
+        }
+        tokens.add(new Token(TokenKind.End, "", code.length()));
+        return tokens;
+    }
+
+    enum TokenKind {Num, Str, Ident, Op, End}
+
+    static final class Token {
+        final TokenKind kind;
+        final String text;
+        final int position;
+
+        Token(TokenKind kind, String text, int position) {
+            this.kind = kind;
+            this.text = text;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Type of expression value; nodes of types {@code Bool}, {@code Num} and {@code Str} are instances of {@link
+     * BoolNode}, {@link NumNode} and {@link StrNode}, nodes of types {@code Feature} and {@code GeneType} are
+     * constants ({@link FeatureConst} and {@link GeneTypeConst}), which can be used only as function arguments.
+     */
+    enum Type {Bool, Num, Str, Feature, GeneType}
+
+    /**
+     * Node of compiled expression. Nodes are immutable, so compiled expression may be evaluated concurrently.
+     */
+    static abstract class Node {
+        final Type type;
+
+        Node(Type type) {
+            this.type = type;
+        }
+    }
+
+    static abstract class BoolNode extends Node {
+        BoolNode() {
+            super(Type.Bool);
+        }
+
+        abstract boolean bool(VDJCAlignments a);
+    }
+
+    static abstract class NumNode extends Node {
+        NumNode() {
+            super(Type.Num);
+        }
+
+        abstract double num(VDJCAlignments a);
+    }
+
+    static abstract class StrNode extends Node {
+        StrNode() {
+            super(Type.Str);
+        }
+
+        abstract String str(VDJCAlignments a);
+    }
+
+    static final class BoolConst extends BoolNode {
+        final boolean value;
+
+        BoolConst(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean bool(VDJCAlignments a) {
+            return value;
+        }
+    }
+
+    static final class NumConst extends NumNode {
+        final double value;
+
+        NumConst(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double num(VDJCAlignments a) {
+            return value;
+        }
+    }
+
+    static final class StrConst extends StrNode {
+        final String value;
+
+        StrConst(String value) {
+            this.value = value;
+        }
+
+        @Override
+        String str(VDJCAlignments a) {
+            return value;
+        }
+    }
+
+    static final class FeatureConst extends Node {
+        final GeneFeature value;
+
+        FeatureConst(GeneFeature value) {
+            super(Type.Feature);
+            this.value = value;
+        }
+    }
+
+    static final class GeneTypeConst extends Node {
+        final GeneType value;
+
+        GeneTypeConst(GeneType value) {
+            super(Type.GeneType);
+            this.value = value;
+        }
+    }
+}
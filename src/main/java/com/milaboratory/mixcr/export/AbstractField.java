@@ -53,4 +53,9 @@ public abstract class AbstractField<T> implements Field<T> {
     public String getDescription() {
         return description;
     }
+
+    @Override
+    public ColumnType getColumnType() {
+        return ColumnType.Text;
+    }
 }
@@ -28,7 +28,7 @@
  */
 package com.milaboratory.mixcr.export;
 
-public abstract class AbstractFieldExtractor<T> implements FieldExtractor<T> {
+public abstract class AbstractFieldExtractor<T> implements AppendingFieldExtractor<T> {
     protected final String header;
     protected final Field<T> descriptor;
 
@@ -41,4 +41,13 @@ public abstract class AbstractFieldExtractor<T> implements FieldExtractor<T> {
     public final String getHeader() {
         return header;
     }
+
+    public ColumnType getColumnType() {
+        return descriptor.getColumnType();
+    }
+
+    @Override
+    public void appendValue(T object, RowBuffer row) {
+        row.append(extractValue(object));
+    }
 }
\ No newline at end of file
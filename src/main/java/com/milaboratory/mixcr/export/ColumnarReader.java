@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads tables written by {@link ColumnarWriter} chunk by chunk.
+ *
+ * <pre>
+ * try (ColumnarReader reader = new ColumnarReader(file)) {
+ *     while (reader.nextChunk())
+ *         for (int row = 0; row < reader.getRowsInChunk(); row++)
+ *             if (!reader.isNull(0, row))
+ *                 process(reader.getLong(0, row));
+ * }
+ * </pre>
+ */
+public final class ColumnarReader implements AutoCloseable {
+    final DataInputStream input;
+    final String[] names;
+    final ColumnType[] types;
+    final byte[][] presence;
+    final long[][] longs;
+    final double[][] doubles;
+    final String[][] strings;
+    // Dictionaries of text columns accumulated over all chunks
+    final List<List<String>> dictionaries = new ArrayList<>();
+    int rowsInChunk = 0;
+    long totalRows = -1;
+
+    public ColumnarReader(String file) throws IOException {
+        this(new BufferedInputStream(new FileInputStream(file), 65536));
+    }
+
+    public ColumnarReader(InputStream inputStream) throws IOException {
+        this.input = new DataInputStream(inputStream);
+        byte[] magic = new byte[ColumnarWriter.MAGIC.length()];
+        input.readFully(magic);
+        if (!ColumnarWriter.MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)))
+            throw new IOException("Not a MiXCR columnar file or unsupported version.");
+        int numberOfColumns = input.readInt();
+        this.names = new String[numberOfColumns];
+        this.types = new ColumnType[numberOfColumns];
+        for (int i = 0; i < numberOfColumns; i++) {
+            names[i] = readString(input);
+            types[i] = ColumnType.values()[input.readByte()];
+            dictionaries.add(new ArrayList<String>());
+        }
+        this.presence = new byte[numberOfColumns][];
+        this.longs = new long[numberOfColumns][];
+        this.doubles = new double[numberOfColumns][];
+        this.strings = new String[numberOfColumns][];
+    }
+
+    public int getNumberOfColumns() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Reads the next chunk of rows, returns false if there are no more rows
+     */
+    public boolean nextChunk() throws IOException {
+        if (totalRows != -1)
+            return false;
+        rowsInChunk = input.readInt();
+        if (rowsInChunk == 0) {
+            totalRows = input.readLong();
+            return false;
+        }
+        for (int i = 0; i < names.length; i++) {
+            presence[i] = new byte[(rowsInChunk + 7) / 8];
+            input.readFully(presence[i]);
+            switch (types[i]) {
+                case Int64:
+                    longs[i] = new long[rowsInChunk];
+                    for (int row = 0; row < rowsInChunk; row++)
+                        longs[i][row] = input.readLong();
+                    break;
+                case Float64:
+                    doubles[i] = new double[rowsInChunk];
+                    for (int row = 0; row < rowsInChunk; row++)
+                        doubles[i][row] = input.readDouble();
+                    break;
+                case Text:
+                    strings[i] = readText(i);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private String[] readText(int column) throws IOException {
+        String[] values = new String[rowsInChunk];
+        byte encoding = input.readByte();
+        switch (encoding) {
+            case ColumnarWriter.ENCODING_PLAIN:
+                for (int row = 0; row < rowsInChunk; row++)
+                    values[row] = readString(input);
+                break;
+            case ColumnarWriter.ENCODING_DICTIONARY:
+                List<String> dictionary = dictionaries.get(column);
+                int newEntries = input.readInt();
+                for (int i = 0; i < newEntries; i++)
+                    dictionary.add(readString(input));
+                for (int row = 0; row < rowsInChunk; row++)
+                    values[row] = dictionary.get(input.readInt());
+                break;
+            default:
+                throw new IOException("Unknown encoding of column " + names[column] + ": " + encoding);
+        }
+        return values;
+    }
+
+    /**
+     * Returns number of rows in the current chunk
+     */
+    public int getRowsInChunk() {
+        return rowsInChunk;
+    }
+
+    public boolean isNull(int column, int row) {
+        return (presence[column][row >> 3] & (1 << (row & 7))) == 0;
+    }
+
+    public long getLong(int column, int row) {
+        return longs[column][row];
+    }
+
+    public double getDouble(int column, int row) {
+        return doubles[column][row];
+    }
+
+    public String getText(int column, int row) {
+        return strings[column][row];
+    }
+
+    /**
+     * Returns total number of rows written to the file (available after the last chunk was read)
+     */
+    public long getTotalRows() {
+        if (totalRows == -1)
+            throw new IllegalStateException("Not all chunks were read.");
+        return totalRows;
+    }
+
+    static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
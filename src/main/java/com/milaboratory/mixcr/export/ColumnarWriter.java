@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.Processor;
+import cc.redberry.pipe.blocks.ParallelProcessor;
+import cc.redberry.pipe.util.Indexer;
+import cc.redberry.pipe.util.OrderedOutputPort;
+import com.milaboratory.mixcr.util.PipelineMetrics;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes exported fields as a typed, column-chunked binary table, which can be loaded by downstream tools without
+ * parsing text. Column types are taken from field descriptors (see {@link Field#getColumnType()}), text columns are
+ * dictionary-encoded while the number of distinct values is small (e.g. gene names).
+ *
+ * <p>File layout (all numbers are big-endian, strings are written as int byte length followed by UTF-8 bytes):</p>
+ *
+ * <pre>
+ * magic                 14 bytes, "MiXCR.COLS.V01"
+ * numberOfColumns       int
+ * columns               numberOfColumns x (name: string, type: byte, ordinal of {@link ColumnType})
+ * chunks                repeated until chunk with zero rows:
+ *   rows                int
+ *   columnChunks        numberOfColumns x
+ *     presence bitmap   (rows + 7) / 8 bytes, bit (i % 8) of byte (i / 8) is set if value in row i is not null
+ *     Int64 column      rows x long
+ *     Float64 column    rows x double
+ *     Text column       encoding: byte
+ *                       0 (plain): rows x string
+ *                       1 (dictionary): newEntries: int, newEntries x string, rows x int (index in dictionary,
+ *                         accumulated over all previous chunks of this column)
+ * end marker            int, 0
+ * totalRows             long
+ * </pre>
+ *
+ * Null values are written as zeros or empty strings and must be masked with the presence bitmap. Files are read with
+ * {@link ColumnarReader}, the format is also described in the documentation of export commands.
+ *
+ * <p>Values of numeric columns are taken from field extractors in binary form (see {@link RowBuffer#containsLong()}),
+ * text is parsed only for extractors which don't append numbers directly.</p>
+ */
+public final class ColumnarWriter<T> implements ExportWriter<T> {
+    static final String MAGIC = "MiXCR.COLS.V01";
+    static final byte ENCODING_PLAIN = 0, ENCODING_DICTIONARY = 1;
+    static final int DEFAULT_CHUNK_SIZE = 16384;
+    /**
+     * Text columns with more distinct values are written with plain encoding
+     */
+    static final int MAX_DICTIONARY_SIZE = 65536;
+    final ArrayList<FieldExtractor<? super T>> fieldExtractors = new ArrayList<>();
+    final DataOutputStream output;
+    final int chunkSize;
+    Column[] columns;
+    final RowBuffer value = new RowBuffer(64);
+    int rowsInChunk = 0;
+    long totalRows = 0;
+    boolean initialized, closed;
+
+    public ColumnarWriter(String file) throws FileNotFoundException {
+        this(".".equals(file) ? new CloseShieldOutputStream(System.out) :
+                new BufferedOutputStream(new FileOutputStream(new File(file)), 65536), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ColumnarWriter(OutputStream outputStream, int chunkSize) {
+        this.output = new DataOutputStream(outputStream);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void attachInfoProvider(FieldExtractor<? super T> provider) {
+        fieldExtractors.add(provider);
+    }
+
+    @Override
+    public void attachInfoProviders(List<FieldExtractor<? super T>> providers) {
+        fieldExtractors.addAll(providers);
+    }
+
+    @Override
+    public void ensureHeader() {
+        if (initialized)
+            return;
+        try {
+            output.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            output.writeInt(fieldExtractors.size());
+            columns = new Column[fieldExtractors.size()];
+            for (int i = 0; i < columns.length; i++) {
+                FieldExtractor<? super T> fe = fieldExtractors.get(i);
+                ColumnType type = fe instanceof AbstractFieldExtractor
+                        ? ((AbstractFieldExtractor) fe).getColumnType()
+                        : ColumnType.Text;
+                writeString(output, fe.getHeader());
+                output.writeByte(type.ordinal());
+                columns[i] = new Column(type, chunkSize);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        initialized = true;
+    }
+
+    @Override
+    public void put(T t) {
+        ensureHeader();
+        extractRow(t, columns, rowsInChunk, value);
+        if (++rowsInChunk == chunkSize)
+            flushChunk();
+    }
+
+    /**
+     * Writes all objects from the port. Field extractors are invoked concurrently in {@code threads} threads (unless
+     * at least one of them is a {@link SequentialFieldExtractor}), while the order of rows is preserved.
+     *
+     * @param port    source of objects
+     * @param threads number of threads extracting values
+     */
+    @Override
+    public void putAll(OutputPort<? extends T> port, int threads) {
+        ensureHeader();
+        port = PipelineMetrics.countRecords(port);
+
+        if (threads <= 1 || !InfoWriter.canExtractConcurrently(fieldExtractors)) {
+            T t;
+            while ((t = port.take()) != null)
+                put(t);
+            return;
+        }
+
+        OutputPort<InfoWriter.RowsBlock<T>> blocks = PipelineMetrics.buffered("row blocks",
+                new InfoWriter.BlocksPort<T>(port), 4 * threads);
+        OutputPort<ExtractedBlock> extracted = new ParallelProcessor<>(blocks,
+                new Processor<InfoWriter.RowsBlock<T>, ExtractedBlock>() {
+                    @Override
+                    public ExtractedBlock process(InfoWriter.RowsBlock<T> block) {
+                        Column[] values = new Column[columns.length];
+                        for (int i = 0; i < values.length; i++)
+                            values[i] = new Column(columns[i].type, block.objects.size());
+                        RowBuffer buffer = new RowBuffer(64);
+                        for (int row = 0; row < block.objects.size(); row++)
+                            extractRow(block.objects.get(row), values, row, buffer);
+                        return new ExtractedBlock(block.index, block.objects.size(), values);
+                    }
+                }, threads);
+
+        for (ExtractedBlock block : CUtils.it(new OrderedOutputPort<>(extracted, new Indexer<ExtractedBlock>() {
+            @Override
+            public long getIndex(ExtractedBlock o) {
+                return o.index;
+            }
+        })))
+            for (int row = 0; row < block.size; row++) {
+                for (int i = 0; i < columns.length; i++)
+                    columns[i].copy(rowsInChunk, block.values[i], row);
+                if (++rowsInChunk == chunkSize)
+                    flushChunk();
+            }
+    }
+
+    /**
+     * Extracts values of all fields into the specified row of columns
+     */
+    private void extractRow(T t, Column[] target, int row, RowBuffer buffer) {
+        for (int i = 0; i < target.length; i++) {
+            FieldExtractor<? super T> fe = fieldExtractors.get(i);
+            buffer.reset();
+            if (fe instanceof AppendingFieldExtractor)
+                ((AppendingFieldExtractor<? super T>) fe).appendValue(t, buffer);
+            else {
+                String value = fe.extractValue(t);
+                if (value != null)
+                    buffer.append(value);
+            }
+            try {
+                target[i].set(row, buffer);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong value for numeric column " + fe.getHeader() + ": " + buffer,
+                        e);
+            }
+        }
+    }
+
+    private void flushChunk() {
+        if (rowsInChunk == 0)
+            return;
+        try {
+            output.writeInt(rowsInChunk);
+            for (Column column : columns)
+                column.write(output, rowsInChunk);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        totalRows += rowsInChunk;
+        rowsInChunk = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        ensureHeader();
+        flushChunk();
+        output.writeInt(0);
+        output.writeLong(totalRows);
+        output.close();
+        for (FieldExtractor<? super T> fe : fieldExtractors)
+            if (fe instanceof Closeable)
+                ((Closeable) fe).close();
+    }
+
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static final class ExtractedBlock {
+        final long index;
+        final int size;
+        final Column[] values;
+
+        ExtractedBlock(long index, int size, Column[] values) {
+            this.index = index;
+            this.size = size;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Values of a single column for a chunk of rows (also used to pass values extracted by worker threads)
+     */
+    private static final class Column {
+        final ColumnType type;
+        final byte[] presence;
+        final long[] longs;
+        final double[] doubles;
+        final String[] strings;
+        final int[] indices;
+        // Dictionary is shared by all chunks of the column, created on first write
+        TObjectIntHashMap<String> dictionary;
+        List<String> newEntries;
+        boolean dictionaryEncoding;
+
+        Column(ColumnType type, int size) {
+            this.type = type;
+            this.presence = new byte[(size + 7) / 8];
+            this.longs = type == ColumnType.Int64 ? new long[size] : null;
+            this.doubles = type == ColumnType.Float64 ? new double[size] : null;
+            this.strings = type == ColumnType.Text ? new String[size] : null;
+            this.indices = type == ColumnType.Text ? new int[size] : null;
+            this.dictionaryEncoding = type == ColumnType.Text;
+        }
+
+        private void setPresence(int row, boolean isNull) {
+            if (isNull)
+                presence[row >> 3] &= ~(1 << (row & 7));
+            else
+                presence[row >> 3] |= 1 << (row & 7);
+        }
+
+        /**
+         * Sets value rendered to the buffer, empty buffer means null
+         */
+        void set(int row, RowBuffer value) {
+            boolean isNull = value.size() == 0;
+            setPresence(row, isNull);
+            switch (type) {
+                case Int64:
+                    longs[row] = isNull ? 0
+                            : value.containsLong() ? value.longValue() : Long.parseLong(value.toString());
+                    break;
+                case Float64:
+                    doubles[row] = isNull ? 0 : value.containsDouble() ? value.doubleValue()
+                            : value.containsLong() ? value.longValue() : Double.parseDouble(value.toString());
+                    break;
+                case Text:
+                    strings[row] = isNull ? "" : value.toString();
+                    break;
+            }
+        }
+
+        /**
+         * Copies value from another column of the same type
+         */
+        void copy(int row, Column from, int fromRow) {
+            setPresence(row, (from.presence[fromRow >> 3] & (1 << (fromRow & 7))) == 0);
+            switch (type) {
+                case Int64:
+                    longs[row] = from.longs[fromRow];
+                    break;
+                case Float64:
+                    doubles[row] = from.doubles[fromRow];
+                    break;
+                case Text:
+                    strings[row] = from.strings[fromRow];
+                    break;
+            }
+        }
+
+        void write(DataOutputStream output, int rows) throws IOException {
+            output.write(presence, 0, (rows + 7) / 8);
+            switch (type) {
+                case Int64:
+                    for (int i = 0; i < rows; i++)
+                        output.writeLong(longs[i]);
+                    break;
+                case Float64:
+                    for (int i = 0; i < rows; i++)
+                        output.writeDouble(doubles[i]);
+                    break;
+                case Text:
+                    writeText(output, rows);
+                    break;
+            }
+            Arrays.fill(presence, (byte) 0);
+        }
+
+        private void writeText(DataOutputStream output, int rows) throws IOException {
+            if (dictionaryEncoding) {
+                if (dictionary == null) {
+                    dictionary = new TObjectIntHashMap<>();
+                    newEntries = new ArrayList<>();
+                }
+                newEntries.clear();
+                for (int i = 0; i < rows; i++) {
+                    String value = strings[i];
+                    if (!dictionary.containsKey(value)) {
+                        dictionary.put(value, dictionary.size());
+                        newEntries.add(value);
+                    }
+                    indices[i] = dictionary.get(value);
+                }
+                if (dictionary.size() > MAX_DICTIONARY_SIZE) {
+                    // Too many distinct values, switching to plain encoding for all subsequent chunks
+                    dictionaryEncoding = false;
+                    dictionary.clear();
+                } else {
+                    output.writeByte(ENCODING_DICTIONARY);
+                    output.writeInt(newEntries.size());
+                    for (String entry : newEntries)
+                        writeString(output, entry);
+                    for (int i = 0; i < rows; i++)
+                        output.writeInt(indices[i]);
+                    return;
+                }
+            }
+
+            output.writeByte(ENCODING_PLAIN);
+            for (int i = 0; i < rows; i++)
+                writeString(output, strings[i]);
+        }
+    }
+}
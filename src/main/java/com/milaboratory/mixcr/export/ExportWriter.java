@@ -26,64 +26,28 @@
  * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
  * PATENT, TRADEMARK OR OTHER RIGHTS.
  */
+package com.milaboratory.mixcr.export;
 
-// a will be assigned to alignment
-a = null;
-V = null;
-D = null;
-J = null;
-C = null;
+import cc.redberry.pipe.InputPort;
+import cc.redberry.pipe.OutputPort;
 
-function length(feature) {
-    sq = a.getFeature(feature);
-    return sq == null ? 0 : sq.size();
-}
-
-function targetMeanQuality(targetIndex) {
-    return a.getTarget(targetIndex).getQuality().meanValue();
-}
+import java.util.List;
 
-function numberOfTargets() {
-    return a.numberOfTargets();
-}
+/**
+ * Common interface for writers of exported tables ({@link InfoWriter}, {@link ColumnarWriter})
+ */
+public interface ExportWriter<T> extends InputPort<T>, AutoCloseable {
+    void attachInfoProvider(FieldExtractor<? super T> provider);
 
-function contains(feature) {
-    return a.getFeature(feature) != null;
-}
+    void attachInfoProviders(List<FieldExtractor<? super T>> providers);
 
-function targetAlignedTop(targetIndex, geneType) {
-    gts = (typeof(geneType) === 'undefined' ? [V, D, J, C] : [geneType]);
-    for (var i = 0; i < gts.length; i++) {
-        var gt = gts[i];
-        hits = a.getHits(gt);
-        if (hits == null)
-            continue;
-        if (hits.length == 0)
-            continue;
-        hit = hits[0];
-        if (hit.getAlignment(targetIndex) != null)
-            return true;
-    }
-    return false;
-}
+    void ensureHeader();
 
-function targetAlignedAny(targetIndex, geneType) {
-    gts = (typeof(geneType) === 'undefined' ? [V, D, J, C] : [geneType]);
-    for (var i = 0; i < gts.length; i++) {
-        var gt = gts[i];
-        hits = a.getHits(gt);
-        if (hits == null)
-            continue;
-        if (hits.length == 0)
-            continue;
-        for (hit in hits)
-            if (hit.getAlignment(targetIndex) != null)
-                return true;
-    }
-    return false;
+    /**
+     * Writes all objects from the port.
+     *
+     * @param port    source of objects
+     * @param threads number of threads that may be used to extract fields
+     */
+    void putAll(OutputPort<? extends T> port, int threads);
 }
-
-function evaluate_filter() {
-    /*CODE*/
-    return Boolean(/*FILTER*/);
-}
\ No newline at end of file
@@ -35,5 +35,7 @@ public interface Field<T> {
 
     String getDescription();
 
+    ColumnType getColumnType();
+
     FieldExtractor<T> create(OutputMode outputMode, String[] args);
 }
@@ -50,6 +50,7 @@ import io.repseq.core.SequencePartitioning;
 import java.io.Closeable;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -60,7 +61,26 @@ import static com.milaboratory.mixcr.assembler.ReadToCloneMapping.MappingType.Dr
 
 public final class FieldExtractors {
     private static final String NULL = "";
-    private static final DecimalFormat SCORE_FORMAT = new DecimalFormat("#.#");
+    // DecimalFormat is not thread-safe, extractors may be invoked from several export threads
+    private static final ThreadLocal<ScoreFormat> SCORE_FORMAT = new ThreadLocal<ScoreFormat>() {
+        @Override
+        protected ScoreFormat initialValue() {
+            return new ScoreFormat();
+        }
+    };
+
+    private static void appendScore(RowBuffer row, float score) {
+        ScoreFormat format = SCORE_FORMAT.get();
+        format.buffer.setLength(0);
+        format.format.format(score, format.buffer, format.position);
+        row.append(format.buffer);
+    }
+
+    private static final class ScoreFormat {
+        final DecimalFormat format = new DecimalFormat("#.#");
+        final StringBuffer buffer = new StringBuffer();
+        final FieldPosition position = new FieldPosition(0);
+    }
 
     static Field[] descriptors = null;
 
@@ -71,8 +91,13 @@ public final class FieldExtractors {
             // Number of targets
             desctiptorsList.add(new PL_O("-targets", "Export number of targets", "Number of targets", "numberOfTargets") {
                 @Override
-                protected String extract(VDJCObject object) {
-                    return Integer.toString(object.numberOfTargets());
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                protected void extract(VDJCObject object, RowBuffer row) {
+                    row.append(object.numberOfTargets());
                 }
             });
 
@@ -82,11 +107,12 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Hit",
                         "Export best " + l + " hit", "Best " + l + " hit", "best" + l + "Hit") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit bestHit = object.getBestHit(type);
                         if (bestHit == null)
-                            return NULL;
-                        return bestHit.getGene().getName();
+                            row.append(NULL);
+                        else
+                            row.append(bestHit.getGene().getName());
                     }
                 });
             }
@@ -97,11 +123,12 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Gene",
                         "Export best " + l + " hit gene name (e.g. TRBV12-3 for TRBV12-3*00)", "Best " + l + " gene", "best" + l + "Gene") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit bestHit = object.getBestHit(type);
                         if (bestHit == null)
-                            return NULL;
-                        return bestHit.getGene().getGeneName();
+                            row.append(NULL);
+                        else
+                            row.append(bestHit.getGene().getGeneName());
                     }
                 });
             }
@@ -112,11 +139,12 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Family",
                         "Export best " + l + " hit family name (e.g. TRBV12 for TRBV12-3*00)", "Best " + l + " family", "best" + l + "Family") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit bestHit = object.getBestHit(type);
                         if (bestHit == null)
-                            return NULL;
-                        return bestHit.getGene().getFamilyName();
+                            row.append(NULL);
+                        else
+                            row.append(bestHit.getGene().getFamilyName());
                     }
                 });
             }
@@ -127,11 +155,17 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "HitScore",
                         "Export score for best " + l + " hit", "Best " + l + " hit score", "best" + l + "HitScore") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    public ColumnType getColumnType() {
+                        return ColumnType.Float64;
+                    }
+
+                    @Override
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit bestHit = object.getBestHit(type);
                         if (bestHit == null)
-                            return NULL;
-                        return String.valueOf(bestHit.getScore());
+                            row.append(NULL);
+                        else
+                            row.append(bestHit.getScore());
                     }
                 });
             }
@@ -142,20 +176,19 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "HitsWithScore",
                         "Export all " + l + " hits with score", "All " + l + " hits", "all" + l + "HitsWithScore") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit[] hits = object.getHits(type);
                         if (hits.length == 0)
-                            return "";
-                        StringBuilder sb = new StringBuilder();
+                            return;
                         for (int i = 0; ; i++) {
-                            sb.append(hits[i].getGene().getName())
-                                    .append("(").append(SCORE_FORMAT.format(hits[i].getScore()))
-                                    .append(")");
+                            row.append(hits[i].getGene().getName())
+                                    .append('(');
+                            appendScore(row, hits[i].getScore());
+                            row.append(')');
                             if (i == hits.length - 1)
                                 break;
-                            sb.append(",");
+                            row.append(',');
                         }
-                        return sb.toString();
                     }
                 });
             }
@@ -166,18 +199,16 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Hits",
                         "Export all " + l + " hits", "All " + l + " Hits", "all" + l + "Hits") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit[] hits = object.getHits(type);
                         if (hits.length == 0)
-                            return "";
-                        StringBuilder sb = new StringBuilder();
+                            return;
                         for (int i = 0; ; i++) {
-                            sb.append(hits[i].getGene().getName());
+                            row.append(hits[i].getGene().getName());
                             if (i == hits.length - 1)
                                 break;
-                            sb.append(",");
+                            row.append(',');
                         }
-                        return sb.toString();
                     }
                 });
             }
@@ -212,22 +243,18 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Alignment",
                         "Export best " + l + " alignment", "Best " + l + " alignment", "best" + l + "Alignment") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit bestHit = object.getBestHit(type);
                         if (bestHit == null)
-                            return NULL;
-                        StringBuilder sb = new StringBuilder();
+                            return;
                         for (int i = 0; ; i++) {
                             Alignment<NucleotideSequence> alignment = bestHit.getAlignment(i);
-                            if (alignment == null)
-                                sb.append(NULL);
-                            else
-                                sb.append(alignment.toCompactString());
+                            if (alignment != null)
+                                row.append(alignment.toCompactString());
                             if (i == object.numberOfTargets() - 1)
                                 break;
-                            sb.append(",");
+                            row.append(',');
                         }
-                        return sb.toString();
                     }
                 });
             }
@@ -238,49 +265,45 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + Character.toLowerCase(l) + "Alignments",
                         "Export all " + l + " alignments", "All " + l + " alignments", "all" + l + "Alignments") {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit[] hits = object.getHits(type);
                         if (hits.length == 0)
-                            return "";
-                        StringBuilder sb = new StringBuilder();
+                            return;
                         for (int j = 0; ; ++j) {
                             for (int i = 0; ; i++) {
                                 Alignment<NucleotideSequence> alignment = hits[j].getAlignment(i);
-                                if (alignment == null)
-                                    sb.append(NULL);
-                                else
-                                    sb.append(alignment.toCompactString());
+                                if (alignment != null)
+                                    row.append(alignment.toCompactString());
                                 if (i == object.numberOfTargets() - 1)
                                     break;
-                                sb.append(',');
+                                row.append(',');
                             }
                             if (j == hits.length - 1)
                                 break;
-                            sb.append(';');
+                            row.append(';');
                         }
-                        return sb.toString();
                     }
                 });
             }
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-nFeature", "Export nucleotide sequence of specified gene feature", "N. Seq.", "nSeq") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return seq.getSequence().toString();
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(seq.getSequence());
                 }
             });
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-qFeature", "Export quality string of specified gene feature", "Qual.", "qual") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return seq.getQuality().toString();
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(seq.getQuality().toString());
                 }
             });
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-aaFeature", "Export amino acid sequence of specified gene feature", "AA. Seq.", "aaSeq") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return AminoAcidSequence.translate(seq.getSequence(), FromCenter).toString();
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(AminoAcidSequence.translate(seq.getSequence(), FromCenter));
                 }
             });
 
@@ -288,8 +311,8 @@ public final class FieldExtractors {
                     "specified gene feature starting from the leftmost nucleotide (differs from -aaFeature only for " +
                     "sequences which length are not multiple of 3)", "AA. Seq.", "aaSeq") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return AminoAcidSequence.translate(seq.getSequence(), FromLeftWithoutIncompleteCodon).toString();
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(AminoAcidSequence.translate(seq.getSequence(), FromLeftWithoutIncompleteCodon));
                 }
             });
 
@@ -297,29 +320,44 @@ public final class FieldExtractors {
                     "specified gene feature starting from the rightmost nucleotide (differs from -aaFeature only for " +
                     "sequences which length are not multiple of 3)", "AA. Seq.", "aaSeq") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return AminoAcidSequence.translate(seq.getSequence(), FromRightWithoutIncompleteCodon).toString();
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(AminoAcidSequence.translate(seq.getSequence(), FromRightWithoutIncompleteCodon));
                 }
             });
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-minFeatureQuality", "Export minimal quality of specified gene feature", "Min. qual.", "minQual") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return "" + seq.getQuality().minValue();
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(seq.getQuality().minValue());
                 }
             });
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-avrgFeatureQuality", "Export average quality of specified gene feature", "Mean. qual.", "meanQual") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return "" + seq.getQuality().meanValue();
+                public ColumnType getColumnType() {
+                    return ColumnType.Float64;
+                }
+
+                @Override
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(seq.getQuality().meanValue());
                 }
             });
 
             desctiptorsList.add(new FeatureExtractorDescriptor("-lengthOf", "Exports length of specified gene feature.", "Length of ", "lengthOf") {
                 @Override
-                public String convert(NSequenceWithQuality seq) {
-                    return "" + seq.size();
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                public void convert(NSequenceWithQuality seq, RowBuffer row) {
+                    row.append(seq.size());
                 }
             });
 
@@ -329,8 +367,13 @@ public final class FieldExtractors {
 
             desctiptorsList.add(new PL_A("-readId", "Export id of read corresponding to alignment", "Read id", "readId") {
                 @Override
-                protected String extract(VDJCAlignments object) {
-                    return "" + object.getReadId();
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                protected void extract(VDJCAlignments object, RowBuffer row) {
+                    row.append(object.getReadId());
                 }
             });
 
@@ -344,22 +387,37 @@ public final class FieldExtractors {
 
             desctiptorsList.add(new PL_C("-cloneId", "Unique clone identifier", "Clone ID", "cloneId") {
                 @Override
-                protected String extract(Clone object) {
-                    return "" + object.getId();
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                protected void extract(Clone object, RowBuffer row) {
+                    row.append(object.getId());
                 }
             });
 
             desctiptorsList.add(new PL_C("-count", "Export clone count", "Clone count", "cloneCount") {
                 @Override
-                protected String extract(Clone object) {
-                    return "" + object.getCount();
+                public ColumnType getColumnType() {
+                    return ColumnType.Int64;
+                }
+
+                @Override
+                protected void extract(Clone object, RowBuffer row) {
+                    row.append(object.getCount());
                 }
             });
 
             desctiptorsList.add(new PL_C("-fraction", "Export clone fraction", "Clone fraction", "cloneFraction") {
                 @Override
-                protected String extract(Clone object) {
-                    return "" + object.getFraction();
+                public ColumnType getColumnType() {
+                    return ColumnType.Float64;
+                }
+
+                @Override
+                protected void extract(Clone object, RowBuffer row) {
+                    row.append(object.getFraction());
                 }
             });
 
@@ -374,26 +432,26 @@ public final class FieldExtractors {
             desctiptorsList.add(new PL_A("-descrR1", "Export description line from initial .fasta or .fastq file " +
                     "of the first read (only available if --save-description was used in align command)", "Description R1", "descrR1") {
                 @Override
-                protected String extract(VDJCAlignments object) {
+                protected void extract(VDJCAlignments object, RowBuffer row) {
                     String[] ds = object.getOriginalDescriptions();
                     if (ds == null || ds.length == 0)
                         throw new IllegalArgumentException("Error for option \'-descrR1\':\n" +
                                 "No description available for read: either re-run align action with --save-description option " +
                                 "or don't use \'-descrR1\' in exportAlignments");
-                    return ds[0];
+                    row.append(ds[0]);
                 }
             });
 
             desctiptorsList.add(new PL_A("-descrR2", "Export description line from initial .fasta or .fastq file " +
                     "of the second read (only available if --save-description was used in align command)", "Description R2", "descrR2") {
                 @Override
-                protected String extract(VDJCAlignments object) {
+                protected void extract(VDJCAlignments object, RowBuffer row) {
                     String[] ds = object.getOriginalDescriptions();
                     if (ds == null || ds.length < 2)
                         throw new IllegalArgumentException("Error for option \'-descrR2\':\n" +
                                 "No description available for second read: either re-run align action with --save-description option " +
                                 "or don't use \'-descrR2\' in exportAlignments");
-                    return ds[1];
+                    row.append(ds[1]);
                 }
             });
 
@@ -411,17 +469,16 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + c, type.getLetter() + " alignment identity percents",
                         type.getLetter() + " alignment identity percents", c) {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit[] hits = object.getHits(type);
-                        if (hits == null)
-                            return NULL;
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("");
-                        for (int i = 0; ; i++) {
-                            sb.append(hits[i].getIdentity());
-                            if (i == hits.length - 1)
-                                return sb.toString();
-                            sb.append(",");
+                        if (hits == null) {
+                            row.append(NULL);
+                            return;
+                        }
+                        for (int i = 0; i < hits.length; i++) {
+                            if (i != 0)
+                                row.append(',');
+                            row.append(Float.toString(hits[i].getIdentity()));
                         }
                     }
                 });
@@ -431,11 +488,17 @@ public final class FieldExtractors {
                 desctiptorsList.add(new PL_O("-" + c, type.getLetter() + "best alignment identity percent",
                         type.getLetter() + "best alignment identity percent", c) {
                     @Override
-                    protected String extract(VDJCObject object) {
+                    public ColumnType getColumnType() {
+                        return ColumnType.Float64;
+                    }
+
+                    @Override
+                    protected void extract(VDJCObject object, RowBuffer row) {
                         VDJCHit hit = object.getBestHit(type);
                         if (hit == null)
-                            return NULL;
-                        return Float.toString(hit.getIdentity());
+                            row.append(NULL);
+                        else
+                            row.append(hit.getIdentity());
                     }
                 });
             }
@@ -510,14 +573,13 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extractValue(VDJCObject object, GeneFeature parameters) {
+        protected void extractValue(VDJCObject object, GeneFeature parameters, RowBuffer row) {
             NSequenceWithQuality feature = object.getFeature(parameters);
-            if (feature == null)
-                return NULL;
-            return convert(feature);
+            if (feature != null)
+                convert(feature, row);
         }
 
-        public abstract String convert(NSequenceWithQuality seq);
+        public abstract void convert(NSequenceWithQuality seq, RowBuffer row);
     }
 
     private static class ExtractSequence extends FieldParameterless<VDJCObject> {
@@ -526,15 +588,13 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extract(VDJCObject object) {
-            StringBuilder sb = new StringBuilder();
+        protected void extract(VDJCObject object, RowBuffer row) {
             for (int i = 0; ; i++) {
-                sb.append(object.getTarget(i).getSequence());
+                row.append(object.getTarget(i).getSequence());
                 if (i == object.numberOfTargets() - 1)
                     break;
-                sb.append(",");
+                row.append(',');
             }
-            return sb.toString();
         }
     }
 
@@ -544,15 +604,13 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extract(VDJCObject object) {
-            StringBuilder sb = new StringBuilder();
+        protected void extract(VDJCObject object, RowBuffer row) {
             for (int i = 0; ; i++) {
-                sb.append(object.getTarget(i).getQuality());
+                row.append(object.getTarget(i).getQuality().toString());
                 if (i == object.numberOfTargets() - 1)
                     break;
-                sb.append(",");
+                row.append(',');
             }
-            return sb.toString();
         }
     }
 
@@ -577,15 +635,13 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extractValue(VDJCObject object, ReferencePoint parameters) {
-            StringBuilder sb = new StringBuilder();
+        protected void extractValue(VDJCObject object, ReferencePoint parameters, RowBuffer row) {
             for (int i = 0; ; i++) {
-                sb.append(object.getPartitionedTarget(i).getPartitioning().getPosition(parameters));
+                row.append(object.getPartitionedTarget(i).getPartitioning().getPosition(parameters));
                 if (i == object.numberOfTargets() - 1)
                     break;
-                sb.append(",");
+                row.append(',');
             }
-            return sb.toString();
         }
     }
 
@@ -596,23 +652,21 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extract(VDJCObject object) {
-            StringBuilder sb = new StringBuilder();
+        protected void extract(VDJCObject object, RowBuffer row) {
             for (int i = 0; ; i++) {
                 SequencePartitioning partitioning = object.getPartitionedTarget(i).getPartitioning();
                 for (int j = 0; ; j++) {
                     int referencePointPosition = partitioning.getPosition(ReferencePoint.DefaultReferencePoints[j]);
                     if (referencePointPosition >= 0)
-                        sb.append(referencePointPosition);
+                        row.append(referencePointPosition);
                     if (j == ReferencePoint.DefaultReferencePoints.length - 1)
                         break;
-                    sb.append(":");
+                    row.append(':');
                 }
                 if (i == object.numberOfTargets() - 1)
                     break;
-                sb.append(",");
+                row.append(',');
             }
-            return sb.toString();
         }
 
     }
@@ -629,7 +683,7 @@ public final class FieldExtractors {
     }
 
     private static final class AlignmentToCloneExtractor
-            implements FieldExtractor<VDJCAlignments>, Closeable {
+            implements SequentialFieldExtractor<VDJCAlignments>, Closeable {
         private final OutputMode outputMode;
         private final AlignmentsToClonesMappingContainer container;
         private final OutputPort<ReadToCloneMapping> byAls;
@@ -684,7 +738,7 @@ public final class FieldExtractors {
     }
 
     private static final class CloneToReadsExtractor
-            implements FieldExtractor<Clone>, Closeable {
+            implements SequentialFieldExtractor<Clone>, Closeable {
         private final OutputMode outputMode;
         private final AlignmentsToClonesMappingContainer container;
         private final Iterator<ReadToCloneMapping> mappingIterator;
@@ -760,11 +814,12 @@ public final class FieldExtractors {
         }
 
         @Override
-        protected String extract(VDJCObject object) {
-            TObjectFloatHashMap<String> familyScores = new TObjectFloatHashMap<>();
+        protected void extract(VDJCObject object, RowBuffer row) {
             VDJCHit[] hits = object.getHits(type);
             if (hits.length == 0)
-                return "";
+                return;
+
+            TObjectFloatHashMap<String> familyScores = new TObjectFloatHashMap<>();
 
             for (VDJCHit hit : hits) {
                 String s = extractStringForHit(hit);
@@ -782,14 +837,12 @@ public final class FieldExtractors {
 
             Arrays.sort(hs);
 
-            StringBuilder sb = new StringBuilder();
             for (i = 0; ; i++) {
-                sb.append(hs[i].str);
+                row.append(hs[i].str);
                 if (i == hs.length - 1)
                     break;
-                sb.append(",");
+                row.append(',');
             }
-            return sb.toString();
         }
 
         abstract String extractStringForHit(VDJCHit hit);
@@ -39,7 +39,19 @@ public abstract class FieldParameterless<T> extends AbstractField<T> {
         this.sHeader = sHeader;
     }
 
-    protected abstract String extract(T object);
+    /**
+     * Returns value extracted from the object, rendered with {@link #extract(Object, RowBuffer)}.
+     */
+    protected String extract(T object) {
+        RowBuffer row = new RowBuffer(64);
+        extract(object, row);
+        return row.toString();
+    }
+
+    /**
+     * Appends value extracted from the object to the row.
+     */
+    protected abstract void extract(T object, RowBuffer row);
 
     public String getHeader(OutputMode outputMode) {
         switch (outputMode) {
@@ -59,6 +71,11 @@ public abstract class FieldParameterless<T> extends AbstractField<T> {
             public String extractValue(T object) {
                 return extract(object);
             }
+
+            @Override
+            public void appendValue(T object, RowBuffer row) {
+                extract(object, row);
+            }
         };
     }
 }
@@ -37,7 +37,19 @@ public abstract class FieldWithParameters<T, P> extends AbstractField<T> {
 
     protected abstract String getHeader(OutputMode outputMode, P parameters);
 
-    protected abstract String extractValue(T object, P parameters);
+    /**
+     * Returns value extracted from the object, rendered with {@link #extractValue(Object, Object, RowBuffer)}.
+     */
+    protected String extractValue(T object, P parameters) {
+        RowBuffer row = new RowBuffer(64);
+        extractValue(object, parameters, row);
+        return row.toString();
+    }
+
+    /**
+     * Appends value extracted from the object to the row.
+     */
+    protected abstract void extractValue(T object, P parameters, RowBuffer row);
 
     @Override
     public FieldExtractor<T> create(OutputMode outputMode, String[] args) {
@@ -48,6 +60,11 @@ public abstract class FieldWithParameters<T, P> extends AbstractField<T> {
             public String extractValue(T object) {
                 return FieldWithParameters.this.extractValue(object, params);
             }
+
+            @Override
+            public void appendValue(T object, RowBuffer row) {
+                FieldWithParameters.this.extractValue(object, params, row);
+            }
         };
     }
 }
@@ -28,16 +28,28 @@
  */
 package com.milaboratory.mixcr.export;
 
-import cc.redberry.pipe.InputPort;
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.Processor;
+import cc.redberry.pipe.blocks.ParallelProcessor;
+import cc.redberry.pipe.util.Indexer;
+import cc.redberry.pipe.util.OrderedOutputPort;
+import com.milaboratory.mixcr.util.PipelineMetrics;
 import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public final class InfoWriter<T> implements InputPort<T>, AutoCloseable {
+public final class InfoWriter<T> implements ExportWriter<T> {
+    /**
+     * Number of rows rendered by a single worker task in multi-threaded export
+     */
+    static final int BLOCK_SIZE = 256;
     final ArrayList<FieldExtractor<? super T>> fieldExtractors = new ArrayList<>();
     final OutputStream outputStream;
+    final RowBuffer row = new RowBuffer();
     boolean initialized;
 
     public InfoWriter(String file) throws FileNotFoundException {
@@ -45,10 +57,12 @@ public final class InfoWriter<T> implements InputPort<T>, AutoCloseable {
                 new BufferedOutputStream(new FileOutputStream(new File(file)), 65536));
     }
 
+    @Override
     public void attachInfoProvider(FieldExtractor<? super T> provider) {
         fieldExtractors.add(provider);
     }
 
+    @Override
     public void attachInfoProviders(List<FieldExtractor<? super T>> providers) {
         fieldExtractors.addAll(providers);
     }
@@ -57,16 +71,19 @@ public final class InfoWriter<T> implements InputPort<T>, AutoCloseable {
         this.outputStream = outputStream;
     }
 
+    @Override
     public void ensureHeader() {
         if (!initialized) {
             try {
+                row.reset();
                 for (int i = 0; i < fieldExtractors.size(); ++i) {
-                    outputStream.write(fieldExtractors.get(i).getHeader().getBytes());
+                    row.append(fieldExtractors.get(i).getHeader());
                     if (i == fieldExtractors.size() - 1)
                         break;
-                    outputStream.write('\t');
+                    row.append('\t');
                 }
-                outputStream.write('\n');
+                row.append('\n');
+                row.writeTo(outputStream);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -78,18 +95,90 @@ public final class InfoWriter<T> implements InputPort<T>, AutoCloseable {
     public void put(T t) {
         ensureHeader();
         try {
-            for (int i = 0; i < fieldExtractors.size(); ++i) {
-                outputStream.write(fieldExtractors.get(i).extractValue(t).getBytes());
-                if (i == fieldExtractors.size() - 1)
-                    break;
-                outputStream.write('\t');
+            row.reset();
+            writeRow(t, row);
+            row.writeTo(outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes all objects from the port. Field extractors are invoked concurrently in {@code threads} threads, while
+     * the order of rows in the output is preserved. If at least one of attached extractors is a {@link
+     * SequentialFieldExtractor}, objects are processed sequentially.
+     *
+     * @param port    source of objects
+     * @param threads number of threads rendering rows
+     */
+    @Override
+    public void putAll(OutputPort<? extends T> port, int threads) {
+        ensureHeader();
+        port = PipelineMetrics.countRecords(port);
+
+        if (threads <= 1 || !canRenderConcurrently()) {
+            T t;
+            while ((t = port.take()) != null)
+                put(t);
+            return;
+        }
+
+        final ConcurrentLinkedQueue<RowBuffer> buffersPool = new ConcurrentLinkedQueue<>();
+        OutputPort<RowsBlock<T>> blocks = PipelineMetrics.buffered("row blocks", new BlocksPort<T>(port), 4 * threads);
+        OutputPort<RowsBlock<T>> rendered = new ParallelProcessor<>(blocks, new Processor<RowsBlock<T>, RowsBlock<T>>() {
+            @Override
+            public RowsBlock<T> process(RowsBlock<T> block) {
+                RowBuffer buffer = buffersPool.poll();
+                if (buffer == null)
+                    buffer = new RowBuffer(BLOCK_SIZE * 256);
+                for (T t : block.objects)
+                    writeRow(t, buffer);
+                block.rendered = buffer;
+                return block;
+            }
+        }, threads);
+
+        try {
+            for (RowsBlock<T> block : CUtils.it(new OrderedOutputPort<>(rendered, new Indexer<RowsBlock<T>>() {
+                @Override
+                public long getIndex(RowsBlock<T> o) {
+                    return o.index;
+                }
+            }))) {
+                block.rendered.writeTo(outputStream);
+                block.rendered.reset();
+                buffersPool.add(block.rendered);
             }
-            outputStream.write('\n');
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private boolean canRenderConcurrently() {
+        return canExtractConcurrently(fieldExtractors);
+    }
+
+    static <T> boolean canExtractConcurrently(List<FieldExtractor<? super T>> fieldExtractors) {
+        for (FieldExtractor<? super T> fe : fieldExtractors)
+            if (fe instanceof SequentialFieldExtractor)
+                return false;
+        return true;
+    }
+
+    private void writeRow(T t, RowBuffer row) {
+        for (int i = 0; i < fieldExtractors.size(); ++i) {
+            FieldExtractor<? super T> fe = fieldExtractors.get(i);
+            if (fe instanceof AppendingFieldExtractor)
+                ((AppendingFieldExtractor<? super T>) fe).appendValue(t, row);
+            else
+                row.append(fe.extractValue(t));
+            if (i == fieldExtractors.size() - 1)
+                break;
+            row.append('\t');
+        }
+        row.append('\n');
+    }
+
     @Override
     public void close() throws IOException {
         outputStream.close();
@@ -97,4 +186,38 @@ public final class InfoWriter<T> implements InputPort<T>, AutoCloseable {
             if (fe instanceof Closeable)
                 ((Closeable) fe).close();
     }
+
+    static final class RowsBlock<T> {
+        final long index;
+        final List<T> objects;
+        RowBuffer rendered;
+
+        RowsBlock(long index, List<T> objects) {
+            this.index = index;
+            this.objects = objects;
+        }
+    }
+
+    /**
+     * Groups objects into sequentially indexed blocks
+     */
+    static final class BlocksPort<T> implements OutputPort<RowsBlock<T>> {
+        final OutputPort<? extends T> port;
+        long index = 0;
+
+        BlocksPort(OutputPort<? extends T> port) {
+            this.port = port;
+        }
+
+        @Override
+        public synchronized RowsBlock<T> take() {
+            List<T> objects = new ArrayList<>(BLOCK_SIZE);
+            T t;
+            while (objects.size() < BLOCK_SIZE && (t = port.take()) != null)
+                objects.add(t);
+            if (objects.isEmpty())
+                return null;
+            return new RowsBlock<>(index++, objects);
+        }
+    }
 }
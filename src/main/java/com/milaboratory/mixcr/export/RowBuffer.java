@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import com.milaboratory.core.sequence.Sequence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used to render rows of exported tables. Characters are encoded with ASCII fast path (non-ASCII
+ * strings are encoded in UTF-8), numbers are written without intermediate strings. Buffer is intended to be reused
+ * for many rows (see {@link #reset()}).
+ *
+ * <p>If the only thing appended to the buffer is a single number, its value is also kept in binary form (see {@link
+ * #containsLong()} and {@link #containsDouble()}), so typed writers (e.g. {@link ColumnarWriter}) take values of
+ * numeric fields without parsing rendered text.</p>
+ */
+public final class RowBuffer {
+    private static final byte NO_NUMBER = 0, LONG_NUMBER = 1, DOUBLE_NUMBER = 2;
+    private byte[] data;
+    private int size;
+    private byte numberType = NO_NUMBER;
+    private long longNumber;
+    private double doubleNumber;
+
+    public RowBuffer() {
+        this(1024);
+    }
+
+    public RowBuffer(int initialCapacity) {
+        this.data = new byte[initialCapacity];
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + additional));
+    }
+
+    public RowBuffer append(char c) {
+        numberType = NO_NUMBER;
+        if (c >= 0x80)
+            return append(String.valueOf(c));
+        ensureCapacity(1);
+        data[size++] = (byte) c;
+        return this;
+    }
+
+    public RowBuffer append(CharSequence s) {
+        numberType = NO_NUMBER;
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; ++i) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Slow path for non-ASCII characters
+                byte[] bytes = s.subSequence(i, length).toString().getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, data, size, bytes.length);
+                size += bytes.length;
+                return this;
+            }
+            data[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends letters of the sequence
+     */
+    public RowBuffer append(Sequence<?> sequence) {
+        numberType = NO_NUMBER;
+        int length = sequence.size();
+        ensureCapacity(length);
+        for (int i = 0; i < length; ++i)
+            data[size++] = (byte) sequence.symbolAt(i);
+        return this;
+    }
+
+    public RowBuffer append(int value) {
+        return append((long) value);
+    }
+
+    public RowBuffer append(long value) {
+        boolean single = size == 0;
+        appendDigits(value);
+        if (single) {
+            numberType = LONG_NUMBER;
+            longNumber = value;
+        }
+        return this;
+    }
+
+    private void appendDigits(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return;
+        }
+        numberType = NO_NUMBER;
+        ensureCapacity(20);
+        if (value < 0) {
+            data[size++] = '-';
+            value = -value;
+        }
+        int begin = size;
+        do {
+            data[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // Reversing digits
+        for (int i = begin, j = size - 1; i < j; ++i, --j) {
+            byte tmp = data[i];
+            data[i] = data[j];
+            data[j] = tmp;
+        }
+    }
+
+    public RowBuffer append(float value) {
+        boolean single = size == 0;
+        append(Float.toString(value));
+        if (single) {
+            numberType = DOUBLE_NUMBER;
+            doubleNumber = value;
+        }
+        return this;
+    }
+
+    public RowBuffer append(double value) {
+        boolean single = size == 0;
+        append(Double.toString(value));
+        if (single) {
+            numberType = DOUBLE_NUMBER;
+            doubleNumber = value;
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if the buffer contains a single integer number appended with {@link #append(long)} (or {@link
+     * #append(int)})
+     */
+    public boolean containsLong() {
+        return numberType == LONG_NUMBER;
+    }
+
+    /**
+     * Returns the value of the number, see {@link #containsLong()}
+     */
+    public long longValue() {
+        if (numberType != LONG_NUMBER)
+            throw new IllegalStateException("Buffer doesn't contain a single integer number.");
+        return longNumber;
+    }
+
+    /**
+     * Returns true if the buffer contains a single floating point number appended with {@link #append(double)} (or
+     * {@link #append(float)})
+     */
+    public boolean containsDouble() {
+        return numberType == DOUBLE_NUMBER;
+    }
+
+    /**
+     * Returns the value of the number, see {@link #containsDouble()}
+     */
+    public double doubleValue() {
+        if (numberType != DOUBLE_NUMBER)
+            throw new IllegalStateException("Buffer doesn't contain a single floating point number.");
+        return doubleNumber;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+        numberType = NO_NUMBER;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        os.write(data, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, 0, size, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Concurrent in-heap k-mer index of left parts. Hash maps are split into lock-striped segments, so index can be
+ * filled from several threads; after {@link #seal()} it is read without locking.
+ */
+final class HeapLeftPartsIndex extends LeftPartsIndex {
+    static final int SEGMENTS = 64;
+    final TLongObjectHashMap<List<KMerInfo>>[] kMers;
+    final TLongHashSet[] ids;
+
+    @SuppressWarnings("unchecked")
+    HeapLeftPartsIndex() {
+        kMers = new TLongObjectHashMap[SEGMENTS];
+        ids = new TLongHashSet[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            kMers[i] = new TLongObjectHashMap<>();
+            ids[i] = new TLongHashSet();
+        }
+    }
+
+    static int segment(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 58); // top 6 bits, SEGMENTS = 64
+    }
+
+    @Override
+    boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    void add(long kMer, VDJCAlignments alignments, int kMerPositionFrom, int targetId) {
+        KMerInfo info = new KMerInfo(alignments, kMerPositionFrom, targetId, alignments.getAlignmentsIndex());
+        TLongObjectHashMap<List<KMerInfo>> map = kMers[segment(kMer)];
+        synchronized (map) {
+            List<KMerInfo> infos = map.get(kMer);
+            if (infos == null)
+                map.put(kMer, infos = new ArrayList<>(1));
+            infos.add(info);
+        }
+        TLongHashSet set = ids[segment(alignments.getAlignmentsIndex())];
+        synchronized (set) {
+            set.add(alignments.getAlignmentsIndex());
+        }
+    }
+
+    /**
+     * Restores deterministic (file) order of left parts sharing the same k-mer
+     */
+    @Override
+    void seal() {
+        for (TLongObjectHashMap<List<KMerInfo>> map : kMers)
+            synchronized (map) {
+                for (List<KMerInfo> infos : map.valueCollection())
+                    Collections.sort(infos, BY_ORDINAL);
+            }
+    }
+
+    @Override
+    List<KMerInfo> get(long kMer) {
+        return kMers[segment(kMer)].get(kMer);
+    }
+
+    @Override
+    boolean isLeftPart(long alignmentsIndex) {
+        return ids[segment(alignmentsIndex)].contains(alignmentsIndex);
+    }
+
+    @Override
+    boolean claim(KMerInfo info) {
+        return KMerInfo.CLAIMED.compareAndSet(info, 0, 1);
+    }
+
+    @Override
+    boolean isClaimed(KMerInfo info) {
+        return info.claimed != 0;
+    }
+
+    @Override
+    Iterable<VDJCAlignments> unclaimed() {
+        List<KMerInfo> infos = new ArrayList<>();
+        for (TLongObjectHashMap<List<KMerInfo>> map : kMers)
+            for (List<KMerInfo> list : map.valueCollection())
+                for (KMerInfo info : list)
+                    if (!isClaimed(info))
+                        infos.add(info);
+        Collections.sort(infos, BY_ORDINAL);
+        List<VDJCAlignments> result = new ArrayList<>(infos.size());
+        for (KMerInfo info : infos)
+            result.add(info.alignments);
+        return result;
+    }
+
+    static final Comparator<KMerInfo> BY_ORDINAL = new Comparator<KMerInfo>() {
+        @Override
+        public int compare(KMerInfo o1, KMerInfo o2) {
+            return Long.compare(o1.ordinal, o2.ordinal);
+        }
+    };
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Index of left parts (alignments covering V end but not CDR3) by the k-mer following V end. Each left part can be
+ * used for overlap only once, this is tracked by atomic {@link #claim(KMerInfo)}.
+ */
+abstract class LeftPartsIndex implements AutoCloseable {
+    /**
+     * Returns true if {@link #add(long, VDJCAlignments, int, int)} may be invoked concurrently; otherwise left parts
+     * must be added sequentially in the order of input file.
+     */
+    abstract boolean isConcurrent();
+
+    abstract void add(long kMer, VDJCAlignments alignments, int kMerPositionFrom, int targetId);
+
+    /**
+     * Finishes index building. After this call index is read-only (except claims) and may be used from several
+     * threads.
+     */
+    abstract void seal();
+
+    /**
+     * Returns left parts with a given k-mer in the order of input file, or null if there are no such left parts.
+     * Implementation may omit left parts claimed before the call, but the result may still contain claimed ones (as
+     * left parts are claimed concurrently), so callers should check them with {@link #isClaimed(KMerInfo)}; the
+     * result may be empty.
+     */
+    abstract List<KMerInfo> get(long kMer);
+
+    abstract boolean isLeftPart(long alignmentsIndex);
+
+    /**
+     * Atomically marks left part as used for overlap; returns false if it was already used
+     */
+    abstract boolean claim(KMerInfo info);
+
+    abstract boolean isClaimed(KMerInfo info);
+
+    /**
+     * Returns left parts not used for overlap in the order of input file
+     */
+    abstract Iterable<VDJCAlignments> unclaimed();
+
+    @Override
+    public void close() {
+    }
+
+    static class KMerInfo {
+        static final AtomicIntegerFieldUpdater<KMerInfo> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(KMerInfo.class, "claimed");
+
+        /**
+         * Null if alignments are decoded on demand in {@link #getAlignments()}
+         */
+        final VDJCAlignments alignments;
+        final int kMerPositionFrom;
+        final int targetId;
+        /**
+         * Packed sequence of the target containing k-mer (for overlap verification)
+         */
+        final PackedSequence sequence;
+        /**
+         * Sequential number of left part in the index
+         */
+        final long ordinal;
+        volatile int claimed = 0;
+
+        KMerInfo(VDJCAlignments alignments, int kMerPositionFrom, int targetId, long ordinal) {
+            this(alignments, new PackedSequence(alignments.getPartitionedTarget(targetId).getSequence().getSequence()),
+                    kMerPositionFrom, targetId, ordinal);
+        }
+
+        KMerInfo(VDJCAlignments alignments, PackedSequence sequence, int kMerPositionFrom, int targetId,
+                 long ordinal) {
+            this.alignments = alignments;
+            this.sequence = sequence;
+            this.kMerPositionFrom = kMerPositionFrom;
+            this.targetId = targetId;
+            this.ordinal = ordinal;
+        }
+
+        public VDJCAlignments getAlignments() {
+            return alignments;
+        }
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
+import com.milaboratory.mixcr.util.TempFileManager;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibraryRegistry;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * K-mer index of left parts stored outside of Java heap, for inputs with huge number of partial alignments.
+ *
+ * <p>Left part alignments are written to a temporary .vdjca file and decoded on demand from its memory-mapped
+ * image. K-mers are stored as packed {@code (k-mer, ordinal << 24 | k-mer position << 1 | target id)} pairs in
+ * {@value #BUCKETS} temporary files (split by k-mer hash); on {@link #seal()} each bucket is sorted and
+ * memory-mapped, so look-ups are binary searches. Alignment indices, file offsets of left parts and offsets of their
+ * packed target sequences are stored in a separate mapped array ordered by ordinal (i.e. by alignment index, as left
+ * parts are added sequentially). Target sequences containing k-mers are stored packed (see {@link PackedSequence})
+ * in one more mapped file, so overlaps are verified without decoding of left part alignments; alignments are
+ * decoded only for left parts with verified overlap. Claimed left parts are tracked with a bit set (1 bit per left
+ * part).</p>
+ */
+final class OffHeapLeftPartsIndex extends LeftPartsIndex {
+    static final int BUCKETS = 256;
+    static final long SPILL_SEGMENT = 1L << 30;
+    static final int BUFFER_SIZE = 65536;
+
+    final File spillFile, leftPartsFile, sequencesFile;
+    final File[] bucketFiles = new File[BUCKETS];
+
+    // Building
+    CountingOutputStream spillCounter;
+    VDJCAlignmentsWriter spillWriter;
+    DataOutputStream leftPartsOutput, sequencesOutput;
+    long sequencesSize = 0;
+    final DataOutputStream[] bucketOutputs = new DataOutputStream[BUCKETS];
+    long count = 0;
+    long maxRecordSize = 0;
+
+    // Sealed
+    MappedLongArray leftParts, sequences;
+    final MappedLongArray[] buckets = new MappedLongArray[BUCKETS];
+    ByteBuffer[] spillSegments;
+    AtomicLongArray claimed;
+    final ThreadLocal<SpillReader> readers = new ThreadLocal<SpillReader>() {
+        @Override
+        protected SpillReader initialValue() {
+            return new SpillReader();
+        }
+    };
+
+    OffHeapLeftPartsIndex(VDJCAlignerParameters parameters, List<VDJCGene> genes) {
+        try {
+            spillFile = TempFileManager.getTempFile();
+            spillCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE));
+            spillWriter = new VDJCAlignmentsWriter(spillCounter);
+            spillWriter.header(parameters, genes);
+
+            leftPartsFile = TempFileManager.getTempFile();
+            leftPartsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(leftPartsFile), BUFFER_SIZE));
+
+            sequencesFile = TempFileManager.getTempFile();
+            sequencesOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sequencesFile), BUFFER_SIZE));
+
+            for (int i = 0; i < BUCKETS; i++) {
+                bucketFiles[i] = TempFileManager.getTempFile();
+                bucketOutputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bucketFiles[i]), BUFFER_SIZE / 16));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int bucket(long kMer) {
+        long h = kMer * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 56); // top 8 bits, BUCKETS = 256
+    }
+
+    @Override
+    boolean isConcurrent() {
+        return false;
+    }
+
+    @Override
+    void add(long kMer, VDJCAlignments alignments, int kMerPositionFrom, int targetId) {
+        assert kMerPositionFrom < (1 << 23) && targetId < 2;
+        try {
+            long offset = spillCounter.getByteCount();
+            spillWriter.write(alignments);
+            maxRecordSize = Math.max(maxRecordSize, spillCounter.getByteCount() - offset);
+
+            leftPartsOutput.writeLong(alignments.getAlignmentsIndex());
+            leftPartsOutput.writeLong(offset);
+            leftPartsOutput.writeLong(sequencesSize);
+
+            // (size << 1 | has wildcards) followed by packed words; sequences with wildcards can't be restored from
+            // words, so their alignments are decoded
+            PackedSequence sequence = new PackedSequence(
+                    alignments.getPartitionedTarget(targetId).getSequence().getSequence());
+            sequencesOutput.writeLong((long) sequence.size() << 1 | (sequence.hasWildcards ? 1 : 0));
+            ++sequencesSize;
+            if (!sequence.hasWildcards) {
+                for (long word : sequence.words)
+                    sequencesOutput.writeLong(word);
+                sequencesSize += sequence.words.length;
+            }
+
+            DataOutputStream bucket = bucketOutputs[bucket(kMer)];
+            bucket.writeLong(kMer);
+            bucket.writeLong(count << 24 | kMerPositionFrom << 1 | targetId);
+            ++count;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    void seal() {
+        try {
+            spillWriter.close();
+            leftPartsOutput.close();
+            sequencesOutput.close();
+            for (DataOutputStream bucketOutput : bucketOutputs)
+                bucketOutput.close();
+
+            long spillSize = spillFile.length();
+            try (RandomAccessFile raf = new RandomAccessFile(spillFile, "r")) {
+                FileChannel channel = raf.getChannel();
+                int segments = (int) ((spillSize + SPILL_SEGMENT - 1) / SPILL_SEGMENT);
+                spillSegments = new ByteBuffer[segments];
+                // Segments overlap by the size of the largest record, so any record is readable from the segment
+                // it starts in
+                for (int i = 0; i < segments; i++) {
+                    long from = i * SPILL_SEGMENT;
+                    spillSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                            Math.min(spillSize - from, SPILL_SEGMENT + maxRecordSize));
+                }
+            }
+
+            leftParts = new MappedLongArray(leftPartsFile);
+            sequences = new MappedLongArray(sequencesFile);
+            for (int i = 0; i < BUCKETS; i++) {
+                sortBucket(bucketFiles[i]);
+                buckets[i] = new MappedLongArray(bucketFiles[i]);
+            }
+
+            claimed = new AtomicLongArray((int) ((count + 63) / 64));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sortBucket(File file) throws IOException {
+        long size = file.length() / 8;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new RuntimeException("Too many left parts.");
+        long[] data = new long[(int) size];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            for (int i = 0; i < data.length; i++)
+                data[i] = in.readLong();
+        }
+        sortPairs(data, 0, data.length / 2);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            for (long l : data)
+                out.writeLong(l);
+        }
+    }
+
+    @Override
+    List<KMerInfo> get(long kMer) {
+        MappedLongArray bucket = buckets[bucket(kMer)];
+        long from = lowerBound(bucket, kMer);
+        long size = bucket.size() / 2;
+        if (from == size || bucket.get(2 * from) != kMer)
+            return null;
+        List<KMerInfo> result = new ArrayList<>(1);
+        for (long i = from; i < size && bucket.get(2 * i) == kMer; ++i) {
+            long payload = bucket.get(2 * i + 1);
+            long ordinal = payload >>> 24;
+            // already claimed left parts are skipped to avoid reading of their sequences
+            if (isClaimed(ordinal))
+                continue;
+            int kMerPositionFrom = (int) (payload >>> 1) & 0x7FFFFF, targetId = (int) (payload & 1);
+            long sequenceOffset = leftParts.get(3 * ordinal + 2), header = sequences.get(sequenceOffset);
+            if ((header & 1) != 0)
+                result.add(new KMerInfo(fetch(ordinal), kMerPositionFrom, targetId, ordinal));
+            else {
+                int sequenceSize = (int) (header >>> 1);
+                long[] words = new long[(sequenceSize + 31) >>> 5];
+                for (int j = 0; j < words.length; j++)
+                    words[j] = sequences.get(sequenceOffset + 1 + j);
+                result.add(new LazyKMerInfo(new PackedSequence(words, sequenceSize), kMerPositionFrom, targetId,
+                        ordinal));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    boolean isLeftPart(long alignmentsIndex) {
+        long lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long value = leftParts.get(3 * mid);
+            if (value < alignmentsIndex)
+                lo = mid + 1;
+            else if (value > alignmentsIndex)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    boolean claim(KMerInfo info) {
+        int word = (int) (info.ordinal >>> 6);
+        long bit = 1L << (info.ordinal & 63);
+        long value;
+        do {
+            value = claimed.get(word);
+            if ((value & bit) != 0)
+                return false;
+        } while (!claimed.compareAndSet(word, value, value | bit));
+        return true;
+    }
+
+    @Override
+    boolean isClaimed(KMerInfo info) {
+        return isClaimed(info.ordinal);
+    }
+
+    private boolean isClaimed(long ordinal) {
+        return (claimed.get((int) (ordinal >>> 6)) & (1L << (ordinal & 63))) != 0;
+    }
+
+    @Override
+    Iterable<VDJCAlignments> unclaimed() {
+        return new Iterable<VDJCAlignments>() {
+            @Override
+            public Iterator<VDJCAlignments> iterator() {
+                return new Iterator<VDJCAlignments>() {
+                    long next = advance(0);
+
+                    long advance(long from) {
+                        while (from < count && isClaimed(from))
+                            ++from;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public VDJCAlignments next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        VDJCAlignments result = fetch(next);
+                        next = advance(next + 1);
+                        return result;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private VDJCAlignments fetch(long ordinal) {
+        VDJCAlignments alignments = readers.get().read(ordinal, leftParts.get(3 * ordinal + 1));
+        alignments.setAlignmentsIndex(leftParts.get(3 * ordinal));
+        return alignments;
+    }
+
+    @Override
+    public void close() {
+        spillFile.delete();
+        leftPartsFile.delete();
+        sequencesFile.delete();
+        for (File bucketFile : bucketFiles)
+            bucketFile.delete();
+    }
+
+    /**
+     * Index of the first pair with k-mer greater or equal to the given one
+     */
+    private static long lowerBound(MappedLongArray pairs, long kMer) {
+        long lo = 0, hi = pairs.size() / 2;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (pairs.get(2 * mid) < kMer)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /* Sorting of (long, long) pairs stored in a flat array */
+
+    static void sortPairs(long[] data, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            // median of three as a pivot
+            if (comparePairs(data, mid, from) < 0)
+                swapPairs(data, mid, from);
+            if (comparePairs(data, to - 1, from) < 0)
+                swapPairs(data, to - 1, from);
+            if (comparePairs(data, to - 1, mid) < 0)
+                swapPairs(data, to - 1, mid);
+            long pivotKey = data[2 * mid], pivotValue = data[2 * mid + 1];
+
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (compare(data[2 * i], data[2 * i + 1], pivotKey, pivotValue) < 0)
+                    ++i;
+                while (compare(data[2 * j], data[2 * j + 1], pivotKey, pivotValue) > 0)
+                    --j;
+                if (i <= j)
+                    swapPairs(data, i++, j--);
+            }
+
+            // recursion into the smaller part keeps stack depth logarithmic
+            if (j + 1 - from < to - i) {
+                sortPairs(data, from, j + 1);
+                from = i;
+            } else {
+                sortPairs(data, i, to);
+                to = j + 1;
+            }
+        }
+
+        for (int i = from + 1; i < to; i++)
+            for (int j = i; j > from && comparePairs(data, j, j - 1) < 0; --j)
+                swapPairs(data, j, j - 1);
+    }
+
+    private static int comparePairs(long[] data, int i, int j) {
+        return compare(data[2 * i], data[2 * i + 1], data[2 * j], data[2 * j + 1]);
+    }
+
+    private static int compare(long key1, long value1, long key2, long value2) {
+        int c = Long.compare(key1, key2);
+        return c != 0 ? c : Long.compare(value1, value2);
+    }
+
+    private static void swapPairs(long[] data, int i, int j) {
+        long t = data[2 * i];
+        data[2 * i] = data[2 * j];
+        data[2 * j] = t;
+        t = data[2 * i + 1];
+        data[2 * i + 1] = data[2 * j + 1];
+        data[2 * j + 1] = t;
+    }
+
+    /**
+     * Left part with alignments decoded on the first call of {@link #getAlignments()}
+     */
+    private final class LazyKMerInfo extends KMerInfo {
+        volatile VDJCAlignments fetched;
+
+        LazyKMerInfo(PackedSequence sequence, int kMerPositionFrom, int targetId, long ordinal) {
+            super(null, sequence, kMerPositionFrom, targetId, ordinal);
+        }
+
+        @Override
+        public VDJCAlignments getAlignments() {
+            VDJCAlignments result = fetched;
+            if (result == null)
+                fetched = result = fetch(ordinal);
+            return result;
+        }
+    }
+
+    /**
+     * Decodes left parts from memory-mapped spill file; one instance per thread
+     */
+    private final class SpillReader {
+        final ByteBufferDataInput input = new ByteBufferDataInput();
+        final ByteBuffer[] segments = new ByteBuffer[spillSegments.length];
+        final VDJCAlignmentsReader reader;
+
+        SpillReader() {
+            for (int i = 0; i < segments.length; i++)
+                segments[i] = spillSegments[i].duplicate();
+            input.buffer = segments[0];
+            reader = new VDJCAlignmentsReader(input, VDJCLibraryRegistry.getDefault());
+            reader.init();
+        }
+
+        VDJCAlignments read(long ordinal, long offset) {
+            int segment = (int) (offset / SPILL_SEGMENT);
+            input.buffer = segments[segment];
+            input.buffer.position((int) (offset - segment * SPILL_SEGMENT));
+            // read ids are encoded relative to record index in spill file
+            return reader.take(ordinal);
+        }
+    }
+
+    /**
+     * Read-only array of longs mapped from file (split into 1 Gb segments)
+     */
+    static final class MappedLongArray {
+        static final int SEGMENT_SHIFT = 27;
+        static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+        final LongBuffer[] segments;
+        final long size;
+
+        MappedLongArray(File file) throws IOException {
+            this.size = file.length() / 8;
+            int n = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            this.segments = new LongBuffer[n];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < n; i++) {
+                    long from = (long) i << SEGMENT_SHIFT;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, 8 * from,
+                            8 * Math.min(size - from, 1L << SEGMENT_SHIFT)).asLongBuffer();
+                }
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        long get(long i) {
+            return segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i & SEGMENT_MASK));
+        }
+    }
+
+    /**
+     * DataInput over switchable byte buffer
+     */
+    private static final class ByteBufferDataInput implements DataInput {
+        ByteBuffer buffer;
+
+        @Override
+        public void readFully(byte[] b) {
+            buffer.get(b);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) {
+            buffer.get(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) {
+            n = Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        @Override
+        public byte readByte() {
+            return buffer.get();
+        }
+
+        @Override
+        public int readUnsignedByte() {
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public short readShort() {
+            return buffer.getShort();
+        }
+
+        @Override
+        public int readUnsignedShort() {
+            return buffer.getShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() {
+            return buffer.getChar();
+        }
+
+        @Override
+        public int readInt() {
+            return buffer.getInt();
+        }
+
+        @Override
+        public long readLong() {
+            return buffer.getLong();
+        }
+
+        @Override
+        public float readFloat() {
+            return buffer.getFloat();
+        }
+
+        @Override
+        public double readDouble() {
+            return buffer.getDouble();
+        }
+
+        @Override
+        public String readLine() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
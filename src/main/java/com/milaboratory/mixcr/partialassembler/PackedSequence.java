@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+
+/**
+ * Nucleotide sequence packed 2 bits per nucleotide (32 nucleotides per {@code long}) for fast comparison of
+ * sequence ranges.
+ */
+final class PackedSequence {
+    /**
+     * Null if sequence was created from packed words
+     */
+    final NucleotideSequence sequence;
+    final int size;
+    final long[] words;
+    /**
+     * Wildcards can't be packed in 2 bits; ranges of such sequences are compared nucleotide by nucleotide
+     */
+    final boolean hasWildcards;
+
+    PackedSequence(NucleotideSequence sequence) {
+        this.sequence = sequence;
+        this.size = sequence.size();
+        this.words = new long[(sequence.size() + 31) >>> 5];
+        boolean hasWildcards = false;
+        for (int i = 0; i < sequence.size(); i++) {
+            byte code = sequence.codeAt(i);
+            if (NucleotideSequence.ALPHABET.isWildcard(code))
+                hasWildcards = true;
+            else
+                words[i >>> 5] |= ((long) code) << ((i & 31) << 1);
+        }
+        this.hasWildcards = hasWildcards;
+    }
+
+    /**
+     * Creates sequence from {@link #words} of a sequence without wildcards
+     */
+    PackedSequence(long[] words, int size) {
+        assert words.length == (size + 31) >>> 5;
+        this.sequence = null;
+        this.size = size;
+        this.words = words;
+        this.hasWildcards = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte codeAt(int position) {
+        if (sequence != null)
+            return sequence.codeAt(position);
+        return (byte) ((words[position >>> 5] >>> ((position & 31) << 1)) & 3);
+    }
+
+    /**
+     * Returns 32 nucleotides starting from specified position (positions after the end of sequence are zeros)
+     */
+    long window(int from) {
+        int word = from >>> 5, shift = (from & 31) << 1;
+        long result = words[word] >>> shift;
+        if (shift != 0 && word + 1 < words.length)
+            result |= words[word + 1] << (64 - shift);
+        return result;
+    }
+
+    /**
+     * Returns true if {@code a[aFrom, aFrom + length)} equals to {@code b[bFrom, bFrom + length)}
+     */
+    static boolean rangeEquals(PackedSequence a, int aFrom, PackedSequence b, int bFrom, int length) {
+        if (a.hasWildcards || b.hasWildcards) {
+            for (int i = 0; i < length; i++)
+                if (a.codeAt(aFrom + i) != b.codeAt(bFrom + i))
+                    return false;
+            return true;
+        }
+
+        for (int offset = 0; offset < length; offset += 32) {
+            long diff = a.window(aFrom + offset) ^ b.window(bFrom + offset);
+            int n = length - offset;
+            if (n < 32)
+                diff &= (1L << (n << 1)) - 1;
+            if (diff != 0)
+                return false;
+        }
+        return true;
+    }
+}
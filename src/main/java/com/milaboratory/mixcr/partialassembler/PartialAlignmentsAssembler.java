@@ -29,6 +29,13 @@
 package com.milaboratory.mixcr.partialassembler;
 
 import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.Processor;
+import cc.redberry.pipe.VoidProcessor;
+import cc.redberry.pipe.blocks.ParallelProcessor;
+import cc.redberry.pipe.util.Chunk;
+import cc.redberry.pipe.util.Indexer;
+import cc.redberry.pipe.util.OrderedOutputPort;
 import com.milaboratory.core.sequence.NSequenceWithQuality;
 import com.milaboratory.core.sequence.NucleotideSequence;
 import com.milaboratory.mixcr.basictypes.VDJCAlignments;
@@ -37,27 +44,36 @@ import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
 import com.milaboratory.mixcr.basictypes.VDJCPartitionedSequence;
 import com.milaboratory.mixcr.cli.ReportHelper;
 import com.milaboratory.mixcr.cli.ReportWriter;
+import com.milaboratory.mixcr.partialassembler.LeftPartsIndex.KMerInfo;
 import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
-import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.set.hash.TLongHashSet;
 import io.repseq.core.*;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static cc.redberry.pipe.CUtils.chunked;
+import static cc.redberry.pipe.CUtils.unchunked;
 import static com.milaboratory.mixcr.vdjaligners.VDJCAlignerWithMerge.getMMDescr;
 
+/**
+ * Overlaps partial alignments covering only V end (left parts) with alignments covering only J beginning (right
+ * parts) to reconstruct CDR3. Both index building and overlap search run in several threads; the output is the same
+ * as of sequential processing: left parts are assigned to right parts in the order of right parts in the input
+ * file.
+ */
 public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
-    final TLongObjectHashMap<List<KMerInfo>> kToIndexLeft = new TLongObjectHashMap<>();
-    final TLongHashSet leftPartsIds = new TLongHashSet();
+    LeftPartsIndex kToIndexLeft;
     final VDJCAlignmentsWriter writer;
     final int kValue;
     final int kOffset;
     final int minimalVJJunctionOverlap;
     final boolean writePartial, overlappedOnly;
     final TargetMerger targetMerger;
+    final int threads;
+    boolean offHeapIndex = false;
     public final AtomicLong leftParts = new AtomicLong(),
             rightParts = new AtomicLong(),
             noKMer = new AtomicLong(),
@@ -68,9 +84,20 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
             partialAsIs = new AtomicLong(),
             complexOverlapped = new AtomicLong(),
             containsCDR3 = new AtomicLong();
+    /**
+     * Number of overlaps found in each round
+     */
+    public final TLongArrayList overlappedByRound = new TLongArrayList();
+    private long mergedWritten = 0;
+    private volatile boolean firstRound = true;
 
     public PartialAlignmentsAssembler(PartialAlignmentsAssemblerParameters params, VDJCAlignmentsWriter writer,
                                       boolean writePartial, boolean overlappedOnly) {
+        this(params, writer, writePartial, overlappedOnly, 1);
+    }
+
+    public PartialAlignmentsAssembler(PartialAlignmentsAssemblerParameters params, VDJCAlignmentsWriter writer,
+                                      boolean writePartial, boolean overlappedOnly, int threads) {
         this.kValue = params.getKValue();
         this.kOffset = params.getKOffset();
         this.minimalVJJunctionOverlap = params.getMinimalVJJunctionOverlap();
@@ -78,6 +105,7 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
         this.writePartial = writePartial;
         this.overlappedOnly = overlappedOnly;
         this.writer = writer;
+        this.threads = threads;
     }
 
     public PartialAlignmentsAssembler(PartialAlignmentsAssemblerParameters params, String output,
@@ -85,79 +113,265 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
         this(params, new VDJCAlignmentsWriter(output), writePartial, overlappedOnly);
     }
 
+    public PartialAlignmentsAssembler(PartialAlignmentsAssemblerParameters params, String output,
+                                      boolean writePartial, boolean overlappedOnly, int threads) throws IOException {
+        this(params, new VDJCAlignmentsWriter(output), writePartial, overlappedOnly, threads);
+    }
+
+    /**
+     * Keep k-mer index and left part alignments outside of Java heap (in memory-mapped temporary files); slower, but
+     * allows to process inputs with huge number of partial alignments. Fragments kept between rounds of {@link
+     * #searchOverlaps(VDJCAlignmentsReader, int)} are also stored in a temporary file.
+     */
+    public void setOffHeapIndex(boolean offHeapIndex) {
+        this.offHeapIndex = offHeapIndex;
+    }
+
     public void buildLeftPartsIndex(VDJCAlignmentsReader reader) {
+        writer.setOriginalReadsSources(reader.getOriginalReadsSources());
         writer.header(reader.getParameters(), reader.getUsedGenes());
-        for (VDJCAlignments alignment : CUtils.it(reader)) {
-            if (alignment.getFeature(GeneFeature.CDR3) != null)
-                continue;
-            addLeftToIndex(alignment);
+        buildLeftPartsIndex(reader, reader.getParameters(), reader.getUsedGenes());
+    }
+
+    private void buildLeftPartsIndex(OutputPort<VDJCAlignments> input, VDJCAlignerParameters parameters,
+                                     List<VDJCGene> genes) {
+        kToIndexLeft = offHeapIndex
+                ? new OffHeapLeftPartsIndex(parameters, genes)
+                : new HeapLeftPartsIndex();
+
+        if (kToIndexLeft.isConcurrent())
+            CUtils.processAllInParallel(CUtils.buffered(input, 1024), new VoidProcessor<VDJCAlignments>() {
+                @Override
+                public void process(VDJCAlignments alignment) {
+                    LeftPart leftPart = extractLeftPart(alignment);
+                    if (leftPart != null)
+                        kToIndexLeft.add(leftPart.kMer, alignment, leftPart.kMerPositionFrom, leftPart.targetId);
+                }
+            }, threads);
+        else {
+            // k-mers are extracted in parallel, left parts are added to index in the order of input file
+            Processor<VDJCAlignments, LeftPart> extractor = new Processor<VDJCAlignments, LeftPart>() {
+                @Override
+                public LeftPart process(VDJCAlignments alignment) {
+                    LeftPart leftPart = extractLeftPart(alignment);
+                    return leftPart == null ? new LeftPart(alignment, -1, -1, -1) : leftPart;
+                }
+            };
+            OutputPort<LeftPart> leftParts = new OrderedOutputPort<>(unchunked(new ParallelProcessor<>(
+                    CUtils.buffered(chunked(input, 64), 16), chunked(extractor), threads)), new Indexer<LeftPart>() {
+                @Override
+                public long getIndex(LeftPart o) {
+                    return o.alignments.getAlignmentsIndex();
+                }
+            });
+            for (LeftPart leftPart : CUtils.it(leftParts))
+                if (leftPart.targetId != -1)
+                    kToIndexLeft.add(leftPart.kMer, leftPart.alignments, leftPart.kMerPositionFrom, leftPart.targetId);
         }
+        kToIndexLeft.seal();
     }
 
     public void searchOverlaps(VDJCAlignmentsReader reader) {
+        searchOverlaps(reader, 1);
+    }
+
+    /**
+     * Searches for overlaps in several rounds (recurrent overlapping). Fragments left without CDR3 after a round
+     * (unmerged partial alignments and merged alignments still not covering CDR3) are kept in memory (or in a temporary
+     * file, see {@link #setOffHeapIndex(boolean)}) and are the only input of the next round, for which left parts
+     * index is rebuilt from these fragments only. Processing stops after {@code rounds} rounds or earlier, if a round
+     * produces no new overlaps.
+     *
+     * @param reader input alignments, the same file as used for {@link #buildLeftPartsIndex(VDJCAlignmentsReader)}
+     * @param rounds maximal number of rounds, 0 to run until no new overlaps are found
+     */
+    public void searchOverlaps(VDJCAlignmentsReader reader, int rounds) {
         final VDJCAlignerParameters alignerParameters = reader.getParameters();
-        PartialAlignmentsAssemblerAligner aligner = new PartialAlignmentsAssemblerAligner(alignerParameters);
+        final PartialAlignmentsAssemblerAligner aligner = new PartialAlignmentsAssemblerAligner(alignerParameters);
         targetMerger.setAlignerParameters(alignerParameters);
         for (VDJCGene gene : reader.getUsedGenes())
             aligner.addGene(gene);
 
-        for (VDJCAlignments alignment : CUtils.it(reader)) {
-            total.incrementAndGet();
+        OutputPort<VDJCAlignments> input = reader;
+        // indices (in the current round input) of fragments produced by merging in previous rounds
+        TLongHashSet mergedEarlier = new TLongHashSet();
+        PendingFragments previous = null;
+        for (int round = 1; ; ++round) {
+            firstRound = round == 1;
+            PendingFragments pending = rounds == 1 ? null
+                    : new PendingFragments(offHeapIndex, alignerParameters, reader.getUsedGenes());
+            long overlappedBefore = overlapped.get();
+
+            searchOverlaps(input, aligner, alignerParameters.isAllowChimeras(), mergedEarlier, pending);
+            if (previous != null)
+                previous.delete();
+
+            long overlappedInRound = overlapped.get() - overlappedBefore;
+            overlappedByRound.add(overlappedInRound);
+            if (pending == null)
+                break;
+
+            if (round == rounds || overlappedInRound == 0 || pending.isEmpty()) {
+                for (VDJCAlignments alignment : CUtils.it(pending.read()))
+                    writeUnmerged(alignment, pending.merged.contains(alignment.getAlignmentsIndex()));
+                pending.delete();
+                break;
+            }
+
+            // next round: only the still unmerged fragments are indexed and searched
+            kToIndexLeft.close();
+            buildLeftPartsIndex(pending.read(), alignerParameters, reader.getUsedGenes());
+            input = pending.read();
+            mergedEarlier = pending.merged;
+            previous = pending;
+        }
+        firstRound = true;
 
-            if (leftPartsIds.contains(alignment.getAlignmentsIndex()))
-                continue;
+        writer.setNumberOfProcessedReads(reader.getNumberOfReads() - overlapped.get());
+    }
 
-            if (alignment.getFeature(GeneFeature.CDR3) != null) {
-                containsCDR3.incrementAndGet();
-                if (!overlappedOnly) {
-                    totalWritten.incrementAndGet();
-                    writer.write(alignment);
+    /**
+     * Single round of overlap search
+     *
+     * @param mergedEarlier indices of input fragments produced by merging in previous rounds
+     * @param pending       if not null, fragments without CDR3 are collected here instead of being written to output
+     */
+    private void searchOverlaps(OutputPort<VDJCAlignments> input, final PartialAlignmentsAssemblerAligner aligner,
+                                final boolean allowChimeras, TLongHashSet mergedEarlier,
+                                PendingFragments pending) {
+        // Stage 1 (parallel): searching for all left parts overlapping with each right part
+        Processor<VDJCAlignments, Overlapping> candidatesSearch = new Processor<VDJCAlignments, Overlapping>() {
+            @Override
+            public Overlapping process(VDJCAlignments alignment) {
+                count(total);
+                Overlapping result = new Overlapping(alignment);
+                if (kToIndexLeft.isLeftPart(alignment.getAlignmentsIndex()))
+                    return result;
+
+                if (alignment.getFeature(GeneFeature.CDR3) != null) {
+                    count(containsCDR3);
+                    if (!overlappedOnly)
+                        result.output = alignment;
+                    return result;
                 }
-                continue;
-            }
 
-            VDJCMultiRead mRead = searchOverlaps(alignment, alignerParameters.isAllowChimeras());
-            if (mRead == null) {
-                if (writePartial && !overlappedOnly) {
-                    totalWritten.incrementAndGet();
-                    partialAsIs.incrementAndGet();
-                    writer.write(alignment);
+                result.partial = true;
+                result.rightTargetId = getRightPartitionedSequence(alignment);
+                if (result.rightTargetId != -1) {
+                    count(rightParts);
+                    result.candidates = searchCandidates(alignment, result.rightTargetId, allowChimeras);
                 }
-                continue;
+                return result;
             }
-
-            final VDJCAlignments al = aligner.process(mRead).alignment;
-
-            overlapped.incrementAndGet();
-            String[] descriptions = new String[mRead.numberOfReads()];
-            for (int i = 0; i < mRead.numberOfReads(); i++)
-                descriptions[i] = mRead.getRead(i).getDescription();
-            al.setTargetDescriptions(descriptions);
-            totalWritten.incrementAndGet();
-            writer.write(al);
+        };
+        final OutputPort<Overlapping> candidates = ordered(new ParallelProcessor<>(
+                CUtils.buffered(chunked(input, 64), 16), chunked(candidatesSearch), threads));
+
+        // Stage 2 (sequential, in the order of input file): claiming left parts
+        OutputPort<Overlapping> claimed = new OutputPort<Overlapping>() {
+            @Override
+            public synchronized Overlapping take() {
+                Overlapping o = candidates.take();
+                if (o != null && o.candidates != null)
+                    for (OverlapCandidate candidate : o.candidates)
+                        if (kToIndexLeft.claim(candidate.left)) {
+                            o.claimed = candidate;
+                            break;
+                        }
+                return o;
+            }
+        };
+
+        // Stage 3 (parallel): merging targets and re-aligning merged reads
+        Processor<Overlapping, Overlapping> merger = new Processor<Overlapping, Overlapping>() {
+            @Override
+            public Overlapping process(Overlapping o) {
+                if (o.claimed != null) {
+                    VDJCMultiRead mRead = merge(o.alignment, o.rightTargetId, o.claimed);
+                    final VDJCAlignments al = aligner.process(mRead).alignment;
+                    overlapped.incrementAndGet();
+                    String[] descriptions = new String[mRead.numberOfReads()];
+                    for (int i = 0; i < mRead.numberOfReads(); i++)
+                        descriptions[i] = mRead.getRead(i).getDescription();
+                    al.setTargetDescriptions(descriptions);
+                    o.output = al;
+                    o.partial = al.getFeature(GeneFeature.CDR3) == null;
+                }
+                return o;
+            }
+        };
+        OutputPort<Overlapping> merged = ordered(new ParallelProcessor<>(
+                CUtils.buffered(chunked(claimed, 64), 16), chunked(merger), threads));
+
+        for (Overlapping o : CUtils.it(merged))
+            if (o.claimed != null) {
+                if (pending != null && o.partial)
+                    pending.add(o.output, true);
+                else {
+                    ++mergedWritten;
+                    write(o.output);
+                }
+            } else if (o.partial) {
+                boolean wasMerged = mergedEarlier.contains(o.alignment.getAlignmentsIndex());
+                if (pending != null)
+                    pending.add(o.alignment, wasMerged);
+                else
+                    writeUnmerged(o.alignment, wasMerged);
+            } else if (o.output != null)
+                write(o.output);
+
+        for (VDJCAlignments left : kToIndexLeft.unclaimed()) {
+            boolean wasMerged = mergedEarlier.contains(left.getAlignmentsIndex());
+            if (pending != null)
+                pending.add(left, wasMerged);
+            else
+                writeUnmerged(left, wasMerged);
         }
+    }
 
-        if (writePartial && !overlappedOnly)
-            for (List<KMerInfo> kMerInfos : kToIndexLeft.valueCollection())
-                for (KMerInfo kMerInfo : kMerInfos) {
-                    totalWritten.incrementAndGet();
-                    partialAsIs.incrementAndGet();
-                    writer.write(kMerInfo.getAlignments());
-                }
+    /**
+     * Writes fragment which was not overlapped in the last round; results of merging performed in previous rounds are
+     * always written
+     */
+    private void writeUnmerged(VDJCAlignments alignment, boolean wasMerged) {
+        if (wasMerged) {
+            ++mergedWritten;
+            write(alignment);
+        } else if (writePartial && !overlappedOnly) {
+            partialAsIs.incrementAndGet();
+            write(alignment);
+        }
+    }
 
-        writer.setNumberOfProcessedReads(reader.getNumberOfReads() - overlapped.get());
+    private void write(VDJCAlignments alignment) {
+        totalWritten.incrementAndGet();
+        writer.write(alignment);
     }
 
-    @SuppressWarnings("unchecked")
-    private VDJCMultiRead searchOverlaps(final VDJCAlignments rightAl,
-                                         final boolean allowChimeras) {
-        final Chains jChains = rightAl.getAllChains(GeneType.Joining);
+    /**
+     * Input statistics is collected in the first round only
+     */
+    private void count(AtomicLong counter) {
+        if (firstRound)
+            counter.incrementAndGet();
+    }
 
-        int rightTargetId = getRightPartitionedSequence(rightAl);
-        if (rightTargetId == -1)
-            return null;
+    private static OutputPort<Overlapping> ordered(OutputPort<Chunk<Overlapping>> chunks) {
+        return new OrderedOutputPort<>(unchunked(chunks), new Indexer<Overlapping>() {
+            @Override
+            public long getIndex(Overlapping o) {
+                return o.alignment.getAlignmentsIndex();
+            }
+        });
+    }
 
-        rightParts.incrementAndGet();
+    /**
+     * Returns left parts overlapping with the right part, best overlaps go first (for equal overlaps the order is the
+     * order of discovery).
+     */
+    private List<OverlapCandidate> searchCandidates(final VDJCAlignments rightAl, final int rightTargetId,
+                                                    final boolean allowChimeras) {
+        final Chains jChains = rightAl.getAllChains(GeneType.Joining);
 
         final VDJCPartitionedSequence rightTarget = rightAl.getPartitionedTarget(rightTargetId);
         NSequenceWithQuality rightSeqQ = rightTarget.getSequence();
@@ -168,57 +382,87 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
 
         stop -= kOffset;
 
-        int maxOverlap = -1;
-        int maxDelta = -1;
-        int maxOverlapIndexInList = -1;
-        List<KMerInfo> maxOverlapList = null;
+        final PackedSequence rightPacked = new PackedSequence(rightSeq);
+        final long kMask = kValue == 32 ? -1L : (1L << (kValue << 1)) - 1;
+
+        // k-mer is updated incrementally while moving along the sequence
+        long kMer = 0;
+        // k-mers starting before this position contain wildcards
+        int validFrom = 0;
+        for (int p = 0; p < kValue - 1 && p < rightSeq.size(); p++) {
+            byte c = rightSeq.codeAt(p);
+            if (NucleotideSequence.ALPHABET.isWildcard(c)) {
+                validFrom = p + 1;
+                c = 0;
+            }
+            kMer = (kMer << 2 | c) & kMask;
+        }
+
+        List<OverlapCandidate> candidates = new ArrayList<>();
         for (int rFrom = 0; rFrom < stop && rFrom + kValue < rightSeqQ.size(); rFrom++) {
-            long kMer = kMer(rightSeqQ.getSequence(), rFrom, kValue);
+            byte c = rightSeq.codeAt(rFrom + kValue - 1);
+            if (NucleotideSequence.ALPHABET.isWildcard(c)) {
+                validFrom = rFrom + kValue;
+                c = 0;
+            }
+            kMer = (kMer << 2 | c) & kMask;
+            if (rFrom < validFrom)
+                continue;
+
             List<KMerInfo> match = kToIndexLeft.get(kMer);
             if (match == null)
                 continue;
 
-            out:
             for (int i = 0; i < match.size(); i++) {
-                final VDJCAlignments leftAl = match.get(i).getAlignments();
-
-                // Checking chains compatibility
-                if (!allowChimeras && !leftAl.getAllChains(GeneType.Variable).intersects(jChains))
+                final KMerInfo left = match.get(i);
+                // Left part may be already taken by one of preceding right parts
+                if (kToIndexLeft.isClaimed(left))
                     continue;
 
-                final NucleotideSequence leftSeq = leftAl.getPartitionedTarget(getLeftPartitionedSequence(leftAl))
-                        .getSequence().getSequence();
-                int lFrom = match.get(i).kMerPositionFrom;
+                int lFrom = left.kMerPositionFrom;
 
                 int delta, begin = delta = lFrom - rFrom;
                 if (begin < 0)
                     begin = 0;
-                int end = leftSeq.size();
+                int end = left.sequence.size();
                 if (end - delta >= rightSeq.size())
                     end = rightSeq.size() + delta;
 
-                for (int j = begin; j < end; j++)
-                    if (leftSeq.codeAt(j) != rightSeq.codeAt(j - delta))
-                        continue out;
+                if (!PackedSequence.rangeEquals(left.sequence, begin, rightPacked, begin - delta, end - begin))
+                    continue;
+
+                // Checking chains compatibility (after sequence, as off-heap left parts are decoded on demand)
+                if (!allowChimeras && !left.getAlignments().getAllChains(GeneType.Variable).intersects(jChains))
+                    continue;
 
                 int overlap = end - begin;
-                if (maxOverlap < overlap) {
-                    maxOverlap = overlap;
-                    maxOverlapList = match;
-                    maxOverlapIndexInList = i;
-                    maxDelta = delta;
-                }
+                if (overlap >= minimalVJJunctionOverlap)
+                    candidates.add(new OverlapCandidate(left, overlap, delta));
             }
         }
 
-        if (maxOverlapList == null)
-            return null;
+        if (candidates.isEmpty())
+            return candidates;
 
-        if (maxOverlap < minimalVJJunctionOverlap)
-            return null;
+        // stable sort, so the first discovered one of equally overlapping candidates wins
+        Collections.sort(candidates, OVERLAP_DESCENDING);
 
-        KMerInfo left = maxOverlapList.remove(maxOverlapIndexInList);
-        VDJCAlignments leftAl = left.alignments;
+        // Each left part is indexed by a single k-mer, so it may be found at several deltas (if right part contains
+        // repeats); only the best overlap of each left part is worth claiming
+        List<OverlapCandidate> result = new ArrayList<>(candidates.size());
+        TLongHashSet seen = new TLongHashSet();
+        for (OverlapCandidate candidate : candidates)
+            if (seen.add(candidate.left.ordinal))
+                result.add(candidate);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private VDJCMultiRead merge(final VDJCAlignments rightAl, final int rightTargetId,
+                                final OverlapCandidate candidate) {
+        KMerInfo left = candidate.left;
+        VDJCAlignments leftAl = left.getAlignments();
+        final int maxOverlap = candidate.overlap, maxDelta = candidate.delta;
 
         final long readId = rightAl.getReadId();
 
@@ -318,7 +562,10 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
         helper.writePercentAndAbsoluteField("Number of right-side alignments", rightParts, total);
         helper.writePercentAndAbsoluteField("Complex overlaps", complexOverlapped, total);
         helper.writePercentAndAbsoluteField("Partial alignments written to output", partialAsIs, total);
-        if (!writePartial && !overlappedOnly && totalWritten.get() != overlapped.get() + partialAsIs.get() + containsCDR3.get())
+        if (overlappedByRound.size() > 1)
+            for (int i = 0; i < overlappedByRound.size(); i++)
+                helper.writePercentAndAbsoluteField("Overlapped in round " + (i + 1), overlappedByRound.get(i), total);
+        if (!writePartial && !overlappedOnly && totalWritten.get() != mergedWritten + partialAsIs.get() + containsCDR3.get())
             throw new AssertionError();
     }
 
@@ -352,32 +599,34 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
         return -1;
     }
 
-    private void addLeftToIndex(VDJCAlignments alignment) {
+    /**
+     * Returns k-mer following V end if alignment is a left part, or null otherwise
+     */
+    private LeftPart extractLeftPart(VDJCAlignments alignment) {
+        if (alignment.getFeature(GeneFeature.CDR3) != null)
+            return null;
+
         int leftTargetId = getLeftPartitionedSequence(alignment);
         if (leftTargetId == -1)
-            return;
+            return null;
 
         VDJCPartitionedSequence left = alignment.getPartitionedTarget(leftTargetId);
         NSequenceWithQuality seq = left.getSequence();
 
         int kFrom = left.getPartitioning().getPosition(ReferencePoint.VEndTrimmed) + kOffset;
         if (kFrom < 0 || kFrom + kValue >= seq.size()) {
-            noKMer.incrementAndGet();
-            return;
+            count(noKMer);
+            return null;
         }
 
         long kmer = kMer(seq.getSequence(), kFrom, kValue);
         if (kmer == -1) {
-            wildCardsInKMer.incrementAndGet();
-            return;
+            count(wildCardsInKMer);
+            return null;
         }
 
-        List<KMerInfo> ids = kToIndexLeft.get(kmer);
-        if (ids == null)
-            kToIndexLeft.put(kmer, ids = new ArrayList<>(1));
-        ids.add(new KMerInfo(alignment, kFrom, leftTargetId));
-        leftPartsIds.add(alignment.getAlignmentsIndex());
-        leftParts.incrementAndGet();
+        count(leftParts);
+        return new LeftPart(alignment, kmer, kFrom, leftTargetId);
     }
 
     private static long kMer(NucleotideSequence seq, int from, int length) {
@@ -391,19 +640,50 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
         return kmer;
     }
 
-    private static final class KMerInfo {
+    private static final class LeftPart {
         final VDJCAlignments alignments;
-        final int kMerPositionFrom;
-        final int targetId;
+        final long kMer;
+        final int kMerPositionFrom, targetId;
 
-        public KMerInfo(VDJCAlignments alignments, int kMerPositionFrom, int targetId) {
+        LeftPart(VDJCAlignments alignments, long kMer, int kMerPositionFrom, int targetId) {
             this.alignments = alignments;
+            this.kMer = kMer;
             this.kMerPositionFrom = kMerPositionFrom;
             this.targetId = targetId;
         }
+    }
+
+    private static final Comparator<OverlapCandidate> OVERLAP_DESCENDING = new Comparator<OverlapCandidate>() {
+        @Override
+        public int compare(OverlapCandidate o1, OverlapCandidate o2) {
+            return Integer.compare(o2.overlap, o1.overlap);
+        }
+    };
+
+    private static final class OverlapCandidate {
+        final KMerInfo left;
+        final int overlap, delta;
+
+        OverlapCandidate(KMerInfo left, int overlap, int delta) {
+            this.left = left;
+            this.overlap = overlap;
+            this.delta = delta;
+        }
+    }
 
-        public VDJCAlignments getAlignments() {
-            return alignments;
+    /**
+     * Right part (or any other alignment) passing through overlap search pipeline
+     */
+    private static final class Overlapping {
+        final VDJCAlignments alignment;
+        boolean partial;
+        int rightTargetId = -1;
+        List<OverlapCandidate> candidates;
+        OverlapCandidate claimed;
+        VDJCAlignments output;
+
+        Overlapping(VDJCAlignments alignment) {
+            this.alignment = alignment;
         }
     }
 
@@ -425,6 +705,8 @@ public class PartialAlignmentsAssembler implements AutoCloseable, ReportWriter {
     @Override
     public void close() throws IOException {
         writer.close();
+        if (kToIndexLeft != null)
+            kToIndexLeft.close();
     }
 }
 
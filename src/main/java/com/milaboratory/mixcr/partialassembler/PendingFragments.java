@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
+import com.milaboratory.mixcr.util.TempFileManager;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
+import gnu.trove.set.hash.TLongHashSet;
+import io.repseq.core.VDJCGene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fragments left without CDR3 after a round of overlapping, i.e. the input of the next round. Fragments are kept in
+ * a list, or in a temporary .vdjca file if {@code offHeap} is set (to be used together with {@link
+ * OffHeapLeftPartsIndex}).
+ */
+final class PendingFragments {
+    final TLongHashSet merged = new TLongHashSet();
+    final List<VDJCAlignments> list;
+    final File file;
+    final VDJCAlignmentsWriter fileWriter;
+    long size = 0;
+
+    PendingFragments(boolean offHeap, VDJCAlignerParameters parameters, List<VDJCGene> genes) {
+        if (offHeap) {
+            try {
+                list = null;
+                file = TempFileManager.getTempFile();
+                fileWriter = new VDJCAlignmentsWriter(file, true);
+                fileWriter.header(parameters, genes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            list = new ArrayList<>();
+            file = null;
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * @param wasMerged whether fragment was produced by merging (in this or previous rounds)
+     */
+    void add(VDJCAlignments alignment, boolean wasMerged) {
+        if (wasMerged)
+            merged.add(size);
+        if (list != null)
+            list.add(alignment);
+        else
+            fileWriter.write(alignment);
+        ++size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns fragments in the order they were added, with alignments index set to the position; may be called
+     * several times after all fragments are added.
+     */
+    OutputPort<VDJCAlignments> read() {
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++)
+                list.get(i).setAlignmentsIndex(i);
+            return CUtils.asOutputPort(list);
+        }
+        fileWriter.close();
+        try {
+            return new VDJCAlignmentsReader(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void delete() {
+        if (file != null) {
+            fileWriter.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.InputPort;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.mixcr.basictypes.Clone;
+import com.milaboratory.mixcr.basictypes.VDJCHit;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TObjectProcedure;
+import io.repseq.core.GeneType;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Joins clones from several clone sets (samples) by clonotype key: clonal sequence and, optionally, names of best V,
+ * J and C genes.
+ *
+ * Clones are added one by one (see {@link #add(int, Clone)}), so clone sets can be streamed from files. Each clone
+ * is represented by a 64-bit fingerprint of its key; upper bits of the fingerprint define a partition. If the total
+ * number of clones exceeds the in-memory limit, partitions are spilled to temporary files. Partitions are then joined
+ * independently and in parallel, using primitive hash map from fingerprints to clonotypes (full keys are compared
+ * only for clones with equal fingerprints).
+ */
+public final class CloneSetsJoin implements AutoCloseable {
+    /**
+     * Maximal number of partitions
+     */
+    static final int MAX_PARTITIONS = 1024;
+
+    final int numberOfSamples;
+    final boolean useV, useJ, useC;
+    final int partitionBits;
+    final int threads;
+    final long[] clones, reads;
+    // Spilled partitions
+    final File[] files;
+    final PrimitivO[] outputs;
+    // In-memory partitions
+    final List<List<Entry>> entries;
+    boolean added = false;
+
+    /**
+     * @param numberOfSamples number of clone sets to join
+     * @param expectedClones  total number of clones in all clone sets
+     * @param maxInMemory     maximal number of clones kept in memory at once (shared by partitions joined
+     *                        concurrently)
+     * @param threads         number of partitions joined concurrently
+     * @param useV            include best V gene into clonotype key
+     * @param useJ            include best J gene into clonotype key
+     * @param useC            include best C gene into clonotype key
+     */
+    public CloneSetsJoin(int numberOfSamples, long expectedClones, int maxInMemory, int threads,
+                         boolean useV, boolean useJ, boolean useC) {
+        this.numberOfSamples = numberOfSamples;
+        this.threads = threads;
+        this.useV = useV;
+        this.useJ = useJ;
+        this.useC = useC;
+        this.clones = new long[numberOfSamples];
+        this.reads = new long[numberOfSamples];
+
+        // up to min(threads, partitions) partitions are loaded at once
+        int partitions = 1, bits = 0;
+        while (partitions < MAX_PARTITIONS
+                && expectedClones * Math.min(threads, partitions) > (long) partitions * maxInMemory) {
+            partitions <<= 1;
+            ++bits;
+        }
+        this.partitionBits = bits;
+
+        if (partitions == 1) {
+            this.files = null;
+            this.outputs = null;
+            this.entries = new ArrayList<>();
+            this.entries.add(new ArrayList<Entry>());
+        } else {
+            this.files = new File[partitions];
+            this.outputs = new PrimitivO[partitions];
+            this.entries = null;
+            try {
+                for (int i = 0; i < partitions; i++) {
+                    files[i] = TempFileManager.getTempFile();
+                    outputs[i] = new PrimitivO(new BufferedOutputStream(new FileOutputStream(files[i]), 8192));
+                }
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public int getNumberOfPartitions() {
+        return 1 << partitionBits;
+    }
+
+    /**
+     * Adds clone of the sample
+     */
+    public void add(int sample, Clone clone) {
+        NucleotideSequence[] clonalSequence = new NucleotideSequence[clone.numberOfTargets()];
+        for (int i = 0; i < clonalSequence.length; i++)
+            clonalSequence[i] = clone.getTarget(i).getSequence();
+        add(sample, clone.getId(), clone.getCount(), clonalSequence,
+                bestGene(clone, GeneType.Variable), bestGene(clone, GeneType.Joining),
+                bestGene(clone, GeneType.Constant));
+    }
+
+    /**
+     * Adds clone of the sample
+     *
+     * @param sample         sample index
+     * @param cloneId        id of the clone in the sample
+     * @param count          clone count
+     * @param clonalSequence clonal sequence
+     * @param v              name of the best V gene or null
+     * @param j              name of the best J gene or null
+     * @param c              name of the best C gene or null
+     */
+    public void add(int sample, int cloneId, long count, NucleotideSequence[] clonalSequence,
+                    String v, String j, String c) {
+        Entry entry = new Entry(sample, cloneId, count, clonalSequence, v, j, c);
+        entry.fingerprint = fingerprint(entry);
+        ++clones[sample];
+        reads[sample] += count;
+        added = true;
+        int partition = partition(entry.fingerprint);
+        if (entries != null)
+            entries.get(partition).add(entry);
+        else
+            entry.write(outputs[partition]);
+    }
+
+    int partition(long fingerprint) {
+        return partitionBits == 0 ? 0 : (int) (fingerprint >>> (64 - partitionBits));
+    }
+
+    /**
+     * Joins all added clones.
+     *
+     * @param minSamples   minimal number of samples a clonotype should be present in to be passed to sharedClones
+     * @param sharedClones receives clonotypes present in at least minSamples samples (ordered by partition and
+     *                     fingerprint, so the order does not depend on number of threads); may be null
+     * @return overlap statistics
+     * @throws DuplicateKeyException if two clones of the same sample have equal keys
+     */
+    public Overlap run(final int minSamples, InputPort<SharedClonotype> sharedClones)
+            throws InterruptedException {
+        if (outputs != null)
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i].writeBoolean(false);
+                outputs[i].close();
+                outputs[i] = null;
+            }
+
+        final Overlap overlap = new Overlap(numberOfSamples);
+        System.arraycopy(clones, 0, overlap.clones, 0, numberOfSamples);
+        System.arraycopy(reads, 0, overlap.reads, 0, numberOfSamples);
+
+        final int partitions = getNumberOfPartitions();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, partitions));
+        try {
+            List<Future<PartitionResult>> futures = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                final int partition = i;
+                futures.add(executor.submit(new Callable<PartitionResult>() {
+                    @Override
+                    public PartitionResult call() throws Exception {
+                        List<Entry> list;
+                        if (entries != null) {
+                            list = entries.get(partition);
+                            entries.set(partition, null);
+                        } else
+                            list = readPartition(partition);
+                        return join(list, minSamples);
+                    }
+                }));
+            }
+
+            // Results are consumed in partition order
+            for (int i = 0; i < partitions; i++) {
+                PartitionResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+                futures.set(i, null);
+                overlap.add(result.overlap);
+                if (sharedClones != null)
+                    for (SharedClonotype clonotype : result.shared)
+                        sharedClones.put(clonotype);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (sharedClones != null)
+            sharedClones.put(null);
+        return overlap;
+    }
+
+    List<Entry> readPartition(int partition) throws IOException {
+        List<Entry> list = new ArrayList<>();
+        PrimitivI input = new PrimitivI(new BufferedInputStream(new FileInputStream(files[partition]), 8192));
+        try {
+            while (input.readBoolean())
+                list.add(Entry.read(input));
+        } finally {
+            input.close();
+        }
+        files[partition].delete();
+        return list;
+    }
+
+    PartitionResult join(List<Entry> list, int minSamples) {
+        TLongObjectHashMap<Group> groups = new TLongObjectHashMap<>();
+        for (Entry entry : list) {
+            Group group = groups.get(entry.fingerprint), g = group;
+            // Resolving fingerprint collisions
+            while (g != null && !sameKey(g.first(), entry))
+                g = g.next;
+            if (g == null) {
+                g = new Group(numberOfSamples, group);
+                groups.put(entry.fingerprint, g);
+            }
+            Entry existing = g.entries[entry.sample];
+            if (existing != null)
+                throw new DuplicateKeyException(entry.sample, existing, entry);
+            g.entries[entry.sample] = entry;
+        }
+
+        final PartitionResult result = new PartitionResult(numberOfSamples);
+        final int minSamples0 = minSamples;
+        groups.forEachValue(new TObjectProcedure<Group>() {
+            @Override
+            public boolean execute(Group group) {
+                for (Group g = group; g != null; g = g.next)
+                    result.add(g, minSamples0);
+                return true;
+            }
+        });
+        Collections.sort(result.shared, SharedClonotype.FINGERPRINT_COMPARATOR);
+        return result;
+    }
+
+    boolean sameKey(Entry a, Entry b) {
+        return a.fingerprint == b.fingerprint
+                && Arrays.equals(a.clonalSequence, b.clonalSequence)
+                && (!useV || Objects.equals(a.v, b.v))
+                && (!useJ || Objects.equals(a.j, b.j))
+                && (!useC || Objects.equals(a.c, b.c));
+    }
+
+    long fingerprint(Entry entry) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (NucleotideSequence sequence : entry.clonalSequence) {
+            hash = mix(hash ^ sequence.size());
+            // Packing 16 nucleotides (4 bits each, to keep wildcards distinct) per word
+            long word = 0;
+            int size = sequence.size();
+            for (int i = 0; i < size; i++) {
+                word = (word << 4) | sequence.codeAt(i);
+                if ((i & 15) == 15) {
+                    hash = mix(hash ^ word);
+                    word = 0;
+                }
+            }
+            if ((size & 15) != 0)
+                hash = mix(hash ^ word);
+        }
+        hash = mix(hash ^ (useV ? Objects.hashCode(entry.v) : 0));
+        hash = mix(hash ^ (useJ ? Objects.hashCode(entry.j) : 0));
+        hash = mix(hash ^ (useC ? Objects.hashCode(entry.c) : 0));
+        return hash;
+    }
+
+    static long mix(long z) {
+        // SplitMix64 finalizer
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static String bestGene(Clone clone, GeneType geneType) {
+        VDJCHit hit = clone.getBestHit(geneType);
+        return hit == null ? null : hit.getGene().getName();
+    }
+
+    @Override
+    public void close() {
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++) {
+            if (outputs[i] != null)
+                outputs[i].close();
+            if (files[i] != null)
+                files[i].delete();
+        }
+    }
+
+    /**
+     * Overlap statistics
+     */
+    public static final class Overlap {
+        /**
+         * Number of clones and reads in each sample
+         */
+        public final long[] clones, reads;
+        /**
+         * Number of clones and reads in clonotypes present only in the sample
+         */
+        public final long[] uniqueClones, uniqueReads;
+        /**
+         * [i][j]: number of clones (reads) of sample i which clonotypes are present in sample j; diagonal elements
+         * are equal to total clones (reads) of the sample
+         */
+        public final long[][] sharedClones, sharedReads;
+
+        Overlap(int numberOfSamples) {
+            this.clones = new long[numberOfSamples];
+            this.reads = new long[numberOfSamples];
+            this.uniqueClones = new long[numberOfSamples];
+            this.uniqueReads = new long[numberOfSamples];
+            this.sharedClones = new long[numberOfSamples][numberOfSamples];
+            this.sharedReads = new long[numberOfSamples][numberOfSamples];
+        }
+
+        public int getNumberOfSamples() {
+            return clones.length;
+        }
+
+        void add(Overlap other) {
+            for (int i = 0; i < clones.length; i++) {
+                uniqueClones[i] += other.uniqueClones[i];
+                uniqueReads[i] += other.uniqueReads[i];
+                for (int j = 0; j < clones.length; j++) {
+                    sharedClones[i][j] += other.sharedClones[i][j];
+                    sharedReads[i][j] += other.sharedReads[i][j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Clonotype present in several samples
+     */
+    public static final class SharedClonotype {
+        static final Comparator<SharedClonotype> FINGERPRINT_COMPARATOR = new Comparator<SharedClonotype>() {
+            @Override
+            public int compare(SharedClonotype o1, SharedClonotype o2) {
+                // Unsigned comparison, consistent with the order of partitions
+                return Long.compare(o1.fingerprint + Long.MIN_VALUE, o2.fingerprint + Long.MIN_VALUE);
+            }
+        };
+
+        final long fingerprint;
+        /**
+         * Clonal sequence
+         */
+        public final NucleotideSequence[] clonalSequence;
+        /**
+         * Best genes of the clone from the first sample where the clonotype is present
+         */
+        public final String v, j, c;
+        /**
+         * Clone counts in each sample (0 if absent)
+         */
+        public final long[] counts;
+        /**
+         * Clone ids in each sample (-1 if absent)
+         */
+        public final int[] cloneIds;
+
+        SharedClonotype(long fingerprint, NucleotideSequence[] clonalSequence, String v, String j, String c,
+                        long[] counts, int[] cloneIds) {
+            this.fingerprint = fingerprint;
+            this.clonalSequence = clonalSequence;
+            this.v = v;
+            this.j = j;
+            this.c = c;
+            this.counts = counts;
+            this.cloneIds = cloneIds;
+        }
+
+        public int getNumberOfSamples() {
+            int result = 0;
+            for (int id : cloneIds)
+                if (id != -1)
+                    ++result;
+            return result;
+        }
+    }
+
+    /**
+     * Thrown if two clones from the same sample have equal keys (e.g. clones were assembled with separation by
+     * V/J/C genes, and the genes are not included into the key)
+     */
+    public static final class DuplicateKeyException extends IllegalArgumentException {
+        public final int sample;
+        /**
+         * Gene type which distinguishes clones with the same key (null if clones have the same best genes)
+         */
+        public final GeneType differentGene;
+
+        DuplicateKeyException(int sample, Entry first, Entry second) {
+            super("Clones " + first.cloneId + " and " + second.cloneId + " of sample " + sample +
+                    " have the same key.");
+            this.sample = sample;
+            this.differentGene = !Objects.equals(first.c, second.c) ? GeneType.Constant :
+                    !Objects.equals(first.j, second.j) ? GeneType.Joining :
+                            !Objects.equals(first.v, second.v) ? GeneType.Variable : null;
+        }
+    }
+
+    static final class Entry {
+        final int sample, cloneId;
+        final long count;
+        final NucleotideSequence[] clonalSequence;
+        final String v, j, c;
+        long fingerprint;
+
+        Entry(int sample, int cloneId, long count, NucleotideSequence[] clonalSequence,
+              String v, String j, String c) {
+            this.sample = sample;
+            this.cloneId = cloneId;
+            this.count = count;
+            this.clonalSequence = clonalSequence;
+            this.v = v;
+            this.j = j;
+            this.c = c;
+        }
+
+        void write(PrimitivO output) {
+            // Marks next entry (false marks end of partition)
+            output.writeBoolean(true);
+            output.writeLong(fingerprint);
+            output.writeVarInt(sample);
+            output.writeVarInt(cloneId);
+            output.writeLong(count);
+            output.writeVarInt(clonalSequence.length);
+            for (NucleotideSequence sequence : clonalSequence)
+                output.writeObject(sequence);
+            writeGene(output, v);
+            writeGene(output, j);
+            writeGene(output, c);
+        }
+
+        static Entry read(PrimitivI input) {
+            long fingerprint = input.readLong();
+            int sample = input.readVarInt();
+            int cloneId = input.readVarInt();
+            long count = input.readLong();
+            NucleotideSequence[] clonalSequence = new NucleotideSequence[input.readVarInt()];
+            for (int i = 0; i < clonalSequence.length; i++)
+                clonalSequence[i] = input.readObject(NucleotideSequence.class);
+            Entry entry = new Entry(sample, cloneId, count, clonalSequence,
+                    readGene(input), readGene(input), readGene(input));
+            entry.fingerprint = fingerprint;
+            return entry;
+        }
+
+        static void writeGene(PrimitivO output, String gene) {
+            output.writeUTF(gene == null ? "" : gene);
+        }
+
+        static String readGene(PrimitivI input) {
+            String gene = input.readUTF();
+            return gene.isEmpty() ? null : gene;
+        }
+    }
+
+    static final class Group {
+        final Entry[] entries;
+        final Group next;
+
+        Group(int numberOfSamples, Group next) {
+            this.entries = new Entry[numberOfSamples];
+            this.next = next;
+        }
+
+        Entry first() {
+            for (Entry entry : entries)
+                if (entry != null)
+                    return entry;
+            throw new IllegalStateException();
+        }
+    }
+
+    static final class PartitionResult {
+        final Overlap overlap;
+        final List<SharedClonotype> shared = new ArrayList<>();
+
+        PartitionResult(int numberOfSamples) {
+            this.overlap = new Overlap(numberOfSamples);
+        }
+
+        void add(Group group, int minSamples) {
+            Entry[] entries = group.entries;
+            int present = 0;
+            for (Entry entry : entries)
+                if (entry != null)
+                    ++present;
+
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] == null)
+                    continue;
+                if (present == 1) {
+                    ++overlap.uniqueClones[i];
+                    overlap.uniqueReads[i] += entries[i].count;
+                }
+                for (int j = 0; j < entries.length; j++)
+                    if (entries[j] != null) {
+                        ++overlap.sharedClones[i][j];
+                        overlap.sharedReads[i][j] += entries[i].count;
+                    }
+            }
+
+            if (present < minSamples)
+                return;
+
+            Entry first = group.first();
+            long[] counts = new long[entries.length];
+            int[] cloneIds = new int[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                counts[i] = entries[i] == null ? 0 : entries[i].count;
+                cloneIds[i] = entries[i] == null ? -1 : entries[i].cloneId;
+            }
+            shared.add(new SharedClonotype(first.fingerprint, first.clonalSequence, first.v, first.j, first.c,
+                    counts, cloneIds));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import java.util.Arrays;
+
+/**
+ * Pure-Java implementation of LZ4 block format (greedy single-pass matching with 4-byte hash table). Blocks must not
+ * be larger than {@link #MAX_DISTANCE} + 1 bytes, so that every match offset fits into 16 bits.
+ */
+public final class LZ4Block {
+    static final int MIN_MATCH = 4;
+    static final int LAST_LITERALS = 5;
+    static final int MF_LIMIT = 12;
+    static final int SKIP_TRIGGER = 6;
+    static final int HASH_LOG = 14;
+    static final int RUN_MASK = 15;
+    public static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+    public static final int MAX_DISTANCE = 65535;
+
+    private LZ4Block() {
+    }
+
+    /**
+     * Returns maximal size of compressed data for the input of given size
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    static int readInt(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | ((buf[i + 1] & 0xFF) << 8) | ((buf[i + 2] & 0xFF) << 16) | (buf[i + 3] << 24);
+    }
+
+    static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    static int writeLength(byte[] dest, int dOff, int length) {
+        while (length >= 255) {
+            dest[dOff++] = (byte) 255;
+            length -= 255;
+        }
+        dest[dOff++] = (byte) length;
+        return dOff;
+    }
+
+    /**
+     * Writes literals followed by match (if matchLength != 0) and returns new position in dest
+     */
+    static int writeSequence(byte[] dest, int dOff, byte[] src, int anchor, int literals, int offset,
+                             int matchLength) {
+        int tokenOff = dOff++;
+        int token;
+        if (literals >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            dOff = writeLength(dest, dOff, literals - RUN_MASK);
+        } else
+            token = literals << 4;
+        System.arraycopy(src, anchor, dest, dOff, literals);
+        dOff += literals;
+        if (matchLength != 0) {
+            dest[dOff++] = (byte) offset;
+            dest[dOff++] = (byte) (offset >>> 8);
+            int length = matchLength - MIN_MATCH;
+            if (length >= RUN_MASK) {
+                token |= RUN_MASK;
+                dOff = writeLength(dest, dOff, length - RUN_MASK);
+            } else
+                token |= length;
+        }
+        dest[tokenOff] = (byte) token;
+        return dOff;
+    }
+
+    /**
+     * Compresses srcLen bytes from src starting at srcOff into dest starting at destOff.
+     *
+     * @param hashTable array of {@link #HASH_TABLE_SIZE} ints (reused between calls to avoid allocation)
+     * @return size of compressed data; dest must have at least {@link #maxCompressedLength(int)} bytes available
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int[] hashTable) {
+        if (srcLen > MAX_DISTANCE + 1)
+            throw new IllegalArgumentException("Block is too large.");
+
+        int srcEnd = srcOff + srcLen, matchLimit = srcEnd - LAST_LITERALS, mfLimit = srcEnd - MF_LIMIT;
+        int dOff = destOff, anchor = srcOff;
+
+        if (srcLen > MF_LIMIT) {
+            Arrays.fill(hashTable, -1);
+            hashTable[hash(readInt(src, srcOff))] = srcOff;
+            int sOff = srcOff + 1;
+            main:
+            while (true) {
+                // Searching for the next match
+                int ref, step = 1, searchCount = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (sOff > mfLimit)
+                        break main;
+                    int h = hash(readInt(src, sOff));
+                    ref = hashTable[h];
+                    hashTable[h] = sOff;
+                    if (ref >= 0 && sOff - ref <= MAX_DISTANCE && readInt(src, ref) == readInt(src, sOff))
+                        break;
+                    sOff += step;
+                    step = searchCount++ >>> SKIP_TRIGGER;
+                }
+
+                // Extending match in both directions
+                while (sOff > anchor && ref > srcOff && src[sOff - 1] == src[ref - 1]) {
+                    --sOff;
+                    --ref;
+                }
+                int matchLength = MIN_MATCH;
+                while (sOff + matchLength < matchLimit && src[sOff + matchLength] == src[ref + matchLength])
+                    ++matchLength;
+
+                dOff = writeSequence(dest, dOff, src, anchor, sOff - anchor, sOff - ref, matchLength);
+                sOff += matchLength;
+                anchor = sOff;
+                if (sOff > mfLimit)
+                    break;
+                hashTable[hash(readInt(src, sOff - 2))] = sOff - 2;
+            }
+        }
+
+        // Last literals
+        return writeSequence(dest, dOff, src, anchor, srcEnd - anchor, 0, 0) - destOff;
+    }
+
+    /**
+     * Decompresses srcLen bytes of compressed data from src starting at srcOff into dest starting at destOff.
+     *
+     * @param destLen expected size of decompressed data
+     * @throws IllegalArgumentException if data is corrupted
+     */
+    public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) {
+        int sOff = srcOff, sEnd = srcOff + srcLen, dOff = destOff, dEnd = destOff + destLen;
+        while (true) {
+            if (sOff >= sEnd)
+                throw corrupted();
+            int token = src[sOff++] & 0xFF;
+
+            // Literals
+            int literals = token >>> 4;
+            if (literals == RUN_MASK) {
+                int b;
+                do {
+                    if (sOff >= sEnd)
+                        throw corrupted();
+                    b = src[sOff++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > sEnd - sOff || literals > dEnd - dOff)
+                throw corrupted();
+            System.arraycopy(src, sOff, dest, dOff, literals);
+            sOff += literals;
+            dOff += literals;
+            if (sOff == sEnd)
+                break;
+
+            // Match
+            if (sEnd - sOff < 2)
+                throw corrupted();
+            int offset = (src[sOff] & 0xFF) | ((src[sOff + 1] & 0xFF) << 8);
+            sOff += 2;
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int b;
+                do {
+                    if (sOff >= sEnd)
+                        throw corrupted();
+                    b = src[sOff++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = dOff - offset;
+            if (offset == 0 || ref < destOff || matchLength > dEnd - dOff)
+                throw corrupted();
+            if (offset >= matchLength)
+                System.arraycopy(dest, ref, dest, dOff, matchLength);
+            else
+                // Overlapping match repeats last offset bytes
+                for (int i = 0; i < matchLength; i++)
+                    dest[dOff + i] = dest[ref + i];
+            dOff += matchLength;
+        }
+        if (dOff != dEnd)
+            throw corrupted();
+    }
+
+    static IllegalArgumentException corrupted() {
+        return new IllegalArgumentException("Corrupted LZ4 block.");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static com.milaboratory.mixcr.util.LZ4BlockOutputStream.*;
+
+/**
+ * Reads data written by {@link LZ4BlockOutputStream}.
+ */
+public final class LZ4BlockInputStream extends InputStream {
+    final DataInputStream input;
+    final byte[] buffer = new byte[BLOCK_SIZE];
+    final byte[] compressed = new byte[LZ4Block.maxCompressedLength(BLOCK_SIZE)];
+    int position = 0, limit = 0;
+    boolean finished = false;
+
+    public LZ4BlockInputStream(InputStream input) throws IOException {
+        this.input = new DataInputStream(input);
+        byte[] header = new byte[MAGIC.length + 1];
+        this.input.readFully(header);
+        if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC))
+            throw new IOException("Not an LZ4 block stream.");
+        if (header[MAGIC.length] != VERSION)
+            throw new IOException("Unsupported LZ4 block stream version " + header[MAGIC.length] + ".");
+    }
+
+    /**
+     * Checks whether stream starts with {@link LZ4BlockOutputStream#MAGIC} (stream position is not changed, so
+     * stream must support mark)
+     */
+    public static boolean hasMagic(InputStream input) throws IOException {
+        input.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC)
+                if (input.read() != (b & 0xFF))
+                    return false;
+            return true;
+        } finally {
+            input.reset();
+        }
+    }
+
+    boolean nextBlock() throws IOException {
+        if (finished)
+            return false;
+        int length = input.readInt();
+        if (length == 0) {
+            finished = true;
+            return false;
+        }
+        int compressedLength = input.readInt();
+        if (length < 0 || length > BLOCK_SIZE)
+            throw new IOException("Corrupted LZ4 block stream.");
+        if ((compressedLength & STORED_FLAG) != 0) {
+            if ((compressedLength & ~STORED_FLAG) != length)
+                throw new IOException("Corrupted LZ4 block stream.");
+            input.readFully(buffer, 0, length);
+        } else {
+            if (compressedLength < 0 || compressedLength > compressed.length)
+                throw new IOException("Corrupted LZ4 block stream.");
+            input.readFully(compressed, 0, compressedLength);
+            try {
+                LZ4Block.decompress(compressed, 0, compressedLength, buffer, 0, length);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        position = 0;
+        limit = length;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !nextBlock())
+            return -1;
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position == limit && !nextBlock())
+            return -1;
+        int l = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, l);
+        position += l;
+        return l;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
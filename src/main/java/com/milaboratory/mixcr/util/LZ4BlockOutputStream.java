@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses data with {@link LZ4Block} codec. Stream format:
+ *
+ * <ul> <li>{@link #MAGIC} bytes followed by format version byte</li> <li>blocks of at most {@link #BLOCK_SIZE} bytes,
+ * each prefixed by two big-endian ints: size of uncompressed data and size of compressed data (highest bit of the
+ * latter is set if block is stored uncompressed)</li> <li>zero int as end-of-stream marker</li> </ul>
+ */
+public final class LZ4BlockOutputStream extends OutputStream {
+    public static final byte[] MAGIC = {'M', 'L', 'Z', '4'};
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = LZ4Block.MAX_DISTANCE + 1;
+    static final int STORED_FLAG = 0x80000000;
+
+    final OutputStream output;
+    final byte[] buffer = new byte[BLOCK_SIZE];
+    final byte[] compressed = new byte[8 + LZ4Block.maxCompressedLength(BLOCK_SIZE)];
+    final int[] hashTable = new int[LZ4Block.HASH_TABLE_SIZE];
+    int position = 0;
+    boolean closed = false;
+
+    public LZ4BlockOutputStream(OutputStream output) throws IOException {
+        this.output = output;
+        output.write(MAGIC);
+        output.write(VERSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == BLOCK_SIZE)
+            flushBlock();
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (position == BLOCK_SIZE)
+                flushBlock();
+            int l = Math.min(len, BLOCK_SIZE - position);
+            System.arraycopy(b, off, buffer, position, l);
+            position += l;
+            off += l;
+            len -= l;
+        }
+    }
+
+    void flushBlock() throws IOException {
+        if (position == 0)
+            return;
+        int length = LZ4Block.compress(buffer, 0, position, compressed, 8, hashTable);
+        writeInt(compressed, 0, position);
+        if (length < position) {
+            writeInt(compressed, 4, length);
+            output.write(compressed, 0, 8 + length);
+        } else {
+            writeInt(compressed, 4, position | STORED_FLAG);
+            output.write(compressed, 0, 8);
+            output.write(buffer, 0, position);
+        }
+        position = 0;
+    }
+
+    static void writeInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBlock();
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        flushBlock();
+        writeInt(compressed, 0, 0);
+        output.write(compressed, 0, 4);
+        output.close();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import com.milaboratory.core.sequence.*;
+import com.milaboratory.util.HashFunctions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads records of uncompressed .fastq or .fasta file directly from memory mapped file. Record boundaries are
+ * searched in the mapped buffer and sequences with qualities are built from the bytes of the buffer without
+ * intermediate strings. Descriptions are materialized only if requested. Wildcards in sequences are replaced by
+ * basic letters chosen deterministically from file offset of the record and position in sequence (so the same letters
+ * are chosen whichever read id is assigned to the record), quality of such positions is set to {@link
+ * SequenceQuality#BAD_QUALITY_VALUE}.
+ *
+ * <p>Files larger than 1Gb are mapped by consecutive windows, so single record should not exceed window size.</p>
+ */
+public final class MappedSequenceFile implements Closeable {
+    static final long MAX_WINDOW = 1L << 30;
+    /**
+     * Number of records used to detect quality format
+     */
+    static final int QUALITY_FORMAT_SAMPLE = 1000;
+    static final byte WILDCARD = -1, WRONG = -2;
+    /**
+     * Code of nucleotide by letter ({@link #WILDCARD} for wildcards, {@link #WRONG} for wrong symbols)
+     */
+    static final byte[] CODES = new byte[256];
+    /**
+     * Basic codes matching wildcard by letter
+     */
+    static final byte[][] WILDCARD_CODES = new byte[256][];
+
+    static {
+        Arrays.fill(CODES, WRONG);
+        for (char letter : "ACGT".toCharArray())
+            putCode(letter, NucleotideSequence.ALPHABET.symbolToCode(letter));
+        String[] wildcards = {"NACGT", "RAG", "YCT", "SCG", "WAT", "KGT", "MAC", "BCGT", "DAGT", "HACT", "VACG"};
+        for (String wildcard : wildcards) {
+            byte[] codes = new byte[wildcard.length() - 1];
+            for (int i = 0; i < codes.length; i++)
+                codes[i] = NucleotideSequence.ALPHABET.symbolToCode(wildcard.charAt(i + 1));
+            putCode(wildcard.charAt(0), WILDCARD);
+            WILDCARD_CODES[wildcard.charAt(0)] = WILDCARD_CODES[Character.toLowerCase(wildcard.charAt(0))] = codes;
+        }
+    }
+
+    private static void putCode(char letter, byte code) {
+        CODES[letter] = CODES[Character.toLowerCase(letter)] = code;
+    }
+
+    final long maxWindow;
+    final FileChannel channel;
+    final long size;
+    final boolean fasta;
+    final boolean descriptions;
+    final int qualityOffset;
+    /**
+     * Current window and file offset of its first byte
+     */
+    MappedByteBuffer buffer;
+    long bufferOffset;
+    /**
+     * File offset of the next record
+     */
+    long position = 0;
+    /**
+     * Position of the last record in file
+     */
+    long recordOffset = -1;
+    int recordLength = 0;
+
+    public MappedSequenceFile(File file, boolean descriptions) throws IOException {
+        this(file, isFasta(file.getName()), descriptions, MAX_WINDOW);
+    }
+
+    MappedSequenceFile(File file, boolean fasta, boolean descriptions, long maxWindow) throws IOException {
+        this.maxWindow = maxWindow;
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.size = channel.size();
+        this.fasta = fasta;
+        this.descriptions = descriptions;
+        map(0);
+        this.qualityOffset = fasta ? 0 : guessQualityOffset();
+    }
+
+    public static boolean isFasta(String fileName) {
+        return fileName.endsWith(".fasta");
+    }
+
+    private void map(long offset) throws IOException {
+        bufferOffset = offset;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(maxWindow, size - offset));
+    }
+
+    private boolean isLastWindow() {
+        return bufferOffset + buffer.limit() == size;
+    }
+
+    /**
+     * Returns next read with specified id or null if there are no more records in file
+     */
+    public SingleRead take(long id) {
+        try {
+            while (true) {
+                int limit = buffer.limit(), p = (int) (position - bufferOffset);
+                // skipping empty lines
+                while (p < limit && (buffer.get(p) == '\n' || buffer.get(p) == '\r'))
+                    ++p;
+                position = bufferOffset + p;
+                if (position == size)
+                    return null;
+                if (p < limit) {
+                    SingleRead read = fasta ? parseFasta(p, id) : parseFastq(p, id);
+                    if (read != null)
+                        return read;
+                    if (position == bufferOffset)
+                        throw new IllegalArgumentException("Record at " + position + " is longer than "
+                                + maxWindow + " bytes.");
+                }
+                // record does not fit into current window
+                map(position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads record starting at specified file offset (current window is reused if it contains the offset, so records
+     * requested in ascending order are read sequentially)
+     */
+    public SingleRead read(long offset, long id) {
+        if (offset < 0 || offset >= size)
+            throw new IllegalArgumentException("Wrong record offset: " + offset);
+        try {
+            if (offset < bufferOffset || offset >= bufferOffset + buffer.limit())
+                map(offset);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        position = offset;
+        return take(id);
+    }
+
+    /**
+     * Returns position of '\n' terminating line starting at specified position, end of window if it is the last line
+     * of file, or -1 if line does not fit into current window
+     */
+    private int lineEnd(int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; ++i)
+            if (buffer.get(i) == '\n')
+                return i;
+        return isLastWindow() ? limit : -1;
+    }
+
+    /**
+     * Excludes trailing '\r' from the line
+     */
+    private int trim(int from, int to) {
+        return to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+
+    private SingleRead parseFastq(int p, long id) {
+        int limit = buffer.limit();
+        if (buffer.get(p) != '@')
+            throw formatError(p, "'@' expected");
+        int descriptionEnd = lineEnd(p + 1);
+        if (descriptionEnd < 0)
+            return null;
+        int sequenceStart = descriptionEnd + 1, sequenceEnd = lineEnd(sequenceStart);
+        if (sequenceEnd < 0)
+            return null;
+        int plusStart = sequenceEnd + 1;
+        if (plusStart >= limit && !isLastWindow())
+            return null;
+        if (plusStart >= limit || buffer.get(plusStart) != '+')
+            throw formatError(p, "'+' expected");
+        int plusEnd = lineEnd(plusStart), qualityStart = plusEnd + 1;
+        if (plusEnd < 0 || (qualityStart >= limit && !isLastWindow()))
+            return null;
+        int qualityEnd = lineEnd(qualityStart);
+        if (qualityEnd < 0)
+            return null;
+        int length = trim(sequenceStart, sequenceEnd) - sequenceStart;
+        if (qualityStart > limit || trim(qualityStart, qualityEnd) - qualityStart != length)
+            throw formatError(p, "sequence and quality lengths are different");
+
+        SequenceBuilder<NucleotideSequence> sequence = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(length);
+        SequenceQualityBuilder quality = new SequenceQualityBuilder().ensureCapacity(length);
+        for (int i = 0; i < length; ++i) {
+            byte q = (byte) (buffer.get(qualityStart + i) - qualityOffset);
+            if (q < 0)
+                throw formatError(p, "wrong quality value");
+            if (appendNucleotide(sequence, buffer.get(sequenceStart + i), i, p))
+                quality.append(q);
+            else
+                quality.append(SequenceQuality.BAD_QUALITY_VALUE);
+        }
+
+        return createRead(id, p, Math.min(qualityEnd + 1, limit), descriptionEnd,
+                new NSequenceWithQuality(sequence.createAndDestroy(), quality.createAndDestroy()));
+    }
+
+    private SingleRead parseFasta(int p, long id) {
+        int limit = buffer.limit();
+        if (buffer.get(p) != '>')
+            throw formatError(p, "'>' expected");
+        int descriptionEnd = lineEnd(p + 1);
+        if (descriptionEnd < 0)
+            return null;
+        // sequence may occupy several lines
+        int end = descriptionEnd + 1;
+        while (true) {
+            if (end >= limit) {
+                if (!isLastWindow())
+                    return null;
+                end = limit;
+                break;
+            }
+            if (buffer.get(end) == '>')
+                break;
+            int lineEnd = lineEnd(end);
+            if (lineEnd < 0)
+                return null;
+            end = lineEnd + 1;
+        }
+
+        SequenceBuilder<NucleotideSequence> sequence = NucleotideSequence.ALPHABET.createBuilder()
+                .ensureCapacity(end - descriptionEnd);
+        SequenceQualityBuilder quality = new SequenceQualityBuilder().ensureCapacity(end - descriptionEnd);
+        for (int i = descriptionEnd + 1; i < end; ++i) {
+            byte letter = buffer.get(i);
+            if (letter == '\n' || letter == '\r')
+                continue;
+            if (appendNucleotide(sequence, letter, sequence.size(), p))
+                quality.append(SequenceQuality.GOOD_QUALITY_VALUE);
+            else
+                quality.append(SequenceQuality.BAD_QUALITY_VALUE);
+        }
+
+        return createRead(id, p, end, descriptionEnd,
+                new NSequenceWithQuality(sequence.createAndDestroy(), quality.createAndDestroy()));
+    }
+
+    /**
+     * Appends nucleotide and returns false if it was a wildcard replaced with a basic letter
+     */
+    private boolean appendNucleotide(SequenceBuilder<NucleotideSequence> sequence, byte letter,
+                                     int position, int recordStart) {
+        byte code = CODES[letter & 0xFF];
+        if (code >= 0) {
+            sequence.append(code);
+            return true;
+        }
+        if (code == WRONG)
+            throw formatError(recordStart, "wrong nucleotide '" + (char) (letter & 0xFF) + "'");
+        byte[] codes = WILDCARD_CODES[letter & 0xFF];
+        long hash = HashFunctions.JenkinWang64shift((bufferOffset + recordStart) * 1021 + position);
+        sequence.append(codes[(int) ((hash >>> 1) % codes.length)]);
+        return false;
+    }
+
+    private SingleRead createRead(long id, int start, int end, int descriptionEnd, NSequenceWithQuality data) {
+        recordOffset = bufferOffset + start;
+        recordLength = end - start;
+        position = bufferOffset + end;
+        String description = null;
+        if (descriptions) {
+            byte[] bytes = new byte[trim(start + 1, descriptionEnd) - start - 1];
+            for (int i = 0; i < bytes.length; ++i)
+                bytes[i] = buffer.get(start + 1 + i);
+            description = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        return new SingleReadImpl(id, data, description);
+    }
+
+    private IllegalArgumentException formatError(int recordStart, String message) {
+        return new IllegalArgumentException("Wrong format of record at " + (bufferOffset + recordStart) + ": " + message);
+    }
+
+    /**
+     * Phred+64 is used only if all qualities in first records are encoded by characters not lower than '@' and some
+     * of them are higher than 'J' (the highest character of Phred+33 encoding used by Illumina)
+     */
+    private int guessQualityOffset() {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        int limit = buffer.limit(), line = 0;
+        for (int p = 0, records = 0; p < limit && records < QUALITY_FORMAT_SAMPLE; ++line) {
+            int end = lineEnd(p);
+            if (end < 0)
+                break;
+            if (line % 4 == 3) {
+                for (int i = p, to = trim(p, end); i < to; ++i) {
+                    min = Math.min(min, buffer.get(i));
+                    max = Math.max(max, buffer.get(i));
+                }
+                ++records;
+            }
+            p = end + 1;
+        }
+        return min >= '@' && max > 'J' ? 64 : 33;
+    }
+
+    /**
+     * Returns file offset of the last record returned by {@link #take(long)}
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Returns length in bytes of the last record returned by {@link #take(long)}
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+}
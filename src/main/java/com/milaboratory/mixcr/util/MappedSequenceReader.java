@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SequenceRead;
+import com.milaboratory.core.io.sequence.SequenceReaderCloseable;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.mixcr.basictypes.OriginalReadReference;
+import com.milaboratory.util.CanReportProgress;
+import com.milaboratory.util.HashFunctions;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reader of single or paired-end reads from uncompressed .fastq / .fasta files based on {@link MappedSequenceFile}.
+ */
+public final class MappedSequenceReader<R extends SequenceRead> implements SequenceReaderCloseable<R>, CanReportProgress {
+    final MappedSequenceFile[] files;
+    /**
+     * Positions of taken records by read id, collected only if enabled
+     */
+    TLongObjectHashMap<OriginalReadReference[]> references = null;
+    /**
+     * Hashes of positions of taken records by read id, collected only if enabled
+     */
+    TLongLongHashMap positionHashes = null;
+    volatile long id = 0;
+    volatile boolean finished = false;
+
+    private MappedSequenceReader(MappedSequenceFile... files) {
+        this.files = files;
+    }
+
+    /**
+     * @param descriptions whether to materialize read descriptions
+     */
+    public static MappedSequenceReader<SingleRead> single(File file, boolean descriptions) throws IOException {
+        return new MappedSequenceReader<>(new MappedSequenceFile(file, descriptions));
+    }
+
+    /**
+     * @param descriptions whether to materialize read descriptions
+     */
+    public static MappedSequenceReader<PairedRead> paired(File file1, File file2, boolean descriptions) throws IOException {
+        MappedSequenceFile r1 = new MappedSequenceFile(file1, descriptions);
+        try {
+            return new MappedSequenceReader<>(r1, new MappedSequenceFile(file2, descriptions));
+        } catch (IOException | RuntimeException e) {
+            r1.close();
+            throw e;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized R take() {
+        if (finished)
+            return null;
+        SingleRead r1 = files[0].take(id);
+        if (files.length == 1) {
+            if (r1 == null) {
+                finished = true;
+                return null;
+            }
+            saveReferences();
+            savePositionHash();
+            ++id;
+            return (R) r1;
+        }
+        SingleRead r2 = files[1].take(id);
+        if ((r1 == null) != (r2 == null))
+            throw new IllegalArgumentException("Different number of reads in R1 and R2 files.");
+        if (r1 == null) {
+            finished = true;
+            return null;
+        }
+        saveReferences();
+        savePositionHash();
+        ++id;
+        return (R) new PairedRead(r1, r2);
+    }
+
+    /**
+     * Enables collection of positions of records, positions of each read should then be retrieved with {@link
+     * #pollReferences(long)}
+     */
+    public synchronized void enableReferences() {
+        if (references == null)
+            references = new TLongObjectHashMap<>();
+    }
+
+    private void saveReferences() {
+        if (references == null)
+            return;
+        OriginalReadReference[] refs = new OriginalReadReference[files.length];
+        for (int i = 0; i < files.length; i++)
+            refs[i] = new OriginalReadReference(i, files[i].getRecordOffset(), files[i].getRecordLength());
+        references.put(id, refs);
+    }
+
+    /**
+     * Returns and forgets positions of records of read with specified id
+     */
+    public synchronized OriginalReadReference[] pollReferences(long readId) {
+        return references == null ? null : references.remove(readId);
+    }
+
+    /**
+     * Enables collection of hashes of record positions (used to seed aligner without materialized descriptions),
+     * hash of each read should then be retrieved with {@link #pollPositionHash(long)}
+     */
+    public synchronized void enablePositionHashes() {
+        if (positionHashes == null)
+            positionHashes = new TLongLongHashMap();
+    }
+
+    private void savePositionHash() {
+        if (positionHashes == null)
+            return;
+        long hash = 1;
+        for (MappedSequenceFile file : files)
+            hash = 31 * hash + HashFunctions.JenkinWang64shift(file.getRecordOffset());
+        positionHashes.put(id, hash);
+    }
+
+    /**
+     * Returns and forgets hash of positions of records of read with specified id
+     */
+    public synchronized long pollPositionHash(long readId) {
+        return positionHashes.remove(readId);
+    }
+
+    @Override
+    public long getNumberOfReads() {
+        return id;
+    }
+
+    @Override
+    public double getProgress() {
+        if (finished)
+            return 1.0;
+        double progress = 0;
+        for (MappedSequenceFile file : files)
+            progress += file.getSize() == 0 ? 1.0 : 1.0 * file.getPosition() / file.getSize();
+        return progress / files.length;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        for (MappedSequenceFile file : files)
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SequenceRead;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.mixcr.basictypes.OriginalReadReference;
+import com.milaboratory.mixcr.basictypes.OriginalReadsSource;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fetches original reads referenced from alignments (see {@link VDJCAlignments#getOriginalReadReferences()}) from
+ * their source files. Source files are memory mapped, so reads requested in the order of their positions (e.g. in the
+ * order of alignments in .vdjca file) are read sequentially, and other requests only touch pages containing requested
+ * records.
+ */
+public final class OriginalReadsFetcher implements AutoCloseable {
+    final MappedSequenceFile[] files;
+
+    /**
+     * @param sources source files listed in the header of .vdjca file
+     * @throws IllegalArgumentException if any of source files is absent or was modified
+     */
+    public OriginalReadsFetcher(List<OriginalReadsSource> sources) throws IOException {
+        this.files = new MappedSequenceFile[sources.size()];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                sources.get(i).check();
+                files[i] = new MappedSequenceFile(new File(sources.get(i).getPath()), true);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns original read of alignments (wildcards are replaced by the same letters as during alignment, as they
+     * are chosen by record offset in file)
+     */
+    public SequenceRead fetch(VDJCAlignments alignments) {
+        OriginalReadReference[] references = alignments.getOriginalReadReferences();
+        if (references == null)
+            throw new IllegalArgumentException("Alignments don't contain references to original reads.");
+        SingleRead[] reads = new SingleRead[references.length];
+        for (int i = 0; i < references.length; i++)
+            reads[i] = fetch(references[i], alignments.getReadId());
+        if (reads.length == 1)
+            return reads[0];
+        if (reads.length == 2)
+            return new PairedRead(reads[0], reads[1]);
+        throw new IllegalArgumentException();
+    }
+
+    public synchronized SingleRead fetch(OriginalReadReference reference, long readId) {
+        if (reference.getFileId() >= files.length)
+            throw new IllegalArgumentException("Wrong reference to original read: " + reference);
+        MappedSequenceFile file = files[reference.getFileId()];
+        SingleRead read = file.read(reference.getOffset(), readId);
+        if (read == null || file.getRecordOffset() != reference.getOffset()
+                || file.getRecordLength() != reference.getLength())
+            throw new IllegalArgumentException("Wrong reference to original read: " + reference);
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedSequenceFile file : files)
+            if (file != null)
+                file.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import cc.redberry.pipe.OutputPortCloseable;
+import cc.redberry.pipe.Processor;
+import cc.redberry.pipe.blocks.ParallelProcessor;
+import cc.redberry.pipe.util.Indexer;
+import cc.redberry.pipe.util.OrderedOutputPort;
+import cc.redberry.primitives.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Port returning objects from the source port accepted by the filter. Filter is evaluated concurrently in several
+ * threads, so it must be thread-safe; the order of objects is preserved. If consumer stops before the end of the
+ * source, {@link #close()} must be invoked to release worker threads (the source port itself is not closed).
+ */
+public final class ParallelFilteringPort<T> implements OutputPortCloseable<T> {
+    static final int BLOCK_SIZE = 256;
+    final OutputPort<Block<T>> filtered;
+    volatile boolean stopped = false;
+    Iterator<T> current = Collections.emptyIterator();
+
+    public ParallelFilteringPort(final OutputPort<? extends T> source, final Filter<? super T> filter, int threads) {
+        OutputPort<Block<T>> blocks = CUtils.buffered(new OutputPort<Block<T>>() {
+            long index = 0;
+
+            @Override
+            public synchronized Block<T> take() {
+                if (stopped)
+                    return null;
+                List<T> objects = new ArrayList<>(BLOCK_SIZE);
+                T t;
+                while (objects.size() < BLOCK_SIZE && (t = source.take()) != null)
+                    objects.add(t);
+                if (objects.isEmpty())
+                    return null;
+                return new Block<>(index++, objects);
+            }
+        }, 4 * threads);
+        OutputPort<Block<T>> processed = new ParallelProcessor<>(blocks, new Processor<Block<T>, Block<T>>() {
+            @Override
+            public Block<T> process(Block<T> block) {
+                List<T> accepted = new ArrayList<>(block.objects.size());
+                for (T t : block.objects)
+                    if (filter.accept(t))
+                        accepted.add(t);
+                return new Block<>(block.index, accepted);
+            }
+        }, threads);
+        this.filtered = new OrderedOutputPort<>(processed, new Indexer<Block<T>>() {
+            @Override
+            public long getIndex(Block<T> o) {
+                return o.index;
+            }
+        });
+    }
+
+    @Override
+    public T take() {
+        while (!current.hasNext()) {
+            Block<T> block = filtered.take();
+            if (block == null)
+                return null;
+            current = block.objects.iterator();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        // draining blocks already submitted to workers
+        while (filtered.take() != null) ;
+        current = Collections.emptyIterator();
+    }
+
+    private static final class Block<T> {
+        final long index;
+        final List<T> objects;
+
+        Block(long index, List<T> objects) {
+            this.index = index;
+            this.objects = objects;
+        }
+    }
+}
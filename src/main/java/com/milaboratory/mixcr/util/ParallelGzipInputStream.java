@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.util.CanReportProgress;
+import com.milaboratory.util.CountingInputStream;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses gzip file in background thread(s), so that the thread reading from this stream only parses data. Files
+ * in BGZF format (gzip with independent blocks of known size, as produced by bgzip) are decompressed in several
+ * threads, other gzip files (including multi-member ones) are decompressed by a single dedicated thread.
+ *
+ * <p>Decompressed data is passed to the reading thread in chunks via a bounded queue, so at most a few megabytes are
+ * decompressed ahead. Records are still parsed by the thread reading from this stream. If decompression fails, all
+ * background work is cancelled and the error is thrown by this and all subsequent reads.</p>
+ *
+ * <p>Like other input streams, instances should be read from a single thread.</p>
+ */
+public final class ParallelGzipInputStream extends InputStream implements CanReportProgress {
+    static final int CHUNK_SIZE = 1 << 18;
+    static final int BGZF_BLOCKS_PER_TASK = 16;
+    static final byte[] END = new byte[0];
+
+    final long size;
+    final CountingInputStream counting;
+    final BlockingQueue<Future<byte[]>> queue;
+    final ExecutorService inflaters;
+    final Thread reader;
+    byte[] chunk = null;
+    int position = 0;
+    IOException failure = null;
+    volatile boolean closed = false;
+
+    public ParallelGzipInputStream(File file, int threads) throws IOException {
+        this.size = file.length();
+        this.counting = new CountingInputStream(new FileInputStream(file));
+        final BufferedInputStream input = new BufferedInputStream(counting, CHUNK_SIZE);
+        final boolean bgzf = threads > 1 && isBGZF(input);
+        this.queue = new ArrayBlockingQueue<>(bgzf ? 4 * threads : 16);
+        this.inflaters = bgzf ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bgzf-inflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        this.reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (bgzf)
+                        readBGZF(input);
+                    else
+                        readGzip(input);
+                    queue.put(completed(END));
+                } catch (InterruptedException e) {
+                    // stream was closed
+                } catch (Throwable e) {
+                    try {
+                        queue.put(failed(e));
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        }, "gzip-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void readGzip(InputStream input) throws IOException, InterruptedException {
+        GZIPInputStream gzip = new GZIPInputStream(input, CHUNK_SIZE);
+        while (!closed) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int size = 0, read;
+            while (size < buffer.length && (read = gzip.read(buffer, size, buffer.length - size)) > 0)
+                size += read;
+            if (size == 0)
+                break;
+            queue.put(completed(size == buffer.length ? buffer : Arrays.copyOf(buffer, size)));
+        }
+    }
+
+    private void readBGZF(InputStream input) throws IOException, InterruptedException {
+        DataInputStream data = new DataInputStream(input);
+        while (!closed) {
+            final List<byte[]> blocks = new ArrayList<>(BGZF_BLOCKS_PER_TASK);
+            byte[] block;
+            while (blocks.size() < BGZF_BLOCKS_PER_TASK && (block = readBGZFBlock(data)) != null)
+                blocks.add(block);
+            if (blocks.isEmpty())
+                break;
+            // futures are queued in the order of blocks, so the order of decompressed data is preserved
+            queue.put(inflaters.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return inflateBGZF(blocks);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Reads raw BGZF block (whole gzip member), returns null at the end of stream
+     */
+    static byte[] readBGZFBlock(DataInputStream input) throws IOException {
+        byte[] header = new byte[18];
+        int read = 0, r;
+        while (read < header.length && (r = input.read(header, read, header.length - read)) > 0)
+            read += r;
+        if (read == 0)
+            return null;
+        if (read != header.length || !isBGZFHeader(header))
+            throw new IOException("Malformed BGZF block.");
+        int blockSize = ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+        byte[] block = Arrays.copyOf(header, blockSize);
+        input.readFully(block, header.length, blockSize - header.length);
+        return block;
+    }
+
+    static byte[] inflateBGZF(List<byte[]> blocks) throws IOException, DataFormatException {
+        int totalSize = 0;
+        for (byte[] block : blocks)
+            totalSize += uncompressedSize(block);
+        byte[] result = new byte[totalSize];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        try {
+            for (byte[] block : blocks) {
+                int size = uncompressedSize(block);
+                // empty block (e.g. EOF marker)
+                if (size == 0)
+                    continue;
+                inflater.reset();
+                inflater.setInput(block, 18, block.length - 18 - 8);
+                int inflated = 0, n;
+                while (inflated < size && (n = inflater.inflate(result, offset + inflated, size - inflated)) > 0)
+                    inflated += n;
+                if (inflated != size)
+                    throw new IOException("Malformed BGZF block.");
+                crc.reset();
+                crc.update(result, offset, size);
+                if ((int) crc.getValue() != readInt(block, block.length - 8))
+                    throw new IOException("CRC mismatch in BGZF block.");
+                offset += size;
+            }
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    private static int uncompressedSize(byte[] block) {
+        return readInt(block, block.length - 4);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 |
+                (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Checks if the stream starts with BGZF block, stream position is not changed
+     */
+    static boolean isBGZF(BufferedInputStream input) throws IOException {
+        byte[] header = new byte[18];
+        input.mark(header.length);
+        int read = 0, r;
+        while (read < header.length && (r = input.read(header, read, header.length - read)) > 0)
+            read += r;
+        input.reset();
+        return read == header.length && isBGZFHeader(header);
+    }
+
+    /**
+     * gzip member with FEXTRA flag and a single extra sub-field "BC" of length 2 containing block size
+     */
+    private static boolean isBGZFHeader(byte[] header) {
+        return (header[0] & 0xFF) == 31 && (header[1] & 0xFF) == 139 && header[2] == 8 && (header[3] & 4) != 0
+                && header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0;
+    }
+
+    private static Future<byte[]> completed(byte[] data) {
+        FutureTask<byte[]> future = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, data);
+        future.run();
+        return future;
+    }
+
+    private static Future<byte[]> failed(final Throwable e) {
+        FutureTask<byte[]> future = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                throw e instanceof Exception ? (Exception) e : new IOException(e);
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (failure != null)
+            throw failure;
+        if (chunk == END)
+            return false;
+        try {
+            chunk = queue.take().get();
+            position = 0;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            chunk = null;
+            stopBackground();
+            throw failure;
+        }
+        return chunk != END;
+    }
+
+    /**
+     * Stops reader thread and cancels decompression of all queued blocks
+     */
+    private void stopBackground() {
+        reader.interrupt();
+        if (inflaters != null)
+            inflaters.shutdownNow();
+        Future<byte[]> future;
+        while ((future = queue.poll()) != null)
+            future.cancel(true);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (chunk == null || position == chunk.length)
+            if (!nextChunk())
+                return -1;
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (chunk == null || position == chunk.length)
+            if (!nextChunk())
+                return -1;
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public double getProgress() {
+        if (size == 0)
+            return Double.NaN;
+        return (1.0 * counting.getBytesRead()) / size;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return closed || chunk == END;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        stopBackground();
+        counting.close();
+    }
+}
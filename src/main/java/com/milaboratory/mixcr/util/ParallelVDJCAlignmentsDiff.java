@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.InputPort;
+import cc.redberry.pipe.OutputPort;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsIndex;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.util.VDJCAlignmentsDifferenceReader.Diff;
+import com.milaboratory.util.CanReportProgress;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCLibraryRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates difference between two .vdjca files (see {@link VDJCAlignmentsDifferenceReader}) in parallel.
+ *
+ * If both files are not compressed, they are indexed (see {@link VDJCAlignmentsIndex}) and split into ranges of read
+ * ids; ranges are compared concurrently, each by its own pair of readers. Compressed files are compared in a single
+ * range.
+ */
+public final class ParallelVDJCAlignmentsDiff implements CanReportProgress {
+    /**
+     * Default number of index entries (see {@link VDJCAlignmentsIndex#DEFAULT_STEP}) of the first file per range
+     */
+    public static final int DEFAULT_RANGE_SIZE = 64;
+
+    final File first, second;
+    final GeneFeature featureToCompare;
+    final int hitsCompareLevel;
+    final VDJCLibraryRegistry registry;
+    int threads = 1;
+    int rangeSize = DEFAULT_RANGE_SIZE;
+    boolean saveIndex = false;
+    volatile int numberOfRanges = 0;
+    final AtomicInteger rangesProcessed = new AtomicInteger();
+    volatile boolean finished = false;
+
+    public ParallelVDJCAlignmentsDiff(File first, File second, GeneFeature featureToCompare, int hitsCompareLevel,
+                                      VDJCLibraryRegistry registry) {
+        this.first = first;
+        this.second = second;
+        this.featureToCompare = featureToCompare;
+        this.hitsCompareLevel = hitsCompareLevel;
+        this.registry = registry;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets number of index entries of the first file per range
+     */
+    public void setRangeSize(int rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Sets whether newly built indices should be saved next to the input files (see {@link
+     * VDJCAlignmentsIndex#get(File, VDJCLibraryRegistry, boolean)}), false by default
+     */
+    public void setSaveIndex(boolean saveIndex) {
+        this.saveIndex = saveIndex;
+    }
+
+    @Override
+    public double getProgress() {
+        int ranges = numberOfRanges;
+        if (ranges == 0)
+            return 0.0;
+        return 1.0 * rangesProcessed.get() / ranges;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Runs comparison.
+     *
+     * @param differences receives records which are not the same in two files (i.e. with status other than {@link
+     *                    VDJCAlignmentsDifferenceReader.DiffStatus#AlignmentsAreSame}) in the order of read ids; null
+     *                    marks the end; may be null
+     * @param limit       maximal number of records passed to differences
+     * @return summary
+     */
+    public Summary run(InputPort<Diff> differences, long limit) throws IOException, InterruptedException {
+        try {
+            return run0(differences, differences == null ? 0 : limit);
+        } finally {
+            finished = true;
+        }
+    }
+
+    private Summary run0(InputPort<Diff> differences, long limit) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Indexing both files concurrently
+            VDJCAlignmentsIndex index1 = null, index2 = null;
+            if (threads > 1 && VDJCAlignmentsIndex.isIndexable(first) && VDJCAlignmentsIndex.isIndexable(second)) {
+                Future<VDJCAlignmentsIndex> future1 = executor.submit(indexTask(first)),
+                        future2 = executor.submit(indexTask(second));
+                index1 = get(future1);
+                index2 = get(future2);
+                if (index1.size() == 0 || index2.size() == 0)
+                    index1 = index2 = null;
+            }
+
+            // Read id boundaries of ranges
+            List<Long> boundaries = new ArrayList<>();
+            if (index1 != null)
+                for (int e = rangeSize; e < index1.size(); e += rangeSize)
+                    if (boundaries.isEmpty() || boundaries.get(boundaries.size() - 1) < index1.getReadId(e))
+                        boundaries.add(index1.getReadId(e));
+            numberOfRanges = boundaries.size() + 1;
+
+            Summary summary = new Summary();
+            ArrayDeque<Future<RangeResult>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            long delivered = 0;
+            while (next < numberOfRanges || !inFlight.isEmpty()) {
+                // Keeping limited number of ranges in flight to bound memory used by collected differences
+                while (next < numberOfRanges && inFlight.size() < 2 * threads) {
+                    long from = next == 0 ? Long.MIN_VALUE : boundaries.get(next - 1),
+                            to = next == numberOfRanges - 1 ? Long.MAX_VALUE : boundaries.get(next);
+                    inFlight.add(executor.submit(rangeTask(index1, index2, from, to, limit)));
+                    ++next;
+                }
+
+                RangeResult result = get(inFlight.poll());
+                summary.add(result.summary);
+                if (result.last) {
+                    summary.numberOfReads1 = result.summary.numberOfReads1;
+                    summary.numberOfReads2 = result.summary.numberOfReads2;
+                }
+                for (Diff diff : result.differences) {
+                    if (delivered == limit)
+                        break;
+                    differences.put(diff);
+                    ++delivered;
+                }
+                rangesProcessed.incrementAndGet();
+            }
+
+            if (differences != null)
+                differences.put(null);
+            return summary;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<VDJCAlignmentsIndex> indexTask(final File file) {
+        return new Callable<VDJCAlignmentsIndex>() {
+            @Override
+            public VDJCAlignmentsIndex call() throws Exception {
+                return VDJCAlignmentsIndex.get(file, registry, saveIndex);
+            }
+        };
+    }
+
+    private Callable<RangeResult> rangeTask(final VDJCAlignmentsIndex index1, final VDJCAlignmentsIndex index2,
+                                            final long from, final long to, final long limit) {
+        return new Callable<RangeResult>() {
+            @Override
+            public RangeResult call() throws Exception {
+                try (VDJCAlignmentsReader reader1 = open(first, index1, from);
+                     VDJCAlignmentsReader reader2 = open(second, index2, from)) {
+                    RangeResult result = new RangeResult(to == Long.MAX_VALUE);
+                    VDJCAlignmentsDifferenceReader diffReader = new VDJCAlignmentsDifferenceReader(
+                            new RangePort(reader1, from, to), new RangePort(reader2, from, to),
+                            featureToCompare, hitsCompareLevel);
+                    Diff diff;
+                    while ((diff = diffReader.take()) != null) {
+                        result.summary.add(diff);
+                        if (diff.status != VDJCAlignmentsDifferenceReader.DiffStatus.AlignmentsAreSame
+                                && result.differences.size() < limit)
+                            result.differences.add(diff);
+                    }
+                    if (result.last) {
+                        result.summary.numberOfReads1 = reader1.getNumberOfReads();
+                        result.summary.numberOfReads2 = reader2.getNumberOfReads();
+                    }
+                    return result;
+                }
+            }
+        };
+    }
+
+    private VDJCAlignmentsReader open(File file, VDJCAlignmentsIndex index, long from) throws IOException {
+        if (index == null)
+            return new VDJCAlignmentsReader(file, registry);
+        return index.openReader(from == Long.MIN_VALUE ? 0 : index.floorEntry(from), registry);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Alignments of the reader with read ids in [from, to)
+     */
+    static final class RangePort implements OutputPort<VDJCAlignments> {
+        final OutputPort<VDJCAlignments> reader;
+        final long from, to;
+        boolean done = false;
+
+        RangePort(OutputPort<VDJCAlignments> reader, long from, long to) {
+            this.reader = reader;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public VDJCAlignments take() {
+            if (done)
+                return null;
+            VDJCAlignments alignments;
+            do {
+                alignments = reader.take();
+            } while (alignments != null && alignments.getReadId() < from);
+            if (alignments == null || alignments.getReadId() >= to) {
+                done = true;
+                return null;
+            }
+            return alignments;
+        }
+    }
+
+    static final class RangeResult {
+        final boolean last;
+        final Summary summary = new Summary();
+        final List<Diff> differences = new ArrayList<>();
+
+        RangeResult(boolean last) {
+            this.last = last;
+        }
+    }
+
+    public static final class Summary {
+        public long same, onlyInFirst, onlyInSecond, different, differentFeature;
+        /**
+         * Number of different records with different hits, by gene type ordinal
+         */
+        public final long[] differentHits = new long[GeneType.NUMBER_OF_TYPES];
+        /**
+         * Number of reads processed to produce input files
+         */
+        public long numberOfReads1 = -1, numberOfReads2 = -1;
+
+        void add(Diff diff) {
+            switch (diff.status) {
+                case AlignmentsAreSame:
+                    ++same;
+                    break;
+                case AlignmentPresentOnlyInFirst:
+                    ++onlyInFirst;
+                    break;
+                case AlignmentPresentOnlyInSecond:
+                    ++onlyInSecond;
+                    break;
+                case AlignmentsAreDifferent:
+                    ++different;
+                    if (diff.reason.diffGeneFeature)
+                        ++differentFeature;
+                    for (Map.Entry<GeneType, Boolean> e : diff.reason.diffHits.entrySet())
+                        if (e.getValue())
+                            ++differentHits[e.getKey().ordinal()];
+            }
+        }
+
+        void add(Summary other) {
+            same += other.same;
+            onlyInFirst += other.onlyInFirst;
+            onlyInSecond += other.onlyInSecond;
+            different += other.different;
+            differentFeature += other.differentFeature;
+            for (int i = 0; i < differentHits.length; i++)
+                differentHits[i] += other.differentHits[i];
+        }
+    }
+}
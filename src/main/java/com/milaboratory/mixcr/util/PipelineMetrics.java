@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.CUtils;
+import cc.redberry.pipe.OutputPort;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.milaboratory.util.GlobalObjectMappers;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide collector of stage-level performance metrics: wall and CPU time, number of processed records, bytes
+ * read and written, GC time, heap usage and depths of buffered ports. Collected metrics are written as JSON with
+ * {@link #write(File, String, String)}.
+ *
+ * Stages are opened with {@link #begin(String)} and closed with {@link Stage#close()}; stages may be nested, the
+ * innermost open stage is the one receiving values passed to static methods ({@link #addBytesRead(long)}, {@link
+ * #buffered(String, OutputPort, int)}, etc.). Open stages form a single process-wide stack (not a per-thread one), so
+ * if stages may run concurrently (e.g. in different threads) static methods can attribute values to a wrong stage;
+ * such code should use the same methods of {@link Stage} returned by {@link #begin(String)}. Until {@link #enable()}
+ * is called stages are not recorded and ports are not wrapped, so instrumented code has no measurable overhead.
+ *
+ * CPU time is the CPU time of the whole process (all threads) consumed while the stage was open; heap usage and
+ * queue depths are sampled every {@link #SAMPLING_INTERVAL} milliseconds.
+ */
+public final class PipelineMetrics {
+    /**
+     * Interval between samples of heap usage and queue depths, in milliseconds
+     */
+    public static final long SAMPLING_INTERVAL = 50;
+
+    private static final Object lock = new Object();
+    private static final List<Stage> stages = new ArrayList<>();
+    private static final List<Stage> openStages = new CopyOnWriteArrayList<>();
+    private static volatile boolean enabled = false;
+    private static volatile long enabledTimestamp;
+    private static Snapshot initial;
+    private static Thread sampler;
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Starts collection of metrics
+     */
+    public static void enable() {
+        synchronized (lock) {
+            if (enabled)
+                return;
+            enabledTimestamp = System.currentTimeMillis();
+            initial = Snapshot.take();
+            sampler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.interrupted()) {
+                            Thread.sleep(SAMPLING_INTERVAL);
+                            sample();
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }, "metrics-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+            enabled = true;
+        }
+    }
+
+    /**
+     * Stops collection of metrics and discards all collected values
+     */
+    public static void reset() {
+        synchronized (lock) {
+            if (sampler != null)
+                sampler.interrupt();
+            sampler = null;
+            enabled = false;
+            stages.clear();
+            openStages.clear();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens new stage. Returned object should be closed at the end of the stage (e.g. using try-with-resources).
+     *
+     * @param name stage name
+     * @return stage
+     */
+    public static Stage begin(String name) {
+        if (!enabled)
+            return new Stage(name, 0, false);
+        synchronized (lock) {
+            Stage stage = new Stage(name, openStages.size(), true);
+            stages.add(stage);
+            openStages.add(stage);
+            return stage;
+        }
+    }
+
+    /**
+     * Returns innermost open stage or null if there is no open stages or metrics are disabled. The innermost stage is
+     * the one opened last by any thread.
+     */
+    public static Stage current() {
+        if (!enabled)
+            return null;
+        synchronized (lock) {
+            return openStages.isEmpty() ? null : openStages.get(openStages.size() - 1);
+        }
+    }
+
+    /**
+     * Equivalent of {@link CUtils#buffered(OutputPort, int)}, additionally sampling number of objects in the buffer
+     * (attributed to the current stage).
+     */
+    public static <T> OutputPort<T> buffered(String name, OutputPort<T> port, int size) {
+        Stage stage = current();
+        if (stage == null)
+            return CUtils.buffered(port, size);
+        return stage.buffered(name, port, size);
+    }
+
+    /**
+     * Wraps port to add number of objects taken from it to the number of records processed in the current stage
+     */
+    public static <T> OutputPort<T> countRecords(OutputPort<T> port) {
+        Stage stage = current();
+        if (stage == null)
+            return port;
+        return stage.countRecords(port);
+    }
+
+    public static void addRecords(long records) {
+        Stage stage = current();
+        if (stage != null)
+            stage.addRecords(records);
+    }
+
+    public static void addBytesRead(long bytes) {
+        Stage stage = current();
+        if (stage != null)
+            stage.addBytesRead(bytes);
+    }
+
+    public static void addBytesWritten(long bytes) {
+        Stage stage = current();
+        if (stage != null)
+            stage.addBytesWritten(bytes);
+    }
+
+    private static void sample() {
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (Stage stage : openStages) {
+            stage.updatePeakHeap(heap);
+            for (QueueMonitor queue : stage.queues)
+                queue.sample();
+        }
+    }
+
+    /**
+     * Writes collected metrics in JSON format
+     *
+     * @param file                 output file
+     * @param action               name of the action
+     * @param commandLineArguments command line arguments (may be null)
+     */
+    public static void write(File file, String action, String commandLineArguments) throws IOException {
+        GlobalObjectMappers.PRETTY.writeValue(file, toJson(action, commandLineArguments));
+    }
+
+    static ObjectNode toJson(String action, String commandLineArguments) {
+        ObjectNode root = GlobalObjectMappers.PRETTY.createObjectNode();
+        synchronized (lock) {
+            Snapshot end = Snapshot.take();
+            root.put("action", action);
+            if (commandLineArguments != null)
+                root.put("commandLineArguments", commandLineArguments);
+            root.put("version", MiXCRVersionInfo.get().getShortestVersionString());
+            root.put("date", new Date(enabledTimestamp).toString());
+            if (initial != null)
+                end.writeDifference(root, initial);
+            root.put("peakHeapBytes", peakHeapUsage());
+            root.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+            root.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+            ArrayNode stagesNode = root.putArray("stages");
+            for (Stage stage : stages)
+                stage.writeJson(stagesNode.addObject());
+        }
+        return root;
+    }
+
+    private static long peakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    private static double perSecond(long value, long nanos) {
+        return nanos == 0 ? 0.0 : 1E9 * value / nanos;
+    }
+
+    /**
+     * Single stage of processing
+     */
+    public static final class Stage implements AutoCloseable {
+        final String name;
+        final int depth;
+        final boolean recorded;
+        final Snapshot begin;
+        final AtomicLong records = new AtomicLong(),
+                bytesRead = new AtomicLong(),
+                bytesWritten = new AtomicLong();
+        final List<QueueMonitor> queues = new CopyOnWriteArrayList<>();
+        volatile Snapshot end;
+        volatile long peakHeap;
+
+        Stage(String name, int depth, boolean recorded) {
+            this.name = name;
+            this.depth = depth;
+            this.recorded = recorded;
+            this.begin = recorded ? Snapshot.take() : null;
+            if (recorded)
+                this.peakHeap = begin.heapUsed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void addRecords(long records) {
+            if (recorded)
+                this.records.addAndGet(records);
+        }
+
+        public void addBytesRead(long bytes) {
+            if (recorded)
+                this.bytesRead.addAndGet(bytes);
+        }
+
+        public void addBytesWritten(long bytes) {
+            if (recorded)
+                this.bytesWritten.addAndGet(bytes);
+        }
+
+        public long getRecords() {
+            return records.get();
+        }
+
+        /**
+         * Equivalent of {@link CUtils#buffered(OutputPort, int)}, additionally sampling number of objects in the
+         * buffer (attributed to this stage).
+         */
+        public <T> OutputPort<T> buffered(String name, OutputPort<T> port, int size) {
+            if (!recorded)
+                return CUtils.buffered(port, size);
+            final QueueMonitor monitor = new QueueMonitor(name, size);
+            queues.add(monitor);
+            return new CountingPort<>(CUtils.buffered(new CountingPort<>(port, monitor.in), size), monitor.out);
+        }
+
+        /**
+         * Wraps port to add number of objects taken from it to the number of records processed in this stage
+         */
+        public <T> OutputPort<T> countRecords(OutputPort<T> port) {
+            if (!recorded)
+                return port;
+            return new CountingPort<>(port, records);
+        }
+
+        synchronized void updatePeakHeap(long heap) {
+            if (heap > peakHeap)
+                peakHeap = heap;
+        }
+
+        public boolean isOpen() {
+            return recorded && end == null;
+        }
+
+        @Override
+        public void close() {
+            if (!recorded)
+                return;
+            synchronized (lock) {
+                if (end != null)
+                    return;
+                end = Snapshot.take();
+                updatePeakHeap(end.heapUsed);
+                openStages.remove(this);
+            }
+        }
+
+        void writeJson(ObjectNode node) {
+            Snapshot end = this.end == null ? Snapshot.take() : this.end;
+            node.put("name", name);
+            node.put("depth", depth);
+            if (this.end == null)
+                node.put("unfinished", true);
+            end.writeDifference(node, begin);
+            node.put("records", records.get());
+            node.put("recordsPerSecond", perSecond(records.get(), end.wallNanos - begin.wallNanos));
+            node.put("bytesRead", bytesRead.get());
+            node.put("bytesWritten", bytesWritten.get());
+            node.put("peakHeapBytes", peakHeap);
+            if (!queues.isEmpty()) {
+                ArrayNode queuesNode = node.putArray("queues");
+                for (QueueMonitor queue : queues)
+                    queue.writeJson(queuesNode.addObject());
+            }
+        }
+    }
+
+    /**
+     * Values of process-wide counters at some moment
+     */
+    static final class Snapshot {
+        final long wallNanos, cpuNanos, gcMillis, gcCount, heapUsed;
+
+        Snapshot(long wallNanos, long cpuNanos, long gcMillis, long gcCount, long heapUsed) {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+            this.heapUsed = heapUsed;
+        }
+
+        void writeDifference(ObjectNode node, Snapshot begin) {
+            long wall = wallNanos - begin.wallNanos;
+            node.put("wallTimeMillis", wall / 1000_000);
+            if (cpuNanos >= 0 && begin.cpuNanos >= 0) {
+                long cpu = cpuNanos - begin.cpuNanos;
+                node.put("cpuTimeMillis", cpu / 1000_000);
+                node.put("cpuUtilization", wall == 0 ? 0.0 : 1.0 * cpu / wall);
+            }
+            node.put("gcTimeMillis", gcMillis - begin.gcMillis);
+            node.put("gcCount", gcCount - begin.gcCount);
+        }
+
+        static Snapshot take() {
+            long gcMillis = 0, gcCount = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcMillis += Math.max(0, gc.getCollectionTime());
+                gcCount += Math.max(0, gc.getCollectionCount());
+            }
+            return new Snapshot(System.nanoTime(), processCpuTime(), gcMillis, gcCount,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+
+        static long processCpuTime() {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            return -1;
+        }
+    }
+
+    /**
+     * Tracks number of objects in a buffer as the difference between numbers of objects put into and taken from it
+     */
+    static final class QueueMonitor {
+        final String name;
+        final int capacity;
+        final AtomicLong in = new AtomicLong(), out = new AtomicLong();
+        long samples, depthSum, maxDepth;
+
+        QueueMonitor(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        synchronized void sample() {
+            long depth = Math.max(0, in.get() - out.get());
+            ++samples;
+            depthSum += depth;
+            if (depth > maxDepth)
+                maxDepth = depth;
+        }
+
+        synchronized void writeJson(ObjectNode node) {
+            node.put("name", name);
+            node.put("capacity", capacity);
+            node.put("transferred", out.get());
+            node.put("samples", samples);
+            node.put("meanDepth", samples == 0 ? 0.0 : 1.0 * depthSum / samples);
+            node.put("maxDepth", maxDepth);
+        }
+    }
+
+    static final class CountingPort<T> implements OutputPort<T> {
+        final OutputPort<T> inner;
+        final AtomicLong counter;
+
+        CountingPort(OutputPort<T> inner, AtomicLong counter) {
+            this.inner = inner;
+            this.counter = counter;
+        }
+
+        @Override
+        public T take() {
+            T t = inner.take();
+            if (t != null)
+                counter.incrementAndGet();
+            return t;
+        }
+    }
+}
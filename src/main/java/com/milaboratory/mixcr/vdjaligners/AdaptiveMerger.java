@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.merger.MergerParameters;
+import com.milaboratory.core.merger.MismatchOnlyPairedReadMerger;
+import com.milaboratory.core.merger.PairedReadMergingResult;
+import com.milaboratory.mixcr.cli.ReportHelper;
+import com.milaboratory.mixcr.cli.ReportWriter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paired reads merger, which learns overlap statistics on the first reads and skips merging for the rest of reads if
+ * almost no reads overlap (e.g. for long amplicons).
+ *
+ * <p>The sample is collected by a sequential pass over the first {@code sampleSize} reads of the input (see {@link
+ * #sample(PairedRead)}) before alignment starts, so the decision doesn't depend on the number of threads and their
+ * scheduling. Reads beyond the sample are merged with configured parameters.</p>
+ */
+public final class AdaptiveMerger implements ReportWriter {
+    final MismatchOnlyPairedReadMerger fullMerger;
+    final int sampleSize;
+    final double minOverlappedRate;
+    final AtomicLong notChecked = new AtomicLong();
+    // sample statistics, guarded by this
+    long sampled = 0, overlapped = 0, overlapSum = 0;
+    int minOverlap = Integer.MAX_VALUE, maxOverlap = 0;
+    volatile boolean decided = false, mergingSkipped = false;
+
+    /**
+     * @param parameters        merger parameters
+     * @param sampleSize        number of first reads used to collect statistics
+     * @param minOverlappedRate if the fraction of overlapped reads in the sample is lower than this value, merging is
+     *                          not performed for the rest of reads
+     */
+    public AdaptiveMerger(MergerParameters parameters, int sampleSize, double minOverlappedRate) {
+        if (sampleSize <= 0)
+            throw new IllegalArgumentException("Sample size should be positive.");
+        this.fullMerger = new MismatchOnlyPairedReadMerger(parameters);
+        this.sampleSize = sampleSize;
+        this.minOverlappedRate = minOverlappedRate;
+    }
+
+    /**
+     * Adds read to the sample. Reads should be passed sequentially in the order of input.
+     *
+     * @return true if more reads are required to make the decision
+     */
+    public synchronized boolean sample(PairedRead read) {
+        if (decided)
+            throw new IllegalStateException("Sample is already collected.");
+
+        PairedReadMergingResult result = fullMerger.process(read);
+        if (result.isSuccessful()) {
+            ++overlapped;
+            overlapSum += result.getOverlap();
+            minOverlap = Math.min(minOverlap, result.getOverlap());
+            maxOverlap = Math.max(maxOverlap, result.getOverlap());
+        }
+
+        if (++sampled < sampleSize)
+            return true;
+
+        decide();
+        return false;
+    }
+
+    /**
+     * Makes the decision on the collected sample (for inputs with less reads than the sample size). Does nothing if
+     * the decision is already made.
+     */
+    public synchronized void decide() {
+        if (decided)
+            return;
+        mergingSkipped = overlapped < minOverlappedRate * sampled;
+        decided = true;
+    }
+
+    /**
+     * Returns merging result or null if merging is skipped
+     *
+     * @throws IllegalStateException if the sample is not collected yet
+     */
+    public PairedReadMergingResult process(PairedRead read) {
+        if (!decided)
+            throw new IllegalStateException("Sample is not collected.");
+        if (mergingSkipped) {
+            notChecked.incrementAndGet();
+            return null;
+        }
+        return fullMerger.process(read);
+    }
+
+    /**
+     * Returns true if the sample is not collected yet
+     */
+    public boolean isSampling() {
+        return !decided;
+    }
+
+    /**
+     * Returns true if merging is not performed for reads beyond the sample
+     */
+    public boolean isMergingSkipped() {
+        return decided && mergingSkipped;
+    }
+
+    @Override
+    public synchronized void writeReport(ReportHelper helper) {
+        helper.writeField("Adaptive merging: sampled reads", sampled);
+        helper.writePercentAndAbsoluteField("Adaptive merging: overlapped in sample", overlapped, sampled);
+        if (overlapped != 0)
+            helper.writeField("Adaptive merging: overlap length in sample (min / mean / max)", minOverlap + " / " +
+                    Math.round(1.0 * overlapSum / overlapped) + " / " + maxOverlap);
+        helper.writeField("Adaptive merging: decision", mergingSkipped ? "merging skipped" : "merging performed");
+        if (notChecked.get() != 0)
+            helper.writeField("Adaptive merging: reads not checked for overlap", notChecked.get());
+    }
+}
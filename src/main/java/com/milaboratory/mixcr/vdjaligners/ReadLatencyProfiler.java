@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SequenceRead;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import com.milaboratory.mixcr.cli.ReportHelper;
+import com.milaboratory.mixcr.cli.ReportWriter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects latencies of {@link VDJCAligner#process(SequenceRead)} calls. Latencies are accumulated in log-linear
+ * histograms (relative error is below 1 / {@link #SUB_BUCKETS}), separately for each aligner path (see {@link
+ * #pathName(int)}). Optionally, the slowest reads are retained (see {@link #getSlowestReads()}).
+ *
+ * Each thread writes to its own histograms without any synchronization, so aggregated values (histograms,
+ * percentiles, slowest reads) should be retrieved after all processing threads have finished.
+ */
+public final class ReadLatencyProfiler implements ReportWriter {
+    /**
+     * Path flags. Each aligner marks its part of the path while processing a read.
+     */
+    public static final int PAIRED = 1, MERGED = 2, PARTIAL = 4, J_THEN_V = 8, CACHED = 16;
+    public static final int NUMBER_OF_PATHS = 32;
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int NUMBER_OF_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    final int slowReadsToCapture;
+    volatile long[] readIdOffsets = null;
+    final ConcurrentLinkedQueue<ThreadState> states = new ConcurrentLinkedQueue<>();
+    final ThreadLocal<ThreadState> state = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            ThreadState state = new ThreadState();
+            states.add(state);
+            return state;
+        }
+    };
+
+    /**
+     * @param slowReadsToCapture number of the slowest reads to retain
+     */
+    public ReadLatencyProfiler(int slowReadsToCapture) {
+        this.slowReadsToCapture = slowReadsToCapture;
+    }
+
+    /**
+     * Called on entering {@link VDJCAligner#process(SequenceRead)}; nested calls (e.g. from {@link
+     * VDJCAlignerWithMerge}) are accounted as a part of the outermost call.
+     */
+    ThreadState enter() {
+        ThreadState state = this.state.get();
+        if (state.depth++ == 0) {
+            state.path = 0;
+            state.begin = System.nanoTime();
+        }
+        return state;
+    }
+
+    /**
+     * Called on leaving {@link VDJCAligner#process(SequenceRead)}
+     */
+    void exit(ThreadState state, SequenceRead read) {
+        if (--state.depth != 0)
+            return;
+        state.record(state.path, System.nanoTime() - state.begin, read);
+    }
+
+    /**
+     * Sets index of the input (e.g. shard) of reads processed by the current thread, so read ids of the slowest reads
+     * can be converted to global ones (see {@link #setReadIdOffsets(long[])})
+     */
+    public void setSource(int source) {
+        state.get().source = source;
+    }
+
+    /**
+     * Sets offsets of read ids for each input (see {@link #setSource(int)})
+     */
+    public void setReadIdOffsets(long[] readIdOffsets) {
+        this.readIdOffsets = readIdOffsets;
+    }
+
+    /**
+     * Marks path of the read being processed in the current thread
+     */
+    void markPath(int flags) {
+        state.get().path |= flags;
+    }
+
+    /**
+     * Returns merged latency histogram for the path (see {@link #bucketLowerBound(int)} for bucket boundaries)
+     */
+    public long[] getHistogram(int path) {
+        long[] histogram = new long[NUMBER_OF_BUCKETS];
+        for (ThreadState state : states) {
+            long[] h = state.histograms[path];
+            if (h != null)
+                for (int i = 0; i < NUMBER_OF_BUCKETS; i++)
+                    histogram[i] += h[i];
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns number of reads processed by the path
+     */
+    public long getCount(int path) {
+        long count = 0;
+        for (long c : getHistogram(path))
+            count += c;
+        return count;
+    }
+
+    /**
+     * Returns latency quantile in nanoseconds (upper bound of the corresponding histogram bucket) or -1 if there is
+     * no reads processed by the path
+     *
+     * @param path     path
+     * @param quantile quantile, number from 0 to 1
+     */
+    public long getQuantile(int path, double quantile) {
+        return quantile(getHistogram(path), quantile);
+    }
+
+    /**
+     * Returns the slowest reads, from the slowest to the fastest
+     */
+    public List<SlowRead> getSlowestReads() {
+        List<SlowRead> reads = new ArrayList<>();
+        for (ThreadState state : states)
+            reads.addAll(state.slowest);
+        Collections.sort(reads, Collections.reverseOrder());
+        return reads.size() > slowReadsToCapture ? reads.subList(0, slowReadsToCapture) : reads;
+    }
+
+    @Override
+    public void writeReport(ReportHelper helper) {
+        for (int path = 0; path < NUMBER_OF_PATHS; path++) {
+            long[] histogram = getHistogram(path);
+            long count = 0;
+            for (long c : histogram)
+                count += c;
+            if (count == 0)
+                continue;
+            helper.writeField("Alignment latency, " + pathName(path) + " (reads / median / 99% / 99.9% / max, us)",
+                    count + " / " + micros(quantile(histogram, 0.5)) + " / " + micros(quantile(histogram, 0.99)) +
+                            " / " + micros(quantile(histogram, 0.999)) + " / " + micros(quantile(histogram, 1.0)));
+        }
+        List<SlowRead> slowest = getSlowestReads();
+        if (!slowest.isEmpty())
+            helper.writeField("Slowest read (id / path / latency, us)", slowest.get(0).getReadId() + " / " +
+                    pathName(slowest.get(0).path) + " / " + micros(slowest.get(0).latency));
+    }
+
+    private static long micros(long nanos) {
+        return Math.round(nanos / 1000.0);
+    }
+
+    static long quantile(long[] histogram, double quantile) {
+        long count = 0;
+        for (long c : histogram)
+            count += c;
+        if (count == 0)
+            return -1;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count)), seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank)
+                return bucketUpperBound(i);
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Returns human readable name of the path
+     */
+    public static String pathName(int path) {
+        if ((path & CACHED) != 0)
+            return "cached";
+        StringBuilder sb = new StringBuilder();
+        sb.append((path & PAIRED) != 0 ? "paired" : (path & MERGED) != 0 ? "merged" : "single");
+        sb.append((path & PARTIAL) != 0 ? ", partial" : ", strict");
+        // Paired-end aligner always aligns V genes first
+        if ((path & PAIRED) == 0)
+            sb.append((path & J_THEN_V) != 0 ? ", JThenV" : ", VThenJ");
+        return sb.toString();
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} have their own buckets, others are split into {@link #SUB_BUCKETS} buckets
+     * for each power of two.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long bucketLowerBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        return bucketLowerBound(bucket) + (1L << (bucket / SUB_BUCKETS - 1)) - 1;
+    }
+
+    final class ThreadState {
+        final long[][] histograms = new long[NUMBER_OF_PATHS][];
+        // min-heap by latency
+        final PriorityQueue<SlowRead> slowest = new PriorityQueue<>();
+        int depth, path, source;
+        long begin;
+
+        void record(int path, long latency, SequenceRead read) {
+            long[] histogram = histograms[path];
+            if (histogram == null)
+                histograms[path] = histogram = new long[NUMBER_OF_BUCKETS];
+            ++histogram[bucket(latency)];
+
+            if (slowReadsToCapture == 0)
+                return;
+            if (slowest.size() < slowReadsToCapture)
+                slowest.add(new SlowRead(read, latency, path, source));
+            else if (slowest.peek().latency < latency) {
+                slowest.poll();
+                slowest.add(new SlowRead(read, latency, path, source));
+            }
+        }
+    }
+
+    public final class SlowRead implements Comparable<SlowRead> {
+        public final SequenceRead read;
+        /**
+         * Latency in nanoseconds
+         */
+        public final long latency;
+        public final int path;
+        /**
+         * Index of the input of the read (see {@link #setSource(int)})
+         */
+        public final int source;
+
+        SlowRead(SequenceRead read, long latency, int path, int source) {
+            this.read = read;
+            this.latency = latency;
+            this.path = path;
+            this.source = source;
+        }
+
+        /**
+         * Returns read id shifted by the offset of its input (see {@link #setReadIdOffsets(long[])})
+         */
+        public long getReadId() {
+            long[] readIdOffsets = ReadLatencyProfiler.this.readIdOffsets;
+            return readIdOffsets == null ? read.getId() : read.getId() + readIdOffsets[source];
+        }
+
+        /**
+         * Returns read with global read id, and read id, latency and path prepended to descriptions
+         */
+        public SequenceRead getAnnotatedRead() {
+            long readId = getReadId();
+            String annotation = "read=" + readId + " latency=" + micros(latency) + "us path=" +
+                    pathName(path).replace(", ", "/");
+            if (read instanceof PairedRead)
+                return new PairedRead(annotate(read.getRead(0), readId, annotation),
+                        annotate(read.getRead(1), readId, annotation));
+            return annotate(read.getRead(0), readId, annotation);
+        }
+
+        private SingleRead annotate(SingleRead read, long readId, String annotation) {
+            String description = read.getDescription();
+            return new SingleReadImpl(readId, read.getData(),
+                    description == null || description.isEmpty() ? annotation : annotation + " " + description);
+        }
+
+        @Override
+        public int compareTo(SlowRead o) {
+            return Long.compare(latency, o.latency);
+        }
+    }
+}
@@ -47,6 +47,7 @@ public abstract class VDJCAligner<R extends SequenceRead> implements Processor<R
     protected final EnumMap<GeneType, List<VDJCGene>> genesToAlign = new EnumMap<>(GeneType.class);
     protected final List<VDJCGene> usedGenes = new ArrayList<>();
     protected VDJCAlignerEventListener listener = null;
+    protected volatile ReadLatencyProfiler latencyProfiler = null;
 
     protected VDJCAligner(VDJCAlignerParameters parameters) {
         this.parameters = parameters.clone();
@@ -67,15 +68,64 @@ public abstract class VDJCAligner<R extends SequenceRead> implements Processor<R
         return hash;
     }
 
+    /**
+     * Seed for reads without descriptions: hash of read sequences and of a position of the read in input (e.g. hash
+     * of record offsets), so that seed does not depend on read id
+     */
+    public static long seed(SequenceRead input, long positionHash) {
+        long hash = 1;
+        for (int i = 0; i < input.numberOfReads(); i++)
+            hash = 31 * hash + input.getRead(i).getData().getSequence().hashCode();
+        return 31 * hash + positionHash;
+    }
+
     @Override
     public final VDJCAlignmentResult<R> process(R input) {
         if (parameters.isFixSeed())
             RandomUtil.reseedThreadLocal(hash(input));
-        return process0(input);
+        return processWithProfiler(input);
+    }
+
+    /**
+     * Same as {@link #process(SequenceRead)}, but if fixSeed is set, random generator is seeded with a given seed
+     * instead of hash of read sequences and descriptions (see {@link #seed(SequenceRead, long)})
+     */
+    public final VDJCAlignmentResult<R> process(R input, long seed) {
+        if (parameters.isFixSeed())
+            RandomUtil.reseedThreadLocal(seed);
+        return processWithProfiler(input);
+    }
+
+    private VDJCAlignmentResult<R> processWithProfiler(R input) {
+        ReadLatencyProfiler latencyProfiler = this.latencyProfiler;
+        if (latencyProfiler == null)
+            return process0(input);
+        ReadLatencyProfiler.ThreadState state = latencyProfiler.enter();
+        try {
+            return process0(input);
+        } finally {
+            latencyProfiler.exit(state, input);
+        }
     }
 
     protected abstract VDJCAlignmentResult<R> process0(final R input);
 
+    /**
+     * Enables collection of latencies of {@link #process(SequenceRead)} calls
+     */
+    public void setLatencyProfiler(ReadLatencyProfiler latencyProfiler) {
+        this.latencyProfiler = latencyProfiler;
+    }
+
+    /**
+     * Marks path of the read being processed (see {@link ReadLatencyProfiler#pathName(int)})
+     */
+    protected final void markPath(int flags) {
+        ReadLatencyProfiler latencyProfiler = this.latencyProfiler;
+        if (latencyProfiler != null)
+            latencyProfiler.markPath(flags);
+    }
+
     public void setEventsListener(VDJCAlignerEventListener listener) {
         this.listener = listener;
     }
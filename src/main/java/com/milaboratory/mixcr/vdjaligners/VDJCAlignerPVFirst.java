@@ -49,14 +49,37 @@ public final class VDJCAlignerPVFirst extends VDJCAlignerAbstract<PairedRead> {
     private static final ReferencePoint reqPointR = ReferencePoint.CDR3End.move(3);
     private static final ReferencePoint reqPointL = ReferencePoint.CDR3Begin.move(-3);
 
+    /**
+     * FR3Begin positions inside aligned feature of V genes
+     */
+    private volatile IdentityHashMap<VDJCGene, Integer> vFR3Begins = null;
+
     public VDJCAlignerPVFirst(VDJCAlignerParameters parameters) {
         super(parameters);
     }
 
+    @Override
+    protected void init() {
+        super.init();
+        IdentityHashMap<VDJCGene, Integer> fr3Begins = new IdentityHashMap<>();
+        for (VDJCGene gene : genesToAlign.get(GeneType.Variable))
+            fr3Begins.put(gene, calculateFR3Begin(gene));
+        vFR3Begins = fr3Begins;
+    }
+
+    private int calculateFR3Begin(VDJCGene gene) {
+        return gene.getPartitioning().getRelativePosition(
+                parameters.getFeatureToAlign(GeneType.Variable),
+                ReferencePoint.FR3Begin);
+    }
+
     @Override
     protected VDJCAlignmentResult<PairedRead> process0(final PairedRead input) {
         ensureInitialized();
 
+        markPath(ReadLatencyProfiler.PAIRED |
+                (parameters.getAllowPartialAlignments() ? ReadLatencyProfiler.PARTIAL : 0));
+
         Target[] targets = getTargets(input);
 
         // Creates helper classes for each PTarget
@@ -294,14 +317,21 @@ public final class VDJCAlignerPVFirst extends VDJCAlignerAbstract<PairedRead> {
         }
 
         /**
-         * Converts two AlignmentResults to an array of paired hits (each paired hit for a particular V of J gene)
+         * Converts two AlignmentResults to an array of paired hits (each paired hit for a particular V of J gene).
+         * Hits for the same gene are paired by linear search: the number of hits per read is small, so it is cheaper
+         * than building a map for each read.
          */
         final PairedHit[] extractDoubleHits(AlignmentResult<AlignmentHit<NucleotideSequence, VDJCGene>>... results) {
-            Map<VDJCGeneId, PairedHit> hits = new HashMap<>();
-            addHits(hits, results[0], 0);
-            addHits(hits, results[1], 1);
+            int maxSize = 0;
+            for (int i = 0; i < 2; i++)
+                if (results[i] != null)
+                    maxSize += results[i].getHits().size();
+
+            PairedHit[] hits = new PairedHit[maxSize];
+            int size = addHits(hits, 0, results[0], 0);
+            size = addHits(hits, size, results[1], 1);
 
-            return hits.values().toArray(new PairedHit[hits.size()]);
+            return size == hits.length ? hits : Arrays.copyOf(hits, size);
         }
 
         /**
@@ -326,27 +356,32 @@ public final class VDJCAlignerPVFirst extends VDJCAlignerAbstract<PairedRead> {
             return score;
         }
 
-        void addHits(Map<VDJCGeneId, PairedHit> hits,
-                     AlignmentResult<AlignmentHit<NucleotideSequence, VDJCGene>> result,
-                     int index) {
+        /**
+         * Adds hits from the result to the first size elements of hits array, returns new size
+         */
+        int addHits(PairedHit[] hits, int size,
+                    AlignmentResult<AlignmentHit<NucleotideSequence, VDJCGene>> result,
+                    int index) {
             if (result == null)
-                return;
+                return size;
 
             for (AlignmentHit<NucleotideSequence, VDJCGene> hit : result.getHits()) {
-                VDJCGeneId id = hit.getRecordPayload().getId();
-                PairedHit val =
-                        index == 0 ?
-                                null :
-                                hits.get(id);
+                VDJCGene gene = hit.getRecordPayload();
+                PairedHit val = null;
+                for (int i = 0; i < size; ++i)
+                    if (hits[i].getGene() == gene) {
+                        val = hits[i];
+                        break;
+                    }
 
                 if (val == null)
-                    hits.put(id, val = new PairedHit());
+                    hits[size++] = val = new PairedHit();
 
                 val.set(index, hit);
             }
+            return size;
         }
 
-
         /**
          * Converts this object to a final VDJAlignment object.
          */
@@ -727,9 +762,8 @@ public final class VDJCAlignerPVFirst extends VDJCAlignerAbstract<PairedRead> {
      */
     float calculateVEndScore(AlignmentHit<NucleotideSequence, VDJCGene> hit) {
         final VDJCGene gene = hit.getRecordPayload();
-        final int boundary = gene.getPartitioning().getRelativePosition(
-                parameters.getFeatureToAlign(GeneType.Variable),
-                ReferencePoint.FR3Begin);
+        final Integer fr3Begin = vFR3Begins == null ? null : vFR3Begins.get(gene);
+        final int boundary = fr3Begin == null ? calculateFR3Begin(gene) : fr3Begin;
         final Alignment<NucleotideSequence> alignment = hit.getAlignment();
 
         if (alignment.getSequence1Range().getUpper() <= boundary)
@@ -53,6 +53,9 @@ public final class VDJCAlignerS extends VDJCAlignerAbstract<SingleRead> {
     protected VDJCAlignmentResult<SingleRead> process0(SingleRead input) {
         ensureInitialized();
 
+        markPath((parameters.getAllowPartialAlignments() ? ReadLatencyProfiler.PARTIAL : 0) |
+                (parameters.getVJAlignmentOrder() == VJAlignmentOrder.JThenV ? ReadLatencyProfiler.J_THEN_V : 0));
+
         // Different algorithms for
         // -OallowPartialAlignments=false and -OallowPartialAlignments=true
         return parameters.getAllowPartialAlignments() ?
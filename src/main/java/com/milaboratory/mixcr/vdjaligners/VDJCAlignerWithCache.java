@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SequenceRead;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.cli.ReportHelper;
+import com.milaboratory.mixcr.cli.ReportWriter;
+import gnu.trove.list.array.TIntArrayList;
+import io.repseq.core.VDJCGene;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aligner which reuses alignment results for identical reads (same sequences and qualities). Results are kept in a
+ * bounded LRU cache, identical reads get a copy of cached alignment (with their own read id) and produce the same
+ * events for the {@link VDJCAlignerEventListener} as the original read.
+ *
+ * <p>To make result independent of which of identical reads is aligned first, random generator of the underlying
+ * aligner is seeded with the read sequence only (read descriptions and ids are ignored).</p>
+ */
+public final class VDJCAlignerWithCache<R extends SequenceRead> extends VDJCAligner<R> implements ReportWriter {
+    private static final int SEGMENTS = 64;
+    private static final int SUCCESS = -1, OVERLAP_ALIGNED = -2, OVERLAP_NOT_ALIGNED = -3;
+
+    final VDJCAligner<R> aligner;
+    final Segment[] segments;
+    final AtomicLong processed = new AtomicLong(), hits = new AtomicLong();
+    final ThreadLocal<TIntArrayList> events = new ThreadLocal<TIntArrayList>() {
+        @Override
+        protected TIntArrayList initialValue() {
+            return new TIntArrayList();
+        }
+    };
+
+    /**
+     * @param aligner  aligner to wrap (with genes already added)
+     * @param capacity maximal number of cached results
+     */
+    public VDJCAlignerWithCache(VDJCAligner<R> aligner, int capacity) {
+        super(aligner.getParameters());
+        this.aligner = aligner;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+        for (VDJCGene gene : aligner.getUsedGenes())
+            super.addGene(gene);
+        aligner.setEventsListener(new Recorder());
+    }
+
+    @Override
+    public int addGene(VDJCGene gene) {
+        aligner.addGene(gene);
+        return super.addGene(gene);
+    }
+
+    @Override
+    public void setLatencyProfiler(ReadLatencyProfiler latencyProfiler) {
+        aligner.setLatencyProfiler(latencyProfiler);
+        super.setLatencyProfiler(latencyProfiler);
+    }
+
+    @Override
+    protected void init() {
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected VDJCAlignmentResult<R> process0(R input) {
+        processed.incrementAndGet();
+
+        ReadKey key = new ReadKey(input);
+        Segment segment = segments[(key.hash & 0x7FFFFFFF) % SEGMENTS];
+        CachedResult cached;
+        synchronized (segment) {
+            cached = segment.get(key);
+        }
+
+        if (cached == null) {
+            TIntArrayList events = this.events.get();
+            events.clear();
+            VDJCAlignments alignment = aligner.process((R) withoutDescriptions(input)).alignment;
+            cached = new CachedResult(alignment, events.toArray());
+            synchronized (segment) {
+                segment.put(key, cached);
+            }
+        } else {
+            hits.incrementAndGet();
+            markPath(ReadLatencyProfiler.CACHED);
+        }
+
+        // each read gets its own object, as it may be modified afterwards (e.g. original descriptions are added)
+        VDJCAlignments alignment = cached.alignment == null
+                ? null
+                : new VDJCAlignments(input.getId(), -1, cached.alignment);
+        if (listener != null)
+            for (int event : cached.events)
+                switch (event) {
+                    case SUCCESS:
+                        listener.onSuccessfulAlignment(input, alignment);
+                        break;
+                    case OVERLAP_ALIGNED:
+                    case OVERLAP_NOT_ALIGNED:
+                        listener.onSuccessfulOverlap(input, event == OVERLAP_ALIGNED ? alignment : null);
+                        break;
+                    default:
+                        listener.onFailedAlignment(input, VDJCAlignmentFailCause.values()[event]);
+                }
+        return new VDJCAlignmentResult<>(input, alignment);
+    }
+
+    /**
+     * Returns number of reads for which cached result was used
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public void writeReport(ReportHelper helper) {
+        helper.writePercentAndAbsoluteField("Identical reads (alignment taken from cache)", hits, processed.get());
+    }
+
+    /**
+     * Seed of underlying aligner is calculated from read descriptions (if present) or read id, so they are replaced
+     * with empty descriptions
+     */
+    private static SequenceRead withoutDescriptions(SequenceRead read) {
+        if (read instanceof PairedRead)
+            return new PairedRead(withoutDescription(read.getRead(0)), withoutDescription(read.getRead(1)));
+        if (read instanceof SingleRead)
+            return withoutDescription((SingleRead) read);
+        throw new IllegalArgumentException("Unsupported read type: " + read.getClass());
+    }
+
+    private static SingleRead withoutDescription(SingleRead read) {
+        return new SingleReadImpl(read.getId(), read.getData(), "");
+    }
+
+    private final class Recorder implements VDJCAlignerEventListener {
+        @Override
+        public void onFailedAlignment(SequenceRead read, VDJCAlignmentFailCause cause) {
+            events.get().add(cause.ordinal());
+        }
+
+        @Override
+        public void onSuccessfulAlignment(SequenceRead read, VDJCAlignments alignment) {
+            events.get().add(SUCCESS);
+        }
+
+        @Override
+        public void onSuccessfulOverlap(SequenceRead read, VDJCAlignments alignments) {
+            events.get().add(alignments == null ? OVERLAP_NOT_ALIGNED : OVERLAP_ALIGNED);
+        }
+    }
+
+    private static final class CachedResult {
+        final VDJCAlignments alignment;
+        final int[] events;
+
+        CachedResult(VDJCAlignments alignment, int[] events) {
+            this.alignment = alignment;
+            this.events = events;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<ReadKey, CachedResult> {
+        final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ReadKey, CachedResult> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class ReadKey {
+        final NSequenceWithQuality[] data;
+        final int hash;
+
+        ReadKey(SequenceRead read) {
+            this.data = new NSequenceWithQuality[read.numberOfReads()];
+            for (int i = 0; i < data.length; i++)
+                data[i] = read.getRead(i).getData();
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ReadKey readKey = (ReadKey) o;
+            return hash == readKey.hash && Arrays.equals(data, readKey.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
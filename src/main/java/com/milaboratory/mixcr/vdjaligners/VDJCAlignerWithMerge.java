@@ -43,6 +43,7 @@ public final class VDJCAlignerWithMerge extends VDJCAligner<PairedRead> {
     final VDJCAlignerS singleAligner;
     final VDJCAlignerPVFirst pairedAligner;
     final MismatchOnlyPairedReadMerger merger;
+    volatile AdaptiveMerger adaptiveMerger = null;
 
     public VDJCAlignerWithMerge(VDJCAlignerParameters parameters) {
         super(parameters);
@@ -53,6 +54,21 @@ public final class VDJCAlignerWithMerge extends VDJCAligner<PairedRead> {
                         parameters.getReadsLayout()));
     }
 
+    /**
+     * Enables adaptive merging: statistics of overlaps is collected on the first reads and then merging is skipped for
+     * the rest of reads if almost no reads overlap. Sample should be collected (see {@link
+     * AdaptiveMerger#sample(PairedRead)}) before reads are processed.
+     *
+     * @param sampleSize        number of first reads used to collect statistics
+     * @param minOverlappedRate if the fraction of overlapped reads in the sample is lower than this value, merging is
+     *                          not performed for the rest of reads
+     * @see AdaptiveMerger
+     */
+    public AdaptiveMerger setAdaptiveMerging(int sampleSize, double minOverlappedRate) {
+        return adaptiveMerger = new AdaptiveMerger(parameters.getMergerParameters().overrideReadsLayout(
+                parameters.getReadsLayout()), sampleSize, minOverlappedRate);
+    }
+
     @Override
     public int addGene(VDJCGene gene) {
         singleAligner.addGene(gene);
@@ -67,14 +83,23 @@ public final class VDJCAlignerWithMerge extends VDJCAligner<PairedRead> {
         super.setEventsListener(listener);
     }
 
+    @Override
+    public void setLatencyProfiler(ReadLatencyProfiler latencyProfiler) {
+        singleAligner.setLatencyProfiler(latencyProfiler);
+        pairedAligner.setLatencyProfiler(latencyProfiler);
+        super.setLatencyProfiler(latencyProfiler);
+    }
+
     @Override
     protected void init() {
     }
 
     @Override
     protected VDJCAlignmentResult<PairedRead> process0(final PairedRead read) {
-        PairedReadMergingResult merged = merger.process(read);
-        if (merged.isSuccessful()) {
+        AdaptiveMerger adaptiveMerger = this.adaptiveMerger;
+        PairedReadMergingResult merged = adaptiveMerger == null ? merger.process(read) : adaptiveMerger.process(read);
+        if (merged != null && merged.isSuccessful()) {
+            markPath(ReadLatencyProfiler.MERGED);
             VDJCAlignments alignment = singleAligner.process(
                     new SingleReadImpl(read.getId(), merged.getOverlappedSequence(), "")).alignment;
             if (listener != null)
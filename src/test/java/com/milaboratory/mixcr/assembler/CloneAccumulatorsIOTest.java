@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.assembler;
+
+import cc.redberry.pipe.CUtils;
+import com.milaboratory.core.alignment.BandedAlignerParameters;
+import com.milaboratory.core.alignment.LinearGapAlignmentScoring;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.io.sequence.fastq.SingleFastqReader;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceQuality;
+import com.milaboratory.core.sequence.quality.QualityAggregationType;
+import com.milaboratory.core.tree.TreeSearchParameters;
+import com.milaboratory.mixcr.assembler.CloneAccumulatorsIO.CloneAccumulatorsReader;
+import com.milaboratory.mixcr.basictypes.ClonalSequence;
+import com.milaboratory.mixcr.basictypes.Clone;
+import com.milaboratory.mixcr.basictypes.CloneSet;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
+import com.milaboratory.mixcr.vdjaligners.*;
+import gnu.trove.map.hash.TObjectFloatHashMap;
+import io.repseq.core.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+public class CloneAccumulatorsIOTest {
+    @Test
+    public void testMerge() throws Exception {
+        VDJCAlignerParameters alignerParameters = VDJCParametersPresets.getByName("default");
+        VDJCAlignerS aligner = new VDJCAlignerS(alignerParameters);
+        for (VDJCGene gene : VDJCLibraryRegistry.getDefault().getLibrary("default", "hs").getGenes(Chains.IGH))
+            if (alignerParameters.containsRequiredFeature(gene))
+                aligner.addGene(gene);
+
+        // All alignments and two halves
+        ByteArrayOutputStream all = new ByteArrayOutputStream(),
+                even = new ByteArrayOutputStream(),
+                odd = new ByteArrayOutputStream();
+        try (SingleFastqReader reader = new SingleFastqReader(CloneAccumulatorsIOTest.class.getClassLoader()
+                .getResourceAsStream("sequences/sample_IGH_R1.fastq"), true);
+             VDJCAlignmentsWriter allWriter = new VDJCAlignmentsWriter(all);
+             VDJCAlignmentsWriter evenWriter = new VDJCAlignmentsWriter(even);
+             VDJCAlignmentsWriter oddWriter = new VDJCAlignmentsWriter(odd)) {
+            allWriter.header(aligner);
+            evenWriter.header(aligner);
+            oddWriter.header(aligner);
+            for (SingleRead read : CUtils.it(reader)) {
+                VDJCAlignmentResult<SingleRead> result = aligner.process(read);
+                if (result.alignment != null) {
+                    allWriter.write(result.alignment);
+                    (read.getId() % 2 == 0 ? evenWriter : oddWriter).write(result.alignment);
+                }
+            }
+        }
+
+        CloneAssemblerParameters parameters = createParameters();
+
+        // Assembling all alignments at once
+        CloneAssemblerRunner runner = new CloneAssemblerRunner(
+                AlignmentsProvider.Util.createProvider(all.toByteArray(), VDJCLibraryRegistry.getDefault()),
+                new CloneAssembler(parameters, false, aligner.getUsedGenes()), 2);
+        runner.run();
+        CloneSet expected = runner.getCloneSet();
+
+        // Assembling halves separately and merging intermediate results
+        Map<String, Long> readCounters = new LinkedHashMap<>();
+        readCounters.put("totalReads", 1L);
+        readCounters.put("coreAlignments", 2L);
+        List<CloneAccumulatorsReader> readers = new ArrayList<>();
+        for (ByteArrayOutputStream part : Arrays.asList(even, odd)) {
+            CloneAssembler assembler = new CloneAssembler(parameters, false, aligner.getUsedGenes());
+            new CloneAssemblerRunner(
+                    AlignmentsProvider.Util.createProvider(part.toByteArray(), VDJCLibraryRegistry.getDefault()),
+                    assembler, 2).runInitialAssemblyOnly();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            CloneAccumulatorsIO.write(assembler, readCounters, bos, false);
+            readers.add(new CloneAccumulatorsReader(new ByteArrayInputStream(bos.toByteArray()),
+                    VDJCLibraryRegistry.getDefault()));
+        }
+
+        Assert.assertEquals(parameters, readers.get(0).getParameters());
+        Assert.assertEquals(readCounters, readers.get(1).getReadCounters());
+
+        CloneAssembler merged = CloneAccumulatorsIO.merge(readers, null);
+        CloneAssemblerRunner mergedRunner = new CloneAssemblerRunner(null, merged, 2);
+        mergedRunner.runFinalization();
+        CloneSet actual = mergedRunner.getCloneSet();
+
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        Assert.assertEquals(countsByCDR3(expected), countsByCDR3(actual));
+    }
+
+    @Test
+    public void testAverageQualityMerge() throws Exception {
+        // Qualities 30 and 10
+        NSequenceWithQuality high = new NSequenceWithQuality("ACGT", "????"),
+                low = new NSequenceWithQuality("ACGT", "++++");
+        CloneAccumulator accumulator = new CloneAccumulator(new ClonalSequence(new NSequenceWithQuality[]{high}),
+                null, QualityAggregationType.Average);
+        EnumMap<GeneType, TObjectFloatHashMap<VDJCGeneId>> noScores = new EnumMap<>(GeneType.class);
+        // Average is weighted by core counts of parts
+        accumulator.merge(high.getQuality(), noScores, 3, 0);
+        accumulator.merge(low.getQuality(), noScores, 1, 2);
+        Assert.assertEquals(4, accumulator.getCoreCount());
+        Assert.assertEquals(2, accumulator.getMappedCount());
+        Assert.assertEquals(new SequenceQuality(new byte[]{25, 25, 25, 25}), accumulator.getAggregatedQuality());
+    }
+
+    static Map<NucleotideSequence, Long> countsByCDR3(CloneSet cloneSet) {
+        Map<NucleotideSequence, Long> result = new HashMap<>();
+        for (Clone clone : cloneSet) {
+            NucleotideSequence cdr3 = clone.getFeature(GeneFeature.CDR3).getSequence();
+            Long count = result.get(cdr3);
+            result.put(cdr3, (count == null ? 0 : count) + clone.getCount());
+        }
+        return result;
+    }
+
+    static CloneAssemblerParameters createParameters() {
+        LinearGapAlignmentScoring<NucleotideSequence> scoring = new LinearGapAlignmentScoring<>(NucleotideSequence.ALPHABET, 5, -9, -12);
+        CloneFactoryParameters factoryParameters = new CloneFactoryParameters(
+                new VJCClonalAlignerParameters(GeneFeature.VRegion, 0.8f,
+                        new BandedAlignerParameters(scoring, 5, -150)),
+                new VJCClonalAlignerParameters(GeneFeature.JRegion, 0.8f,
+                        new BandedAlignerParameters(scoring, 5, -150)),
+                null,
+                new DAlignerParameters(GeneFeature.DRegion, 30.0f, 0.85f, 3, scoring)
+        );
+
+        // Mapping of low quality reads is performed locally for each part, so it is disabled here to get exactly
+        // the same result; qualities are aggregated by max value, which is not affected by merge order
+        return new CloneAssemblerParameters(
+                new GeneFeature[]{GeneFeature.CDR3}, 12,
+                QualityAggregationType.Max,
+                new CloneClusteringParameters(2, 1, TreeSearchParameters.ONE_MISMATCH, new RelativeConcentrationFilter(1.0E-6)),
+                factoryParameters, true, true, false, 0.4, true, (byte) 20, 0.0, "2 of 6", (byte) 15);
+    }
+}
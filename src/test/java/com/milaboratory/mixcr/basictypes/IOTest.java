@@ -44,6 +44,7 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -60,6 +61,9 @@ public class IOTest {
 
         int header;
 
+        List<OriginalReadsSource> sources = Collections.singletonList(
+                new OriginalReadsSource("/data/sample_IGH_R1.fastq", 12345, 67890));
+
         long numberOfReads;
         try (SingleFastqReader reader =
                      new SingleFastqReader(
@@ -75,6 +79,7 @@ public class IOTest {
 
 
             try (VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(bos)) {
+                writer.setOriginalReadsSources(sources);
                 writer.header(aligner);
 
                 header = bos.size();
@@ -82,6 +87,8 @@ public class IOTest {
                 for (SingleRead read : CUtils.it(reader)) {
                     VDJCAlignmentResult<SingleRead> result = aligner.process(read);
                     if (result.alignment != null) {
+                        result.alignment.setOriginalReadReferences(new OriginalReadReference[]{
+                                new OriginalReadReference(0, 100 * read.getId(), 99)});
                         writer.write(result.alignment);
                         alignemntsList.add(result.alignment);
                     }
@@ -98,8 +105,12 @@ public class IOTest {
 
         try (VDJCAlignmentsReader reader = new VDJCAlignmentsReader(new ByteArrayInputStream(bos.toByteArray()))) {
             int i = 0;
-            for (VDJCAlignments alignments : CUtils.it(reader))
+            for (VDJCAlignments alignments : CUtils.it(reader)) {
+                Assert.assertArrayEquals(alignemntsList.get(i).getOriginalReadReferences(),
+                        alignments.getOriginalReadReferences());
                 assertEquals(alignemntsList.get(i++), alignments);
+            }
+            Assert.assertEquals(sources, reader.getOriginalReadsSources());
             Assert.assertEquals(numberOfReads, reader.getNumberOfReads());
         }
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.core.sequence.SequenceQuality;
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class NSequenceWithQualityCodecTest {
+    static final NSequenceWithQuality[] SEQUENCES = {
+            new NSequenceWithQuality("ATTAGACA", "IIIIIIII"),
+            new NSequenceWithQuality("NATTRGACANNW", "#I+5?IIB###("),
+            new NSequenceWithQuality("", ""),
+            new NSequenceWithQuality("GCTTAGA", "AAAAA+A")
+    };
+
+    static NSequenceWithQuality[] writeRead(NSequenceWithQuality[] sequences, boolean binQualities) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrimitivO output = new PrimitivO(bos);
+        NSequenceWithQualityCodec.writeArray(output, sequences, binQualities);
+        NSequenceWithQualityCodec.writeArray(output, null, binQualities);
+        output.close();
+
+        PrimitivI input = new PrimitivI(new ByteArrayInputStream(bos.toByteArray()));
+        NSequenceWithQuality[] result = NSequenceWithQualityCodec.readArray(input);
+        Assert.assertNull(NSequenceWithQualityCodec.readArray(input));
+        return result;
+    }
+
+    @Test
+    public void testLossless() throws Exception {
+        Assert.assertArrayEquals(SEQUENCES, writeRead(SEQUENCES, false));
+    }
+
+    @Test
+    public void testBinned() throws Exception {
+        NSequenceWithQuality[] result = writeRead(SEQUENCES, true);
+        Assert.assertEquals(SEQUENCES.length, result.length);
+        for (int i = 0; i < SEQUENCES.length; i++) {
+            Assert.assertEquals(SEQUENCES[i].getSequence(), result[i].getSequence());
+            SequenceQuality expected = SEQUENCES[i].getQuality(), actual = result[i].getQuality();
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++)
+                Assert.assertEquals(NSequenceWithQualityCodec.binQuality(expected.value(j)), actual.value(j));
+        }
+    }
+
+    @Test
+    public void testBins() throws Exception {
+        for (byte q = 0; q < 50; q++) {
+            byte binned = NSequenceWithQualityCodec.binQuality(q);
+            Assert.assertEquals(binned, NSequenceWithQualityCodec.binQuality(binned));
+            Assert.assertTrue(Math.abs(binned - q) <= 10);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import com.milaboratory.primitivio.PrimitivI;
+import com.milaboratory.primitivio.PrimitivO;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class VDJCAlignmentsCodecTest {
+    @Test
+    public void testScores() throws Exception {
+        float[] scores = {0.0f, -0.0f, 1.0f, -7.0f, 123.25f, 0.1f, -33.5f, 1E9f, Float.NaN};
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrimitivO output = new PrimitivO(bos);
+        for (float score : scores)
+            VDJCAlignmentsCodec.writeScore(output, score);
+        output.close();
+
+        PrimitivI input = new PrimitivI(new ByteArrayInputStream(bos.toByteArray()));
+        for (float score : scores)
+            Assert.assertEquals(Float.floatToRawIntBits(score),
+                    Float.floatToRawIntBits(VDJCAlignmentsCodec.readScore(input)));
+    }
+
+    @Test
+    public void testVarLong() throws Exception {
+        long[] values = {0, 1, -1, 127, 128, -128, Long.MAX_VALUE, Long.MIN_VALUE, 1234567890123L};
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrimitivO output = new PrimitivO(bos);
+        for (long value : values)
+            VDJCAlignmentsCodec.writeVarLong(output, VDJCAlignmentsCodec.zigZag(value));
+        output.close();
+
+        PrimitivI input = new PrimitivI(new ByteArrayInputStream(bos.toByteArray()));
+        for (long value : values)
+            Assert.assertEquals(value, VDJCAlignmentsCodec.unZigZag(VDJCAlignmentsCodec.readVarLong(input)));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.basictypes;
+
+import cc.redberry.pipe.CUtils;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.io.sequence.fastq.SingleFastqReader;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignerS;
+import com.milaboratory.mixcr.vdjaligners.VDJCAlignmentResult;
+import com.milaboratory.mixcr.vdjaligners.VDJCParametersPresets;
+import io.repseq.core.Chains;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibraryRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+public class VDJCAlignmentsMergerTest {
+    @Test
+    public void test1() throws Exception {
+        List<List<VDJCAlignments>> alignments = new ArrayList<>();
+        List<byte[]> files = new ArrayList<>();
+        Set<VDJCGene> genes = new HashSet<>();
+        long[] numberOfReads = new long[3];
+        Chains[] chains = {Chains.IGH, Chains.IGH.merge(new Chains("TRA")), Chains.IGH};
+        for (int i = 0; i < chains.length; i++) {
+            List<VDJCAlignments> list = new ArrayList<>();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            numberOfReads[i] = write(bos, chains[i], i, list, genes);
+            alignments.add(list);
+            files.add(bos.toByteArray());
+        }
+
+        List<VDJCAlignmentsReader> readers = new ArrayList<>();
+        for (byte[] file : files)
+            readers.add(new VDJCAlignmentsReader(new ByteArrayInputStream(file)));
+
+        try (VDJCAlignmentsMerger merger = new VDJCAlignmentsMerger(readers, 2)) {
+            Assert.assertTrue(merger.isParametersConsistent());
+            Assert.assertEquals(genes, new HashSet<>(merger.getUsedGenes()));
+            Assert.assertEquals(3, merger.getOriginalReadsSources().size());
+
+            long offset = 0;
+            for (int i = 0; i < chains.length; i++) {
+                for (VDJCAlignments expected : alignments.get(i)) {
+                    VDJCAlignments actual = merger.take();
+                    Assert.assertEquals(expected.getReadId() + offset, actual.getReadId());
+                    Assert.assertEquals(expected.getTarget(0), actual.getTarget(0));
+                    Assert.assertEquals(i, actual.getOriginalReadReferences()[0].getFileId());
+                    Assert.assertEquals(expected.getOriginalReadReferences()[0].getOffset(),
+                            actual.getOriginalReadReferences()[0].getOffset());
+                }
+                offset += numberOfReads[i];
+            }
+            Assert.assertNull(merger.take());
+            Assert.assertEquals(offset, merger.getNumberOfReads());
+        }
+    }
+
+    static long write(ByteArrayOutputStream bos, Chains chains, int sourceId, List<VDJCAlignments> alignments,
+                      Set<VDJCGene> genes) throws Exception {
+        VDJCAlignerParameters parameters = VDJCParametersPresets.getByName("default");
+        try (SingleFastqReader reader =
+                     new SingleFastqReader(
+                             VDJCAlignmentsMergerTest.class.getClassLoader()
+                                     .getResourceAsStream("sequences/sample_IGH_R1.fastq"), true)) {
+
+            VDJCAlignerS aligner = new VDJCAlignerS(parameters);
+            for (VDJCGene gene : VDJCLibraryRegistry.getDefault().getLibrary("default", "hs").getGenes(chains))
+                if (parameters.containsRequiredFeature(gene)) {
+                    aligner.addGene(gene);
+                    genes.add(gene);
+                }
+
+            try (VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(bos)) {
+                writer.setOriginalReadsSources(Collections.singletonList(
+                        new OriginalReadsSource("/data/sample_" + sourceId + ".fastq", 12345, sourceId)));
+                writer.header(aligner);
+                for (SingleRead read : CUtils.it(reader)) {
+                    VDJCAlignmentResult<SingleRead> result = aligner.process(read);
+                    if (result.alignment != null) {
+                        result.alignment.setOriginalReadReferences(new OriginalReadReference[]{
+                                new OriginalReadReference(0, 100 * read.getId(), 99)});
+                        writer.write(result.alignment);
+                        alignments.add(result.alignment);
+                    }
+                }
+                writer.setNumberOfProcessedReads(reader.getNumberOfReads());
+                return reader.getNumberOfReads();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.cli;
+
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsReader;
+import com.milaboratory.mixcr.basictypes.VDJCHit;
+import io.repseq.core.GeneType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ActionAlignTest {
+    @Test
+    public void testShards() throws Exception {
+        String r1 = ActionAlignTest.class.getResource("/sequences/test_R1.fastq").getFile(),
+                r2 = ActionAlignTest.class.getResource("/sequences/test_R2.fastq").getFile();
+        // Odd number of records, so shards differ in size
+        File[] r1Shards = split(r1, 17), r2Shards = split(r2, 17);
+
+        File concatenated = tempFile(".vdjca"), sharded = tempFile(".vdjca");
+        File concatenatedReport = tempFile(".txt"), shardedReport = tempFile(".txt");
+        File[] concatenatedNotAligned = {tempFile(".fastq"), tempFile(".fastq")},
+                shardedNotAligned = {tempFile(".fastq"), tempFile(".fastq")};
+        Main.main("align", "-s", "hs", "-t", "2", "-r", concatenatedReport.getPath(),
+                "--not-aligned-R1", concatenatedNotAligned[0].getPath(),
+                "--not-aligned-R2", concatenatedNotAligned[1].getPath(),
+                r1, r2, concatenated.getPath());
+        Main.main("align", "-s", "hs", "-t", "2", "-r", shardedReport.getPath(),
+                "--not-aligned-R1", shardedNotAligned[0].getPath(),
+                "--not-aligned-R2", shardedNotAligned[1].getPath(),
+                "--shard-R1", r1Shards[1].getPath(), "--shard-R2", r2Shards[1].getPath(),
+                r1Shards[0].getPath(), r2Shards[0].getPath(),
+                sharded.getPath());
+
+        int count = 0;
+        try (VDJCAlignmentsReader expected = new VDJCAlignmentsReader(concatenated);
+             VDJCAlignmentsReader actual = new VDJCAlignmentsReader(sharded)) {
+            VDJCAlignments e, a;
+            while ((e = expected.take()) != null) {
+                a = actual.take();
+                Assert.assertNotNull(a);
+                Assert.assertEquals(e.getReadId(), a.getReadId());
+                Assert.assertEquals(e.numberOfTargets(), a.numberOfTargets());
+                for (int i = 0; i < e.numberOfTargets(); i++)
+                    Assert.assertEquals(e.getTarget(i), a.getTarget(i));
+                for (GeneType gt : GeneType.VJC_REFERENCE) {
+                    VDJCHit eHit = e.getBestHit(gt), aHit = a.getBestHit(gt);
+                    Assert.assertEquals(eHit == null, aHit == null);
+                    if (eHit != null)
+                        Assert.assertEquals(eHit.getGene().getName(), aHit.getGene().getName());
+                }
+                ++count;
+            }
+            Assert.assertNull(actual.take());
+            Assert.assertEquals(expected.getNumberOfReads(), actual.getNumberOfReads());
+        }
+        Assert.assertTrue(count > 0);
+
+        for (String field : new String[]{"Total sequencing reads", "Successfully aligned reads"})
+            Assert.assertEquals(reportField(concatenatedReport, field), reportField(shardedReport, field));
+
+        // Not aligned reads are written in the same order as for concatenated input
+        for (int i = 0; i < 2; i++)
+            Assert.assertEquals(
+                    Files.readAllLines(concatenatedNotAligned[i].toPath(), StandardCharsets.US_ASCII),
+                    Files.readAllLines(shardedNotAligned[i].toPath(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Splits .fastq file into two files, the first one containing the specified number of records
+     */
+    static File[] split(String fastq, int firstRecords) throws IOException {
+        List<String> lines = Files.readAllLines(new File(fastq).toPath(), StandardCharsets.US_ASCII);
+        File[] result = {tempFile(".fastq"), tempFile(".fastq")};
+        Files.write(result[0].toPath(), lines.subList(0, 4 * firstRecords), StandardCharsets.US_ASCII);
+        Files.write(result[1].toPath(), lines.subList(4 * firstRecords, lines.size()), StandardCharsets.US_ASCII);
+        return result;
+    }
+
+    static String reportField(File report, String field) throws IOException {
+        for (String line : Files.readAllLines(report.toPath(), StandardCharsets.US_ASCII))
+            if (line.startsWith(field + ":"))
+                return line;
+        throw new AssertionError("No " + field + " in report.");
+    }
+
+    static File tempFile(String extension) throws IOException {
+        File file = File.createTempFile("shard", extension);
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.cli.afiltering;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AFilterTest {
+    @Test
+    public void testConstantExpressions() throws Exception {
+        Assert.assertTrue(AFilter.build("1 + 2 * 3 == 7").accept(null));
+        Assert.assertTrue(AFilter.build("(1 + 2) * 3 >= 9 && !(2 < 1)").accept(null));
+        Assert.assertTrue(AFilter.build("false || 'ATG' != \"ATT\"").accept(null));
+        Assert.assertFalse(AFilter.build("-1 > 0 || !true").accept(null));
+        Assert.assertTrue(AFilter.build("10 / 4 == 2.5").accept(null));
+    }
+
+    @Test
+    public void testCompilation() throws Exception {
+        AFilter.build("contains(CDR3) && length(CDR3) > 30 && nFeature(CDR3) != 'TGT'");
+        AFilter.build("score(V) > 100 && gene(V) == 'TRBV12-3' || hasHit(J, 'TRBJ1-1*00')");
+        AFilter.build("chains('TRA,TRB') && targetAlignedTop(0) && targetAlignedAny(1, V)");
+        AFilter.build("numberOfTargets() == 2 && targetMeanQuality(0) > 20 && minQuality(CDR3) >= 10");
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertMalformed("length(CDR3) > ");
+        assertMalformed("length(CDR3)");
+        assertMalformed("length(V) > 1");
+        assertMalformed("score(CDR3) > 1");
+        assertMalformed("unknown(CDR3)");
+        assertMalformed("contains(NoSuchFeature)");
+        assertMalformed("1 == 'a'");
+        assertMalformed("'unterminated == 1");
+        assertMalformed("true true");
+    }
+
+    private static void assertMalformed(String code) {
+        try {
+            AFilter.build(code);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        Assert.fail(code);
+    }
+}
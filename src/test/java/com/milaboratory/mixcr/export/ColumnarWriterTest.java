@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import cc.redberry.pipe.CUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ColumnarWriterTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Integer> objects = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            objects.add(i);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ColumnarWriter<Integer> writer = new ColumnarWriter<>(bos, 10)) {
+            writer.attachInfoProvider(field("value", ColumnType.Int64, false));
+            writer.attachInfoProvider(field("half", ColumnType.Float64, true));
+            writer.attachInfoProvider(field("name", ColumnType.Text, false));
+            writer.putAll(CUtils.asOutputPort(objects), 1);
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        byte[] magic = new byte[ColumnarWriter.MAGIC.length()];
+        input.readFully(magic);
+        Assert.assertEquals(ColumnarWriter.MAGIC, new String(magic, StandardCharsets.US_ASCII));
+        Assert.assertEquals(3, input.readInt());
+        Assert.assertEquals("value", readString(input));
+        Assert.assertEquals(ColumnType.Int64.ordinal(), input.readByte());
+        Assert.assertEquals("half", readString(input));
+        Assert.assertEquals(ColumnType.Float64.ordinal(), input.readByte());
+        Assert.assertEquals("name", readString(input));
+        Assert.assertEquals(ColumnType.Text.ordinal(), input.readByte());
+
+        List<String> dictionary = new ArrayList<>();
+        int row = 0, rows;
+        while ((rows = input.readInt()) != 0) {
+            byte[] presence = new byte[(rows + 7) / 8];
+
+            input.readFully(presence);
+            for (int i = 0; i < rows; i++)
+                Assert.assertEquals(row + i, input.readLong());
+
+            input.readFully(presence);
+            for (int i = 0; i < rows; i++) {
+                boolean present = (presence[i >> 3] & (1 << (i & 7))) != 0;
+                Assert.assertEquals((row + i) % 2 == 0, present);
+                double value = input.readDouble();
+                if (present)
+                    Assert.assertEquals((row + i) / 2.0, value, 0.0);
+            }
+
+            input.readFully(presence);
+            Assert.assertEquals(ColumnarWriter.ENCODING_DICTIONARY, input.readByte());
+            int newEntries = input.readInt();
+            for (int i = 0; i < newEntries; i++)
+                dictionary.add(readString(input));
+            for (int i = 0; i < rows; i++)
+                Assert.assertEquals(name(row + i), dictionary.get(input.readInt()));
+
+            row += rows;
+        }
+        Assert.assertEquals(objects.size(), row);
+        Assert.assertEquals(objects.size(), input.readLong());
+        Assert.assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        // More distinct ids than MAX_DICTIONARY_SIZE, so "id" column switches to plain encoding
+        List<Integer> objects = new ArrayList<>();
+        for (int i = 0; i < 70000; i++)
+            objects.add(i);
+
+        for (int threads : new int[]{1, 4}) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ColumnarWriter<Integer> writer = new ColumnarWriter<>(bos, 1000)) {
+                writer.attachInfoProvider(typedField("value", ColumnType.Int64));
+                writer.attachInfoProvider(typedField("half", ColumnType.Float64));
+                writer.attachInfoProvider(field("name", ColumnType.Text, true));
+                writer.attachInfoProvider(typedField("id", ColumnType.Text));
+                writer.putAll(CUtils.asOutputPort(objects), threads);
+            }
+
+            try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(bos.toByteArray()))) {
+                Assert.assertEquals(4, reader.getNumberOfColumns());
+                Assert.assertEquals("half", reader.getColumnName(1));
+                Assert.assertEquals(ColumnType.Float64, reader.getColumnType(1));
+                int row = 0;
+                while (reader.nextChunk()) {
+                    for (int i = 0; i < reader.getRowsInChunk(); i++, row++) {
+                        Assert.assertEquals(row, reader.getLong(0, i));
+                        Assert.assertEquals(row / 2.0, reader.getDouble(1, i), 0.0);
+                        Assert.assertEquals(row % 2 == 1, reader.isNull(2, i));
+                        if (row % 2 == 0)
+                            Assert.assertEquals(name(row), reader.getText(2, i));
+                        Assert.assertEquals("id" + row, reader.getText(3, i));
+                    }
+                }
+                Assert.assertEquals(objects.size(), row);
+                Assert.assertEquals(objects.size(), reader.getTotalRows());
+            }
+        }
+    }
+
+    @Test
+    public void testTypedAndTextValues() throws Exception {
+        List<Integer> objects = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            objects.add(i);
+
+        // Numbers appended directly and rendered as text give the same output
+        ByteArrayOutputStream typed = new ByteArrayOutputStream(), text = new ByteArrayOutputStream();
+        try (ColumnarWriter<Integer> writer = new ColumnarWriter<>(typed, 10)) {
+            writer.attachInfoProvider(typedField("value", ColumnType.Int64));
+            writer.attachInfoProvider(typedField("half", ColumnType.Float64));
+            writer.putAll(CUtils.asOutputPort(objects), 1);
+        }
+        try (ColumnarWriter<Integer> writer = new ColumnarWriter<>(text, 10)) {
+            writer.attachInfoProvider(field("value", ColumnType.Int64, false));
+            writer.attachInfoProvider(field("half", ColumnType.Float64, false));
+            writer.putAll(CUtils.asOutputPort(objects), 1);
+        }
+        Assert.assertArrayEquals(text.toByteArray(), typed.toByteArray());
+    }
+
+    private static String name(int value) {
+        return "gene" + (value % 3);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static FieldExtractor<Integer> typedField(final String header, final ColumnType type) {
+        return new FieldParameterless<Integer>(Integer.class, "-" + header, header, header, header) {
+            @Override
+            public ColumnType getColumnType() {
+                return type;
+            }
+
+            @Override
+            protected void extract(Integer object, RowBuffer row) {
+                switch (type) {
+                    case Int64:
+                        row.append((long) object);
+                        break;
+                    case Float64:
+                        row.append(object / 2.0);
+                        break;
+                    default:
+                        row.append("id").append(object);
+                }
+            }
+        }.create(OutputMode.ScriptingFriendly, new String[0]);
+    }
+
+    private static FieldExtractor<Integer> field(final String header, final ColumnType type, final boolean nullOdd) {
+        return new FieldParameterless<Integer>(Integer.class, "-" + header, header, header, header) {
+            @Override
+            public ColumnType getColumnType() {
+                return type;
+            }
+
+            @Override
+            protected void extract(Integer object, RowBuffer row) {
+                if (nullOdd && object % 2 == 1)
+                    return;
+                switch (type) {
+                    case Int64:
+                        row.append(object.toString());
+                        break;
+                    case Float64:
+                        row.append(Double.toString(object / 2.0));
+                        break;
+                    default:
+                        row.append(name(object));
+                }
+            }
+        }.create(OutputMode.ScriptingFriendly, new String[0]);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import cc.redberry.pipe.CUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InfoWriterTest {
+    @Test
+    public void testParallelOrder() throws Exception {
+        List<Integer> objects = new ArrayList<>();
+        for (int i = 0; i < 10 * InfoWriter.BLOCK_SIZE + 17; i++)
+            objects.add(i);
+
+        String expected = export(objects, 1);
+        Assert.assertEquals(objects.size() + 1, expected.split("\n").length);
+        Assert.assertEquals(expected, export(objects, 4));
+    }
+
+    private static String export(List<Integer> objects, int threads) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InfoWriter<Integer> writer = new InfoWriter<>(bos)) {
+            writer.attachInfoProvider(new TestExtractor("value"));
+            writer.attachInfoProvider(new TestExtractor("square"));
+            writer.putAll(CUtils.asOutputPort(objects), threads);
+        }
+        return bos.toString();
+    }
+
+    private static final class TestExtractor implements FieldExtractor<Integer> {
+        final String header;
+
+        TestExtractor(String header) {
+            this.header = header;
+        }
+
+        @Override
+        public String getHeader() {
+            return header;
+        }
+
+        @Override
+        public String extractValue(Integer object) {
+            return header.equals("value") ? object.toString() : Integer.toString(object * object);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.export;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class RowBufferTest {
+    @Test
+    public void testNumbers() throws Exception {
+        long[] values = {0, 1, -1, 9, 10, 12345, -9876543210L, Long.MAX_VALUE, Long.MIN_VALUE};
+        RowBuffer row = new RowBuffer(2);
+        for (long value : values) {
+            row.reset();
+            row.append(value);
+            Assert.assertEquals(Long.toString(value), row.toString());
+        }
+        row.reset();
+        row.append(Integer.MIN_VALUE).append('\t').append(0.25).append('\t').append(1.5f);
+        Assert.assertEquals(Integer.MIN_VALUE + "\t0.25\t1.5", row.toString());
+    }
+
+    @Test
+    public void testTypedNumbers() throws Exception {
+        RowBuffer row = new RowBuffer(2);
+        row.append(Long.MIN_VALUE);
+        Assert.assertTrue(row.containsLong());
+        Assert.assertEquals(Long.MIN_VALUE, row.longValue());
+        Assert.assertFalse(row.containsDouble());
+
+        row.reset();
+        row.append(1.5f);
+        Assert.assertTrue(row.containsDouble());
+        Assert.assertEquals(1.5, row.doubleValue(), 0.0);
+
+        // Anything else appended to the buffer makes it text
+        row.append('\t');
+        Assert.assertFalse(row.containsDouble());
+        row.reset();
+        row.append("x").append(12);
+        Assert.assertFalse(row.containsLong());
+        row.reset();
+        Assert.assertFalse(row.containsLong());
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        RowBuffer row = new RowBuffer(1);
+        row.append("abc").append('é').append("xжy").append(new NucleotideSequence("ATTAGACA"));
+        String expected = "abcéxжyATTAGACA";
+        Assert.assertEquals(expected, row.toString());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        row.writeTo(bos);
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bos.toByteArray());
+    }
+}
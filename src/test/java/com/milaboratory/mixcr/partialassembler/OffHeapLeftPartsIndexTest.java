@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.util.RunMiXCR;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class OffHeapLeftPartsIndexTest {
+    @Test
+    public void testSortPairs() throws Exception {
+        Random random = new Random(123);
+        for (int n : new int[]{0, 1, 2, 15, 17, 100, 10000}) {
+            long[] data = new long[2 * n];
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++) {
+                // few distinct keys to check ordering by values inside equal keys
+                data[2 * i] = random.nextInt(10);
+                data[2 * i + 1] = random.nextInt(1000);
+                packed[i] = data[2 * i] * 1000 + data[2 * i + 1];
+            }
+            OffHeapLeftPartsIndex.sortPairs(data, 0, n);
+            Arrays.sort(packed);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(packed[i] / 1000, data[2 * i]);
+                Assert.assertEquals(packed[i] % 1000, data[2 * i + 1]);
+            }
+        }
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        RunMiXCR.RunMiXCRAnalysis params = new RunMiXCR.RunMiXCRAnalysis(
+                RunMiXCR.class.getResource("/sequences/test_R1.fastq").getFile(),
+                RunMiXCR.class.getResource("/sequences/test_R2.fastq").getFile());
+        RunMiXCR.AlignResult align = RunMiXCR.align(params);
+
+        // Every third alignment is a left part, so ordinals differ from alignment indices
+        List<VDJCAlignments> leftParts = new ArrayList<>();
+        try (OffHeapLeftPartsIndex index = new OffHeapLeftPartsIndex(align.parameters.alignerParameters,
+                align.usedGenes)) {
+            for (int i = 0; i < align.alignments.size(); i += 3) {
+                VDJCAlignments alignments = align.alignments.get(i);
+                alignments.setAlignmentsIndex(i);
+                index.add(leftParts.size(), alignments, 0, 0);
+                leftParts.add(alignments);
+            }
+            index.seal();
+
+            // Random access in reverse order
+            for (int i = leftParts.size() - 1; i >= 0; --i) {
+                List<LeftPartsIndex.KMerInfo> infos = index.get(i);
+                Assert.assertEquals(1, infos.size());
+                // packed target sequence is read without decoding of alignments
+                NucleotideSequence target = leftParts.get(i).getTarget(0).getSequence();
+                Assert.assertEquals(target.size(), infos.get(0).sequence.size());
+                Assert.assertTrue(PackedSequence.rangeEquals(new PackedSequence(target), 0, infos.get(0).sequence, 0,
+                        target.size()));
+                VDJCAlignments fetched = infos.get(0).getAlignments();
+                Assert.assertEquals(leftParts.get(i).getReadId(), fetched.getReadId());
+                Assert.assertEquals(leftParts.get(i).getAlignmentsIndex(), fetched.getAlignmentsIndex());
+                Assert.assertEquals(leftParts.get(i).getTarget(0), fetched.getTarget(0));
+                if (i % 2 == 0)
+                    Assert.assertTrue(index.claim(infos.get(0)));
+            }
+
+            // Odd left parts are left unclaimed
+            int unclaimed = 0;
+            for (VDJCAlignments fetched : index.unclaimed()) {
+                VDJCAlignments expected = leftParts.get(2 * unclaimed + 1);
+                Assert.assertEquals(expected.getReadId(), fetched.getReadId());
+                Assert.assertEquals(expected.getAlignmentsIndex(), fetched.getAlignmentsIndex());
+                ++unclaimed;
+            }
+            Assert.assertEquals(leftParts.size() / 2, unclaimed);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.partialassembler;
+
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.test.TestUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class PackedSequenceTest {
+    @Test
+    public void testRangeEquals() throws Exception {
+        Random random = new Random(17);
+        for (int t = 0; t < 10000; t++) {
+            NucleotideSequence a = TestUtil.randomSequence(NucleotideSequence.ALPHABET, random, 1, 150),
+                    b = random.nextBoolean() ? a : TestUtil.randomSequence(NucleotideSequence.ALPHABET, random, 1, 150);
+            int aFrom = random.nextInt(a.size()), bFrom = random.nextInt(b.size());
+            int length = random.nextInt(Math.min(a.size() - aFrom, b.size() - bFrom) + 1);
+            if (a == b)
+                bFrom = aFrom;
+            boolean expected = a.getRange(aFrom, aFrom + length).equals(b.getRange(bFrom, bFrom + length));
+            Assert.assertEquals(expected, PackedSequence.rangeEquals(new PackedSequence(a), aFrom,
+                    new PackedSequence(b), bFrom, length));
+        }
+    }
+
+    @Test
+    public void testFromWords() throws Exception {
+        Random random = new Random(42);
+        for (int t = 0; t < 1000; t++) {
+            NucleotideSequence seq = TestUtil.randomSequence(NucleotideSequence.ALPHABET, random, 1, 150);
+            PackedSequence packed = new PackedSequence(seq),
+                    restored = new PackedSequence(packed.words.clone(), seq.size());
+            Assert.assertEquals(seq.size(), restored.size());
+            for (int i = 0; i < seq.size(); i++)
+                Assert.assertEquals(seq.codeAt(i), restored.codeAt(i));
+            Assert.assertTrue(PackedSequence.rangeEquals(packed, 0, restored, 0, seq.size()));
+        }
+
+        PackedSequence a = new PackedSequence(new PackedSequence(new NucleotideSequence("ACGTAACGT")).words, 9),
+                b = new PackedSequence(new NucleotideSequence("TTACGTNACGTAA"));
+        Assert.assertTrue(PackedSequence.rangeEquals(a, 0, b, 2, 4));
+        Assert.assertFalse(PackedSequence.rangeEquals(a, 0, b, 2, 9));
+    }
+
+    @Test
+    public void testWildcards() throws Exception {
+        PackedSequence a = new PackedSequence(new NucleotideSequence("ACGTNACGT")),
+                b = new PackedSequence(new NucleotideSequence("TTACGTNACGTAA"));
+        Assert.assertTrue(PackedSequence.rangeEquals(a, 0, b, 2, 9));
+        Assert.assertFalse(PackedSequence.rangeEquals(a, 0, b, 1, 9));
+    }
+}
@@ -14,6 +14,7 @@ import com.milaboratory.mixcr.vdjaligners.VDJCAlignerParameters;
 import com.milaboratory.mixcr.vdjaligners.VDJCParametersPresets;
 import com.milaboratory.test.TestUtil;
 import com.milaboratory.util.RandomUtil;
+import gnu.trove.list.array.TLongArrayList;
 import io.repseq.core.GeneFeature;
 import io.repseq.core.GeneType;
 import io.repseq.core.VDJCGene;
@@ -173,6 +174,93 @@ public class PartialAlignmentsAssemblerTest {
         }
     }
 
+    @Test
+    public void testMultiThreaded() throws Exception {
+        RandomUtil.reseedThreadLocal(47);
+        final InputTestData input = createTestData(47);
+        final NucleotideSequence reference = input.reference;
+        final EnumMap<GeneType, int[]> refPositions = input.refPositions;
+        PairedRead[] data = new PairedRead[40];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = createPair(i, reference.getRange(refPositions.get(Diversity)[0] - 85, refPositions.get(Diversity)[0] + 10), reference.getRange(refPositions.get(Diversity)[1], refPositions.get(Diversity)[1] + 85).getReverseComplement());
+            data[i + 1] = createPair(i + 1, reference.getRange(refPositions.get(Diversity)[0] - 135, refPositions.get(Diversity)[0] - 70), reference.getRange(refPositions.get(Diversity)[0] - 8, refPositions.get(Diversity)[0] + 85).getReverseComplement());
+        }
+
+        final TestResult sequential = processData(data, input, 1);
+        assertSameResults(sequential, processData(data, input, 4));
+        assertSameResults(sequential, processData(data, input, 4, true));
+    }
+
+    @Test
+    public void testMultiRound() throws Exception {
+        // J germline in the reference should be long enough to be aligned in a read ending before CDR3End
+        InputTestData input;
+        for (long seed = 0; ; ++seed) {
+            RandomUtil.reseedThreadLocal(seed);
+            input = createTestData(seed);
+            if (input.germlineCuts.get(Joining)[0] <= 2)
+                break;
+        }
+        final NucleotideSequence reference = input.reference;
+        final EnumMap<GeneType, int[]> refPositions = input.refPositions;
+        final int vEnd = refPositions.get(Variable)[1],
+                dEnd = refPositions.get(Diversity)[1],
+                jBegin = refPositions.get(Joining)[0],
+                cdr3End = jBegin + input.genes.get(Joining).getFeature(GermlineJCDR3Part).size()
+                        - input.germlineCuts.get(Joining)[0];
+
+        // n chains of three fragments:
+        //   left parts (V, no J),
+        //   short right parts (J, no CDR3End), claiming all left parts in the first round,
+        //   full right parts (J with CDR3End), which find no unclaimed left parts in the first round, but overlap
+        //   merged left + short right fragments (still without CDR3) in the second one
+        final int n = 10;
+        NucleotideSequence[] fragments = {
+                reference.getRange(vEnd - 90, dEnd + 6),
+                reference.getRange(vEnd - 5, cdr3End - 3),
+                reference.getRange(vEnd - 5, dEnd + 85)
+        };
+        PairedRead[] data = new PairedRead[3 * n];
+        for (int i = 0; i < data.length; i++) {
+            NucleotideSequence fragment = fragments[i / n];
+            data[i] = createPair(i, fragment, fragment.getReverseComplement());
+        }
+
+        final TestResult singleRound = processData(data, input, 1);
+        Assert.assertEquals(1, singleRound.overlappedByRound.size());
+        Assert.assertEquals(n, singleRound.overlappedByRound.get(0));
+        Assert.assertEquals(2 * n, singleRound.assembled.size());
+        for (VDJCAlignments al : singleRound.assembled)
+            Assert.assertNull(al.getFeature(GeneFeature.CDR3));
+
+        final TestResult multiRound = processData(data, input, 1, false, 3);
+        // third round is not started as no fragments without CDR3 are left after the second one
+        Assert.assertEquals(2, multiRound.overlappedByRound.size());
+        Assert.assertEquals(n, multiRound.overlappedByRound.get(0));
+        Assert.assertEquals(n, multiRound.overlappedByRound.get(1));
+        Assert.assertEquals(n, multiRound.assembled.size());
+        for (VDJCAlignments al : multiRound.assembled) {
+            Assert.assertEquals(1, al.numberOfTargets());
+            Assert.assertTrue(input.VJJunction.toString().contains(al.getFeature(GeneFeature.VJJunction).getSequence().toString()));
+        }
+
+        assertSameResults(multiRound, processData(data, input, 4, false, 3));
+        assertSameResults(multiRound, processData(data, input, 4, true, 3));
+        assertSameResults(multiRound, processData(data, input, 4, true, 0));
+        assertSameResults(singleRound, processData(data, input, 4, true, 1));
+    }
+
+    static void assertSameResults(TestResult expectedResult, TestResult actualResult) {
+        Assert.assertEquals(expectedResult.assembled.size(), actualResult.assembled.size());
+        for (int i = 0; i < expectedResult.assembled.size(); i++) {
+            VDJCAlignments expected = expectedResult.assembled.get(i), actual = actualResult.assembled.get(i);
+            Assert.assertEquals(expected.getReadId(), actual.getReadId());
+            Assert.assertEquals(expected.numberOfTargets(), actual.numberOfTargets());
+            for (int j = 0; j < expected.numberOfTargets(); j++)
+                Assert.assertEquals(expected.getTarget(j), actual.getTarget(j));
+        }
+    }
+
     static <V> EnumMap<GeneType, V> gtMap() {
         return new EnumMap<>(GeneType.class);
     }
@@ -200,15 +288,31 @@ public class PartialAlignmentsAssemblerTest {
         final PairedRead[] inputReads;
         final RunMiXCR.AlignResult inputAlignments;
         final ArrayList<VDJCAlignments> assembled;
+        final TLongArrayList overlappedByRound;
 
-        public TestResult(PairedRead[] inputReads, RunMiXCR.AlignResult inputAlignments, ArrayList<VDJCAlignments> assembled) {
+        public TestResult(PairedRead[] inputReads, RunMiXCR.AlignResult inputAlignments, ArrayList<VDJCAlignments> assembled,
+                          TLongArrayList overlappedByRound) {
             this.inputReads = inputReads;
             this.inputAlignments = inputAlignments;
             this.assembled = assembled;
+            this.overlappedByRound = overlappedByRound;
         }
     }
 
     public static TestResult processData(PairedRead[] data, InputTestData input) throws Exception {
+        return processData(data, input, 1);
+    }
+
+    public static TestResult processData(PairedRead[] data, InputTestData input, int threads) throws Exception {
+        return processData(data, input, threads, false);
+    }
+
+    public static TestResult processData(PairedRead[] data, InputTestData input, int threads, boolean offHeapIndex) throws Exception {
+        return processData(data, input, threads, offHeapIndex, 1);
+    }
+
+    public static TestResult processData(PairedRead[] data, InputTestData input, int threads, boolean offHeapIndex,
+                                         int rounds) throws Exception {
 
         RunMiXCR.RunMiXCRAnalysis params = new RunMiXCR.RunMiXCRAnalysis(data);
         params.alignerParameters.setAllowPartialAlignments(true);
@@ -239,19 +343,22 @@ public class PartialAlignmentsAssemblerTest {
 
 
         final ByteArrayOutputStream overlappedSerializedData = new ByteArrayOutputStream();
+        final TLongArrayList overlappedByRound;
         try (VDJCAlignmentsWriter writer = new VDJCAlignmentsWriter(overlappedSerializedData)) {
             final PartialAlignmentsAssemblerParameters pParameters = PartialAlignmentsAssemblerParameters.getDefault();
             pParameters.setMergerParameters(pParameters.getMergerParameters().overrideMinimalIdentity(0.0));
-            PartialAlignmentsAssembler assembler = new PartialAlignmentsAssembler(pParameters, writer, true, false);
+            PartialAlignmentsAssembler assembler = new PartialAlignmentsAssembler(pParameters, writer, true, false, threads);
+            assembler.setOffHeapIndex(offHeapIndex);
 
             try (final VDJCAlignmentsReader reader = inputAlignments.resultReader()) {
                 assembler.buildLeftPartsIndex(reader);
             }
             try (final VDJCAlignmentsReader reader = inputAlignments.resultReader()) {
-                assembler.searchOverlaps(reader);
+                assembler.searchOverlaps(reader, rounds);
             }
             assembler.writeReport(new ReportHelper(System.out));
             System.out.println("\n");
+            overlappedByRound = assembler.overlappedByRound;
         }
 
 
@@ -261,7 +368,7 @@ public class PartialAlignmentsAssemblerTest {
         VDJCAlignments al;
         while ((al = readResult.take()) != null)
             overlapped.add(al);
-        return new TestResult(data, inputAlignments, overlapped);
+        return new TestResult(data, inputAlignments, overlapped, overlappedByRound);
     }
 
     public static InputTestData createTestData() throws Exception {
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.InputPort;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.mixcr.util.CloneSetsJoin.Overlap;
+import com.milaboratory.mixcr.util.CloneSetsJoin.SharedClonotype;
+import io.repseq.core.GeneType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class CloneSetsJoinTest {
+    @Test
+    public void testSmall() throws Exception {
+        try (CloneSetsJoin join = new CloneSetsJoin(3, 7, 100, 2, false, false, false)) {
+            join.add(0, 0, 10, seq("ATTAGACA"), "V1", "J1", null);
+            join.add(0, 1, 5, seq("ATTAGACC"), "V1", "J1", null);
+            join.add(1, 0, 7, seq("ATTAGACA"), "V2", "J1", null);
+            join.add(1, 1, 3, seq("GGGGGG"), "V1", "J1", null);
+            join.add(2, 0, 2, seq("ATTAGACA"), "V1", "J1", null);
+            join.add(2, 1, 1, seq("GGGGGG"), "V1", "J1", null);
+            join.add(2, 2, 4, seq("TTTTT"), "V1", "J1", null);
+
+            List<SharedClonotype> shared = new ArrayList<>();
+            Overlap overlap = join.run(2, collect(shared));
+
+            Assert.assertArrayEquals(new long[]{2, 2, 3}, overlap.clones);
+            Assert.assertArrayEquals(new long[]{15, 10, 7}, overlap.reads);
+            Assert.assertArrayEquals(new long[]{1, 0, 1}, overlap.uniqueClones);
+            Assert.assertArrayEquals(new long[]{5, 0, 4}, overlap.uniqueReads);
+            Assert.assertEquals(1, overlap.sharedClones[0][1]);
+            Assert.assertEquals(2, overlap.sharedClones[1][2]);
+            Assert.assertEquals(3, overlap.sharedClones[2][2]);
+            Assert.assertEquals(10, overlap.sharedReads[0][2]);
+            Assert.assertEquals(3, overlap.sharedReads[2][1]);
+
+            Assert.assertEquals(2, shared.size());
+            for (SharedClonotype clonotype : shared)
+                if (clonotype.getNumberOfSamples() == 3) {
+                    Assert.assertArrayEquals(new long[]{10, 7, 2}, clonotype.counts);
+                    Assert.assertEquals("V1", clonotype.v);
+                } else
+                    Assert.assertArrayEquals(new int[]{-1, 1, 1}, clonotype.cloneIds);
+        }
+    }
+
+    @Test
+    public void testGenesInKey() throws Exception {
+        try (CloneSetsJoin join = new CloneSetsJoin(2, 3, 100, 1, true, false, false)) {
+            join.add(0, 0, 10, seq("ATTAGACA"), "V1", "J1", null);
+            join.add(1, 0, 7, seq("ATTAGACA"), "V2", "J1", null);
+            join.add(1, 1, 7, seq("ATTAGACA"), "V1", "J2", null);
+            Overlap overlap = join.run(2, null);
+            Assert.assertEquals(1, overlap.sharedClones[0][1]);
+            Assert.assertEquals(7, overlap.sharedReads[1][0]);
+        }
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        try (CloneSetsJoin join = new CloneSetsJoin(2, 2, 100, 1, false, false, false)) {
+            join.add(1, 0, 10, seq("ATTAGACA"), "V1", "J1", null);
+            join.add(1, 1, 7, seq("ATTAGACA"), "V2", "J1", null);
+            join.run(2, null);
+            Assert.fail();
+        } catch (CloneSetsJoin.DuplicateKeyException e) {
+            Assert.assertEquals(1, e.sample);
+            Assert.assertEquals(GeneType.Variable, e.differentGene);
+        }
+    }
+
+    @Test
+    public void testLimitSharedByThreads() throws Exception {
+        try (CloneSetsJoin join = new CloneSetsJoin(2, 100, 100, 4, false, false, false)) {
+            Assert.assertEquals(1, join.getNumberOfPartitions());
+        }
+        try (CloneSetsJoin join = new CloneSetsJoin(2, 1000, 100, 1, false, false, false)) {
+            Assert.assertEquals(16, join.getNumberOfPartitions());
+        }
+        // 4 partitions (~16 clones each) are loaded at once
+        try (CloneSetsJoin join = new CloneSetsJoin(2, 1000, 100, 4, false, false, false)) {
+            Assert.assertEquals(64, join.getNumberOfPartitions());
+        }
+    }
+
+    @Test
+    public void testPartitioned() throws Exception {
+        Random random = new Random(123);
+        int samples = 4, clones = 2000;
+        List<NucleotideSequence> pool = new ArrayList<>();
+        for (int i = 0; i < clones; i++)
+            pool.add(randomSequence(random, 20 + random.nextInt(20)));
+
+        List<List<Integer>> sampleClones = new ArrayList<>();
+        long total = 0;
+        for (int s = 0; s < samples; s++) {
+            Set<Integer> set = new HashSet<>();
+            for (int i = 0; i < clones / 2; i++)
+                set.add(random.nextInt(clones));
+            sampleClones.add(new ArrayList<>(set));
+            total += set.size();
+        }
+
+        Overlap[] results = new Overlap[2];
+        List<List<SharedClonotype>> shared = new ArrayList<>();
+        int[] maxInMemory = {Integer.MAX_VALUE, 100};
+        for (int r = 0; r < 2; r++) {
+            try (CloneSetsJoin join = new CloneSetsJoin(samples, total, maxInMemory[r], 3, false, false, false)) {
+                Assert.assertEquals(r == 0, join.getNumberOfPartitions() == 1);
+                for (int s = 0; s < samples; s++)
+                    for (int i : sampleClones.get(s))
+                        join.add(s, i, i + 1, new NucleotideSequence[]{pool.get(i)}, null, null, null);
+                List<SharedClonotype> list = new ArrayList<>();
+                results[r] = join.run(2, collect(list));
+                shared.add(list);
+            }
+        }
+
+        for (int i = 0; i < samples; i++) {
+            Assert.assertEquals(results[0].uniqueClones[i], results[1].uniqueClones[i]);
+            Assert.assertArrayEquals(results[0].sharedClones[i], results[1].sharedClones[i]);
+            Assert.assertArrayEquals(results[0].sharedReads[i], results[1].sharedReads[i]);
+        }
+        Assert.assertEquals(shared.get(0).size(), shared.get(1).size());
+        for (int i = 0; i < shared.get(0).size(); i++)
+            Assert.assertArrayEquals(shared.get(0).get(i).cloneIds, shared.get(1).get(i).cloneIds);
+
+        // Brute-force check
+        Map<NucleotideSequence, Set<Integer>> presence = new HashMap<>();
+        for (int s = 0; s < samples; s++)
+            for (int i : sampleClones.get(s)) {
+                Set<Integer> set = presence.get(pool.get(i));
+                if (set == null)
+                    presence.put(pool.get(i), set = new HashSet<>());
+                set.add(s);
+            }
+        long expected01 = 0;
+        for (Set<Integer> set : presence.values())
+            if (set.contains(0) && set.contains(1))
+                ++expected01;
+        Assert.assertEquals(expected01, results[1].sharedClones[0][1]);
+    }
+
+    static NucleotideSequence[] seq(String... sequences) {
+        NucleotideSequence[] result = new NucleotideSequence[sequences.length];
+        for (int i = 0; i < sequences.length; i++)
+            result[i] = new NucleotideSequence(sequences[i]);
+        return result;
+    }
+
+    static NucleotideSequence randomSequence(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = "ACGT".charAt(random.nextInt(4));
+        return new NucleotideSequence(new String(chars));
+    }
+
+    static InputPort<SharedClonotype> collect(final List<SharedClonotype> list) {
+        return new InputPort<SharedClonotype>() {
+            @Override
+            public void put(SharedClonotype clonotype) {
+                if (clonotype != null)
+                    list.add(clonotype);
+            }
+        };
+    }
+}
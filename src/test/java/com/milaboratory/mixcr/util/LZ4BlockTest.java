@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LZ4BlockTest {
+    @Test
+    public void testBlocks() throws Exception {
+        Random random = new Random(12);
+        int[] hashTable = new int[LZ4Block.HASH_TABLE_SIZE];
+        for (int i = 0; i < 300; i++) {
+            byte[] data = data(random, random.nextInt(i < 100 ? 100 : LZ4Block.MAX_DISTANCE + 1));
+            byte[] compressed = new byte[LZ4Block.maxCompressedLength(data.length)];
+            int length = LZ4Block.compress(data, 0, data.length, compressed, 0, hashTable);
+            byte[] decompressed = new byte[data.length];
+            LZ4Block.decompress(compressed, 0, length, decompressed, 0, data.length);
+            Assert.assertArrayEquals(data, decompressed);
+        }
+    }
+
+    @Test
+    public void testCompressionRatio() throws Exception {
+        byte[] data = new byte[60000];
+        Arrays.fill(data, (byte) 'A');
+        byte[] compressed = new byte[LZ4Block.maxCompressedLength(data.length)];
+        int length = LZ4Block.compress(data, 0, data.length, compressed, 0, new int[LZ4Block.HASH_TABLE_SIZE]);
+        Assert.assertTrue(length < 500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorrupted() throws Exception {
+        byte[] data = data(new Random(1), 1000);
+        byte[] compressed = new byte[LZ4Block.maxCompressedLength(data.length)];
+        int length = LZ4Block.compress(data, 0, data.length, compressed, 0, new int[LZ4Block.HASH_TABLE_SIZE]);
+        LZ4Block.decompress(compressed, 0, length - 1, new byte[data.length], 0, data.length);
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        Random random = new Random(13);
+        byte[] data = data(random, 1000000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = new LZ4BlockOutputStream(bos)) {
+            int p = 0;
+            while (p < data.length) {
+                if (random.nextBoolean())
+                    os.write(data[p++]);
+                else {
+                    int l = Math.min(data.length - p, random.nextInt(100000));
+                    os.write(data, p, l);
+                    p += l;
+                }
+            }
+        }
+        Assert.assertTrue(bos.size() < data.length);
+
+        InputStream is = new BufferedInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertTrue(LZ4BlockInputStream.hasMagic(is));
+        DataInputStream dis = new DataInputStream(new LZ4BlockInputStream(is));
+        byte[] decompressed = new byte[data.length];
+        dis.readFully(decompressed);
+        Assert.assertArrayEquals(data, decompressed);
+        Assert.assertEquals(-1, dis.read());
+    }
+
+    /**
+     * Sequence-like data with repeats
+     */
+    static byte[] data(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = i > 100 && random.nextInt(10) != 0
+                    ? data[i - 1 - random.nextInt(100)]
+                    : (byte) "ACGT".charAt(random.nextInt(4));
+        return data;
+    }
+}
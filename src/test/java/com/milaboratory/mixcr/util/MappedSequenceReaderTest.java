@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MappedSequenceReaderTest {
+    @Test
+    public void testRandomRecords() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            boolean fasta = random.nextBoolean();
+            String newLine = random.nextBoolean() ? "\r\n" : "\n";
+            List<String[]> records = new ArrayList<>();
+            StringBuilder content = new StringBuilder();
+            for (int j = random.nextInt(30) + 1; j > 0; --j) {
+                StringBuilder sequence = new StringBuilder(), quality = new StringBuilder();
+                for (int k = random.nextInt(60); k > 0; --k) {
+                    sequence.append("ACGT".charAt(random.nextInt(4)));
+                    quality.append((char) ('#' + random.nextInt(40)));
+                }
+                String description = "read " + j;
+                records.add(new String[]{description, sequence.toString(), quality.toString()});
+                if (random.nextInt(5) == 0)
+                    content.append(newLine);
+                if (fasta) {
+                    content.append('>').append(description).append(newLine);
+                    for (int k = 0; k < sequence.length(); k += 17)
+                        content.append(sequence, k, Math.min(k + 17, sequence.length())).append(newLine);
+                } else
+                    content.append('@').append(description).append(newLine)
+                            .append(sequence).append(newLine)
+                            .append('+').append(newLine)
+                            .append(quality).append(newLine);
+            }
+            if (random.nextBoolean())
+                content.setLength(content.length() - newLine.length());
+
+            File file = write(content.toString());
+            byte[] bytes = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+            // small windows to test records crossing windows boundaries
+            try (MappedSequenceFile reader = new MappedSequenceFile(file, fasta, true, 150 + random.nextInt(400))) {
+                for (int j = 0; j < records.size(); j++) {
+                    SingleRead read = reader.take(j);
+                    Assert.assertNotNull(read);
+                    Assert.assertEquals(j, read.getId());
+                    Assert.assertEquals(records.get(j)[0], read.getDescription());
+                    Assert.assertEquals(records.get(j)[1], read.getData().getSequence().toString());
+                    if (!fasta)
+                        for (int k = 0; k < read.getData().size(); k++)
+                            Assert.assertEquals(records.get(j)[2].charAt(k) - 33, read.getData().getQuality().value(k));
+                    Assert.assertEquals(fasta ? '>' : '@', bytes[(int) reader.getRecordOffset()]);
+                }
+                Assert.assertNull(reader.take(records.size()));
+            }
+        }
+    }
+
+    @Test
+    public void testPairedWithWildcards() throws Exception {
+        File r1 = write("@a\nANNRT\n+\nIIIII\n@b\nAC\n+\nII\n"),
+                r2 = write("@a2\nGG\n+\nII\n@b2\nTT\n+\nII\n");
+        try (MappedSequenceReader<PairedRead> reader = MappedSequenceReader.paired(r1, r2, false)) {
+            PairedRead read = reader.take();
+            NSequenceWithQuality data = read.getRead(0).getData();
+            Assert.assertNull(read.getRead(0).getDescription());
+            Assert.assertEquals('A', data.getSequence().toString().charAt(0));
+            Assert.assertEquals(40, data.getQuality().value(0));
+            Assert.assertEquals(0, data.getQuality().value(1));
+            Assert.assertTrue("AG".indexOf(data.getSequence().toString().charAt(3)) >= 0);
+            Assert.assertEquals("GG", read.getRead(1).getData().getSequence().toString());
+            Assert.assertEquals("TT", reader.take().getRead(1).getData().getSequence().toString());
+            Assert.assertNull(reader.take());
+            Assert.assertEquals(2, reader.getNumberOfReads());
+            Assert.assertTrue(reader.isFinished());
+        }
+    }
+
+    @Test
+    public void testWildcardsDontDependOnReadId() throws Exception {
+        File file = write("@a\nAC\n+\nII\n@b\nNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNN\n+\n" +
+                "IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII\n");
+        try (MappedSequenceFile sequential = new MappedSequenceFile(file, false);
+             MappedSequenceFile random = new MappedSequenceFile(file, false)) {
+            sequential.take(0);
+            SingleRead read = sequential.take(1);
+            long offset = sequential.getRecordOffset();
+            SingleRead fetched = random.read(offset, 12345);
+            Assert.assertEquals(12345, fetched.getId());
+            Assert.assertEquals(read.getData(), fetched.getData());
+        }
+    }
+
+    @Test
+    public void testPositionHashesDontDependOnDescriptions() throws Exception {
+        File r1 = write("@a\nAC\n+\nII\n@b\nAC\n+\nII\n"),
+                r2 = write("@a2\nGG\n+\nII\n@b2\nGG\n+\nII\n");
+        try (MappedSequenceReader<PairedRead> withDescriptions = MappedSequenceReader.paired(r1, r2, true);
+             MappedSequenceReader<PairedRead> withoutDescriptions = MappedSequenceReader.paired(r1, r2, false)) {
+            withDescriptions.enablePositionHashes();
+            withoutDescriptions.enablePositionHashes();
+            for (int i = 0; i < 2; i++) {
+                withDescriptions.take();
+                withoutDescriptions.take();
+            }
+            long hash0 = withDescriptions.pollPositionHash(0), hash1 = withDescriptions.pollPositionHash(1);
+            Assert.assertEquals(hash0, withoutDescriptions.pollPositionHash(0));
+            Assert.assertEquals(hash1, withoutDescriptions.pollPositionHash(1));
+            // identical reads get different seeds
+            Assert.assertTrue(hash0 != hash1);
+            Assert.assertTrue(withDescriptions.positionHashes.isEmpty());
+        }
+    }
+
+    @Test
+    public void testPhred64() throws Exception {
+        try (MappedSequenceReader<SingleRead> reader = MappedSequenceReader.single(write("@a\nAC\n+\nhb\n"), true)) {
+            Assert.assertEquals(40, reader.take().getData().getQuality().value(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongFormat() throws Exception {
+        try (MappedSequenceReader<SingleRead> reader = MappedSequenceReader.single(write("@a\nAC\n+\nIII\n"), true)) {
+            reader.take();
+        }
+    }
+
+    static File write(String content) throws IOException {
+        File file = TempFileManager.getTempFile();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SingleRead;
+import com.milaboratory.mixcr.basictypes.OriginalReadsSource;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCHit;
+import io.repseq.core.GeneType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class OriginalReadsFetcherTest {
+    @Test
+    public void testFetch() throws Exception {
+        Random random = new Random(1);
+        File r1 = randomFastq(random, 500), r2 = randomFastq(random, 500);
+
+        List<PairedRead> reads = new ArrayList<>();
+        List<VDJCAlignments> alignments = new ArrayList<>();
+        try (MappedSequenceReader<PairedRead> reader = MappedSequenceReader.paired(r1, r2, true)) {
+            reader.enableReferences();
+            PairedRead read;
+            while ((read = reader.take()) != null) {
+                reads.add(read);
+                VDJCAlignments al = new VDJCAlignments(read.getId(), new EnumMap<GeneType, VDJCHit[]>(GeneType.class),
+                        read.getRead(0).getData());
+                al.setOriginalReadReferences(reader.pollReferences(read.getId()));
+                alignments.add(al);
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < reads.size(); i++)
+            order.add(i);
+        Collections.shuffle(order, random);
+
+        try (OriginalReadsFetcher fetcher = new OriginalReadsFetcher(
+                Arrays.asList(OriginalReadsSource.create(r1), OriginalReadsSource.create(r2)))) {
+            for (int i : order) {
+                PairedRead fetched = (PairedRead) fetcher.fetch(alignments.get(i));
+                for (int j = 0; j < 2; j++) {
+                    SingleRead expected = reads.get(i).getRead(j), actual = fetched.getRead(j);
+                    Assert.assertEquals(expected.getDescription(), actual.getDescription());
+                    // wildcards are replaced by the same letters
+                    Assert.assertEquals(expected.getData(), actual.getData());
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testModifiedSource() throws Exception {
+        File file = randomFastq(new Random(1), 10);
+        OriginalReadsSource source = OriginalReadsSource.create(file);
+        try (OutputStream os = new FileOutputStream(file, true)) {
+            os.write("@extra\nA\n+\nI\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        new OriginalReadsFetcher(Collections.singletonList(source)).close();
+    }
+
+    static File randomFastq(Random random, int count) throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(80);
+            content.append("@read").append(i).append('\n');
+            for (int j = 0; j < length; j++)
+                content.append("ACGTN".charAt(random.nextInt(5)));
+            content.append("\n+\n");
+            for (int j = 0; j < length; j++)
+                content.append((char) ('#' + random.nextInt(40)));
+            content.append('\n');
+        }
+        File file = TempFileManager.getTempFile();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class ParallelGzipInputStreamTest {
+    @Test
+    public void testMultiMemberGzip() throws Exception {
+        byte[] data = randomData(3000000);
+        File file = TempFileManager.getTempFile();
+        try (OutputStream os = new FileOutputStream(file)) {
+            for (int p = 0; p < data.length; p += 1000000) {
+                GZIPOutputStream gzip = new GZIPOutputStream(os);
+                gzip.write(data, p, 1000000);
+                gzip.finish();
+            }
+        }
+        assertDecompressed(data, file);
+    }
+
+    @Test
+    public void testBGZF() throws Exception {
+        byte[] data = randomData(3000000);
+        File file = TempFileManager.getTempFile();
+        writeBGZF(data, file);
+        assertDecompressed(data, file);
+    }
+
+    @Test(timeout = 10000)
+    public void testFailure() throws Exception {
+        byte[] data = randomData(3000000);
+        File file = TempFileManager.getTempFile();
+        writeBGZF(data, file);
+        // Corrupting CRC of the first block
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(16);
+            int blockSize = (raf.read() | raf.read() << 8) + 1;
+            raf.seek(blockSize - 8);
+            int b = raf.read();
+            raf.seek(blockSize - 8);
+            raf.write(b ^ 0xFF);
+        }
+        try (ParallelGzipInputStream stream = new ParallelGzipInputStream(file, 4)) {
+            byte[] buffer = new byte[777];
+            // error is thrown by all reads after the failure (instead of blocking)
+            for (int i = 0; i < 3; i++)
+                try {
+                    while (stream.read(buffer) > 0) ;
+                    Assert.fail();
+                } catch (IOException e) {
+                    Assert.assertTrue(e.getMessage().contains("CRC mismatch"));
+                }
+        }
+    }
+
+    static void assertDecompressed(byte[] expected, File file) throws IOException {
+        for (int threads : new int[]{1, 4})
+            try (ParallelGzipInputStream stream = new ParallelGzipInputStream(file, threads)) {
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                byte[] buffer = new byte[777];
+                int read;
+                while ((read = stream.read(buffer)) > 0)
+                    actual.write(buffer, 0, read);
+                Assert.assertArrayEquals(expected, actual.toByteArray());
+                Assert.assertTrue(stream.isFinished());
+                Assert.assertEquals(1.0, stream.getProgress(), 1E-9);
+            }
+    }
+
+    static byte[] randomData(int size) {
+        Random random = new Random(1);
+        byte[] data = new byte[size];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) "ACGT\n@+".charAt(random.nextInt(7));
+        return data;
+    }
+
+    /**
+     * Writes data in BGZF format (the last block is an empty EOF marker block)
+     */
+    static void writeBGZF(byte[] data, File file) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            byte[] buffer = new byte[70000];
+            for (int offset = 0; offset <= data.length; offset += 60000) {
+                int length = Math.min(60000, data.length - offset);
+                Deflater deflater = new Deflater(6, true);
+                deflater.setInput(data, offset, length);
+                deflater.finish();
+                int compressed = deflater.deflate(buffer);
+                deflater.end();
+                int blockSize = 18 + compressed + 8 - 1;
+                os.write(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0,
+                        (byte) blockSize, (byte) (blockSize >> 8)});
+                os.write(buffer, 0, compressed);
+                CRC32 crc = new CRC32();
+                crc.update(data, offset, length);
+                writeInt(os, (int) crc.getValue());
+                writeInt(os, length);
+                if (length == 0)
+                    break;
+            }
+        }
+    }
+
+    static void writeInt(OutputStream os, int value) throws IOException {
+        os.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+    }
+}
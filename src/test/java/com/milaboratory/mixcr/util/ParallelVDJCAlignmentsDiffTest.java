@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.InputPort;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsIndex;
+import com.milaboratory.mixcr.basictypes.VDJCAlignmentsWriter;
+import com.milaboratory.mixcr.util.VDJCAlignmentsDifferenceReader.Diff;
+import com.milaboratory.mixcr.util.VDJCAlignmentsDifferenceReader.DiffStatus;
+import com.milaboratory.util.TempFileManager;
+import io.repseq.core.GeneFeature;
+import io.repseq.core.VDJCLibraryRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelVDJCAlignmentsDiffTest {
+    @Test
+    public void test1() throws Exception {
+        RunMiXCR.RunMiXCRAnalysis params = new RunMiXCR.RunMiXCRAnalysis(
+                RunMiXCR.class.getResource("/sequences/test_R1.fastq").getFile(),
+                RunMiXCR.class.getResource("/sequences/test_R2.fastq").getFile());
+
+        RunMiXCR.AlignResult align = RunMiXCR.align(params);
+
+        // Some alignments are removed from the first file, and some other from the second one
+        File file1 = TempFileManager.getTempFile(), file2 = TempFileManager.getTempFile();
+        int onlyIn1 = 0, onlyIn2 = 0;
+        try (VDJCAlignmentsWriter writer1 = new VDJCAlignmentsWriter(file1);
+             VDJCAlignmentsWriter writer2 = new VDJCAlignmentsWriter(file2)) {
+            writer1.header(align.aligner);
+            writer2.header(align.aligner);
+            for (int i = 0; i < align.alignments.size(); i++) {
+                VDJCAlignments alignment = align.alignments.get(i);
+                if (i % 7 != 3)
+                    writer1.write(alignment);
+                else
+                    ++onlyIn2;
+                if (i % 5 != 1)
+                    writer2.write(alignment);
+                else
+                    ++onlyIn1;
+            }
+            writer1.setNumberOfProcessedReads(align.totalNumberOfReads);
+            writer2.setNumberOfProcessedReads(align.totalNumberOfReads);
+        }
+
+        // Saving small-step indices, so that files are split into many ranges
+        File index1 = VDJCAlignmentsIndex.getIndexFile(file1), index2 = VDJCAlignmentsIndex.getIndexFile(file2);
+        try {
+            VDJCAlignmentsIndex.build(file1, VDJCLibraryRegistry.getDefault(), 3).save(index1);
+            VDJCAlignmentsIndex.build(file2, VDJCLibraryRegistry.getDefault(), 4).save(index2);
+
+            List<Diff> sequential = new ArrayList<>();
+            VDJCAlignmentsDifferenceReader reader = new VDJCAlignmentsDifferenceReader(file1.getPath(),
+                    file2.getPath(), GeneFeature.CDR3, 1);
+            Diff d;
+            while ((d = reader.take()) != null)
+                if (d.status != DiffStatus.AlignmentsAreSame)
+                    sequential.add(d);
+
+            for (int threads : new int[]{1, 3}) {
+                ParallelVDJCAlignmentsDiff diff = new ParallelVDJCAlignmentsDiff(file1, file2, GeneFeature.CDR3, 1,
+                        VDJCLibraryRegistry.getDefault());
+                diff.setThreads(threads);
+                diff.setRangeSize(2);
+                diff.setSaveIndex(false);
+
+                final List<Diff> differences = new ArrayList<>();
+                ParallelVDJCAlignmentsDiff.Summary summary = diff.run(new InputPort<Diff>() {
+                    @Override
+                    public void put(Diff diff) {
+                        if (diff != null)
+                            differences.add(diff);
+                    }
+                }, 1000);
+
+                Assert.assertEquals(onlyIn1, summary.onlyInFirst);
+                Assert.assertEquals(onlyIn2, summary.onlyInSecond);
+                Assert.assertEquals(0, summary.different);
+                Assert.assertEquals(align.alignments.size() - onlyIn1 - onlyIn2, summary.same);
+                Assert.assertEquals(align.totalNumberOfReads, summary.numberOfReads1);
+                Assert.assertEquals(align.totalNumberOfReads, summary.numberOfReads2);
+
+                Assert.assertEquals(sequential.size(), differences.size());
+                for (int i = 0; i < sequential.size(); i++) {
+                    Assert.assertEquals(sequential.get(i).status, differences.get(i).status);
+                    VDJCAlignments expected = sequential.get(i).status == DiffStatus.AlignmentPresentOnlyInFirst ?
+                            sequential.get(i).first : sequential.get(i).second;
+                    VDJCAlignments actual = differences.get(i).status == DiffStatus.AlignmentPresentOnlyInFirst ?
+                            differences.get(i).first : differences.get(i).second;
+                    Assert.assertEquals(expected.getReadId(), actual.getReadId());
+                }
+            }
+        } finally {
+            index1.delete();
+            index2.delete();
+        }
+    }
+}
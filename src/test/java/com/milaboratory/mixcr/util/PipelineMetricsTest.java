@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.util;
+
+import cc.redberry.pipe.OutputPort;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelineMetricsTest {
+    @After
+    public void tearDown() throws Exception {
+        PipelineMetrics.reset();
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        PipelineMetrics.reset();
+        OutputPort<Integer> port = new RangePort(10);
+        Assert.assertSame(port, PipelineMetrics.countRecords(port));
+        try (PipelineMetrics.Stage stage = PipelineMetrics.begin("A")) {
+            Assert.assertFalse(stage.isOpen());
+            stage.addRecords(10);
+            Assert.assertEquals(0, stage.getRecords());
+        }
+        Assert.assertNull(PipelineMetrics.current());
+    }
+
+    @Test
+    public void testStages() throws Exception {
+        PipelineMetrics.enable();
+        try (PipelineMetrics.Stage outer = PipelineMetrics.begin("Outer")) {
+            outer.addBytesRead(100);
+            try (PipelineMetrics.Stage inner = PipelineMetrics.begin("Inner")) {
+                Assert.assertSame(inner, PipelineMetrics.current());
+                OutputPort<Integer> port = PipelineMetrics.buffered("numbers",
+                        PipelineMetrics.countRecords(new RangePort(10000)), 16);
+                long sum = 0;
+                Integer i;
+                while ((i = port.take()) != null)
+                    sum += i;
+                Assert.assertEquals(10000L * 9999 / 2, sum);
+                PipelineMetrics.addBytesWritten(42);
+            }
+            Assert.assertSame(outer, PipelineMetrics.current());
+        }
+        Assert.assertNull(PipelineMetrics.current());
+
+        ObjectNode json = PipelineMetrics.toJson("test", null);
+        JsonNode stages = json.get("stages");
+        Assert.assertEquals(2, stages.size());
+
+        JsonNode outer = stages.get(0);
+        Assert.assertEquals("Outer", outer.get("name").asText());
+        Assert.assertEquals(0, outer.get("depth").asInt());
+        Assert.assertEquals(100, outer.get("bytesRead").asLong());
+        Assert.assertEquals(0, outer.get("bytesWritten").asLong());
+        Assert.assertNull(outer.get("queues"));
+
+        JsonNode inner = stages.get(1);
+        Assert.assertEquals("Inner", inner.get("name").asText());
+        Assert.assertEquals(1, inner.get("depth").asInt());
+        Assert.assertEquals(10000, inner.get("records").asLong());
+        Assert.assertEquals(42, inner.get("bytesWritten").asLong());
+        JsonNode queue = inner.get("queues").get(0);
+        Assert.assertEquals("numbers", queue.get("name").asText());
+        Assert.assertEquals(16, queue.get("capacity").asInt());
+        Assert.assertEquals(10000, queue.get("transferred").asLong());
+        Assert.assertTrue(queue.get("maxDepth").asLong() <= 17);
+    }
+
+    @Test
+    public void testExplicitStage() throws Exception {
+        PipelineMetrics.enable();
+        PipelineMetrics.Stage first = PipelineMetrics.begin("First");
+        // e.g. opened by another thread, so it is the current one
+        try (PipelineMetrics.Stage second = PipelineMetrics.begin("Second")) {
+            Assert.assertSame(second, PipelineMetrics.current());
+            OutputPort<Integer> port = first.buffered("numbers", first.countRecords(new RangePort(1000)), 16);
+            while (port.take() != null) ;
+            first.close();
+            Assert.assertEquals(1000, first.getRecords());
+            Assert.assertEquals(0, second.getRecords());
+        }
+
+        JsonNode stages = PipelineMetrics.toJson("test", null).get("stages");
+        Assert.assertEquals("numbers", stages.get(0).get("queues").get(0).get("name").asText());
+        Assert.assertNull(stages.get(1).get("queues"));
+    }
+
+    private static final class RangePort implements OutputPort<Integer> {
+        final int size;
+        int current = 0;
+
+        RangePort(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public synchronized Integer take() {
+            return current == size ? null : current++;
+        }
+    }
+}
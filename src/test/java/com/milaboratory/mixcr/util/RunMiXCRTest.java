@@ -59,6 +59,49 @@ public class RunMiXCRTest {
             Assert.assertEquals(assemble.cloneSet.get(i), read.get(i));
     }
 
+    @Test
+    public void testCloneSetReader() throws Exception {
+        RunMiXCR.RunMiXCRAnalysis params = new RunMiXCR.RunMiXCRAnalysis(
+                RunMiXCR.class.getResource("/sequences/test_R1.fastq").getFile(),
+                RunMiXCR.class.getResource("/sequences/test_R2.fastq").getFile());
+
+        RunMiXCR.AlignResult align = RunMiXCR.align(params);
+        RunMiXCR.AssembleResult assemble = RunMiXCR.assemble(align);
+        CloneSet cloneSet = assemble.cloneSet;
+
+        File tempFile = TempFileManager.getTempFile();
+        CloneSetIO.write(cloneSet, tempFile);
+
+        try (CloneSetIO.CloneSetReader reader = new CloneSetIO.CloneSetReader(tempFile.getAbsolutePath())) {
+            Assert.assertEquals(cloneSet.size(), reader.getNumberOfClones());
+            Assert.assertEquals(cloneSet.getTotalCount(), reader.getTotalCount());
+            Assert.assertTrue(reader.isSortedByCount());
+            int i = 0;
+            for (Clone clone : CUtils.it(reader)) {
+                Assert.assertEquals(cloneSet.get(i), clone);
+                Assert.assertEquals(cloneSet.get(i).getFraction(), clone.getFraction(), 0.0);
+                ++i;
+            }
+            Assert.assertEquals(cloneSet.size(), i);
+        }
+
+        long minCount = cloneSet.get(cloneSet.size() / 2).getCount();
+        int expected = 0;
+        while (expected < cloneSet.size() && cloneSet.get(expected).getCount() >= minCount)
+            ++expected;
+
+        try (CloneSetIO.CloneSetReader reader = new CloneSetIO.CloneSetReader(tempFile.getAbsolutePath())) {
+            reader.setThresholds(minCount, 0.0);
+            int i = 0;
+            for (Clone clone : CUtils.it(reader)) {
+                Assert.assertEquals(cloneSet.get(i), clone);
+                ++i;
+            }
+            Assert.assertEquals(expected, i);
+            Assert.assertTrue(reader.isFinished());
+        }
+    }
+
     //@Test
     //public void testt() throws Exception {
     //    try {
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import com.milaboratory.core.merger.MergerParameters;
+import com.milaboratory.core.sequence.NSequenceWithQuality;
+import com.milaboratory.core.sequence.NucleotideSequence;
+import com.milaboratory.core.sequence.SequenceQuality;
+import com.milaboratory.test.TestUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdaptiveMergerTest {
+    static PairedRead createPair(long id, NucleotideSequence R1, NucleotideSequence R2) {
+        return new PairedRead(
+                new SingleReadImpl(id, new NSequenceWithQuality(R1, SequenceQuality.getUniformQuality((byte) 25, R1.size())), "R1"),
+                new SingleReadImpl(id, new NSequenceWithQuality(R2, SequenceQuality.getUniformQuality((byte) 25, R2.size())), "R2"));
+    }
+
+    static MergerParameters mergerParameters() {
+        return VDJCParametersPresets.getByName("default").getMergerParameters()
+                .overrideReadsLayout(VDJCParametersPresets.getByName("default").getReadsLayout());
+    }
+
+    static PairedRead createOverlapping(long id, Random random, int overlap) {
+        NucleotideSequence fragment = TestUtil.randomSequence(NucleotideSequence.ALPHABET, random,
+                200 - overlap, 200 - overlap);
+        return createPair(id, fragment.getRange(0, 100),
+                fragment.getRange(fragment.size() - 100, fragment.size()).getReverseComplement());
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        Random random = new Random(123);
+        AdaptiveMerger merger = new AdaptiveMerger(mergerParameters(), 100, 0.01);
+        for (int i = 0; i < 200; i++) {
+            NucleotideSequence fragment = TestUtil.randomSequence(NucleotideSequence.ALPHABET, random, 500, 500);
+            PairedRead read = createPair(i, fragment.getRange(0, 100),
+                    fragment.getRange(400, 500).getReverseComplement());
+            if (i < 100)
+                Assert.assertEquals(i < 99, merger.sample(read));
+            else
+                Assert.assertNull(merger.process(read));
+        }
+        Assert.assertTrue(merger.isMergingSkipped());
+        Assert.assertEquals(100, merger.notChecked.get());
+    }
+
+    @Test
+    public void testConfiguredMinimalOverlapIsKept() throws Exception {
+        Random random = new Random(123);
+        AdaptiveMerger merger = new AdaptiveMerger(mergerParameters(), 100, 0.01);
+        for (int i = 0; i < 100; i++)
+            merger.sample(createOverlapping(i, random, 50));
+        Assert.assertFalse(merger.isSampling());
+        Assert.assertFalse(merger.isMergingSkipped());
+        Assert.assertEquals(50, merger.minOverlap);
+        // Overlaps shorter than any overlap in the sample are still found
+        for (int i = 100; i < 200; i++)
+            Assert.assertTrue(merger.process(createOverlapping(i, random, 30)).isSuccessful());
+    }
+
+    @Test
+    public void testInputShorterThanSample() throws Exception {
+        Random random = new Random(123);
+        AdaptiveMerger merger = new AdaptiveMerger(mergerParameters(), 100, 0.01);
+        for (int i = 0; i < 10; i++)
+            Assert.assertTrue(merger.sample(createOverlapping(i, random, 50)));
+        Assert.assertTrue(merger.isSampling());
+        merger.decide();
+        Assert.assertFalse(merger.isSampling());
+        Assert.assertFalse(merger.isMergingSkipped());
+        Assert.assertEquals(10, merger.sampled);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testProcessBeforeDecision() throws Exception {
+        AdaptiveMerger merger = new AdaptiveMerger(mergerParameters(), 100, 0.01);
+        merger.process(createOverlapping(0, new Random(123), 50));
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrent() throws Exception {
+        Random random = new Random(123);
+        final AdaptiveMerger merger = new AdaptiveMerger(mergerParameters(), 100, 0.01);
+        for (int i = 0; i < 100; i++)
+            merger.sample(createOverlapping(i, random, 50));
+        final List<PairedRead> reads = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            reads.add(createOverlapping(i, random, 50));
+        final AtomicInteger next = new AtomicInteger(), successful = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while ((i = next.getAndIncrement()) < reads.size())
+                        if (merger.process(reads.get(i)).isSuccessful())
+                            successful.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(reads.size(), successful.get());
+        Assert.assertEquals(100, merger.sampled);
+        Assert.assertEquals(100, merger.overlapped);
+    }
+}
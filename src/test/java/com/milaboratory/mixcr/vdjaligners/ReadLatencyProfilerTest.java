@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import com.milaboratory.core.io.sequence.SequenceRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class ReadLatencyProfilerTest {
+    @Test
+    public void testBuckets() throws Exception {
+        Random random = new Random(123);
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            int bucket = ReadLatencyProfiler.bucket(value);
+            Assert.assertTrue(bucket == previous || bucket == previous + 1);
+            previous = bucket;
+        }
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = ReadLatencyProfiler.bucket(value);
+            Assert.assertTrue(bucket < ReadLatencyProfiler.NUMBER_OF_BUCKETS);
+            long lower = ReadLatencyProfiler.bucketLowerBound(bucket),
+                    upper = ReadLatencyProfiler.bucketUpperBound(bucket);
+            Assert.assertTrue(lower <= value && value <= upper);
+            Assert.assertTrue(upper - lower <= lower / ReadLatencyProfiler.SUB_BUCKETS);
+        }
+        Assert.assertEquals(ReadLatencyProfiler.NUMBER_OF_BUCKETS - 1, ReadLatencyProfiler.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuantiles() throws Exception {
+        ReadLatencyProfiler profiler = new ReadLatencyProfiler(0);
+        ReadLatencyProfiler.ThreadState state = profiler.state.get();
+        for (int i = 1; i <= 1000; i++)
+            state.record(ReadLatencyProfiler.PAIRED, i * 1000, null);
+        Assert.assertEquals(1000, profiler.getCount(ReadLatencyProfiler.PAIRED));
+        Assert.assertEquals(0, profiler.getCount(0));
+        Assert.assertEquals(-1, profiler.getQuantile(0, 0.5));
+        assertApproximately(500_000, profiler.getQuantile(ReadLatencyProfiler.PAIRED, 0.5));
+        assertApproximately(990_000, profiler.getQuantile(ReadLatencyProfiler.PAIRED, 0.99));
+        assertApproximately(1000_000, profiler.getQuantile(ReadLatencyProfiler.PAIRED, 1.0));
+        Assert.assertTrue(profiler.getSlowestReads().isEmpty());
+    }
+
+    @Test
+    public void testNestedCalls() throws Exception {
+        ReadLatencyProfiler profiler = new ReadLatencyProfiler(10);
+        ReadLatencyProfiler.ThreadState outer = profiler.enter();
+        ReadLatencyProfiler.ThreadState inner = profiler.enter();
+        profiler.markPath(ReadLatencyProfiler.PARTIAL);
+        profiler.exit(inner, null);
+        profiler.markPath(ReadLatencyProfiler.MERGED);
+        profiler.exit(outer, null);
+        Assert.assertEquals(1, profiler.getCount(ReadLatencyProfiler.MERGED | ReadLatencyProfiler.PARTIAL));
+        Assert.assertEquals(1, profiler.getSlowestReads().size());
+        Assert.assertEquals("merged, partial, VThenJ",
+                ReadLatencyProfiler.pathName(profiler.getSlowestReads().get(0).path));
+    }
+
+    @Test
+    public void testSlowestReads() throws Exception {
+        final ReadLatencyProfiler profiler = new ReadLatencyProfiler(3);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ReadLatencyProfiler.ThreadState state = profiler.state.get();
+                    for (int i = 0; i < 100; i++)
+                        state.record(0, 1 + i * threads.length + offset, null);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(400, profiler.getCount(0));
+        List<ReadLatencyProfiler.SlowRead> slowest = profiler.getSlowestReads();
+        Assert.assertEquals(3, slowest.size());
+        Assert.assertEquals(400, slowest.get(0).latency);
+        Assert.assertEquals(399, slowest.get(1).latency);
+        Assert.assertEquals(398, slowest.get(2).latency);
+    }
+
+    @Test
+    public void testReadIdOffsets() throws Exception {
+        ReadLatencyProfiler profiler = new ReadLatencyProfiler(2);
+        ReadLatencyProfiler.ThreadState state = profiler.state.get();
+        profiler.setSource(1);
+        state.record(0, 100, new SingleReadImpl(5, null, "a"));
+        profiler.setSource(0);
+        state.record(0, 50, new SingleReadImpl(7, null, "b"));
+        profiler.setReadIdOffsets(new long[]{0, 1000});
+        List<ReadLatencyProfiler.SlowRead> slowest = profiler.getSlowestReads();
+        Assert.assertEquals(1005, slowest.get(0).getReadId());
+        Assert.assertEquals(7, slowest.get(1).getReadId());
+        SequenceRead annotated = slowest.get(0).getAnnotatedRead();
+        Assert.assertEquals(1005, annotated.getId());
+        Assert.assertEquals("read=1005 latency=0us path=single/strict/VThenJ a",
+                annotated.getRead(0).getDescription());
+    }
+
+    private static void assertApproximately(long expected, long actual) {
+        Assert.assertTrue(expected + " ~ " + actual, Math.abs(expected - actual) <= expected / ReadLatencyProfiler.SUB_BUCKETS);
+    }
+}
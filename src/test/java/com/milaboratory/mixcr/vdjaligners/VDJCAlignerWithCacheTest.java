@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014-2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.milaboratory.mixcr.vdjaligners;
+
+import cc.redberry.pipe.CUtils;
+import com.milaboratory.core.io.sequence.PairedRead;
+import com.milaboratory.core.io.sequence.SingleReadImpl;
+import com.milaboratory.core.io.sequence.fastq.PairedFastqReader;
+import com.milaboratory.mixcr.basictypes.VDJCAlignments;
+import com.milaboratory.mixcr.cli.AlignerReport;
+import io.repseq.core.Chains;
+import io.repseq.core.GeneType;
+import io.repseq.core.VDJCGene;
+import io.repseq.core.VDJCLibraryRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VDJCAlignerWithCacheTest {
+    @Test
+    public void test1() throws Exception {
+        VDJCAlignerParameters parameters = VDJCParametersPresets.getByName("default");
+
+        VDJCAlignerWithMerge merge = new VDJCAlignerWithMerge(parameters);
+        for (VDJCGene gene : VDJCLibraryRegistry.getDefault().getLibrary("default", "hs").getGenes(Chains.IGH))
+            if (parameters.containsRequiredFeature(gene))
+                merge.addGene(gene);
+        VDJCAlignerWithCache<PairedRead> aligner = new VDJCAlignerWithCache<>(merge, 1000);
+        AlignerReport report = new AlignerReport();
+        aligner.setEventsListener(report);
+
+        List<PairedRead> reads = new ArrayList<>();
+        try (PairedFastqReader reader =
+                     new PairedFastqReader(
+                             VDJCAlignerSTest.class.getClassLoader()
+                                     .getResourceAsStream("sequences/sample_IGH_R1.fastq"),
+                             VDJCAlignerSTest.class.getClassLoader()
+                                     .getResourceAsStream("sequences/sample_IGH_R2.fastq"), true)) {
+            for (PairedRead read : CUtils.it(reader))
+                reads.add(read);
+        }
+
+        int aligned = 0;
+        for (PairedRead read : reads) {
+            VDJCAlignments original = aligner.process(read).alignment;
+            PairedRead copy = new PairedRead(
+                    new SingleReadImpl(read.getId() + reads.size(), read.getR1().getData(), "copy"),
+                    new SingleReadImpl(read.getId() + reads.size(), read.getR2().getData(), "copy"));
+            VDJCAlignments cached = aligner.process(copy).alignment;
+            if (original == null) {
+                Assert.assertNull(cached);
+                continue;
+            }
+            ++aligned;
+            Assert.assertEquals(read.getId() + reads.size(), cached.getReadId());
+            Assert.assertEquals(original.numberOfTargets(), cached.numberOfTargets());
+            for (int i = 0; i < original.numberOfTargets(); i++)
+                Assert.assertEquals(original.getTarget(i), cached.getTarget(i));
+            for (GeneType gt : GeneType.VJC_REFERENCE)
+                Assert.assertArrayEquals(original.getHits(gt), cached.getHits(gt));
+        }
+
+        Assert.assertTrue(aligned > 10);
+        Assert.assertEquals(reads.size(), aligner.getHits());
+        Assert.assertEquals(2 * reads.size(), report.getTotal());
+        Assert.assertEquals(2 * aligned, report.getSuccesses());
+    }
+
+    @Test(timeout = 60000)
+    public void testAdaptiveMerging() throws Exception {
+        VDJCAlignerParameters parameters = VDJCParametersPresets.getByName("default");
+
+        VDJCAlignerWithMerge merge = new VDJCAlignerWithMerge(parameters);
+        for (VDJCGene gene : VDJCLibraryRegistry.getDefault().getLibrary("default", "hs").getGenes(Chains.IGH))
+            if (parameters.containsRequiredFeature(gene))
+                merge.addGene(gene);
+
+        // Each read is immediately followed by its duplicate
+        final List<PairedRead> reads = new ArrayList<>();
+        try (PairedFastqReader reader =
+                     new PairedFastqReader(
+                             VDJCAlignerSTest.class.getClassLoader()
+                                     .getResourceAsStream("sequences/sample_IGH_R1.fastq"),
+                             VDJCAlignerSTest.class.getClassLoader()
+                                     .getResourceAsStream("sequences/sample_IGH_R2.fastq"), true)) {
+            for (PairedRead read : CUtils.it(reader)) {
+                long id = reads.size();
+                reads.add(new PairedRead(
+                        new SingleReadImpl(id, read.getR1().getData(), ""),
+                        new SingleReadImpl(id, read.getR2().getData(), "")));
+                reads.add(new PairedRead(
+                        new SingleReadImpl(id + 1, read.getR1().getData(), ""),
+                        new SingleReadImpl(id + 1, read.getR2().getData(), "")));
+            }
+        }
+
+        // Sample is collected on the first reads of the input (duplicates included) before alignment
+        int sampleSize = reads.size() / 2 + 1;
+        AdaptiveMerger adaptiveMerger = merge.setAdaptiveMerging(sampleSize, 0.001);
+        for (PairedRead read : reads)
+            if (!adaptiveMerger.sample(read))
+                break;
+        Assert.assertFalse(adaptiveMerger.isSampling());
+        Assert.assertEquals(sampleSize, adaptiveMerger.sampled);
+
+        final VDJCAlignerWithCache<PairedRead> aligner = new VDJCAlignerWithCache<>(merge, 1000);
+        AlignerReport report = new AlignerReport();
+        aligner.setEventsListener(report);
+
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while ((i = next.getAndIncrement()) < reads.size())
+                        aligner.process(reads.get(i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        Assert.assertEquals(reads.size(), report.getTotal());
+        Assert.assertTrue(aligner.getHits() > 0);
+        Assert.assertEquals(sampleSize, adaptiveMerger.sampled);
+    }
+}